@@ -64,6 +64,10 @@ public class ManagedLedgerConfig {
     private DigestType digestType = DigestType.CRC32C;
     private byte[] password = "".getBytes(Charsets.UTF_8);
     private boolean unackedRangesOpenCacheSetEnabled = true;
+    private boolean unackedRangesCompactEncodingEnabled = false;
+    private boolean unackedRangesRoaringSetEnabled = false;
+    private boolean cursorPositionBatchingEnabled = false;
+    private boolean addEntryQueueEnabled = false;
     private Class<? extends EnsemblePlacementPolicy>  bookKeeperEnsemblePlacementPolicyClassName;
     private Map<String, Object> bookKeeperEnsemblePlacementPolicyProperties;
     private LedgerOffloader ledgerOffloader = NullLedgerOffloader.INSTANCE;
@@ -253,6 +257,87 @@ public class ManagedLedgerConfig {
         return this;
     }
 
+    /**
+     * should store the unacked ranges in the cursor ledger with a compact per-ledger encoding (runs or bitmap) rather
+     * than as a list of position pairs.
+     * @return
+     */
+    public boolean isUnackedRangesCompactEncodingEnabled() {
+        return unackedRangesCompactEncodingEnabled;
+    }
+
+    /**
+     * Store the unacked ranges in the cursor ledger with a compact per-ledger encoding. The cursors persisted this way
+     * can only be recovered with their unacked ranges by brokers supporting the encoding.
+     *
+     * @param unackedRangesCompactEncodingEnabled
+     */
+    public ManagedLedgerConfig setUnackedRangesCompactEncodingEnabled(boolean unackedRangesCompactEncodingEnabled) {
+        this.unackedRangesCompactEncodingEnabled = unackedRangesCompactEncodingEnabled;
+        return this;
+    }
+
+    /**
+     * should use {@link RoaringLongPairRangeSet} to store unacked ranges.
+     * @return
+     */
+    public boolean isUnackedRangesRoaringSetEnabled() {
+        return unackedRangesRoaringSetEnabled;
+    }
+
+    /**
+     * Store the unacked ranges in a {@link RoaringLongPairRangeSet}, whose memory depends on the number of ranges rather
+     * than on the highest entry id, and which counts its ranges in constant time. Takes precedence over
+     * {@link #setUnackedRangesOpenCacheSetEnabled(boolean)}.
+     *
+     * @param unackedRangesRoaringSetEnabled
+     */
+    public ManagedLedgerConfig setUnackedRangesRoaringSetEnabled(boolean unackedRangesRoaringSetEnabled) {
+        this.unackedRangesRoaringSetEnabled = unackedRangesRoaringSetEnabled;
+        return this;
+    }
+
+    /**
+     * should persist the mark-delete positions of all the cursors into one ledger shared by the cursors.
+     * @return
+     */
+    public boolean isCursorPositionBatchingEnabled() {
+        return cursorPositionBatchingEnabled;
+    }
+
+    /**
+     * Persist the mark-delete positions of all the cursors of the managed ledger into one shared ledger, instead of
+     * one ledger per cursor. The positions updated while a write is in progress are written together in the next
+     * entry, so the number of writes doesn't grow with the number of cursors. The cursors persisted this way can only
+     * be recovered by brokers supporting the shared ledger.
+     *
+     * @param cursorPositionBatchingEnabled
+     */
+    public ManagedLedgerConfig setCursorPositionBatchingEnabled(boolean cursorPositionBatchingEnabled) {
+        this.cursorPositionBatchingEnabled = cursorPositionBatchingEnabled;
+        return this;
+    }
+
+    /**
+     * should queue the added entries and move them to the ledger in batches.
+     * @return
+     */
+    public boolean isAddEntryQueueEnabled() {
+        return addEntryQueueEnabled;
+    }
+
+    /**
+     * Queue the entries added to the managed ledger in a lock-free queue, drained in batches by a single task of the
+     * ordered executor, instead of submitting one task per entry. The entries keep the order in which they were added,
+     * and each entry is still written separately to the ledger.
+     *
+     * @param addEntryQueueEnabled
+     */
+    public ManagedLedgerConfig setAddEntryQueueEnabled(boolean addEntryQueueEnabled) {
+        this.addEntryQueueEnabled = addEntryQueueEnabled;
+        return this;
+    }
+
     /**
      * @return the metadataEnsemblesize
      */
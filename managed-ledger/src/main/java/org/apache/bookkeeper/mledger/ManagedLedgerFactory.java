@@ -19,6 +19,8 @@
 package org.apache.bookkeeper.mledger;
 
 import com.google.common.annotations.Beta;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ManagedLedgerInfoCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenLedgerCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.OpenReadOnlyCursorCallback;
@@ -82,6 +84,20 @@ public interface ManagedLedgerFactory {
      */
     void asyncOpen(String name, ManagedLedgerConfig config, OpenLedgerCallback callback, Object ctx);
 
+    /**
+     * Read ahead the metadata of a batch of managed ledgers about to be opened, and of their cursors.
+     *
+     * <p/>The reads are pipelined on the metadata store, up to
+     * {@link ManagedLedgerFactoryConfig#getMetadataPrefetchMaxConcurrentReads()} reads at a time. The next opens of
+     * these managed ledgers recover from the metadata read ahead instead of waiting on the metadata store round-trips
+     * one after the other.
+     *
+     * @param names
+     *            the unique names that identify the managed ledgers
+     * @return a future completed once the metadata has been read
+     */
+    CompletableFuture<Void> asyncPrefetchMetadata(Collection<String> names);
+
     /**
      * Open a {@link ReadOnlyCursor} positioned to the earliest entry for the specified managed ledger
      *
@@ -56,4 +56,55 @@ public class ManagedLedgerFactoryConfig {
      * Whether we should make a copy of the entry payloads when inserting in cache
      */
     private boolean copyEntriesInCache = false;
+
+    /**
+     * Size of the off-heap slabs into which the copies of the cached entries of a ledger are packed, when
+     * copyEntriesInCache is set. 0 means that each entry is copied into its own buffer
+     */
+    private int cacheSlabSize = 0;
+
+    /**
+     * Whether the cache eviction should sweep a clock over the per-ledger segments of all the caches, evicting from
+     * the segments that were not read recently, instead of evicting proportionally from the biggest caches
+     */
+    private boolean cacheEvictionClockSweep = false;
+
+    /**
+     * Memory budget shared by the read-ahead buffers of the cursors replaying their backlog sequentially. 0 disables
+     * the read-ahead
+     */
+    private long readAheadMaxSize = 0;
+
+    /**
+     * Maximum number of read batches prefetched ahead of a cursor replaying its backlog sequentially
+     */
+    private int readAheadMaxBatches = 4;
+
+    /**
+     * Whether the reads of entries missing from the cache should share the reads of the same entries already in
+     * progress on the bookies, instead of issuing their own
+     */
+    private boolean shareConcurrentReads = false;
+
+    /**
+     * Maximum number of metadata reads in progress at the same time when reading ahead the metadata of a batch of
+     * managed ledgers
+     */
+    private int metadataPrefetchMaxConcurrentReads = 100;
+
+    /**
+     * Maximum size of the tier of the cache on local disk, which receives the entries evicted from memory. 0 disables
+     * the tier
+     */
+    private long cacheDiskTierMaxSize = 0;
+
+    /**
+     * Directory where the memory-mapped segment files of the local disk tier of the cache are kept
+     */
+    private String cacheDiskTierDirectory = "data/managed-ledger-cache";
+
+    /**
+     * Size of the memory-mapped segment files of the local disk tier of the cache
+     */
+    private int cacheDiskTierSegmentSize = (int) (64 * MB);
 }
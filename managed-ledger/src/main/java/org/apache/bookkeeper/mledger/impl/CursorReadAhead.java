@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.api.LastConfirmedAndEntry;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-ahead buffer of a cursor catching up with its backlog.
+ *
+ * <p/>The buffer sits between the {@link EntryCacheImpl} and the ledger handle, so it only sees the reads of the
+ * cursor that missed the cache. Once a few of them have been issued back to back, each one starting where the
+ * previous one ended, the cursor is considered to be replaying its backlog sequentially and the following batches of
+ * the ledger are fetched from the bookies ahead of time. The next reads of the cursor are then served from memory
+ * while the bookies are already working on the batches after them.
+ *
+ * <p/>The number of prefetched batches grows with the length of the sequential run, up to the configured maximum,
+ * and the memory held by the buffers of all the cursors is bounded by the read-ahead budget of the
+ * {@link EntryCacheManager}.
+ */
+class CursorReadAhead {
+
+    // Number of back to back reads after which a cursor is considered to be a sequential reader
+    static final int SEQUENTIAL_READS_THRESHOLD = 2;
+
+    private final EntryCacheManager manager;
+
+    // Position right after the last read issued by the cursor
+    private long nextLedgerId = -1;
+    private long nextEntryId = -1;
+    private int sequentialReads = 0;
+
+    private Prefetch prefetch = null;
+
+    CursorReadAhead(EntryCacheManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Wraps the handle of a ledger so that the reads going to the bookies through it are served by this buffer.
+     *
+     * @param lh
+     *            the handle of the ledger being read
+     * @param lastEntryInLedger
+     *            the last entry of the ledger that is visible to the readers, above which nothing is prefetched
+     */
+    ReadHandle wrap(ReadHandle lh, long lastEntryInLedger) {
+        return new ReadAheadHandle(lh, lastEntryInLedger);
+    }
+
+    synchronized CompletableFuture<LedgerEntries> readAhead(ReadHandle lh, long lastEntryInLedger, long firstEntry,
+            long lastEntry) {
+        final long ledgerId = lh.getId();
+        if (ledgerId == nextLedgerId && firstEntry == nextEntryId) {
+            sequentialReads++;
+        } else {
+            sequentialReads = 1;
+        }
+        nextLedgerId = ledgerId;
+        nextEntryId = lastEntry + 1;
+
+        final Prefetch current = prefetch;
+        if (current != null && current.covers(ledgerId, firstEntry)) {
+            CompletableFuture<LedgerEntries> future = current.future.thenCompose(ignore -> {
+                LedgerEntries entries = take(current, firstEntry, lastEntry);
+                return entries != null ? CompletableFuture.completedFuture(entries)
+                        : lh.readAsync(firstEntry, lastEntry);
+            });
+
+            if (lastEntry >= current.lastEntry) {
+                // The prefetched batches are about to be exhausted, keep the bookies busy with the next ones
+                prefetch = null;
+                future.whenComplete((entries, exception) -> release(current));
+                startPrefetch(lh, lastEntryInLedger, current.lastEntry + 1, lastEntry - firstEntry + 1);
+            }
+            return future;
+        }
+
+        // The read is not covered by what we fetched ahead, the cursor has moved elsewhere
+        discard();
+
+        CompletableFuture<LedgerEntries> future = lh.readAsync(firstEntry, lastEntry);
+        if (sequentialReads >= SEQUENTIAL_READS_THRESHOLD) {
+            startPrefetch(lh, lastEntryInLedger, lastEntry + 1, lastEntry - firstEntry + 1);
+        }
+        return future;
+    }
+
+    private void startPrefetch(ReadHandle lh, long lastEntryInLedger, long firstEntry, long batchSize) {
+        if (firstEntry > lastEntryInLedger || !manager.hasSpaceForReadAhead()) {
+            return;
+        }
+
+        int batches = Math.min(manager.getReadAheadMaxBatches(), sequentialReads - SEQUENTIAL_READS_THRESHOLD + 1);
+        long lastEntry = Math.min(firstEntry + batches * batchSize - 1, lastEntryInLedger);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Prefetching entries of ledger {}: {} to {}", lh.getId(), firstEntry, lastEntry);
+        }
+
+        final Prefetch p = new Prefetch(lh.getId(), firstEntry, lastEntry);
+        prefetch = p;
+        lh.readAsync(firstEntry, lastEntry).whenComplete((ledgerEntries, exception) -> {
+            if (exception != null) {
+                // The cursor will read the entries itself and get the error, if it's not a transient one
+                log.debug("Failed to prefetch entries of ledger {}: {} to {}", p.ledgerId, p.firstEntry,
+                        p.lastEntry, exception);
+            } else {
+                try {
+                    p.fill(ledgerEntries);
+                } finally {
+                    ledgerEntries.close();
+                }
+            }
+            p.future.complete(null);
+        });
+    }
+
+    /**
+     * Hands over the prefetched entries from firstEntry up to lastEntry, dropping the ones before firstEntry.
+     *
+     * @return the entries, or null if none of them was prefetched
+     */
+    private LedgerEntries take(Prefetch p, long firstEntry, long lastEntry) {
+        List<LedgerEntry> taken = new ArrayList<>();
+        long takenSize = 0;
+        synchronized (p) {
+            LedgerEntry entry;
+            while ((entry = p.entries.peekFirst()) != null && entry.getEntryId() <= lastEntry) {
+                p.entries.pollFirst();
+                takenSize += entry.getLength();
+                if (entry.getEntryId() < firstEntry) {
+                    entry.close();
+                } else {
+                    taken.add(entry);
+                }
+            }
+        }
+        manager.updateReadAheadSize(-takenSize);
+        return taken.isEmpty() ? null : LedgerEntriesImpl.create(taken);
+    }
+
+    private void release(Prefetch p) {
+        long releasedSize = 0;
+        synchronized (p) {
+            LedgerEntry entry;
+            while ((entry = p.entries.pollFirst()) != null) {
+                releasedSize += entry.getLength();
+                entry.close();
+            }
+        }
+        manager.updateReadAheadSize(-releasedSize);
+    }
+
+    private void discard() {
+        Prefetch current = prefetch;
+        if (current != null) {
+            prefetch = null;
+            current.future.thenRun(() -> release(current));
+        }
+    }
+
+    /**
+     * Drops the prefetched entries, when the cursor is closed or deleted.
+     */
+    synchronized void clear() {
+        discard();
+        nextLedgerId = -1;
+        nextEntryId = -1;
+        sequentialReads = 0;
+    }
+
+    private final class Prefetch {
+        final long ledgerId;
+        final long firstEntry;
+        final long lastEntry;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final ArrayDeque<LedgerEntry> entries = new ArrayDeque<>();
+
+        Prefetch(long ledgerId, long firstEntry, long lastEntry) {
+            this.ledgerId = ledgerId;
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+        }
+
+        boolean covers(long ledgerId, long entryId) {
+            return this.ledgerId == ledgerId && firstEntry <= entryId && entryId <= lastEntry;
+        }
+
+        synchronized void fill(LedgerEntries ledgerEntries) {
+            long size = 0;
+            for (LedgerEntry entry : ledgerEntries) {
+                entries.addLast(entry.duplicate());
+                size += entry.getLength();
+            }
+            manager.updateReadAheadSize(size);
+        }
+    }
+
+    /**
+     * Handle of a ledger whose range reads are routed through the read-ahead buffer.
+     */
+    private final class ReadAheadHandle implements ReadHandle {
+        private final ReadHandle lh;
+        private final long lastEntryInLedger;
+
+        ReadAheadHandle(ReadHandle lh, long lastEntryInLedger) {
+            this.lh = lh;
+            this.lastEntryInLedger = lastEntryInLedger;
+        }
+
+        @Override
+        public CompletableFuture<LedgerEntries> readAsync(long firstEntry, long lastEntry) {
+            if (firstEntry == lastEntry) {
+                // Single entry reads are not part of a catch-up
+                return lh.readAsync(firstEntry, lastEntry);
+            }
+            return readAhead(lh, lastEntryInLedger, firstEntry, lastEntry);
+        }
+
+        @Override
+        public CompletableFuture<LedgerEntries> readUnconfirmedAsync(long firstEntry, long lastEntry) {
+            return lh.readUnconfirmedAsync(firstEntry, lastEntry);
+        }
+
+        @Override
+        public CompletableFuture<Long> readLastAddConfirmedAsync() {
+            return lh.readLastAddConfirmedAsync();
+        }
+
+        @Override
+        public CompletableFuture<Long> tryReadLastAddConfirmedAsync() {
+            return lh.tryReadLastAddConfirmedAsync();
+        }
+
+        @Override
+        public long getLastAddConfirmed() {
+            return lh.getLastAddConfirmed();
+        }
+
+        @Override
+        public long getLength() {
+            return lh.getLength();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return lh.isClosed();
+        }
+
+        @Override
+        public CompletableFuture<LastConfirmedAndEntry> readLastAddConfirmedAndEntryAsync(long entryId,
+                long timeOutInMillis, boolean parallel) {
+            return lh.readLastAddConfirmedAndEntryAsync(entryId, timeOutInMillis, parallel);
+        }
+
+        @Override
+        public long getId() {
+            return lh.getId();
+        }
+
+        @Override
+        public CompletableFuture<Void> closeAsync() {
+            return lh.closeAsync();
+        }
+
+        @Override
+        public LedgerMetadata getLedgerMetadata() {
+            return lh.getLedgerMetadata();
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(CursorReadAhead.class);
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.LedgerDeletedEntries;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.MessageRange;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.NestedPositionInfo;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet;
+
+/**
+ * Compact encoding of the individually deleted messages of a cursor, as stored in the cursor ledger.
+ *
+ * <p/>Instead of a pair of full positions per range, the ranges of each ledger are stored either as a list of
+ * varint-encoded (gap, length) runs, or as a bitmap of the deleted entries when that is smaller, which is the case
+ * when the acknowledgement holes are dense. With every other message acknowledged, 100,000 holes take about 25 KB
+ * instead of about 2 MB, and they are decoded without going through an intermediate object per range.
+ */
+final class DeletedEntriesCodec {
+
+    private DeletedEntriesCodec() {
+    }
+
+    /**
+     * Adds the ranges of the set, up to maxRanges of them, to the position info.
+     */
+    static void encode(LongPairRangeSet<PositionImpl> individualDeletedMessages, int maxRanges,
+            PositionInfo.Builder builder) {
+        LedgerRangesEncoder encoder = new LedgerRangesEncoder(builder);
+        int[] count = { 0 };
+        individualDeletedMessages.forEach(range -> {
+            PositionImpl lower = range.lowerEndpoint();
+            PositionImpl upper = range.upperEndpoint();
+            if (lower.getLedgerId() == upper.getLedgerId()) {
+                encoder.add(lower.getLedgerId(), lower.getEntryId(), upper.getEntryId());
+            } else {
+                builder.addIndividualDeletedMessages(MessageRange.newBuilder()
+                        .setLowerEndpoint(NestedPositionInfo.newBuilder().setLedgerId(lower.getLedgerId())
+                                .setEntryId(lower.getEntryId()))
+                        .setUpperEndpoint(NestedPositionInfo.newBuilder().setLedgerId(upper.getLedgerId())
+                                .setEntryId(upper.getEntryId())));
+            }
+            return ++count[0] < maxRanges;
+        });
+        encoder.flush();
+    }
+
+    /**
+     * Adds the ranges stored in the compact encoding of the position info to the set.
+     */
+    static void decode(PositionInfo positionInfo, LongPairRangeSet<PositionImpl> individualDeletedMessages) {
+        for (LedgerDeletedEntries deletedEntries : positionInfo.getIndividualDeletedEntriesList()) {
+            long ledgerId = deletedEntries.getLedgerId();
+            if (deletedEntries.hasBitmap()) {
+                long firstEntry = deletedEntries.getBitmapFirstEntry();
+                BitSet bitmap = BitSet.valueOf(deletedEntries.getBitmap().asReadOnlyByteBuffer());
+                int start = bitmap.nextSetBit(0);
+                while (start >= 0) {
+                    int end = bitmap.nextClearBit(start);
+                    individualDeletedMessages.addOpenClosed(ledgerId, firstEntry + start - 1, ledgerId,
+                            firstEntry + end - 1);
+                    start = bitmap.nextSetBit(end);
+                }
+            } else {
+                long previousUpper = -1;
+                for (int i = 0; i + 1 < deletedEntries.getRunsCount(); i += 2) {
+                    long lower = previousUpper + deletedEntries.getRuns(i);
+                    long upper = lower + deletedEntries.getRuns(i + 1);
+                    individualDeletedMessages.addOpenClosed(ledgerId, lower, ledgerId, upper);
+                    previousUpper = upper;
+                }
+            }
+        }
+    }
+
+    /**
+     * Accumulates the (lower, upper] ranges of a ledger, in ascending order, and writes them in the smaller of the two
+     * encodings when moving to the next ledger.
+     */
+    private static final class LedgerRangesEncoder {
+        private final PositionInfo.Builder builder;
+        private long ledgerId = -1;
+        private long[] bounds = new long[64];
+        private int size = 0;
+
+        LedgerRangesEncoder(PositionInfo.Builder builder) {
+            this.builder = builder;
+        }
+
+        void add(long ledgerId, long lower, long upper) {
+            if (ledgerId != this.ledgerId) {
+                flush();
+                this.ledgerId = ledgerId;
+            }
+            if (size + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[size++] = lower;
+            bounds[size++] = upper;
+        }
+
+        void flush() {
+            if (size == 0) {
+                return;
+            }
+
+            LedgerDeletedEntries.Builder deletedEntries = LedgerDeletedEntries.newBuilder().setLedgerId(ledgerId);
+            long runsSize = 0;
+            long previousUpper = -1;
+            for (int i = 0; i < size; i += 2) {
+                runsSize += CodedOutputStream.computeInt64SizeNoTag(bounds[i] - previousUpper);
+                runsSize += CodedOutputStream.computeInt64SizeNoTag(bounds[i + 1] - bounds[i]);
+                previousUpper = bounds[i + 1];
+            }
+
+            long firstEntry = bounds[0] + 1;
+            long bitmapBits = bounds[size - 1] - firstEntry + 1;
+            if (bitmapBits / 8 + 1 < runsSize) {
+                BitSet bitmap = new BitSet((int) bitmapBits);
+                for (int i = 0; i < size; i += 2) {
+                    bitmap.set((int) (bounds[i] + 1 - firstEntry), (int) (bounds[i + 1] + 1 - firstEntry));
+                }
+                deletedEntries.setBitmapFirstEntry(firstEntry);
+                deletedEntries.setBitmap(ByteString.copyFrom(bitmap.toByteArray()));
+            } else {
+                previousUpper = -1;
+                for (int i = 0; i < size; i += 2) {
+                    deletedEntries.addRuns(bounds[i] - previousUpper);
+                    deletedEntries.addRuns(bounds[i + 1] - bounds[i]);
+                    previousUpper = bounds[i + 1];
+                }
+            }
+
+            builder.addIndividualDeletedEntries(deletedEntries);
+            size = 0;
+        }
+    }
+}
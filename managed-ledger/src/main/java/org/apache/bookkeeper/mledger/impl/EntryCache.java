@@ -46,6 +46,17 @@ public interface EntryCache extends Comparable<EntryCache> {
      */
     boolean insert(EntryImpl entry);
 
+    /**
+     * Store the hash of the sticky key of an entry in its cached copy, if it's still cached, so that the entries read
+     * from the cache carry it.
+     *
+     * @param position
+     *            the position of the entry
+     * @param stickyKeyHash
+     *            a non-negative hash
+     */
+    void setStickyKeyHash(PositionImpl position, int stickyKeyHash);
+
     /**
      * Remove from cache all the entries related to a ledger up to lastPosition included.
      *
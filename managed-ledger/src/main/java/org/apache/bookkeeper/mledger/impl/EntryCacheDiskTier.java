@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pulsar.common.util.collections.ConcurrentLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second tier of the entry cache, on local disk, receiving the entries evicted from the memory of all the
+ * {@link EntryCacheImpl}.
+ *
+ * <p/>The entries are appended to memory-mapped segment files of fixed size, and indexed by (ledgerId, entryId). Ledger
+ * ids are unique across all the managed ledgers, so a single tier is shared by all of them. Once the tier is full, the
+ * oldest segment is dropped as a whole, along with the index of the entries it holds. A dropped segment is unmapped and
+ * its file deleted as soon as the reads still copying entries out of it are done.
+ *
+ * <p/>The content of the tier is only a cache: the segment files are deleted when the tier is created and closed.
+ */
+class EntryCacheDiskTier {
+
+    private static final String SEGMENT_FILE_SUFFIX = ".segment";
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    // Map from ledger id to the location of the entries of that ledger in the segments
+    private final ConcurrentLongHashMap<ConcurrentLongHashMap<Location>> index = new ConcurrentLongHashMap<>();
+
+    // Segments, from the oldest to the one receiving the new entries. Guarded by this
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId = 0;
+    private boolean closed = false;
+
+    private static class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writeOffset = 0;
+
+        // One reference held by the tier until the segment is dropped, plus one per read in progress
+        private final AtomicInteger refCnt = new AtomicInteger(1);
+
+        // (ledgerId, entryId) pairs of the entries written in the segment
+        private long[] keys = new long[256];
+        private int keysCount = 0;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        void addKey(long ledgerId, long entryId) {
+            if (keysCount + 2 > keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[keysCount++] = ledgerId;
+            keys[keysCount++] = entryId;
+        }
+
+        /**
+         * @return false if the segment was already dropped and released by all its readers
+         */
+        boolean tryRetain() {
+            while (true) {
+                int count = refCnt.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (refCnt.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refCnt.decrementAndGet() == 0) {
+                // Unmap explicitly, rather than waiting for the buffer to be garbage collected, so that the disk
+                // space is given back when the file is deleted
+                PlatformDependent.freeDirectBuffer(buffer);
+                if (!file.delete()) {
+                    log.warn("Failed to delete the cache segment {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param directory
+     *            the directory where the segment files are kept. Any segment file already in it is deleted
+     * @param maxSize
+     *            the maximum size of all the segment files
+     * @param segmentSize
+     *            the size of a segment file
+     */
+    EntryCacheDiskTier(File directory, long maxSize, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the cache directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, maxSize / segmentSize);
+        deleteSegmentFiles();
+
+        log.info("Initialized managed-ledger entry cache tier of {} segments of {} Mb in {}", maxSegments,
+                segmentSize / EntryCacheManager.MB, directory);
+    }
+
+    /**
+     * Copy an entry into the tier, unless it's already there or it doesn't fit in a segment.
+     */
+    void put(PositionImpl position, EntryImpl entry) {
+        long ledgerId = position.getLedgerId();
+        long entryId = position.getEntryId();
+        ConcurrentLongHashMap<Location> ledgerIndex = index.get(ledgerId);
+        if (ledgerIndex != null && ledgerIndex.containsKey(entryId)) {
+            return;
+        }
+
+        ByteBuf data = entry.getDataBuffer();
+        int length = data.readableBytes();
+        if (length > segmentSize) {
+            return;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            Segment segment = segments.peekLast();
+            if (segment == null || segmentSize - segment.writeOffset < length) {
+                segment = addSegment();
+                if (segment == null) {
+                    return;
+                }
+            }
+
+            ByteBuffer target = segment.buffer.duplicate();
+            target.position(segment.writeOffset);
+            target.limit(segment.writeOffset + length);
+            data.getBytes(data.readerIndex(), target);
+
+            Location location = new Location(segment, segment.writeOffset, length);
+            segment.writeOffset += length;
+            segment.addKey(ledgerId, entryId);
+            index.computeIfAbsent(ledgerId, id -> new ConcurrentLongHashMap<>(16, 1)).put(entryId, location);
+        }
+    }
+
+    /**
+     * Read an entry from the tier.
+     *
+     * @return a copy of the entry, that needs to be released by the receiver, or null if the entry is not in the tier
+     */
+    EntryImpl get(long ledgerId, long entryId) {
+        ConcurrentLongHashMap<Location> ledgerIndex = index.get(ledgerId);
+        Location location = ledgerIndex != null ? ledgerIndex.get(entryId) : null;
+        if (location == null) {
+            return null;
+        }
+
+        // Keep the segment mapped while copying the entry, in case it's dropped concurrently
+        Segment segment = location.segment;
+        if (!segment.tryRetain()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer source = segment.buffer.duplicate();
+            source.position(location.offset);
+            source.limit(location.offset + location.length);
+
+            ByteBuf data = EntryCacheImpl.ALLOCATOR.directBuffer(location.length, location.length);
+            data.writeBytes(source);
+            EntryImpl entry = EntryImpl.create(ledgerId, entryId, data);
+            data.release();
+            return entry;
+        } finally {
+            segment.release();
+        }
+    }
+
+    boolean contains(long ledgerId, long entryId) {
+        ConcurrentLongHashMap<Location> ledgerIndex = index.get(ledgerId);
+        return ledgerIndex != null && ledgerIndex.containsKey(entryId);
+    }
+
+    /**
+     * Forget the entries of a ledger. Their space in the segments is reclaimed when the segments are dropped.
+     */
+    void invalidateLedger(long ledgerId) {
+        index.remove(ledgerId);
+    }
+
+    private Segment addSegment() {
+        while (segments.size() >= maxSegments) {
+            dropSegment(segments.pollFirst());
+        }
+
+        File file = new File(directory, String.format("%020d%s", nextSegmentId++, SEGMENT_FILE_SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            Segment segment = new Segment(file, buffer);
+            segments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            log.warn("Failed to create the cache segment {}: {}", file, e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private void dropSegment(Segment segment) {
+        for (int i = 0; i < segment.keysCount; i += 2) {
+            long ledgerId = segment.keys[i];
+            ConcurrentLongHashMap<Location> ledgerIndex = index.get(ledgerId);
+            if (ledgerIndex == null) {
+                continue;
+            }
+            Location location = ledgerIndex.get(segment.keys[i + 1]);
+            if (location != null && location.segment == segment) {
+                ledgerIndex.remove(segment.keys[i + 1], location);
+                if (ledgerIndex.isEmpty()) {
+                    index.remove(ledgerId, ledgerIndex);
+                }
+            }
+        }
+
+        segment.release();
+    }
+
+    long getSize() {
+        synchronized (this) {
+            return (long) segments.size() * segmentSize;
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+        index.clear();
+        while (!segments.isEmpty()) {
+            dropSegment(segments.pollFirst());
+        }
+    }
+
+    private void deleteSegmentFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_FILE_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    log.warn("Failed to delete the cache segment {}", file);
+                }
+            }
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(EntryCacheDiskTier.class);
+}
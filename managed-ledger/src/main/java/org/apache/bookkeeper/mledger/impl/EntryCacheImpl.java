@@ -27,39 +27,64 @@ import com.google.common.primitives.Longs;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.bookkeeper.client.api.BKException;
+import org.apache.bookkeeper.client.api.LedgerEntries;
 import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.client.api.ReadHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntryCallback;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
-import org.apache.bookkeeper.mledger.util.RangeCache;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Cache data payload for entries of all ledgers.
+ *
+ * <p/>The entries are kept in one {@link EntryCacheSegment} per ledger.
  */
 public class EntryCacheImpl implements EntryCache {
 
     private final EntryCacheManager manager;
     private final ManagedLedgerImpl ml;
-    private final RangeCache<PositionImpl, EntryImpl> entries;
+    // Map from ledger id to the segment holding the cached entries of that ledger
+    private final ConcurrentSkipListMap<Long, EntryCacheSegment> segments;
     private final boolean copyEntries;
+    private final int slabSize;
+    // Reads in progress on the bookies shared by the concurrent reads of the same entries, if enabled
+    private final PendingReadsManager pendingReadsManager;
+    // Tier on local disk receiving the entries evicted from memory, if enabled
+    private final EntryCacheDiskTier diskTier;
 
     private static final double MB = 1024 * 1024;
 
     public EntryCacheImpl(EntryCacheManager manager, ManagedLedgerImpl ml, boolean copyEntries) {
+        this(manager, ml, copyEntries, 0);
+    }
+
+    /**
+     * @param slabSize
+     *            size of the slabs into which the copies of the entries are packed, or 0 to copy each entry into its
+     *            own buffer. Only used if copyEntries is set
+     */
+    public EntryCacheImpl(EntryCacheManager manager, ManagedLedgerImpl ml, boolean copyEntries, int slabSize) {
         this.manager = manager;
         this.ml = ml;
-        this.entries = new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
+        this.segments = new ConcurrentSkipListMap<>();
         this.copyEntries = copyEntries;
+        this.slabSize = copyEntries ? slabSize : 0;
+        this.pendingReadsManager = manager.isShareConcurrentReads() ? new PendingReadsManager() : null;
+        this.diskTier = manager.getDiskTier();
 
         if (log.isDebugEnabled()) {
             log.debug("[{}] Initialized managed-ledger entry cache", ml.getName());
@@ -82,6 +107,23 @@ public class EntryCacheImpl implements EntryCache {
             true // Use cache for all threads
     );
 
+    /**
+     * Allocator of the slabs where the copies of the cached entries are packed, when slabs are enabled. Its used
+     * memory is the memory really held by the cached copies.
+     */
+    public final static UnpooledByteBufAllocator SLAB_ALLOCATOR = new UnpooledByteBufAllocator(true /* preferDirect */);
+
+    // Size of the cached entries whose copies are held in the slabs
+    static final AtomicLong SLAB_RESIDENT_SIZE = new AtomicLong(0);
+
+    /**
+     * @return the size of the cached entries whose copies are held in the slabs, to compare with the memory used by
+     *         {@link #SLAB_ALLOCATOR}
+     */
+    public static long getSlabResidentSize() {
+        return SLAB_RESIDENT_SIZE.get();
+    }
+
     @Override
     public boolean insert(EntryImpl entry) {
         if (!manager.hasSpaceInCache()) {
@@ -97,9 +139,12 @@ public class EntryCacheImpl implements EntryCache {
                     entry.getLength());
         }
 
+        PositionImpl position = entry.getPosition();
+        EntryCacheSegment segment = getOrCreateSegment(position.getLedgerId());
+
         ByteBuf cachedData = null;
         if (copyEntries) {
-            cachedData = copyEntry(entry);
+            cachedData = copyEntry(entry, segment);
             if (cachedData == null) {
                 return false;
             }
@@ -108,11 +153,16 @@ public class EntryCacheImpl implements EntryCache {
             cachedData = entry.getDataBuffer().retain();
         }
 
-        PositionImpl position = entry.getPosition();
         EntryImpl cacheEntry = EntryImpl.create(position, cachedData);
         cachedData.release();
-        if (entries.put(position, cacheEntry)) {
+        if (segment.put(position, cacheEntry)) {
             manager.entryAdded(entry.getLength());
+            if (segment.isRemoved()) {
+                // The ledger was invalidated while we were inserting, make sure the entry doesn't stay in a segment
+                // that is no longer reachable
+                manager.entriesRemoved(segment.remove());
+                return false;
+            }
             return true;
         } else {
             // entry was not inserted into cache, we need to discard it
@@ -121,13 +171,52 @@ public class EntryCacheImpl implements EntryCache {
         }
     }
 
-    private ByteBuf copyEntry(EntryImpl entry) {
+    @Override
+    public void setStickyKeyHash(PositionImpl position, int stickyKeyHash) {
+        EntryCacheSegment segment = segments.get(position.getLedgerId());
+        EntryImpl entry = segment != null ? segment.get(position) : null;
+        if (entry != null) {
+            entry.setStickyKeyHash(stickyKeyHash);
+            entry.release();
+        }
+    }
+
+    private EntryCacheSegment getOrCreateSegment(long ledgerId) {
+        EntryCacheSegment segment = segments.get(ledgerId);
+        if (segment != null) {
+            return segment;
+        }
+
+        EntryCacheSegment newSegment = new EntryCacheSegment(this, ledgerId, slabSize, diskTier);
+        segment = segments.putIfAbsent(ledgerId, newSegment);
+        if (segment != null) {
+            return segment;
+        }
+
+        manager.segmentAdded(newSegment);
+        return newSegment;
+    }
+
+    private long removeSegment(EntryCacheSegment segment) {
+        if (segments.remove(segment.getLedgerId(), segment)) {
+            long removedSize = segment.remove();
+            manager.segmentRemoved(segment);
+            return removedSize;
+        } else {
+            return 0;
+        }
+    }
+
+    private ByteBuf copyEntry(EntryImpl entry, EntryCacheSegment segment) {
         // Copy the entry into a buffer owned by the cache. The reason is that the incoming entry is retaining a buffer
         // from netty, usually allocated in 64Kb chunks. So if we just retain the entry without copying it, we might
         // retain actually the full 64Kb even for a small entry
         int size = entry.getLength();
         ByteBuf cachedData = null;
         try {
+            if (slabSize > 0) {
+                return segment.copyToSlab(entry.getDataBuffer());
+            }
             cachedData = ALLOCATOR.directBuffer(size, size);
         } catch (Throwable t) {
             log.warn("[{}] Failed to allocate buffer for entry cache: {}", ml.getName(), t.getMessage());
@@ -154,12 +243,21 @@ public class EntryCacheImpl implements EntryCache {
             return;
         }
 
-        Pair<Integer, Long> removed = entries.removeRange(firstPosition, lastPosition, false);
-        int entriesRemoved = removed.getLeft();
-        long sizeRemoved = removed.getRight();
+        long sizeRemoved = 0;
+
+        // All the ledgers before the one of lastPosition are entirely dropped
+        for (EntryCacheSegment segment : segments.headMap(lastPosition.getLedgerId(), false).values()) {
+            sizeRemoved += removeSegment(segment);
+        }
+
+        EntryCacheSegment segment = segments.get(lastPosition.getLedgerId());
+        if (segment != null) {
+            sizeRemoved += segment.removeRange(firstPosition, lastPosition, false).getRight();
+        }
+
         if (log.isDebugEnabled()) {
-            log.debug("[{}] Invalidated entries up to {} - Entries removed: {} - Size removed: {}", ml.getName(),
-                    lastPosition, entriesRemoved, sizeRemoved);
+            log.debug("[{}] Invalidated entries up to {} - Size removed: {}", ml.getName(), lastPosition,
+                    sizeRemoved);
         }
 
         manager.entriesRemoved(sizeRemoved);
@@ -167,15 +265,19 @@ public class EntryCacheImpl implements EntryCache {
 
     @Override
     public void invalidateAllEntries(long ledgerId) {
-        final PositionImpl firstPosition = PositionImpl.get(ledgerId, 0);
-        final PositionImpl lastPosition = PositionImpl.get(ledgerId + 1, 0);
+        if (diskTier != null) {
+            diskTier.invalidateLedger(ledgerId);
+        }
+
+        EntryCacheSegment segment = segments.get(ledgerId);
+        if (segment == null) {
+            return;
+        }
 
-        Pair<Integer, Long> removed = entries.removeRange(firstPosition, lastPosition, false);
-        int entriesRemoved = removed.getLeft();
-        long sizeRemoved = removed.getRight();
+        long sizeRemoved = removeSegment(segment);
         if (log.isDebugEnabled()) {
-            log.debug("[{}] Invalidated all entries on ledger {} - Entries removed: {} - Size removed: {}",
-                    ml.getName(), ledgerId, entriesRemoved, sizeRemoved);
+            log.debug("[{}] Invalidated all entries on ledger {} - Size removed: {}", ml.getName(), ledgerId,
+                    sizeRemoved);
         }
 
         manager.entriesRemoved(sizeRemoved);
@@ -201,12 +303,18 @@ public class EntryCacheImpl implements EntryCache {
         if (log.isDebugEnabled()) {
             log.debug("[{}] Reading entry ledger {}: {}", ml.getName(), lh.getId(), position.getEntryId());
         }
-        EntryImpl entry = entries.get(position);
+        EntryCacheSegment segment = segments.get(position.getLedgerId());
+        EntryImpl entry = segment != null ? segment.get(position) : null;
+        EntryImpl tierEntry = entry == null && diskTier != null
+                ? diskTier.get(position.getLedgerId(), position.getEntryId()) : null;
         if (entry != null) {
             EntryImpl cachedEntry = EntryImpl.create(entry);
             entry.release();
             manager.mlFactoryMBean.recordCacheHit(cachedEntry.getLength());
             callback.readEntryComplete(cachedEntry, ctx);
+        } else if (tierEntry != null) {
+            manager.mlFactoryMBean.recordCacheHit(tierEntry.getLength());
+            callback.readEntryComplete(tierEntry, ctx);
         } else {
             lh.readAsync(position.getEntryId(), position.getEntryId()).whenCompleteAsync(
                     (ledgerEntries, exception) -> {
@@ -264,7 +372,9 @@ public class EntryCacheImpl implements EntryCache {
             log.debug("[{}] Reading entries range ledger {}: {} to {}", ml.getName(), ledgerId, firstEntry, lastEntry);
         }
 
-        Collection<EntryImpl> cachedEntries = entries.getRange(firstPosition, lastPosition);
+        EntryCacheSegment segment = segments.get(ledgerId);
+        Collection<EntryImpl> cachedEntries = segment != null ? segment.getRange(firstPosition, lastPosition)
+                : Collections.emptyList();
 
         if (cachedEntries.size() == entriesToRead) {
             long totalCachedSize = 0;
@@ -286,12 +396,34 @@ public class EntryCacheImpl implements EntryCache {
             callback.readEntriesComplete((List) entriesToReturn, ctx);
 
         } else {
+            // The entries missing from memory may have been evicted into the disk tier
+            List<EntryImpl> tierEntries = diskTier != null
+                    ? getRangeWithDiskTier(ledgerId, firstEntry, lastEntry, cachedEntries) : null;
+
             if (!cachedEntries.isEmpty()) {
                 cachedEntries.forEach(entry -> entry.release());
             }
 
+            if (tierEntries != null) {
+                long totalSize = 0;
+                for (EntryImpl entry : tierEntries) {
+                    totalSize += entry.getLength();
+                }
+                manager.mlFactoryMBean.recordCacheHits(tierEntries.size(), totalSize);
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Ledger {} -- Found in cache tier entries: {}-{}", ml.getName(), ledgerId,
+                            firstEntry, lastEntry);
+                }
+
+                callback.readEntriesComplete((List) tierEntries, ctx);
+                return;
+            }
+
             // Read all the entries from bookkeeper
-            lh.readAsync(firstEntry, lastEntry).whenCompleteAsync(
+            CompletableFuture<LedgerEntries> readFuture = pendingReadsManager != null
+                    ? pendingReadsManager.readEntries(lh, firstEntry, lastEntry)
+                    : lh.readAsync(firstEntry, lastEntry);
+            readFuture.whenCompleteAsync(
                     (ledgerEntries, exception) -> {
                         if (exception != null) {
                             if (exception instanceof BKException
@@ -331,15 +463,64 @@ public class EntryCacheImpl implements EntryCache {
         }
     }
 
+    /**
+     * Get a range of entries from memory, or else from the disk tier.
+     *
+     * @param cachedEntries
+     *            the entries of the range found in memory, in position order. They are not released
+     * @return the entries of the range, or null if any of them is neither in memory nor in the disk tier
+     */
+    private List<EntryImpl> getRangeWithDiskTier(long ledgerId, long firstEntry, long lastEntry,
+            Collection<EntryImpl> cachedEntries) {
+        // Check first that the whole range is there, so that nothing is copied from the disk tier for nothing
+        Iterator<EntryImpl> cached = cachedEntries.iterator();
+        EntryImpl nextCached = cached.hasNext() ? cached.next() : null;
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            if (nextCached != null && nextCached.getEntryId() == entryId) {
+                nextCached = cached.hasNext() ? cached.next() : null;
+            } else if (!diskTier.contains(ledgerId, entryId)) {
+                return null;
+            }
+        }
+
+        List<EntryImpl> entries = Lists.newArrayListWithExpectedSize((int) (lastEntry - firstEntry) + 1);
+        cached = cachedEntries.iterator();
+        nextCached = cached.hasNext() ? cached.next() : null;
+        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+            EntryImpl entry;
+            if (nextCached != null && nextCached.getEntryId() == entryId) {
+                entry = EntryImpl.create(nextCached);
+                nextCached = cached.hasNext() ? cached.next() : null;
+            } else {
+                entry = diskTier.get(ledgerId, entryId);
+            }
+
+            if (entry == null) {
+                // Dropped from the disk tier in the meantime
+                entries.forEach(EntryImpl::release);
+                return null;
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
     @Override
     public void clear() {
-        long removedSize = entries.clear();
+        long removedSize = 0;
+        for (EntryCacheSegment segment : segments.values()) {
+            removedSize += removeSegment(segment);
+        }
         manager.entriesRemoved(removedSize);
     }
 
     @Override
     public long getSize() {
-        return entries.getSize();
+        long size = 0;
+        for (EntryCacheSegment segment : segments.values()) {
+            size += segment.getSize();
+        }
+        return size;
     }
 
     @Override
@@ -350,22 +531,40 @@ public class EntryCacheImpl implements EntryCache {
     @Override
     public Pair<Integer, Long> evictEntries(long sizeToFree) {
         checkArgument(sizeToFree > 0);
-        Pair<Integer, Long> evicted = entries.evictLeastAccessedEntries(sizeToFree);
-        int evictedEntries = evicted.getLeft();
-        long evictedSize = evicted.getRight();
+        int evictedEntries = 0;
+        long evictedSize = 0;
+
+        // Evict from the oldest ledgers first
+        for (EntryCacheSegment segment : segments.values()) {
+            if (evictedSize >= sizeToFree) {
+                break;
+            }
+
+            Pair<Integer, Long> evicted = segment.evictLeastAccessedEntries(sizeToFree - evictedSize);
+            evictedEntries += evicted.getLeft();
+            evictedSize += evicted.getRight();
+        }
+
         if (log.isDebugEnabled()) {
             log.debug(
                     "[{}] Doing cache eviction of at least {} Mb -- Deleted {} entries - Total size deleted: {} Mb "
                             + " -- Current Size: {} Mb",
-                    ml.getName(), sizeToFree / MB, evictedEntries, evictedSize / MB, entries.getSize() / MB);
+                    ml.getName(), sizeToFree / MB, evictedEntries, evictedSize / MB, getSize() / MB);
         }
         manager.entriesRemoved(evictedSize);
-        return evicted;
+        return Pair.of(evictedEntries, evictedSize);
     }
 
     @Override
     public void invalidateEntriesBeforeTimestamp(long timestamp) {
-        long evictedSize = entries.evictLEntriesBeforeTimestamp(timestamp);
+        long evictedSize = 0;
+        for (EntryCacheSegment segment : segments.values()) {
+            evictedSize += segment.evictEntriesBeforeTimestamp(timestamp);
+            if (segment.getSize() > 0) {
+                // The entries of the following ledgers are all more recent
+                break;
+            }
+        }
         manager.entriesRemoved(evictedSize);
     }
 
@@ -25,12 +25,16 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Longs;
 import io.netty.buffer.ByteBuf;
+import java.io.File;
+import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
 import org.apache.bookkeeper.client.BKException;
@@ -40,6 +44,7 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +59,21 @@ public class EntryCacheManager {
     private final ConcurrentMap<String, EntryCache> caches = Maps.newConcurrentMap();
     private final EntryCacheEvictionPolicy evictionPolicy;
 
+    // Ring of the segments of all the caches, swept by the clock eviction
+    private final boolean clockSweepEviction;
+    private final ConcurrentLinkedQueue<EntryCacheSegment> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockSegments = new AtomicInteger(0);
+
+    // Memory held by the read-ahead buffers of the cursors
+    private final long readAheadMaxSize;
+    private final int readAheadMaxBatches;
+    private final AtomicLong readAheadSize = new AtomicLong(0);
+
+    private final boolean shareConcurrentReads;
+
+    // Tier on local disk receiving the entries evicted from the caches, if enabled
+    private final EntryCacheDiskTier diskTier;
+
     private final AtomicBoolean evictionInProgress = new AtomicBoolean(false);
 
     private final ManagedLedgerFactoryImpl mlFactory;
@@ -71,19 +91,40 @@ public class EntryCacheManager {
         this.evictionTriggerThreshold = (long) (maxSize * evictionTriggerThresholdPercent);
         this.cacheEvictionWatermak = factory.getConfig().getCacheEvictionWatermark();
         this.evictionPolicy = new EntryCacheDefaultEvictionPolicy();
+        this.clockSweepEviction = factory.getConfig().isCacheEvictionClockSweep();
+        this.readAheadMaxSize = factory.getConfig().getReadAheadMaxSize();
+        this.readAheadMaxBatches = factory.getConfig().getReadAheadMaxBatches();
+        this.shareConcurrentReads = factory.getConfig().isShareConcurrentReads();
+        this.diskTier = maxSize > 0 ? createDiskTier(factory.getConfig()) : null;
         this.mlFactory = factory;
         this.mlFactoryMBean = factory.mbean;
 
         log.info("Initialized managed-ledger entry cache of {} Mb", maxSize / MB);
     }
 
+    private static EntryCacheDiskTier createDiskTier(ManagedLedgerFactoryConfig config) {
+        if (config.getCacheDiskTierMaxSize() <= 0) {
+            return null;
+        }
+
+        try {
+            return new EntryCacheDiskTier(new File(config.getCacheDiskTierDirectory()), config.getCacheDiskTierMaxSize(),
+                    config.getCacheDiskTierSegmentSize());
+        } catch (IOException e) {
+            log.warn("Failed to initialize the entry cache tier in {}, continuing without it: {}",
+                    config.getCacheDiskTierDirectory(), e.getMessage());
+            return null;
+        }
+    }
+
     public EntryCache getEntryCache(ManagedLedgerImpl ml) {
         if (maxSize == 0) {
             // Cache is disabled
             return new EntryCacheDisabled(ml);
         }
 
-        EntryCache newEntryCache = new EntryCacheImpl(this, ml, mlFactory.getConfig().isCopyEntriesInCache());
+        EntryCache newEntryCache = new EntryCacheImpl(this, ml, mlFactory.getConfig().isCopyEntriesInCache(),
+                mlFactory.getConfig().getCacheSlabSize());
         EntryCache currentEntryCache = caches.putIfAbsent(ml.getName(), newEntryCache);
         if (currentEntryCache != null) {
             return currentEntryCache;
@@ -120,7 +161,11 @@ public class EntryCacheManager {
                         sizeToEvict / MB);
 
                 try {
-                    evictionPolicy.doEviction(Lists.newArrayList(caches.values()), sizeToEvict);
+                    if (clockSweepEviction) {
+                        doClockEviction(sizeToEvict);
+                    } else {
+                        evictionPolicy.doEviction(Lists.newArrayList(caches.values()), sizeToEvict);
+                    }
 
                     long endTime = System.nanoTime();
                     double durationMs = TimeUnit.NANOSECONDS.toMicros(endTime - startTime) / 1000.0;
@@ -137,6 +182,74 @@ public class EntryCacheManager {
         return currentSize < maxSize;
     }
 
+    void segmentAdded(EntryCacheSegment segment) {
+        if (clockSweepEviction) {
+            clockSegments.incrementAndGet();
+            clock.offer(segment);
+        }
+    }
+
+    void segmentRemoved(EntryCacheSegment segment) {
+        if (clockSweepEviction && clock.remove(segment)) {
+            clockSegments.decrementAndGet();
+        }
+    }
+
+    int getClockSegments() {
+        return clockSegments.get();
+    }
+
+    /**
+     * Sweep the clock hand over the segments of all the caches, evicting the oldest entries of the segments that were
+     * not read since the previous pass, until enough space is freed.
+     *
+     * <p/>Every segment is visited at most twice per eviction: once to clear its referenced bit and once to evict from
+     * it. The cost of an eviction is then bound to the size freed rather than to the number of cached entries or
+     * topics.
+     */
+    void doClockEviction(long sizeToFree) {
+        int evictedEntries = 0;
+        long evictedSize = 0;
+        int evictedSegments = 0;
+
+        int maxVisits = 2 * clockSegments.get();
+        for (int i = 0; i < maxVisits && evictedSize < sizeToFree; i++) {
+            EntryCacheSegment segment = clock.poll();
+            if (segment == null) {
+                break;
+            }
+
+            if (segment.isRemoved()) {
+                // The ledger was already dropped from its cache, take it out of the ring
+                clockSegments.decrementAndGet();
+                continue;
+            }
+
+            if (!segment.clearReferenced() && segment.getSize() > 0) {
+                Pair<Integer, Long> evicted = segment.evictLeastAccessedEntries(sizeToFree - evictedSize);
+                evictedEntries += evicted.getLeft();
+                evictedSize += evicted.getRight();
+                ++evictedSegments;
+                entriesRemoved(evicted.getRight());
+
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Evicted {} entries from ledger {} - Size: {} Mb",
+                            segment.getEntryCache().getName(), evicted.getLeft(), segment.getLedgerId(),
+                            evicted.getRight() / MB);
+                }
+            }
+
+            clock.offer(segment);
+            if (segment.isRemoved() && clock.remove(segment)) {
+                // The ledger was dropped while being swept and missed by segmentRemoved
+                clockSegments.decrementAndGet();
+            }
+        }
+
+        log.info("Completed clock cache eviction. Removed {} entries from {} ledgers. ({} Mb)", evictedEntries,
+                evictedSegments, evictedSize / MB);
+    }
+
     void entryAdded(long size) {
         currentSize.addAndGet(size);
     }
@@ -153,10 +266,45 @@ public class EntryCacheManager {
         return maxSize;
     }
 
+    boolean isReadAheadEnabled() {
+        return readAheadMaxSize > 0 && readAheadMaxBatches > 0;
+    }
+
+    int getReadAheadMaxBatches() {
+        return readAheadMaxBatches;
+    }
+
+    boolean hasSpaceForReadAhead() {
+        return readAheadSize.get() < readAheadMaxSize;
+    }
+
+    void updateReadAheadSize(long delta) {
+        readAheadSize.addAndGet(delta);
+    }
+
+    public long getReadAheadSize() {
+        return readAheadSize.get();
+    }
+
+    boolean isShareConcurrentReads() {
+        return shareConcurrentReads;
+    }
+
+    EntryCacheDiskTier getDiskTier() {
+        return diskTier;
+    }
+
     public void clear() {
         caches.values().forEach(cache -> cache.clear());
     }
 
+    public void close() {
+        clear();
+        if (diskTier != null) {
+            diskTier.close();
+        }
+    }
+
     protected class EntryCacheDisabled implements EntryCache {
         private final ManagedLedgerImpl ml;
 
@@ -174,6 +322,10 @@ public class EntryCacheManager {
             return false;
         }
 
+        @Override
+        public void setStickyKeyHash(PositionImpl position, int stickyKeyHash) {
+        }
+
         @Override
         public void invalidateEntries(PositionImpl lastPosition) {
         }
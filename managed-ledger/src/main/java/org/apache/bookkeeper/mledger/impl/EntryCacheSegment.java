@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import io.netty.buffer.ByteBuf;
+import java.util.Collection;
+import org.apache.bookkeeper.mledger.util.RangeCache;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * The portion of an {@link EntryCacheImpl} holding the entries of a single ledger.
+ *
+ * <p/>Splitting the cache per ledger keeps readers, writers and evictions of different ledgers from contending on the
+ * same structure, and lets a whole ledger be dropped from the cache without scanning the entries of the others.
+ *
+ * <p/>Each segment carries a "referenced" bit, set whenever the segment serves a read, which is used by the clock
+ * eviction sweep of the {@link EntryCacheManager} to give recently read segments a second chance.
+ *
+ * <p/>When slabs are enabled, the copies of the entries are packed in the {@link EntryCacheSlabStore} of the segment.
+ *
+ * <p/>When the disk tier is enabled, the entries evicted from the segment, but not the ones invalidated, are spilled
+ * into the {@link EntryCacheDiskTier}.
+ */
+class EntryCacheSegment {
+
+    private final EntryCacheImpl entryCache;
+    private final long ledgerId;
+    private final RangeCache<PositionImpl, EntryImpl> entries;
+    private final EntryCacheSlabStore slabStore;
+
+    private volatile boolean referenced = false;
+    private volatile boolean removed = false;
+
+    /**
+     * @param diskTier
+     *            the tier receiving the entries evicted from the segment, or null
+     */
+    EntryCacheSegment(EntryCacheImpl entryCache, long ledgerId, int slabSize, EntryCacheDiskTier diskTier) {
+        this.entryCache = entryCache;
+        this.ledgerId = ledgerId;
+        this.entries = new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp,
+                diskTier != null ? diskTier::put : null);
+        this.slabStore = slabSize > 0 ? new EntryCacheSlabStore(slabSize) : null;
+    }
+
+    EntryCacheImpl getEntryCache() {
+        return entryCache;
+    }
+
+    long getLedgerId() {
+        return ledgerId;
+    }
+
+    /**
+     * Copy an entry payload into the slabs of the segment.
+     *
+     * @return the copied payload, or null if the slabs are disabled
+     */
+    ByteBuf copyToSlab(ByteBuf data) {
+        return slabStore != null ? slabStore.copy(data) : null;
+    }
+
+    boolean put(PositionImpl position, EntryImpl entry) {
+        if (!entries.put(position, entry)) {
+            return false;
+        }
+        if (slabStore != null) {
+            EntryCacheImpl.SLAB_RESIDENT_SIZE.addAndGet(entry.getLength());
+        }
+        return true;
+    }
+
+    EntryImpl get(PositionImpl position) {
+        EntryImpl entry = entries.get(position);
+        if (entry != null) {
+            referenced = true;
+        }
+        return entry;
+    }
+
+    Collection<EntryImpl> getRange(PositionImpl first, PositionImpl last) {
+        Collection<EntryImpl> values = entries.getRange(first, last);
+        if (!values.isEmpty()) {
+            referenced = true;
+        }
+        return values;
+    }
+
+    Pair<Integer, Long> removeRange(PositionImpl first, PositionImpl last, boolean lastInclusive) {
+        return slabEntriesRemoved(entries.removeRange(first, last, lastInclusive));
+    }
+
+    Pair<Integer, Long> evictLeastAccessedEntries(long minSize) {
+        Pair<Integer, Long> evicted = slabEntriesRemoved(entries.evictLeastAccessedEntries(minSize));
+        sealIfEmpty();
+        return evicted;
+    }
+
+    long evictEntriesBeforeTimestamp(long maxTimestamp) {
+        long evictedSize = slabEntriesRemoved(entries.evictLEntriesBeforeTimestamp(maxTimestamp));
+        sealIfEmpty();
+        return evictedSize;
+    }
+
+    private Pair<Integer, Long> slabEntriesRemoved(Pair<Integer, Long> removed) {
+        slabEntriesRemoved(removed.getRight());
+        return removed;
+    }
+
+    private long slabEntriesRemoved(long removedSize) {
+        if (slabStore != null) {
+            EntryCacheImpl.SLAB_RESIDENT_SIZE.addAndGet(-removedSize);
+        }
+        return removedSize;
+    }
+
+    private void sealIfEmpty() {
+        // Don't let a segment that was fully evicted keep its last slab allocated
+        if (slabStore != null && entries.getSize() == 0) {
+            slabStore.seal();
+        }
+    }
+
+    long getSize() {
+        return entries.getSize();
+    }
+
+    /**
+     * Clear the referenced bit.
+     *
+     * @return whether the segment was referenced since the last time the bit was cleared
+     */
+    boolean clearReferenced() {
+        boolean wasReferenced = referenced;
+        referenced = false;
+        return wasReferenced;
+    }
+
+    /**
+     * Mark the segment as detached from its entry cache and release all its entries.
+     *
+     * <p/>Entries inserted concurrently by a writer that was still holding a reference to the segment are released
+     * by the writer itself, when it finds that the segment was removed, see {@link #isRemoved()}.
+     *
+     * @return the total size of the entries released
+     */
+    long remove() {
+        removed = true;
+        long removedSize = slabEntriesRemoved(entries.clear());
+        if (slabStore != null) {
+            slabStore.seal();
+        }
+        return removedSize;
+    }
+
+    boolean isRemoved() {
+        return removed;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Append-only store that packs the copies of the cached entries of a single ledger into large off-heap slabs.
+ *
+ * <p/>Each cached entry is a slice retaining its slab. The entries of a ledger are inserted, and then evicted, in
+ * position order, so a slab is freed as a whole once all the entries it holds are gone from the cache, instead of
+ * fragmenting the pooled arenas with one small buffer per entry.
+ *
+ * <p/>Slabs are allocated from {@link EntryCacheImpl#SLAB_ALLOCATOR}, which makes the memory really used by the cached
+ * copies observable.
+ */
+class EntryCacheSlabStore {
+
+    private final int slabSize;
+
+    // Slab receiving the new entries, or null if no slab was allocated yet or the last one was sealed
+    private ByteBuf currentSlab = null;
+
+    EntryCacheSlabStore(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Copy the readable bytes of a buffer at the tail of the current slab.
+     *
+     * @param data
+     *            the buffer to copy. The reader/writer indexes will not be modified
+     * @return a buffer with the copied content, that needs to be released by the receiver
+     */
+    synchronized ByteBuf copy(ByteBuf data) {
+        int size = data.readableBytes();
+        if (size > slabSize) {
+            // Entries that don't fit in a slab get a dedicated buffer
+            ByteBuf buffer = EntryCacheImpl.SLAB_ALLOCATOR.directBuffer(size, size);
+            buffer.writeBytes(data, data.readerIndex(), size);
+            return buffer;
+        }
+
+        if (currentSlab != null && currentSlab.writableBytes() < size) {
+            seal();
+        }
+
+        if (currentSlab == null) {
+            currentSlab = EntryCacheImpl.SLAB_ALLOCATOR.directBuffer(slabSize, slabSize);
+        }
+
+        int offset = currentSlab.writerIndex();
+        currentSlab.writeBytes(data, data.readerIndex(), size);
+        return currentSlab.retainedSlice(offset, size);
+    }
+
+    /**
+     * Stop appending to the current slab. The slab memory will be freed once all the entries it holds are released.
+     */
+    synchronized void seal() {
+        if (currentSlab != null) {
+            currentSlab.release();
+            currentSlab = null;
+        }
+    }
+}
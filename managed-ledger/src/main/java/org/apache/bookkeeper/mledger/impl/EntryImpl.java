@@ -45,6 +45,9 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
     private long entryId;
     ByteBuf data;
 
+    // Hash of the key used by the broker to route the entry, opaque to the managed ledger. -1 until it's computed
+    private int stickyKeyHash = -1;
+
     public static EntryImpl create(LedgerEntry ledgerEntry) {
         EntryImpl entry = RECYCLER.get();
         entry.timestamp = System.nanoTime();
@@ -95,6 +98,7 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
         entry.ledgerId = other.ledgerId;
         entry.entryId = other.entryId;
         entry.data = other.data.retainedDuplicate();
+        entry.stickyKeyHash = other.stickyKeyHash;
         entry.setRefCnt(1);
         return entry;
     }
@@ -147,6 +151,24 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
         return entryId;
     }
 
+    /**
+     * @return the hash of the sticky key of the entry, or -1 if it was not computed yet
+     */
+    public int getStickyKeyHash() {
+        return stickyKeyHash;
+    }
+
+    /**
+     * Store the hash of the sticky key of the entry. It's copied along with the entry when the entry is read from the
+     * cache.
+     *
+     * @param stickyKeyHash
+     *            a non-negative hash
+     */
+    public void setStickyKeyHash(int stickyKeyHash) {
+        this.stickyKeyHash = stickyKeyHash;
+    }
+
     @Override
     public int compareTo(EntryImpl other) {
         return ComparisonChain.start().compare(ledgerId, other.ledgerId).compare(entryId, other.entryId).result();
@@ -162,6 +184,7 @@ public final class EntryImpl extends AbstractCASReferenceCounted implements Entr
         // This method is called whenever the ref-count of the EntryImpl reaches 0, so that now we can recycle it
         data.release();
         data = null;
+        stickyKeyHash = -1;
         timestamp = -1;
         ledgerId = -1;
         entryId = -1;
@@ -41,6 +41,8 @@ public final class LedgerMetadataUtils {
 
     private static final String METADATA_PROPERTY_MANAGED_LEDGER_NAME = "pulsar/managed-ledger";
     private static final String METADATA_PROPERTY_CURSOR_NAME = "pulsar/cursor";
+    private static final String METADATA_PROPERTY_SHARED_CURSORS = "pulsar/shared-cursors";
+    private static final byte[] METADATA_PROPERTY_SHARED_CURSORS_TRUE = "true".getBytes(StandardCharsets.UTF_8);
     private static final String METADATA_PROPERTY_COMPACTEDTOPIC = "pulsar/compactedTopic";
     private static final String METADATA_PROPERTY_COMPACTEDTO = "pulsar/compactedTo";
     private static final String METADATA_PROPERTY_SCHEMAID = "pulsar/schemaId";
@@ -69,6 +71,16 @@ public final class LedgerMetadataUtils {
         return ImmutableMap.of(METADATA_PROPERTY_CURSOR_NAME, name.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * Build additional metadata for a ledger shared by all the cursors of a ManagedLedger.
+     *
+     * @return an immutable map which describes the shared cursors ledger
+     * @see #buildBaseManagedLedgerMetadata(java.lang.String)
+     */
+    static Map<String, byte[]> buildAdditionalMetadataForSharedCursors() {
+        return ImmutableMap.of(METADATA_PROPERTY_SHARED_CURSORS, METADATA_PROPERTY_SHARED_CURSORS_TRUE);
+    }
+
     /**
      * Build additional metadata for a CompactedLedger.
      *
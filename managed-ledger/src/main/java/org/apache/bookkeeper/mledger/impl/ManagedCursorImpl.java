@@ -57,6 +57,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 import org.apache.bookkeeper.client.AsyncCallback.CloseCallback;
 import org.apache.bookkeeper.client.AsyncCallback.DeleteCallback;
@@ -93,6 +94,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.common.util.collections.ConcurrentOpenLongPairRangeSet;
 import org.apache.pulsar.common.util.collections.LongPairRangeSet;
 import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPairConsumer;
+import org.apache.pulsar.common.util.collections.RoaringLongPairRangeSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -136,6 +138,11 @@ public class ManagedCursorImpl implements ManagedCursor {
     // Wether the current cursorLedger is read-only or writable
     private boolean isCursorLedgerReadOnly = true;
 
+    // Id of the ledger shared by the cursors of the managed ledger that the cursor recovers from, or -1 when the
+    // cursor doesn't use the shared ledger. The cursor writes into the shared ledger when cursorLedger is null and
+    // isCursorLedgerReadOnly is false.
+    private volatile long sharedCursorsLedgerId = -1;
+
     // Stat of the cursor z-node
     private volatile Stat cursorLedgerStat;
 
@@ -152,8 +159,14 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     private RateLimiter markDeleteLimiter;
 
+    // Read-ahead buffer, created on the first read when the read-ahead is enabled
+    private volatile CursorReadAhead readAhead = null;
+
     private boolean alwaysInactive = false;
 
+    // Max number of entries between two positions to replay for them to be read at once
+    private static final int REPLAY_READ_MAX_HOLE_SIZE = 4;
+
     /** used temporary variables to {@link #getNumIndividualDeletedEntriesToSkip(long)} **/
     private static final FastThreadLocal<Long> tempTotalEntriesToSkip = new FastThreadLocal<>();
     private static final FastThreadLocal<Long> tempDeletedMessages = new FastThreadLocal<>();
@@ -216,9 +229,13 @@ public class ManagedCursorImpl implements ManagedCursor {
         this.config = config;
         this.ledger = ledger;
         this.name = cursorName;
-        this.individualDeletedMessages = config.isUnackedRangesOpenCacheSetEnabled()
-                ? new ConcurrentOpenLongPairRangeSet<PositionImpl>(4096, positionRangeConverter)
-                : new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        if (config.isUnackedRangesRoaringSetEnabled()) {
+            this.individualDeletedMessages = new RoaringLongPairRangeSet<>(positionRangeConverter);
+        } else {
+            this.individualDeletedMessages = config.isUnackedRangesOpenCacheSetEnabled()
+                    ? new ConcurrentOpenLongPairRangeSet<PositionImpl>(4096, positionRangeConverter)
+                    : new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        }
         this.digestType = BookKeeper.DigestType.fromApiDigestType(config.getDigestType());
         STATE_UPDATER.set(this, State.Uninitialized);
         PENDING_MARK_DELETED_SUBMITTED_COUNT_UPDATER.set(this, 0);
@@ -277,6 +294,10 @@ public class ManagedCursorImpl implements ManagedCursor {
 
                     recoveredCursor(recoveredPosition, recoveredProperties, null);
                     callback.operationComplete();
+                } else if (info.getCursorsLedgerShared()) {
+                    log.info("[{}] Consumer {} meta-data recover from shared ledger {}", ledger.getName(), name,
+                            info.getCursorsLedgerId());
+                    recoverFromSharedLedger(info, callback);
                 } else {
                     // Need to proceed and read the last entry in the specified ledger to find out the last position
                     log.info("[{}] Consumer {} meta-data recover from ledger {}", ledger.getName(), name,
@@ -352,26 +373,55 @@ public class ManagedCursorImpl implements ManagedCursor {
                     return;
                 }
 
-                Map<String, Long> recoveredProperties = Collections.emptyMap();
-                if (positionInfo.getPropertiesCount() > 0) {
-                    // Recover properties map
-                    recoveredProperties = Maps.newHashMap();
-                    for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
-                        LongProperty property = positionInfo.getProperties(i);
-                        recoveredProperties.put(property.getName(), property.getValue());
-                    }
-                }
-
-                PositionImpl position = new PositionImpl(positionInfo);
-                if (positionInfo.getIndividualDeletedMessagesCount() > 0) {
-                    recoverIndividualDeletedMessages(positionInfo.getIndividualDeletedMessagesList());
-                }
-                recoveredCursor(position, recoveredProperties, lh);
+                recoveredCursor(positionInfo, lh);
                 callback.operationComplete();
             }, null);
         }, null);
     }
 
+    private void recoverFromSharedLedger(final ManagedCursorInfo info, final VoidCallback callback) {
+        long ledgerId = info.getCursorsLedgerId();
+        ledger.getSharedCursorsLedger().asyncReadPosition(ledgerId, name).whenComplete((positionInfo, ex) -> {
+            if (ex != null) {
+                log.warn("[{}] Error reading shared metadata ledger {} for consumer {}: {}", ledger.getName(),
+                        ledgerId, name, ex.getMessage());
+                callback.operationFailed(getManagedLedgerException(ex.getCause() != null ? ex.getCause() : ex));
+                return;
+            }
+            if (positionInfo == null) {
+                log.warn("[{}] No position for consumer {} in shared metadata ledger {}", ledger.getName(), name,
+                        ledgerId);
+                // Rewind to last cursor snapshot available
+                initialize(getRollbackPosition(info), Collections.emptyMap(), callback);
+                return;
+            }
+
+            recoveredCursor(positionInfo, null);
+            sharedCursorsLedgerId = ledgerId;
+            ledger.getSharedCursorsLedger().addUser(name, ledgerId);
+            callback.operationComplete();
+        });
+    }
+
+    private void recoveredCursor(PositionInfo positionInfo, LedgerHandle recoveredFromCursorLedger) {
+        Map<String, Long> recoveredProperties = Collections.emptyMap();
+        if (positionInfo.getPropertiesCount() > 0) {
+            // Recover properties map
+            recoveredProperties = Maps.newHashMap();
+            for (int i = 0; i < positionInfo.getPropertiesCount(); i++) {
+                LongProperty property = positionInfo.getProperties(i);
+                recoveredProperties.put(property.getName(), property.getValue());
+            }
+        }
+
+        PositionImpl position = new PositionImpl(positionInfo);
+        if (positionInfo.getIndividualDeletedMessagesCount() > 0
+                || positionInfo.getIndividualDeletedEntriesCount() > 0) {
+            recoverIndividualDeletedMessages(positionInfo);
+        }
+        recoveredCursor(position, recoveredProperties, recoveredFromCursorLedger);
+    }
+
     private void recoverIndividualDeletedMessages(List<MLDataFormats.MessageRange> individualDeletedMessagesList) {
         lock.writeLock().lock();
         try {
@@ -385,6 +435,16 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    private void recoverIndividualDeletedMessages(PositionInfo positionInfo) {
+        lock.writeLock().lock();
+        try {
+            recoverIndividualDeletedMessages(positionInfo.getIndividualDeletedMessagesList());
+            DeletedEntriesCodec.decode(positionInfo, individualDeletedMessages);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     private void recoveredCursor(PositionImpl position, Map<String, Long> properties,
                                  LedgerHandle recoveredFromCursorLedger) {
         // if the position was at a ledger that didn't exist (since it will be deleted if it was previously empty),
@@ -1064,22 +1124,49 @@ public class ManagedCursorImpl implements ManagedCursor {
             lock.readLock().unlock();
         }
 
-        final int totalValidPositions = positions.size() - alreadyAcknowledgedPositions.size();
+        // Group the positions into ranges of entries of a ledger, each read at once. The small holes between the
+        // positions of a range are read along with them and dropped, as a single read costs less than several
+        final List<PositionImpl> positionsToRead = positions.stream()
+                .filter(position -> !alreadyAcknowledgedPositions.contains(position))
+                .map(PositionImpl.class::cast)
+                .sorted()
+                .collect(Collectors.toList());
+        final List<long[]> ranges = Lists.newArrayList();
+        long[] range = null;
+        for (PositionImpl position : positionsToRead) {
+            if (range != null && range[0] == position.getLedgerId()
+                    && position.getEntryId() - range[2] <= REPLAY_READ_MAX_HOLE_SIZE + 1) {
+                range[2] = position.getEntryId();
+            } else {
+                range = new long[] { position.getLedgerId(), position.getEntryId(), position.getEntryId() };
+                ranges.add(range);
+            }
+        }
+
         final AtomicReference<ManagedLedgerException> exception = new AtomicReference<>();
-        ReadEntryCallback cb = new ReadEntryCallback() {
-            int pendingCallbacks = totalValidPositions;
+        ReadEntriesCallback cb = new ReadEntriesCallback() {
+            int pendingCallbacks = ranges.size();
 
             @Override
-            public synchronized void readEntryComplete(Entry entry, Object ctx) {
+            public synchronized void readEntriesComplete(List<Entry> rangeEntries, Object ctx) {
                 if (exception.get() != null) {
-                    // if there is already a failure for a different position, we should release the entry straight away
-                    // and not add it to the list
-                    entry.release();
+                    // if there is already a failure for a different range, we should release the entries straight
+                    // away and not add them to the list
+                    rangeEntries.forEach(Entry::release);
                     if (--pendingCallbacks == 0) {
                         callback.readEntriesFailed(exception.get(), ctx);
                     }
                 } else {
-                    entries.add(entry);
+                    for (int i = 0; i < rangeEntries.size(); i++) {
+                        Entry entry = rangeEntries.get(i);
+                        if (Collections.binarySearch(positionsToRead,
+                                PositionImpl.get(entry.getLedgerId(), entry.getEntryId())) >= 0) {
+                            entries.add(entry);
+                        } else {
+                            // Entry of a hole between the positions to replay
+                            entry.release();
+                        }
+                    }
                     if (--pendingCallbacks == 0) {
                         if (sortEntries) {
                             entries.sort((e1, e2) -> ComparisonChain.start()
@@ -1092,10 +1179,10 @@ public class ManagedCursorImpl implements ManagedCursor {
             }
 
             @Override
-            public synchronized void readEntryFailed(ManagedLedgerException mle, Object ctx) {
+            public synchronized void readEntriesFailed(ManagedLedgerException mle, Object ctx) {
                 log.warn("[{}][{}] Error while replaying entries", ledger.getName(), name, mle);
                 if (exception.compareAndSet(null, mle)) {
-                    // release the entries just once, any further read success will release the entry straight away
+                    // release the entries just once, any further read success will release the entries straight away
                     entries.forEach(Entry::release);
                 }
                 if (--pendingCallbacks == 0) {
@@ -1104,8 +1191,9 @@ public class ManagedCursorImpl implements ManagedCursor {
             }
         };
 
-        positions.stream().filter(position -> !alreadyAcknowledgedPositions.contains(position))
-                .forEach(p -> ledger.asyncReadEntry((PositionImpl) p, cb, ctx));
+        for (long[] r : ranges) {
+            ledger.asyncReadEntries(r[0], r[1], r[2], cb, ctx);
+        }
 
         return alreadyAcknowledgedPositions;
     }
@@ -1943,7 +2031,9 @@ public class ManagedCursorImpl implements ManagedCursor {
     private void persistPositionWhenClosing(PositionImpl position, Map<String, Long> properties,
             final AsyncCallbacks.CloseCallback callback, final Object ctx) {
 
-        if (shouldPersistUnackRangesToLedger()) {
+        if (shouldPersistUnackRangesToLedger() && cursorLedger == null) {
+            persistPositionToSharedLedgerWhenClosing(position, properties, callback, ctx);
+        } else if (shouldPersistUnackRangesToLedger()) {
             persistPositionToLedger(cursorLedger, new MarkDeleteEntry(position, properties, null, null),
                     new VoidCallback() {
                         @Override
@@ -1979,6 +2069,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                     // At this point the position had already been safely stored in the cursor z-node
                     callback.closeComplete(ctx);
                     asyncDeleteLedger(cursorLedger);
+                    releaseSharedCursorsLedger();
                 }
 
                 @Override
@@ -1991,8 +2082,26 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
+    private void persistPositionToSharedLedgerWhenClosing(PositionImpl position, Map<String, Long> properties,
+            final AsyncCallbacks.CloseCallback callback, final Object ctx) {
+        MarkDeleteEntry mdEntry = new MarkDeleteEntry(position, properties, null, null);
+        ledger.getSharedCursorsLedger().asyncPersist(name, buildPositionInfo(mdEntry)).whenComplete((ledgerId, ex) -> {
+            if (ex != null) {
+                log.warn("[{}][{}] Failed to persist mark-delete position into shared cursor-ledger: {}",
+                        ledger.getName(), name, ex.getMessage());
+                callback.closeFailed(getManagedLedgerException(ex), ctx);
+                return;
+            }
+            // If the shared ledger was switched before the cursor moved to the new one, the cursor will recover from
+            // the previous position it wrote in the old ledger
+            log.info("[{}][{}] Updated md-position={} into shared cursor-ledger {}", ledger.getName(), name,
+                    markDeletePosition, ledgerId);
+            callback.closeComplete(ctx);
+        });
+    }
+
     private boolean shouldPersistUnackRangesToLedger() {
-        return cursorLedger != null
+        return (cursorLedger != null || sharedCursorsLedgerId != -1)
                 && !isCursorLedgerReadOnly
                 && config.getMaxUnackedRangesToPersist() > 0
                 && individualDeletedMessages.size() > config.getMaxUnackedRangesToPersistInZk();
@@ -2000,6 +2109,13 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     private void persistPositionMetaStore(long cursorsLedgerId, PositionImpl position, Map<String, Long> properties,
             MetaStoreCallback<Void> callback, boolean persistIndividualDeletedMessageRanges) {
+        persistPositionMetaStore(cursorsLedgerId, false, position, properties, callback,
+                persistIndividualDeletedMessageRanges);
+    }
+
+    private void persistPositionMetaStore(long cursorsLedgerId, boolean cursorsLedgerShared, PositionImpl position,
+            Map<String, Long> properties, MetaStoreCallback<Void> callback,
+            boolean persistIndividualDeletedMessageRanges) {
         if (state == State.Closed) {
             ledger.getExecutor().execute(safeRun(() -> {
                 callback.operationFailed(new MetaStoreException(
@@ -2012,6 +2128,7 @@ public class ManagedCursorImpl implements ManagedCursor {
         // hence we write it as -1. The cursor ledger is deleted once the z-node write is confirmed.
         ManagedCursorInfo.Builder info = ManagedCursorInfo.newBuilder() //
                 .setCursorsLedgerId(cursorsLedgerId) //
+                .setCursorsLedgerShared(cursorsLedgerShared) //
                 .setMarkDeleteLedgerId(position.getLedgerId()) //
                 .setMarkDeleteEntryId(position.getEntryId()) //
                 .setLastActive(lastActive); //
@@ -2048,10 +2165,32 @@ public class ManagedCursorImpl implements ManagedCursor {
             callback.closeComplete(ctx);
             return;
         }
+        releaseReadAhead();
         persistPositionWhenClosing(lastMarkDeleteEntry.newPosition, lastMarkDeleteEntry.properties, callback, ctx);
         STATE_UPDATER.set(this, State.Closed);
     }
 
+    CursorReadAhead getReadAhead(EntryCacheManager entryCacheManager) {
+        CursorReadAhead readAhead = this.readAhead;
+        if (readAhead == null) {
+            synchronized (this) {
+                readAhead = this.readAhead;
+                if (readAhead == null) {
+                    readAhead = new CursorReadAhead(entryCacheManager);
+                    this.readAhead = readAhead;
+                }
+            }
+        }
+        return readAhead;
+    }
+
+    void releaseReadAhead() {
+        CursorReadAhead readAhead = this.readAhead;
+        if (readAhead != null) {
+            readAhead.clear();
+        }
+    }
+
     /**
      * Internal version of seek that doesn't do the validation check.
      *
@@ -2126,6 +2265,11 @@ public class ManagedCursorImpl implements ManagedCursor {
     }
 
     void createNewMetadataLedger(final VoidCallback callback) {
+        if (config.isCursorPositionBatchingEnabled()) {
+            joinSharedCursorsLedger(callback);
+            return;
+        }
+
         ledger.mbean.startCursorLedgerCreateOp();
         ledger.asyncCreateLedger(bookkeeper, config, digestType, (rc, lh, ctx) -> {
 
@@ -2196,6 +2340,63 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     }
 
+    /**
+     * Writes the last mark-delete position into the ledger shared by the cursors of the managed ledger, and makes the
+     * cursor recover from that ledger.
+     */
+    private void joinSharedCursorsLedger(final VoidCallback callback) {
+        MarkDeleteEntry mdEntry = lastMarkDeleteEntry;
+        ledger.getSharedCursorsLedger().asyncJoin(name, buildPositionInfo(mdEntry)).whenComplete((ledgerId, ex) -> {
+            if (ex != null) {
+                log.warn("[{}] Failed to persist position {} for cursor {} in shared ledger", ledger.getName(),
+                        mdEntry.newPosition, name);
+                callback.operationFailed(getManagedLedgerException(ex));
+                return;
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Switching cursor {} to shared ledger {}", ledger.getName(), name, ledgerId);
+            }
+            persistPositionMetaStore(ledgerId, true, mdEntry.newPosition, mdEntry.properties,
+                    new MetaStoreCallback<Void>() {
+                @Override
+                public void operationComplete(Void result, Stat stat) {
+                    log.info("[{}] Updated cursor {} with shared ledger id {} md-position={} rd-position={}",
+                            ledger.getName(), name, ledgerId, markDeletePosition, readPosition);
+                    final LedgerHandle oldLedger = cursorLedger;
+                    final long oldSharedLedgerId = sharedCursorsLedgerId;
+                    cursorLedger = null;
+                    sharedCursorsLedgerId = ledgerId;
+                    isCursorLedgerReadOnly = false;
+
+                    callback.operationComplete();
+
+                    asyncDeleteLedger(oldLedger);
+                    if (oldSharedLedgerId != -1 && oldSharedLedgerId != ledgerId) {
+                        ledger.getSharedCursorsLedger().removeUser(name, oldSharedLedgerId);
+                    }
+                }
+
+                @Override
+                public void operationFailed(MetaStoreException e) {
+                    log.warn("[{}] Failed to update consumer {}", ledger.getName(), name, e);
+                    if (ledgerId != sharedCursorsLedgerId) {
+                        ledger.getSharedCursorsLedger().removeUser(name, ledgerId);
+                    }
+                    callback.operationFailed(e);
+                }
+            }, false);
+        });
+    }
+
+    private void releaseSharedCursorsLedger() {
+        long ledgerId = sharedCursorsLedgerId;
+        if (ledgerId != -1) {
+            sharedCursorsLedgerId = -1;
+            ledger.getSharedCursorsLedger().removeUser(name, ledgerId);
+        }
+    }
+
     private List<LongProperty> buildPropertiesMap(Map<String, Long> properties) {
         if (properties.isEmpty()) {
             return Collections.emptyList();
@@ -2239,12 +2440,38 @@ public class ManagedCursorImpl implements ManagedCursor {
         }
     }
 
-    void persistPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
+    private void buildIndividualDeletedEntries(PositionInfo.Builder builder) {
+        lock.readLock().lock();
+        try {
+            if (!individualDeletedMessages.isEmpty()) {
+                DeletedEntriesCodec.encode(individualDeletedMessages, config.getMaxUnackedRangesToPersist(), builder);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private PositionInfo buildPositionInfo(MarkDeleteEntry mdEntry) {
         PositionImpl position = mdEntry.newPosition;
-        PositionInfo pi = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
+        PositionInfo.Builder piBuilder = PositionInfo.newBuilder().setLedgerId(position.getLedgerId())
                 .setEntryId(position.getEntryId())
-                .addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges())
-                .addAllProperties(buildPropertiesMap(mdEntry.properties)).build();
+                .addAllProperties(buildPropertiesMap(mdEntry.properties));
+        if (config.isUnackedRangesCompactEncodingEnabled()) {
+            buildIndividualDeletedEntries(piBuilder);
+        } else {
+            piBuilder.addAllIndividualDeletedMessages(buildIndividualDeletedMessageRanges());
+        }
+        return piBuilder.build();
+    }
+
+    void persistPositionToLedger(final LedgerHandle lh, MarkDeleteEntry mdEntry, final VoidCallback callback) {
+        if (lh == null && sharedCursorsLedgerId != -1) {
+            persistPositionToSharedLedger(mdEntry, callback);
+            return;
+        }
+
+        PositionImpl position = mdEntry.newPosition;
+        PositionInfo pi = buildPositionInfo(mdEntry);
 
 
         if (log.isDebugEnabled()) {
@@ -2298,6 +2525,44 @@ public class ManagedCursorImpl implements ManagedCursor {
         }, null);
     }
 
+    private void persistPositionToSharedLedger(MarkDeleteEntry mdEntry, final VoidCallback callback) {
+        PositionImpl position = mdEntry.newPosition;
+        ledger.getSharedCursorsLedger().asyncPersist(name, buildPositionInfo(mdEntry)).whenComplete((ledgerId, ex) -> {
+            if (ex == null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("[{}] Updated cursor {} position {} in shared meta-ledger {}", ledger.getName(), name,
+                            position, ledgerId);
+                }
+                if (ledgerId != sharedCursorsLedgerId) {
+                    // The shared ledger was switched, the cursor needs to recover from the new one
+                    startCreatingNewMetadataLedger();
+                }
+                callback.operationComplete();
+                return;
+            }
+
+            log.warn("[{}] Error updating cursor {} position {} in shared meta-ledger: {}", ledger.getName(), name,
+                    position, ex.getMessage());
+            STATE_UPDATER.compareAndSet(ManagedCursorImpl.this, State.Open, State.NoLedger);
+
+            // Before giving up, try to persist the position in the metadata store
+            persistPositionMetaStore(-1, position, mdEntry.properties, new MetaStoreCallback<Void>() {
+                @Override
+                public void operationComplete(Void result, Stat stat) {
+                    releaseSharedCursorsLedger();
+                    callback.operationComplete();
+                }
+
+                @Override
+                public void operationFailed(MetaStoreException e) {
+                    log.warn("[{}][{}] Failed to update cursor in meta store after previous failure in ledger: {}",
+                            ledger.getName(), name, e.getMessage());
+                    callback.operationFailed(getManagedLedgerException(ex));
+                }
+            }, true);
+        });
+    }
+
     boolean shouldCloseLedger(LedgerHandle lh) {
         long now = clock.millis();
         if ((lh.getLastAddConfirmed() >= config.getMetadataMaxEntriesPerLedger()
@@ -2331,6 +2596,7 @@ public class ManagedCursorImpl implements ManagedCursor {
                 callback.operationComplete();
 
                 asyncDeleteLedger(oldLedger);
+                releaseSharedCursorsLedger();
             }
 
             @Override
@@ -2450,6 +2716,8 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     private void asyncDeleteCursorLedger(int retry) {
         STATE_UPDATER.set(this, State.Closed);
+        releaseSharedCursorsLedger();
+        ledger.getSharedCursorsLedger().removeCursor(name);
 
         if (cursorLedger == null || retry <= 0) {
             if (cursorLedger != null) {
@@ -2523,7 +2791,7 @@ public class ManagedCursorImpl implements ManagedCursor {
 
     public long getCursorLedger() {
         LedgerHandle lh = cursorLedger;
-        return lh != null ? lh.getId() : -1;
+        return lh != null ? lh.getId() : sharedCursorsLedgerId;
     }
 
     public long getCursorLedgerLastEntry() {
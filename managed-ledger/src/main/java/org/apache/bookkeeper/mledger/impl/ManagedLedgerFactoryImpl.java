@@ -29,6 +29,7 @@ import io.netty.util.concurrent.DefaultThreadFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -40,6 +41,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.BookKeeper;
@@ -345,7 +347,16 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         });
     }
 
-
+    @Override
+    public CompletableFuture<Void> asyncPrefetchMetadata(Collection<String> names) {
+        // The managed ledgers already opened don't need their metadata anymore
+        List<String> ledgersToOpen = names.stream().filter(name -> !ledgers.containsKey(name))
+                .collect(Collectors.toList());
+        if (ledgersToOpen.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return store.prefetchManagedLedgers(ledgersToOpen, config.getMetadataPrefetchMaxConcurrentReads());
+    }
 
     @Override
     public ReadOnlyCursor openReadOnlyCursor(String managedLedgerName, Position startPosition, ManagedLedgerConfig config)
@@ -463,7 +474,7 @@ public class ManagedLedgerFactoryImpl implements ManagedLedgerFactory {
         orderedExecutor.shutdownNow();
         cacheEvictionExecutor.shutdownNow();
 
-        entryCacheManager.clear();
+        entryCacheManager.close();
     }
 
     @Override
@@ -60,6 +60,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
@@ -165,6 +166,9 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
 
     final EntryCache entryCache;
 
+    // Ledger where the cursors persist their positions together, when the cursor position batching is enabled
+    private final SharedCursorsLedger sharedCursorsLedger;
+
     private ScheduledFuture<?> timeoutTask;
 
     /**
@@ -245,6 +249,16 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
      */
     final ConcurrentLinkedQueue<OpAddEntry> pendingAddEntries = new ConcurrentLinkedQueue<>();
 
+    /**
+     * Entries added by the writers and not yet moved to the pending entries, when the add entry queue is enabled. The
+     * queue is drained by one task of the ordered executor at a time, instead of one task per entry.
+     */
+    private final ConcurrentLinkedQueue<OpAddEntry> queuedAddEntries = new ConcurrentLinkedQueue<>();
+    private static final int MAX_ADD_ENTRIES_PER_DRAIN = 1000;
+    private static final AtomicIntegerFieldUpdater<ManagedLedgerImpl> ADD_ENTRIES_DRAIN_SCHEDULED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ManagedLedgerImpl.class, "addEntriesDrainScheduled");
+    private volatile int addEntriesDrainScheduled = 0;
+
     // //////////////////////////////////////////////////////////////////////
 
     public ManagedLedgerImpl(ManagedLedgerFactoryImpl factory, BookKeeper bookKeeper, MetaStore store,
@@ -269,6 +283,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         this.waitingCursors = Queues.newConcurrentLinkedQueue();
         this.uninitializedCursors = Maps.newHashMap();
         this.clock = config.getClock();
+        this.sharedCursorsLedger = new SharedCursorsLedger(this, bookKeeper, clock);
         this.backloggedCursorThresholdEntries = factory.getConfig().getThresholdBackloggedCursor();
 
         // Get the next rollover time. Add a random value upto 5% to avoid rollover multiple ledgers at the same time
@@ -463,6 +478,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
                             cursors.add(cursor);
 
                             if (cursorCount.decrementAndGet() == 0) {
+                                sharedCursorsLedger.recoveryCompleted();
                                 // The initialization is now completed, register the jmx mbean
                                 callback.initializeComplete();
                             }
@@ -551,6 +567,13 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
 
         OpAddEntry addOperation = OpAddEntry.create(this, buffer, callback, ctx);
 
+        if (config.isAddEntryQueueEnabled()) {
+            // The entries are queued in the order of the writers, and moved in batches by a single task
+            queuedAddEntries.offer(addOperation);
+            scheduleAddEntriesDrain();
+            return;
+        }
+
         // Jump to specific thread to avoid contention from writers writing from different threads
         executor.executeOrdered(name, safeRun(() -> {
             pendingAddEntries.add(addOperation);
@@ -559,6 +582,36 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }));
     }
 
+    private void scheduleAddEntriesDrain() {
+        if (ADD_ENTRIES_DRAIN_SCHEDULED_UPDATER.compareAndSet(this, 0, 1)) {
+            executor.executeOrdered(name, safeRun(this::drainQueuedAddEntries));
+        }
+    }
+
+    private void drainQueuedAddEntries() {
+        // Reset the flag before polling, so that an entry queued after the last poll schedules a new drain
+        ADD_ENTRIES_DRAIN_SCHEDULED_UPDATER.set(this, 0);
+
+        int drained = 0;
+        synchronized (this) {
+            OpAddEntry addOperation;
+            while (drained < MAX_ADD_ENTRIES_PER_DRAIN && (addOperation = queuedAddEntries.poll()) != null) {
+                pendingAddEntries.add(addOperation);
+                internalAsyncAddEntry(addOperation);
+                ++drained;
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Drained {} queued add entries", name, drained);
+        }
+
+        // Leave the executor to the other ledgers between two batches
+        if (!queuedAddEntries.isEmpty()) {
+            scheduleAddEntriesDrain();
+        }
+    }
+
     private synchronized void internalAsyncAddEntry(OpAddEntry addOperation) {
         final State state = STATE_UPDATER.get(this);
         if (state == State.Fenced) {
@@ -760,6 +813,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             return;
         } else if (!cursor.isDurable()) {
             cursors.removeCursor(consumerName);
+            cursor.releaseReadAhead();
             callback.deleteCursorComplete(ctx);
             return;
         }
@@ -771,6 +825,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             public void operationComplete(Void result, Stat stat) {
                 cursor.asyncDeleteCursorLedger();
                 cursors.removeCursor(consumerName);
+                cursor.releaseReadAhead();
 
                 // Redo invalidation of entries in cache
                 PositionImpl slowestConsumerPosition = cursors.getSlowestReaderPosition();
@@ -1172,7 +1227,7 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             futures.add(closeFuture);
         }
 
-        Futures.waitForAll(futures).thenRun(() -> {
+        Futures.waitForAll(futures).thenCompose(v -> sharedCursorsLedger.asyncClose()).thenRun(() -> {
             callback.closeComplete(ctx);
         }).exceptionally(exception -> {
             callback.closeFailed(ManagedLedgerException.getManagedLedgerException(exception.getCause()), ctx);
@@ -1542,6 +1597,11 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
             log.debug("[{}] Reading entries from ledger {} - first={} last={}", name, ledger.getId(), firstEntry,
                     lastEntry);
         }
+        EntryCacheManager entryCacheManager = factory.getEntryCacheManager();
+        if (entryCacheManager.isReadAheadEnabled()) {
+            // Let the read-ahead buffer of the cursor serve the reads that miss the cache
+            ledger = cursor.getReadAhead(entryCacheManager).wrap(ledger, lastEntryInLedger);
+        }
         asyncReadEntry(ledger, firstEntry, lastEntry, false, opReadEntry, opReadEntry.ctx);
     }
 
@@ -1559,18 +1619,40 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         }
     }
 
+    /**
+     * Read the entries of a ledger from firstEntry to lastEntry, both included.
+     */
+    void asyncReadEntries(long ledgerId, long firstEntry, long lastEntry, ReadEntriesCallback callback, Object ctx) {
+        LedgerHandle currentLedger = this.currentLedger;
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Reading entries ledger {}: {}-{}", name, ledgerId, firstEntry, lastEntry);
+        }
+        if (ledgerId == currentLedger.getId()) {
+            asyncReadEntry(currentLedger, firstEntry, lastEntry, false, callback, ctx);
+        } else {
+            getLedgerHandle(ledgerId).thenAccept(ledger -> {
+                asyncReadEntry(ledger, firstEntry, lastEntry, false, callback, ctx);
+            }).exceptionally(ex -> {
+                log.error("[{}] Error opening ledger {} for reading entries {}-{} - {}", name, ledgerId, firstEntry,
+                        lastEntry, ex.getMessage());
+                callback.readEntriesFailed(ManagedLedgerException.getManagedLedgerException(ex.getCause()), ctx);
+                return null;
+            });
+        }
+    }
+
     protected void asyncReadEntry(ReadHandle ledger, long firstEntry, long lastEntry, boolean isSlowestReader,
-            OpReadEntry opReadEntry, Object ctx) {
+            ReadEntriesCallback callback, Object ctx) {
         if (config.getReadEntryTimeoutSeconds() > 0) {
             // set readOpCount to uniquely validate if ReadEntryCallbackWrapper is already recycled
             long readOpCount = READ_OP_COUNT_UPDATER.incrementAndGet(this);
             long createdTime = System.nanoTime();
             ReadEntryCallbackWrapper readCallback = ReadEntryCallbackWrapper.create(name, ledger.getId(), firstEntry,
-                    opReadEntry, readOpCount, createdTime, ctx);
+                    callback, readOpCount, createdTime, ctx);
             lastReadCallback = readCallback;
             entryCache.asyncReadEntry(ledger, firstEntry, lastEntry, isSlowestReader, readCallback, readOpCount);
         } else {
-            entryCache.asyncReadEntry(ledger, firstEntry, lastEntry, isSlowestReader, opReadEntry, ctx);
+            entryCache.asyncReadEntry(ledger, firstEntry, lastEntry, isSlowestReader, callback, ctx);
         }
     }
 
@@ -2945,6 +3027,10 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         return store;
     }
 
+    SharedCursorsLedger getSharedCursorsLedger() {
+        return sharedCursorsLedger;
+    }
+
     @Override
     public ManagedLedgerConfig getConfig() {
         return config;
@@ -3008,6 +3094,13 @@ public class ManagedLedgerImpl implements ManagedLedger, CreateCallback {
         return entryCache.getSize();
     }
 
+    /**
+     * Store the hash of the sticky key of an entry in the cache, so that the entries read from the cache carry it.
+     */
+    public void setCachedStickyKeyHash(PositionImpl position, int stickyKeyHash) {
+        entryCache.setStickyKeyHash(position, stickyKeyHash);
+    }
+
     protected boolean isReadOnly() {
         // Default managed ledger implementation is read-write
         return false;
@@ -18,7 +18,9 @@
  */
 package org.apache.bookkeeper.mledger.impl;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.mledger.ManagedLedgerException.MetaStoreException;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo;
@@ -128,6 +130,24 @@ public interface MetaStore {
      */
     void removeManagedLedger(String ledgerName, MetaStoreCallback<Void> callback);
 
+    /**
+     * Read ahead the metadata of a batch of managed ledgers and of their cursors, with all the reads pipelined on the
+     * metadata store.
+     *
+     * <p/>The metadata read ahead is handed over, once, to the next {@link #getManagedLedgerInfo},
+     * {@link #getCursors} and {@link #asyncGetCursorInfo} calls for the same nodes, so that opening the managed
+     * ledgers doesn't wait on the round-trips to the metadata store one after the other.
+     *
+     * @param ledgerNames
+     *            the names of the managed ledgers about to be opened
+     * @param maxConcurrentReads
+     *            the maximum number of reads in progress at the same time on the metadata store
+     * @return a future completed once all the reads are done
+     */
+    default CompletableFuture<Void> prefetchManagedLedgers(Collection<String> ledgerNames, int maxConcurrentReads) {
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Get a list of all the managed ledgers in the system.
      *
@@ -27,9 +27,16 @@ import com.google.protobuf.TextFormat.ParseException;
 
 import java.io.File;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import org.apache.bookkeeper.common.util.OrderedExecutor;
@@ -38,6 +45,8 @@ import org.apache.bookkeeper.mledger.ManagedLedgerException.BadVersionException;
 import org.apache.bookkeeper.mledger.ManagedLedgerException.MetaStoreException;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedCursorInfo;
 import org.apache.bookkeeper.mledger.proto.MLDataFormats.ManagedLedgerInfo;
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.AsyncCallback.StringCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
@@ -57,9 +66,34 @@ public class MetaStoreImplZookeeper implements MetaStore {
     private static final String prefixName = "/managed-ledgers";
     private static final String prefix = prefixName + "/";
 
+    // Time after which the metadata read ahead by prefetchManagedLedgers() is dropped if nobody asked for it
+    private static final long PREFETCH_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
     private final ZooKeeper zk;
     private final OrderedExecutor executor;
 
+    // Results of the reads done ahead by prefetchManagedLedgers(), keyed by z-node path
+    private final Map<String, PrefetchedRead> prefetchedData = new ConcurrentHashMap<>();
+    private final Map<String, PrefetchedRead> prefetchedChildren = new ConcurrentHashMap<>();
+
+    private static class PrefetchedRead {
+        private final byte[] data;
+        private final List<String> children;
+        private final org.apache.zookeeper.data.Stat stat;
+        private final long expirationTime;
+
+        PrefetchedRead(byte[] data, List<String> children, org.apache.zookeeper.data.Stat stat) {
+            this.data = data;
+            this.children = children;
+            this.stat = stat;
+            this.expirationTime = System.nanoTime() + PREFETCH_EXPIRY_NANOS;
+        }
+
+        boolean isExpired(long now) {
+            return now - expirationTime > 0;
+        }
+    }
+
     private static class ZKStat implements Stat {
         private final int version;
         private final long creationTimestamp;
@@ -130,8 +164,9 @@ public class MetaStoreImplZookeeper implements MetaStore {
     public void getManagedLedgerInfo(final String ledgerName, boolean createIfMissing,
             final MetaStoreCallback<ManagedLedgerInfo> callback) {
         // Try to get the content or create an empty node
-        zk.getData(prefix + ledgerName, false,
-                (rc, path, ctx, readData, stat) -> executor.executeOrdered(ledgerName, safeRun(() -> {
+        String ledgerPath = prefix + ledgerName;
+        DataCallback dataCallback = (rc, path, ctx, readData, stat) -> executor.executeOrdered(ledgerName,
+                safeRun(() -> {
                     if (rc == Code.OK.intValue()) {
                         try {
                             ManagedLedgerInfo info = parseManagedLedgerInfo(readData);
@@ -168,7 +203,14 @@ public class MetaStoreImplZookeeper implements MetaStore {
                         // Other ZK error
                         callback.operationFailed(new MetaStoreException(KeeperException.create(Code.get(rc))));
                     }
-                })), null);
+                }));
+
+        PrefetchedRead prefetchedRead = takePrefetchedRead(prefetchedData, ledgerPath);
+        if (prefetchedRead != null) {
+            dataCallback.processResult(Code.OK.intValue(), ledgerPath, null, prefetchedRead.data, prefetchedRead.stat);
+        } else {
+            zk.getData(ledgerPath, false, dataCallback, null);
+        }
     }
 
     @Override
@@ -181,6 +223,7 @@ public class MetaStoreImplZookeeper implements MetaStore {
         }
 
         byte[] serializedMlInfo = mlInfo.toByteArray(); // Binary format
+        prefetchedData.remove(prefix + ledgerName);
 
         zk.setData(prefix + ledgerName, serializedMlInfo, zkStat.getVersion(),
                 (rc, path, zkCtx, stat1) -> executor.executeOrdered(ledgerName, safeRun(() -> {
@@ -207,8 +250,9 @@ public class MetaStoreImplZookeeper implements MetaStore {
         if (log.isDebugEnabled()) {
             log.debug("[{}] Get cursors list", ledgerName);
         }
-        zk.getChildren(prefix + ledgerName, false,
-                (rc, path, ctx, children, stat) -> executor.executeOrdered(ledgerName, safeRun(() -> {
+        String ledgerPath = prefix + ledgerName;
+        Children2Callback childrenCallback = (rc, path, ctx, children, stat) -> executor.executeOrdered(ledgerName,
+                safeRun(() -> {
             if (log.isDebugEnabled()) {
                 log.debug("[{}] getConsumers complete rc={} children={}", ledgerName, Code.get(rc), children);
             }
@@ -221,7 +265,15 @@ public class MetaStoreImplZookeeper implements MetaStore {
                 log.debug("[{}] Get childrend completed version={}", ledgerName, stat.getVersion());
             }
             callback.operationComplete(children, new ZKStat(stat));
-        })), null);
+        }));
+
+        PrefetchedRead prefetchedRead = takePrefetchedRead(prefetchedChildren, ledgerPath);
+        if (prefetchedRead != null) {
+            childrenCallback.processResult(Code.OK.intValue(), ledgerPath, null, prefetchedRead.children,
+                    prefetchedRead.stat);
+        } else {
+            zk.getChildren(ledgerPath, false, childrenCallback, null);
+        }
     }
 
     @Override
@@ -232,7 +284,7 @@ public class MetaStoreImplZookeeper implements MetaStore {
             log.debug("Reading from {}", path);
         }
 
-        zk.getData(path, false, (rc, path1, ctx, data, stat) -> executor.executeOrdered(ledgerName, safeRun(() -> {
+        DataCallback dataCallback = (rc, path1, ctx, data, stat) -> executor.executeOrdered(ledgerName, safeRun(() -> {
             if (rc != Code.OK.intValue()) {
                 callback.operationFailed(new MetaStoreException(KeeperException.create(Code.get(rc))));
             } else {
@@ -243,7 +295,14 @@ public class MetaStoreImplZookeeper implements MetaStore {
                     callback.operationFailed(new MetaStoreException(e));
                 }
             }
-        })), null);
+        }));
+
+        PrefetchedRead prefetchedRead = takePrefetchedRead(prefetchedData, path);
+        if (prefetchedRead != null) {
+            dataCallback.processResult(Code.OK.intValue(), path, null, prefetchedRead.data, prefetchedRead.stat);
+        } else {
+            zk.getData(path, false, dataCallback, null);
+        }
 
         if (log.isDebugEnabled()) {
             log.debug("Reading from {} ok", path);
@@ -258,6 +317,8 @@ public class MetaStoreImplZookeeper implements MetaStore {
 
         String path = prefix + ledgerName + "/" + cursorName;
         byte[] content = info.toByteArray(); // Binary format
+        prefetchedData.remove(path);
+        prefetchedChildren.remove(prefix + ledgerName);
 
         if (stat == null) {
             if (log.isDebugEnabled()) {
@@ -299,6 +360,8 @@ public class MetaStoreImplZookeeper implements MetaStore {
     public void asyncRemoveCursor(final String ledgerName, final String consumerName,
             final MetaStoreCallback<Void> callback) {
         log.info("[{}] Remove consumer={}", ledgerName, consumerName);
+        prefetchedData.remove(prefix + ledgerName + "/" + consumerName);
+        prefetchedChildren.remove(prefix + ledgerName);
         zk.delete(prefix + ledgerName + "/" + consumerName, -1,
                 (rc, path, ctx) -> executor.executeOrdered(ledgerName, safeRun(() -> {
             if (log.isDebugEnabled()) {
@@ -315,6 +378,8 @@ public class MetaStoreImplZookeeper implements MetaStore {
     @Override
     public void removeManagedLedger(String ledgerName, MetaStoreCallback<Void> callback) {
         log.info("[{}] Remove ManagedLedger", ledgerName);
+        prefetchedData.remove(prefix + ledgerName);
+        prefetchedChildren.remove(prefix + ledgerName);
         zk.delete(prefix + ledgerName, -1, (rc, path, ctx) -> executor.executeOrdered(ledgerName, safeRun(() -> {
             if (log.isDebugEnabled()) {
                 log.debug("[{}] zk delete done. rc={}", ledgerName, Code.get(rc));
@@ -327,6 +392,107 @@ public class MetaStoreImplZookeeper implements MetaStore {
         })), null);
     }
 
+    @Override
+    public CompletableFuture<Void> prefetchManagedLedgers(Collection<String> ledgerNames, int maxConcurrentReads) {
+        long now = System.nanoTime();
+        prefetchedData.values().removeIf(read -> read.isExpired(now));
+        prefetchedChildren.values().removeIf(read -> read.isExpired(now));
+
+        MetadataPrefetch prefetch = new MetadataPrefetch(maxConcurrentReads);
+        for (String ledgerName : ledgerNames) {
+            String ledgerPath = prefix + ledgerName;
+            prefetch.getData(ledgerPath);
+            prefetch.getChildren(ledgerPath,
+                    cursorNames -> cursorNames.forEach(cursorName -> prefetch.getData(ledgerPath + "/" + cursorName)));
+        }
+        prefetch.allSubmitted();
+        return prefetch.future;
+    }
+
+    private static PrefetchedRead takePrefetchedRead(Map<String, PrefetchedRead> prefetched, String path) {
+        if (prefetched.isEmpty()) {
+            return null;
+        }
+        PrefetchedRead read = prefetched.remove(path);
+        return read != null && !read.isExpired(System.nanoTime()) ? read : null;
+    }
+
+    /**
+     * Issues reads on ZooKeeper, keeping at most a given number of them in progress, and stores their results to be
+     * taken by the next reads of the same z-nodes.
+     */
+    private class MetadataPrefetch {
+        private final int maxConcurrentReads;
+        private final Deque<Runnable> queuedReads = new ArrayDeque<>();
+        private int readsInProgress = 0;
+        // Reads queued or in progress, plus one until all the initial reads are submitted
+        private int pendingReads = 1;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        MetadataPrefetch(int maxConcurrentReads) {
+            this.maxConcurrentReads = Math.max(1, maxConcurrentReads);
+        }
+
+        void getData(String path) {
+            submit(() -> zk.getData(path, false, (rc, path1, ctx, data, stat) -> {
+                if (rc == Code.OK.intValue()) {
+                    prefetchedData.put(path, new PrefetchedRead(data, null, stat));
+                }
+                readComplete();
+            }, null));
+        }
+
+        void getChildren(String path, Consumer<List<String>> childrenConsumer) {
+            submit(() -> zk.getChildren(path, false, (rc, path1, ctx, children, stat) -> {
+                if (rc == Code.OK.intValue()) {
+                    prefetchedChildren.put(path, new PrefetchedRead(null, children, stat));
+                    childrenConsumer.accept(children);
+                }
+                readComplete();
+            }, null));
+        }
+
+        private void submit(Runnable read) {
+            synchronized (this) {
+                pendingReads++;
+                if (readsInProgress >= maxConcurrentReads) {
+                    queuedReads.add(read);
+                    return;
+                }
+                readsInProgress++;
+            }
+            read.run();
+        }
+
+        private void readComplete() {
+            Runnable nextRead;
+            boolean completed;
+            synchronized (this) {
+                nextRead = queuedReads.poll();
+                if (nextRead == null) {
+                    readsInProgress--;
+                }
+                completed = --pendingReads == 0;
+            }
+            if (nextRead != null) {
+                nextRead.run();
+            }
+            if (completed) {
+                future.complete(null);
+            }
+        }
+
+        void allSubmitted() {
+            boolean completed;
+            synchronized (this) {
+                completed = --pendingReads == 0;
+            }
+            if (completed) {
+                future.complete(null);
+            }
+        }
+    }
+
     @Override
     public Iterable<String> getManagedLedgers() throws MetaStoreException {
         try {
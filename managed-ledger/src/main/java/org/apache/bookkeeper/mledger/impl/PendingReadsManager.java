@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
+
+/**
+ * Keeps track of the reads of a managed ledger that are in progress on the bookies, so that the reads of the same
+ * entries issued in the meantime share them instead of going to the bookies again.
+ *
+ * <p/>This is what happens when several subscriptions lag behind by about the same amount: their reads miss the
+ * cache and all ask for the same ranges at the same time. A read whose range is included in the range of a read in
+ * progress gets a view of its entries when it completes.
+ */
+class PendingReadsManager {
+
+    // Reads in progress, by ledger id
+    private final Map<Long, List<PendingRead>> pendingReads = new HashMap<>();
+
+    /**
+     * Reads entries from the bookies, or attaches to a read in progress of a range including them.
+     *
+     * <p/>The returned entries are owned by the caller, who has to close them.
+     */
+    CompletableFuture<LedgerEntries> readEntries(ReadHandle lh, long firstEntry, long lastEntry) {
+        final long ledgerId = lh.getId();
+        final CompletableFuture<LedgerEntries> future = new CompletableFuture<>();
+        final PendingRead read;
+
+        synchronized (pendingReads) {
+            List<PendingRead> reads = pendingReads.get(ledgerId);
+            if (reads != null) {
+                for (PendingRead pendingRead : reads) {
+                    if (pendingRead.firstEntry <= firstEntry && lastEntry <= pendingRead.lastEntry) {
+                        pendingRead.attach(firstEntry, lastEntry, future);
+                        return future;
+                    }
+                }
+            } else {
+                reads = new ArrayList<>();
+                pendingReads.put(ledgerId, reads);
+            }
+
+            read = new PendingRead(firstEntry, lastEntry);
+            read.attach(firstEntry, lastEntry, future);
+            reads.add(read);
+        }
+
+        lh.readAsync(firstEntry, lastEntry).whenComplete((ledgerEntries, exception) -> {
+            // No more readers can attach once the read is not listed anymore
+            synchronized (pendingReads) {
+                List<PendingRead> reads = pendingReads.get(ledgerId);
+                reads.remove(read);
+                if (reads.isEmpty()) {
+                    pendingReads.remove(ledgerId);
+                }
+            }
+
+            read.complete(lh, ledgerEntries, exception);
+        });
+        return future;
+    }
+
+    int getNumberOfPendingReads() {
+        synchronized (pendingReads) {
+            return pendingReads.values().stream().mapToInt(List::size).sum();
+        }
+    }
+
+    private static final class PendingRead {
+        final long firstEntry;
+        final long lastEntry;
+        final List<Reader> readers = new ArrayList<>(1);
+
+        PendingRead(long firstEntry, long lastEntry) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+        }
+
+        void attach(long firstEntry, long lastEntry, CompletableFuture<LedgerEntries> future) {
+            readers.add(new Reader(firstEntry, lastEntry, future));
+        }
+
+        void complete(ReadHandle lh, LedgerEntries ledgerEntries, Throwable exception) {
+            if (exception != null) {
+                readers.forEach(reader -> reader.future.completeExceptionally(exception));
+                return;
+            }
+
+            try {
+                List<LedgerEntry> entries = new ArrayList<>();
+                ledgerEntries.forEach(entries::add);
+
+                for (Reader reader : readers) {
+                    // Each reader gets its own view of the entries it asked for
+                    List<LedgerEntry> readerEntries = new ArrayList<>();
+                    for (LedgerEntry entry : entries) {
+                        if (entry.getEntryId() >= reader.firstEntry && entry.getEntryId() <= reader.lastEntry) {
+                            readerEntries.add(entry.duplicate());
+                        }
+                    }
+
+                    if (readerEntries.isEmpty()) {
+                        // The shared read came back short, let the reader do its own
+                        lh.readAsync(reader.firstEntry, reader.lastEntry).whenComplete((e, ex) -> {
+                            if (ex != null) {
+                                reader.future.completeExceptionally(ex);
+                            } else {
+                                reader.future.complete(e);
+                            }
+                        });
+                    } else {
+                        reader.future.complete(LedgerEntriesImpl.create(readerEntries));
+                    }
+                }
+            } finally {
+                ledgerEntries.close();
+            }
+        }
+    }
+
+    private static final class Reader {
+        final long firstEntry;
+        final long lastEntry;
+        final CompletableFuture<LedgerEntries> future;
+
+        Reader(long firstEntry, long lastEntry, CompletableFuture<LedgerEntries> future) {
+            this.firstEntry = firstEntry;
+            this.lastEntry = lastEntry;
+            this.future = future;
+        }
+    }
+}
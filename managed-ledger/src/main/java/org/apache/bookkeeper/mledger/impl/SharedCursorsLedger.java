@@ -0,0 +1,417 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.apache.bookkeeper.mledger.impl.ManagedCursorImpl.isBkErrorNotRecoverable;
+import static org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl.createManagedLedgerException;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.CursorPositionBatch;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.CursorPositionInfo;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ledger shared by all the cursors of a managed ledger to persist their mark-delete positions.
+ *
+ * <p/>The positions submitted while a write is in progress are grouped and written together in the next entry, so
+ * the number of writes depends on the number of managed ledgers rather than on the number of cursors. Every
+ * {@link #SNAPSHOT_INTERVAL} entries, the entry has the last position of every cursor of the ledger, so that the
+ * recovery only needs to read the entries from the last snapshot.
+ *
+ * <p/>When the ledger gets full, the next positions are written in a new ledger starting with a snapshot. Each cursor
+ * keeps the id of the ledger it recovers from in its z-node, and moves to the new ledger once it has written a
+ * position there. A ledger other than the current one is deleted when no cursor recovers from it anymore.
+ */
+class SharedCursorsLedger {
+
+    static final int SNAPSHOT_INTERVAL = 100;
+
+    private final ManagedLedgerImpl ledger;
+    private final BookKeeper bookkeeper;
+    private final Clock clock;
+
+    // Ledger being written, along with the id of the next entry
+    private LedgerHandle currentLedger = null;
+    private long nextEntryId = 0;
+    private long ledgerCreationTimestamp;
+    private boolean creatingLedger = false;
+    private boolean writeInProgress = false;
+
+    // Last position written for each cursor, repeated in the snapshots
+    private final Map<String, PositionInfo> positions = new HashMap<>();
+
+    // Positions to write in the next entry
+    private Map<String, PendingPosition> pendingPositions = new LinkedHashMap<>();
+
+    // Cursors recovering from each ledger
+    private final Map<Long, Set<String>> ledgerUsers = new HashMap<>();
+
+    // Positions read from the ledgers the cursors are recovering from
+    private final Map<Long, CompletableFuture<Map<String, PositionInfo>>> recoveredPositions =
+            new ConcurrentHashMap<>();
+
+    private static class PendingPosition {
+        PositionInfo position;
+        boolean join;
+        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+    }
+
+    SharedCursorsLedger(ManagedLedgerImpl ledger, BookKeeper bookkeeper, Clock clock) {
+        this.ledger = ledger;
+        this.bookkeeper = bookkeeper;
+        this.clock = clock;
+    }
+
+    /**
+     * Writes the position of a cursor that is going to recover from the ledger the position is written into.
+     *
+     * @return a future completed with the id of the ledger the position was written into, the cursor being registered
+     *         as recovering from it
+     */
+    CompletableFuture<Long> asyncJoin(String cursorName, PositionInfo position) {
+        return asyncPersist(cursorName, position, true);
+    }
+
+    /**
+     * Writes the position of a cursor, along with the positions of the other cursors submitted in the meantime.
+     *
+     * @return a future completed with the id of the ledger the position was written into
+     */
+    CompletableFuture<Long> asyncPersist(String cursorName, PositionInfo position) {
+        return asyncPersist(cursorName, position, false);
+    }
+
+    private CompletableFuture<Long> asyncPersist(String cursorName, PositionInfo position, boolean join) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        synchronized (this) {
+            PendingPosition pending = pendingPositions.computeIfAbsent(cursorName, name -> new PendingPosition());
+            pending.position = position;
+            pending.join |= join;
+            pending.futures.add(future);
+            flush();
+        }
+        return future;
+    }
+
+    // Must be called with the lock held
+    private void flush() {
+        if (writeInProgress || creatingLedger || pendingPositions.isEmpty()) {
+            return;
+        }
+        if (currentLedger == null) {
+            createLedger();
+            return;
+        }
+
+        Map<String, PendingPosition> batch = pendingPositions;
+        pendingPositions = new LinkedHashMap<>();
+
+        CursorPositionBatch.Builder builder = CursorPositionBatch.newBuilder();
+        if (nextEntryId % SNAPSHOT_INTERVAL == 0) {
+            builder.setSnapshot(true);
+            positions.forEach((name, position) -> {
+                if (!batch.containsKey(name)) {
+                    builder.addPositions(CursorPositionInfo.newBuilder().setCursorName(name).setPosition(position));
+                }
+            });
+        }
+        batch.forEach((name, pending) -> builder
+                .addPositions(CursorPositionInfo.newBuilder().setCursorName(name).setPosition(pending.position)));
+
+        writeInProgress = true;
+        final LedgerHandle lh = currentLedger;
+        lh.asyncAddEntry(builder.build().toByteArray(), (rc, lh1, entryId, ctx) -> addComplete(rc, lh, batch), null);
+    }
+
+    private void addComplete(int rc, LedgerHandle lh, Map<String, PendingPosition> batch) {
+        synchronized (this) {
+            writeInProgress = false;
+            if (rc == BKException.Code.OK) {
+                nextEntryId++;
+                batch.forEach((name, pending) -> {
+                    positions.put(name, pending.position);
+                    if (pending.join) {
+                        ledgerUsers.computeIfAbsent(lh.getId(), id -> new HashSet<>()).add(name);
+                    }
+                });
+                if (shouldCloseLedger()) {
+                    closeCurrentLedger();
+                }
+            } else {
+                log.warn("[{}] Error writing cursor positions to shared ledger {}: {}", ledger.getName(), lh.getId(),
+                        BKException.getMessage(rc));
+                // The ledger was closed by the failed write, the next positions go to a new one
+                closeCurrentLedger();
+            }
+            flush();
+        }
+
+        ManagedLedgerException exception = rc == BKException.Code.OK ? null : createManagedLedgerException(rc);
+        batch.values().forEach(pending -> pending.futures.forEach(future -> {
+            if (exception == null) {
+                future.complete(lh.getId());
+            } else {
+                future.completeExceptionally(exception);
+            }
+        }));
+    }
+
+    // Must be called with the lock held
+    private boolean shouldCloseLedger() {
+        ManagedLedgerConfig config = ledger.getConfig();
+        return nextEntryId > config.getMetadataMaxEntriesPerLedger()
+                || ledgerCreationTimestamp < clock.millis() - config.getLedgerRolloverTimeout() * 1000L;
+    }
+
+    // Must be called with the lock held
+    private void createLedger() {
+        creatingLedger = true;
+        ManagedLedgerConfig config = ledger.getConfig();
+        ledger.mbean.startCursorLedgerCreateOp();
+        ledger.asyncCreateLedger(bookkeeper, config, BookKeeper.DigestType.fromApiDigestType(config.getDigestType()),
+                (rc, lh, ctx) -> {
+                    if (ledger.checkAndCompleteLedgerOpTask(rc, lh, ctx)) {
+                        return;
+                    }
+                    ledger.mbean.endCursorLedgerCreateOp();
+
+                    List<PendingPosition> failed = Collections.emptyList();
+                    synchronized (this) {
+                        creatingLedger = false;
+                        if (rc == BKException.Code.OK) {
+                            log.info("[{}] Created shared cursors ledger {}", ledger.getName(), lh.getId());
+                            currentLedger = lh;
+                            nextEntryId = 0;
+                            ledgerCreationTimestamp = clock.millis();
+                            flush();
+                        } else {
+                            log.warn("[{}] Error creating shared cursors ledger: {}", ledger.getName(),
+                                    BKException.getMessage(rc));
+                            failed = new ArrayList<>(pendingPositions.values());
+                            pendingPositions = new LinkedHashMap<>();
+                        }
+                    }
+
+                    ManagedLedgerException exception = createManagedLedgerException(rc);
+                    failed.forEach(pending -> pending.futures
+                            .forEach(future -> future.completeExceptionally(exception)));
+                }, LedgerMetadataUtils.buildAdditionalMetadataForSharedCursors());
+    }
+
+    // Must be called with the lock held
+    private void closeCurrentLedger() {
+        LedgerHandle lh = currentLedger;
+        currentLedger = null;
+        ledger.mbean.startCursorLedgerCloseOp();
+        lh.asyncClose((rc, lh1, ctx) -> {
+            ledger.mbean.endCursorLedgerCloseOp();
+            if (rc != BKException.Code.OK) {
+                log.warn("[{}] Failed to close shared cursors ledger {}: {}", ledger.getName(), lh.getId(),
+                        BKException.getMessage(rc));
+            }
+        }, null);
+        deleteLedgerIfUnused(lh.getId());
+    }
+
+    /**
+     * Registers a cursor as recovering from the given ledger.
+     */
+    synchronized void addUser(String cursorName, long ledgerId) {
+        ledgerUsers.computeIfAbsent(ledgerId, id -> new HashSet<>()).add(cursorName);
+    }
+
+    /**
+     * Unregisters a cursor that doesn't recover from the given ledger anymore. The ledger is deleted once no cursor
+     * recovers from it, unless it is the current one.
+     */
+    synchronized void removeUser(String cursorName, long ledgerId) {
+        Set<String> users = ledgerUsers.get(ledgerId);
+        if (users != null) {
+            users.remove(cursorName);
+            deleteLedgerIfUnused(ledgerId);
+        }
+    }
+
+    /**
+     * Forgets a deleted cursor. The current ledger is deleted as well when it is not used by any cursor anymore.
+     */
+    synchronized void removeCursor(String cursorName) {
+        positions.remove(cursorName);
+        if (currentLedger != null && positions.isEmpty() && pendingPositions.isEmpty() && !writeInProgress
+                && ledgerUsers.getOrDefault(currentLedger.getId(), Collections.emptySet()).isEmpty()) {
+            closeCurrentLedger();
+        }
+    }
+
+    // Must be called with the lock held
+    private void deleteLedgerIfUnused(long ledgerId) {
+        if (!ledgerUsers.getOrDefault(ledgerId, Collections.emptySet()).isEmpty()
+                || (currentLedger != null && currentLedger.getId() == ledgerId)) {
+            return;
+        }
+        ledgerUsers.remove(ledgerId);
+        ledger.mbean.startCursorLedgerDeleteOp();
+        bookkeeper.asyncDeleteLedger(ledgerId, (rc, ctx) -> {
+            ledger.mbean.endCursorLedgerDeleteOp();
+            if (rc == BKException.Code.OK) {
+                log.info("[{}] Deleted shared cursors ledger {}", ledger.getName(), ledgerId);
+            } else {
+                log.warn("[{}] Failed to delete shared cursors ledger {}: {}", ledger.getName(), ledgerId,
+                        BKException.getMessage(rc));
+            }
+        }, null);
+    }
+
+    /**
+     * Reads the last position of a cursor from a shared ledger. The ledger is only read once for all its cursors.
+     *
+     * @return a future completed with the position, or with null if there is none for the cursor
+     */
+    CompletableFuture<PositionInfo> asyncReadPosition(long ledgerId, String cursorName) {
+        return recoveredPositions.computeIfAbsent(ledgerId, this::readPositions)
+                .thenApply(positions -> positions.get(cursorName));
+    }
+
+    /**
+     * Drops the positions read for the recovery of the cursors.
+     */
+    void recoveryCompleted() {
+        recoveredPositions.clear();
+    }
+
+    private CompletableFuture<Map<String, PositionInfo>> readPositions(long ledgerId) {
+        CompletableFuture<Map<String, PositionInfo>> future = new CompletableFuture<>();
+        ManagedLedgerConfig config = ledger.getConfig();
+        ledger.mbean.startCursorLedgerOpenOp();
+        bookkeeper.asyncOpenLedger(ledgerId, BookKeeper.DigestType.fromApiDigestType(config.getDigestType()),
+                config.getPassword(), (rc, lh, ctx) -> {
+                    ledger.mbean.endCursorLedgerOpenOp();
+                    if (rc != BKException.Code.OK) {
+                        completeRead(future, ledgerId, rc, Collections.emptyMap());
+                        return;
+                    }
+
+                    long lastEntry = lh.getLastAddConfirmed();
+                    if (lastEntry < 0) {
+                        log.warn("[{}] No entries in shared cursors ledger {}", ledger.getName(), ledgerId);
+                        future.complete(Collections.emptyMap());
+                        lh.asyncClose((rc1, lh1, ctx1) -> {
+                        }, null);
+                        return;
+                    }
+
+                    // Read from the last snapshot
+                    long firstEntry = lastEntry - lastEntry % SNAPSHOT_INTERVAL;
+                    lh.asyncReadEntries(firstEntry, lastEntry, (rc1, lh1, entries, ctx1) -> {
+                        Map<String, PositionInfo> positions = new HashMap<>();
+                        if (rc1 == BKException.Code.OK) {
+                            try {
+                                readPositions(entries, positions);
+                            } catch (InvalidProtocolBufferException e) {
+                                future.completeExceptionally(new ManagedLedgerException(e));
+                                return;
+                            }
+                        }
+                        completeRead(future, ledgerId, rc1, positions);
+                        lh.asyncClose((rc2, lh2, ctx2) -> {
+                        }, null);
+                    }, null);
+                }, null);
+        return future;
+    }
+
+    private static void readPositions(Enumeration<LedgerEntry> entries, Map<String, PositionInfo> positions)
+            throws InvalidProtocolBufferException {
+        while (entries.hasMoreElements()) {
+            CursorPositionBatch batch = CursorPositionBatch.parseFrom(entries.nextElement().getEntry());
+            for (CursorPositionInfo position : batch.getPositionsList()) {
+                positions.put(position.getCursorName(), position.getPosition());
+            }
+        }
+    }
+
+    private void completeRead(CompletableFuture<Map<String, PositionInfo>> future, long ledgerId, int rc,
+            Map<String, PositionInfo> positions) {
+        if (rc == BKException.Code.OK) {
+            future.complete(positions);
+        } else if (isBkErrorNotRecoverable(rc)) {
+            // The cursors will rewind to their last snapshotted position
+            log.error("[{}] Error reading shared cursors ledger {}: {}", ledger.getName(), ledgerId,
+                    BKException.getMessage(rc));
+            future.complete(Collections.emptyMap());
+        } else {
+            log.warn("[{}] Error reading shared cursors ledger {}: {}", ledger.getName(), ledgerId,
+                    BKException.getMessage(rc));
+            recoveredPositions.remove(ledgerId, future);
+            future.completeExceptionally(createManagedLedgerException(rc));
+        }
+    }
+
+    /**
+     * Closes the current ledger, once all the cursors are closed.
+     */
+    CompletableFuture<Void> asyncClose() {
+        LedgerHandle lh;
+        synchronized (this) {
+            lh = currentLedger;
+            currentLedger = null;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (lh == null) {
+            future.complete(null);
+            return future;
+        }
+        ledger.mbean.startCursorLedgerCloseOp();
+        lh.asyncClose((rc, lh1, ctx) -> {
+            ledger.mbean.endCursorLedgerCloseOp();
+            if (rc == BKException.Code.OK) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(createManagedLedgerException(rc));
+            }
+        }, null);
+        return future;
+    }
+
+    synchronized long getCurrentLedgerId() {
+        return currentLedger != null ? currentLedger.getId() : -1;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(SharedCursorsLedger.class);
+}
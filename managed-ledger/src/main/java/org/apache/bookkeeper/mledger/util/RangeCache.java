@@ -44,6 +44,7 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
     private AtomicLong size; // Total size of values stored in cache
     private final Weighter<Value> weighter; // Weighter object used to extract the size from values
     private final TimestampExtractor<Value> timestampExtractor; // Extract the timestamp associated with a value
+    private final EvictionListener<Key, Value> evictionListener; // Notified of the values evicted, may be null
 
     /**
      * Construct a new RangeLruCache with default Weighter.
@@ -59,10 +60,25 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
      *            a custom weighter to compute the size of each stored value
      */
     public RangeCache(Weighter<Value> weighter, TimestampExtractor<Value> timestampExtractor) {
+        this(weighter, timestampExtractor, null);
+    }
+
+    /**
+     * Construct a new RangeLruCache.
+     *
+     * @param weighter
+     *            a custom weighter to compute the size of each stored value
+     * @param evictionListener
+     *            listener notified of the values evicted by {@link #evictLeastAccessedEntries(long)} and
+     *            {@link #evictLEntriesBeforeTimestamp(long)}, before they are released
+     */
+    public RangeCache(Weighter<Value> weighter, TimestampExtractor<Value> timestampExtractor,
+            EvictionListener<Key, Value> evictionListener) {
         this.size = new AtomicLong(0);
         this.entries = new ConcurrentSkipListMap<>();
         this.weighter = weighter;
         this.timestampExtractor = timestampExtractor;
+        this.evictionListener = evictionListener;
     }
 
     /**
@@ -170,6 +186,9 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
             Value value = entry.getValue();
             ++removedEntries;
             removedSize += weighter.getSize(value);
+            if (evictionListener != null) {
+                evictionListener.entryEvicted(entry.getKey(), value);
+            }
             value.release();
         }
 
@@ -198,6 +217,9 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
 
            Value value = entry.getValue();
            removedSize += weighter.getSize(value);
+           if (evictionListener != null) {
+               evictionListener.entryEvicted(entry.getKey(), value);
+           }
            value.release();
        }
 
@@ -219,9 +241,12 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
     /**
      * Remove all the entries from the cache.
      *
-     * @return the old size
+     * <p/>Entries are polled one at a time, so concurrent calls, or a put racing with a clear, never release the same
+     * value twice nor account for its size twice.
+     *
+     * @return the total size of the removed entries
      */
-    public synchronized long clear() {
+    public long clear() {
         long removedSize = 0;
 
         while (true) {
@@ -234,8 +259,8 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
             value.release();
         }
 
-        entries.clear();
-        return size.getAndAdd(-removedSize);
+        size.addAndGet(-removedSize);
+        return removedSize;
     }
 
     /**
@@ -256,6 +281,16 @@ public class RangeCache<Key extends Comparable<Key>, Value extends ReferenceCoun
         long getTimestamp(ValueT value);
     }
 
+    /**
+     * Interface of a object that is notified of the values evicted from the cache.
+     *
+     * @param <KeyT>
+     * @param <ValueT>
+     */
+    public interface EvictionListener<KeyT, ValueT> {
+        void entryEvicted(KeyT key, ValueT value);
+    }
+
     /**
      * Default cache weighter, every value is assumed the same cost.
      *
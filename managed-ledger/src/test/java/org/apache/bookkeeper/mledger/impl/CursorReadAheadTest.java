@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
+import org.testng.annotations.Test;
+
+@Test
+public class CursorReadAheadTest extends MockedBookKeeperTestCase {
+
+    private ManagedLedger openLedger(String name) throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        // Disable the cache, so that all the reads go to the bookies
+        config.setMaxCacheSize(0);
+        config.setReadAheadMaxSize(1024 * 1024);
+        config.setReadAheadMaxBatches(3);
+        factory.shutdown();
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+
+        return factory.open(name, new ManagedLedgerConfig().setMaxEntriesPerLedger(50));
+    }
+
+    private void addEntries(ManagedLedger ledger, int entries) throws Exception {
+        for (int i = 0; i < entries; i++) {
+            ledger.addEntry(("entry-" + i).getBytes());
+        }
+    }
+
+    private void readAndCheck(ManagedCursor cursor, int numberOfEntries, int firstExpected) throws Exception {
+        List<Entry> entries = cursor.readEntries(numberOfEntries);
+        assertEquals(entries.size(), numberOfEntries);
+        for (int i = 0; i < numberOfEntries; i++) {
+            assertEquals(new String(entries.get(i).getData()), "entry-" + (firstExpected + i));
+        }
+        entries.forEach(Entry::release);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws Exception {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void sequentialReader() throws Exception {
+        ManagedLedger ledger = openLedger("sequential_reader");
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        ManagedCursor cursor = ledger.openCursor("c1");
+        addEntries(ledger, 120);
+
+        readAndCheck(cursor, 5, 0);
+        assertEquals(cacheManager.getReadAheadSize(), 0);
+
+        // Second read back to back with the first one, the next batch gets prefetched
+        readAndCheck(cursor, 5, 5);
+        waitUntil(() -> cacheManager.getReadAheadSize() > 0);
+
+        // Read the whole backlog, across the ledgers, while the read-ahead keeps prefetching
+        for (int i = 10; i < 120; i += 5) {
+            readAndCheck(cursor, 5, i);
+        }
+        assertEquals(cursor.hasMoreEntries(), false);
+
+        cursor.close();
+        waitUntil(() -> cacheManager.getReadAheadSize() == 0);
+        ledger.close();
+    }
+
+    @Test
+    void seekDiscardsPrefetchedEntries() throws Exception {
+        ManagedLedger ledger = openLedger("seek_discards");
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        ManagedCursor cursor = ledger.openCursor("c1");
+        addEntries(ledger, 40);
+
+        readAndCheck(cursor, 4, 0);
+        readAndCheck(cursor, 4, 4);
+        readAndCheck(cursor, 4, 8);
+        waitUntil(() -> cacheManager.getReadAheadSize() > 0);
+
+        // Moving the cursor back drops what was prefetched ahead of it
+        cursor.rewind();
+        readAndCheck(cursor, 4, 0);
+        waitUntil(() -> cacheManager.getReadAheadSize() == 0);
+
+        readAndCheck(cursor, 4, 4);
+        readAndCheck(cursor, 4, 8);
+
+        ledger.deleteCursor("c1");
+        waitUntil(() -> cacheManager.getReadAheadSize() == 0);
+        ledger.close();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.mledger.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import org.apache.bookkeeper.mledger.proto.MLDataFormats.PositionInfo;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenLongPairRangeSet;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPairConsumer;
+import org.testng.annotations.Test;
+
+public class DeletedEntriesCodecTest {
+
+    private static final LongPairConsumer<PositionImpl> positionRangeConverter = PositionImpl::new;
+
+    private static PositionInfo encode(LongPairRangeSet<PositionImpl> set, int maxRanges) {
+        PositionInfo.Builder builder = PositionInfo.newBuilder().setLedgerId(1).setEntryId(-1);
+        DeletedEntriesCodec.encode(set, maxRanges, builder);
+        return builder.build();
+    }
+
+    private static LongPairRangeSet<PositionImpl> decode(PositionInfo positionInfo) {
+        LongPairRangeSet<PositionImpl> set = new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        positionInfo.getIndividualDeletedMessagesList().forEach(range -> set.addOpenClosed(
+                range.getLowerEndpoint().getLedgerId(), range.getLowerEndpoint().getEntryId(),
+                range.getUpperEndpoint().getLedgerId(), range.getUpperEndpoint().getEntryId()));
+        DeletedEntriesCodec.decode(positionInfo, set);
+        return set;
+    }
+
+    @Test
+    public void testRuns() {
+        LongPairRangeSet<PositionImpl> set = new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        set.addOpenClosed(1, -1, 1, 10);
+        set.addOpenClosed(1, 1000, 1, 1005);
+        set.addOpenClosed(3, 100000, 3, 200000);
+        // Range over 2 ledgers
+        set.addOpenClosed(4, 10, 5, 3);
+
+        PositionInfo positionInfo = encode(set, 100);
+        assertEquals(positionInfo.getIndividualDeletedEntriesCount(), 2);
+        assertFalse(positionInfo.getIndividualDeletedEntries(0).hasBitmap());
+        assertEquals(positionInfo.getIndividualDeletedMessagesCount(), 1);
+
+        assertEquals(new ArrayList<>(decode(positionInfo).asRanges()), new ArrayList<>(set.asRanges()));
+    }
+
+    @Test
+    public void testBitmap() {
+        LongPairRangeSet<PositionImpl> set = new ConcurrentOpenLongPairRangeSet<>(4096, positionRangeConverter);
+        // Every other message acknowledged
+        for (int i = 0; i < 200000; i += 2) {
+            set.addOpenClosed(7, i - 1, 7, i);
+        }
+        set.addOpenClosed(8, 5, 8, 5000);
+
+        PositionInfo positionInfo = encode(set, 200000);
+        assertEquals(positionInfo.getIndividualDeletedEntriesCount(), 2);
+        assertTrue(positionInfo.getIndividualDeletedEntries(0).hasBitmap());
+        assertFalse(positionInfo.getIndividualDeletedEntries(1).hasBitmap());
+        assertTrue(positionInfo.getSerializedSize() < 30 * 1024);
+
+        LongPairRangeSet<PositionImpl> decoded = decode(positionInfo);
+        assertEquals(decoded.size(), 100001);
+        assertEquals(new ArrayList<>(decoded.asRanges()), new ArrayList<>(set.asRanges()));
+    }
+
+    @Test
+    public void testMaxRanges() {
+        LongPairRangeSet<PositionImpl> set = new LongPairRangeSet.DefaultRangeSet<>(positionRangeConverter);
+        for (int i = 0; i < 100; i += 2) {
+            set.addOpenClosed(1, i, 1, i + 1);
+        }
+
+        LongPairRangeSet<PositionImpl> decoded = decode(encode(set, 10));
+        assertEquals(decoded.size(), 10);
+        assertEquals(decoded.firstRange(), set.firstRange());
+    }
+}
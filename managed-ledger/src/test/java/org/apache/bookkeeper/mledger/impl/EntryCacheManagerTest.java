@@ -127,6 +127,98 @@ public class EntryCacheManagerTest extends MockedBookKeeperTestCase {
         assertEquals(cacheManager.mlFactoryMBean.getNumberOfCacheEvictions(), 1);
     }
 
+    @Test
+    void clockSweepEviction() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(10);
+        config.setCacheEvictionWatermark(0.8);
+        config.setCacheEvictionClockSweep(true);
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache cache1 = cacheManager.getEntryCache(ml1);
+        EntryCache cache2 = cacheManager.getEntryCache(ml2);
+
+        cache1.insert(EntryImpl.create(1, 0, new byte[3]));
+        cache1.insert(EntryImpl.create(1, 1, new byte[4]));
+        cache2.insert(EntryImpl.create(2, 0, new byte[1]));
+        cache2.insert(EntryImpl.create(2, 1, new byte[1]));
+        cache2.insert(EntryImpl.create(2, 2, new byte[1]));
+        assertEquals(cacheManager.getSize(), 10);
+        assertEquals(cacheManager.getClockSegments(), 2);
+
+        // Reading from cache1 gives its ledger a second chance in the clock sweep
+        ReadHandle lh = mock(ReadHandle.class);
+        when(lh.getId()).thenReturn(1L);
+        CountDownLatch latch = new CountDownLatch(1);
+        cache1.asyncReadEntry(lh, 0, 1, false, new AsyncCallbacks.ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                assertEquals(entries.size(), 2);
+                entries.forEach(Entry::release);
+                latch.countDown();
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        }, null);
+        latch.await();
+
+        // Next insert should trigger a cache eviction to force the size to 8.
+        // The sweep should skip the recently read ledger of cache1 and evict from cache2
+        cache2.insert(EntryImpl.create(2, 3, new byte[1]));
+
+        // Wait for eviction to be completed in background
+        Thread.sleep(100);
+        assertEquals(cacheManager.getSize(), 8);
+        assertEquals(cache1.getSize(), 7);
+        assertEquals(cache2.getSize(), 1);
+
+        // Dropping the ledger removes its segment from the sweep
+        cache1.invalidateAllEntries(1);
+        assertEquals(cacheManager.getSize(), 1);
+        assertEquals(cache1.getSize(), 0);
+        assertEquals(cacheManager.getClockSegments(), 1);
+
+        cacheManager.doClockEviction(1);
+        assertEquals(cacheManager.getSize(), 0);
+        assertEquals(cache2.getSize(), 0);
+
+        cache2.clear();
+        assertEquals(cacheManager.getClockSegments(), 0);
+    }
+
+    @Test
+    void clockSweepRingDropsInvalidatedSegments() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setMaxCacheSize(1000);
+        config.setCacheEvictionClockSweep(true);
+
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache cache1 = cacheManager.getEntryCache(ml1);
+
+        // Roll over a few ledgers without ever filling the cache, so no eviction runs
+        for (long ledgerId = 1; ledgerId <= 5; ledgerId++) {
+            cache1.insert(EntryImpl.create(ledgerId, 0, new byte[1]));
+        }
+        assertEquals(cacheManager.getClockSegments(), 5);
+
+        cache1.invalidateEntries(new PositionImpl(4, 0));
+        assertEquals(cacheManager.getClockSegments(), 2);
+
+        cache1.invalidateAllEntries(5);
+        assertEquals(cacheManager.getClockSegments(), 1);
+
+        cacheManager.removeEntryCache(ml1.getName());
+        assertEquals(cacheManager.getClockSegments(), 0);
+        assertEquals(cacheManager.getSize(), 0);
+    }
+
     @Test
     void doubleInsert() throws Exception {
         ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
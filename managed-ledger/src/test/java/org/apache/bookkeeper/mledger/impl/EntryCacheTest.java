@@ -26,22 +26,33 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 import io.netty.buffer.Unpooled;
 
+import java.io.File;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.bookkeeper.client.BKException.BKNoSuchLedgerExistsException;
 import org.apache.bookkeeper.client.api.LedgerEntries;
 import org.apache.bookkeeper.client.api.LedgerEntry;
 import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
+import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.commons.io.FileUtils;
 import org.apache.bookkeeper.test.MockedBookKeeperTestCase;
 import org.mockito.Mockito;
 import org.testng.Assert;
@@ -94,6 +105,281 @@ public class EntryCacheTest extends MockedBookKeeperTestCase {
         verify(lh, never()).readAsync(anyLong(), anyLong());
     }
 
+    @Test(timeOut = 5000)
+    void testStickyKeyHashKeptWithCachedEntry() throws Exception {
+        ReadHandle lh = getLedgerHandle();
+        when(lh.getId()).thenReturn((long) 0);
+
+        EntryCacheManager cacheManager = factory.getEntryCacheManager();
+        EntryCache entryCache = cacheManager.getEntryCache(ml);
+
+        byte[] data = new byte[10];
+        for (int i = 0; i < 10; i++) {
+            entryCache.insert(EntryImpl.create(0, i, data));
+        }
+
+        List<Entry> firstRead = readEntries(entryCache, lh, 0, 9);
+        for (Entry entry : firstRead) {
+            assertEquals(((EntryImpl) entry).getStickyKeyHash(), -1);
+            entryCache.setStickyKeyHash((PositionImpl) entry.getPosition(), (int) entry.getEntryId() * 10);
+        }
+        firstRead.forEach(Entry::release);
+
+        // The copies served for the next reads carry the hash stored in the cache on the first read
+        List<Entry> secondRead = readEntries(entryCache, lh, 0, 9);
+        for (Entry entry : secondRead) {
+            assertEquals(((EntryImpl) entry).getStickyKeyHash(), (int) entry.getEntryId() * 10);
+        }
+        secondRead.forEach(Entry::release);
+    }
+
+    private static List<Entry> readEntries(EntryCache entryCache, ReadHandle lh, long first, long last)
+            throws Exception {
+        CompletableFuture<List<Entry>> future = new CompletableFuture<>();
+        entryCache.asyncReadEntry(lh, first, last, false, new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                future.complete(entries);
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null);
+        return future.get();
+    }
+
+    @Test(timeOut = 5000)
+    void testCopyEntriesIntoSlabs() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setCopyEntriesInCache(true);
+        config.setCacheSlabSize(100);
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+        long initialSlabsMemory = EntryCacheImpl.SLAB_ALLOCATOR.metric().usedDirectMemory();
+        long initialSlabsResidentSize = EntryCacheImpl.getSlabResidentSize();
+
+        // 3 entries fit in each slab
+        for (int i = 0; i < 10; i++) {
+            EntryImpl entry = EntryImpl.create(0, i, new byte[30]);
+            entryCache.insert(entry);
+            entry.release();
+        }
+        assertEquals(entryCache.getSize(), 300);
+        assertEquals(EntryCacheImpl.SLAB_ALLOCATOR.metric().usedDirectMemory() - initialSlabsMemory, 400);
+        assertEquals(EntryCacheImpl.getSlabResidentSize() - initialSlabsResidentSize, 300);
+
+        // Removing the entries of the first slab frees it
+        entryCache.invalidateEntries(new PositionImpl(0, 3));
+        assertEquals(entryCache.getSize(), 210);
+        assertEquals(EntryCacheImpl.SLAB_ALLOCATOR.metric().usedDirectMemory() - initialSlabsMemory, 300);
+        assertEquals(EntryCacheImpl.getSlabResidentSize() - initialSlabsResidentSize, 210);
+
+        // Entries bigger than a slab get their own buffer
+        EntryImpl bigEntry = EntryImpl.create(1, 0, new byte[150]);
+        entryCache.insert(bigEntry);
+        bigEntry.release();
+        assertEquals(EntryCacheImpl.SLAB_ALLOCATOR.metric().usedDirectMemory() - initialSlabsMemory, 450);
+        assertEquals(EntryCacheImpl.getSlabResidentSize() - initialSlabsResidentSize, 360);
+
+        entryCache.clear();
+        assertEquals(entryCache.getSize(), 0);
+        assertEquals(EntryCacheImpl.SLAB_ALLOCATOR.metric().usedDirectMemory() - initialSlabsMemory, 0);
+        assertEquals(EntryCacheImpl.getSlabResidentSize() - initialSlabsResidentSize, 0);
+
+        // Entries cached without slabs are not counted as resident in the slabs
+        EntryCache unslabbedCache = new EntryCacheImpl(factory.getEntryCacheManager(), ml, true, 0);
+        EntryImpl entry = EntryImpl.create(2, 0, new byte[30]);
+        unslabbedCache.insert(entry);
+        entry.release();
+        assertEquals(unslabbedCache.getSize(), 30);
+        assertEquals(EntryCacheImpl.getSlabResidentSize() - initialSlabsResidentSize, 0);
+        unslabbedCache.clear();
+    }
+
+    @Test(timeOut = 5000)
+    void testShareConcurrentReads() throws Exception {
+        ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+        config.setShareConcurrentReads(true);
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+
+        EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+
+        ReadHandle lh = mock(ReadHandle.class);
+        when(lh.getId()).thenReturn((long) 0);
+        CompletableFuture<LedgerEntries> bookieRead = new CompletableFuture<>();
+        when(lh.readAsync(anyLong(), anyLong())).thenReturn(bookieRead);
+
+        // Two subscriptions reading the same backlog at the same time, one of them a subset of the other
+        List<List<Entry>> results = new Vector<>();
+        CountDownLatch counter = new CountDownLatch(2);
+        ReadEntriesCallback callback = new ReadEntriesCallback() {
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                results.add(entries);
+                counter.countDown();
+            }
+
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                Assert.fail("should not have failed");
+            }
+        };
+        entryCache.asyncReadEntry(lh, 0, 9, false, callback, null);
+        entryCache.asyncReadEntry(lh, 3, 5, false, callback, null);
+
+        // Only one read is sent to the bookies
+        verify(lh, Mockito.times(1)).readAsync(anyLong(), anyLong());
+
+        List<LedgerEntry> ledgerEntries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ledgerEntries.add(LedgerEntryImpl.create(0, i, 1, Unpooled.wrappedBuffer(new byte[] { (byte) i })));
+        }
+        bookieRead.complete(LedgerEntriesImpl.create(ledgerEntries));
+        counter.await();
+
+        results.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        assertEquals(results.get(0).size(), 3);
+        assertEquals(results.get(0).get(0).getEntryId(), 3);
+        assertEquals(results.get(0).get(0).getData()[0], 3);
+        assertEquals(results.get(1).size(), 10);
+        assertEquals(results.get(1).get(9).getData()[0], 9);
+        results.forEach(entries -> entries.forEach(Entry::release));
+    }
+
+    @Test(timeOut = 5000)
+    void testReadFromDiskTier() throws Exception {
+        File directory = Files.createTempDirectory("entry-cache-tier").toFile();
+        try {
+            ManagedLedgerFactoryConfig config = new ManagedLedgerFactoryConfig();
+            config.setCacheDiskTierMaxSize(300);
+            config.setCacheDiskTierSegmentSize(100);
+            config.setCacheDiskTierDirectory(directory.getAbsolutePath());
+            factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle(), config);
+
+            EntryCache entryCache = factory.getEntryCacheManager().getEntryCache(ml);
+            for (int i = 0; i < 10; i++) {
+                EntryImpl entry = EntryImpl.create(0, i, new byte[] { (byte) i, (byte) i });
+                entryCache.insert(entry);
+                entry.release();
+            }
+
+            // The evicted entries are spilled into the disk tier, the invalidated ones are dropped
+            entryCache.evictEntries(10);
+            entryCache.invalidateEntries(new PositionImpl(0, 7));
+            assertEquals(entryCache.getSize(), 6);
+            assertEquals(directory.list().length, 1);
+
+            ReadHandle lh = mock(ReadHandle.class);
+            when(lh.getId()).thenReturn((long) 0);
+            List<Entry> results = new Vector<>();
+            CountDownLatch counter = new CountDownLatch(2);
+            ReadEntriesCallback callback = new ReadEntriesCallback() {
+                public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                    results.addAll(entries);
+                    counter.countDown();
+                }
+
+                public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                    Assert.fail("should not have failed");
+                }
+            };
+
+            // The evicted entries are read back from the disk tier
+            entryCache.asyncReadEntry(lh, 0, 4, false, callback, null);
+            entryCache.asyncReadEntry(lh, 3, 4, false, callback, null);
+            counter.await();
+            verify(lh, never()).readAsync(anyLong(), anyLong());
+            assertEquals(results.size(), 7);
+            for (Entry entry : results) {
+                assertEquals(entry.getData(), new byte[] { (byte) entry.getEntryId(), (byte) entry.getEntryId() });
+                entry.release();
+            }
+
+            // Fill more segments than the tier holds, which drops the oldest one
+            for (int i = 0; i < 200; i++) {
+                EntryImpl entry = EntryImpl.create(1, i, new byte[2]);
+                entryCache.insert(entry);
+                entry.release();
+            }
+            entryCache.evictEntries(1000);
+            assertEquals(directory.list().length, 3);
+            EntryCacheDiskTier diskTier = factory.getEntryCacheManager().getDiskTier();
+            assertTrue(diskTier.get(0, 0) == null);
+            EntryImpl entry = diskTier.get(1, 199);
+            assertEquals(entry.getLength(), 2);
+            entry.release();
+
+            factory.getEntryCacheManager().close();
+            assertEquals(directory.list().length, 0);
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test(timeOut = 30000)
+    void testDiskTierUnmapsDroppedSegments() throws Exception {
+        File directory = Files.createTempDirectory("entry-cache-tier").toFile();
+        EntryCacheDiskTier diskTier = new EntryCacheDiskTier(directory, 200, 100);
+        try {
+            AtomicBoolean done = new AtomicBoolean(false);
+            AtomicInteger nextEntryId = new AtomicInteger(0);
+            AtomicBoolean invalidRead = new AtomicBoolean(false);
+
+            // Read the latest entries while the writer keeps dropping the oldest segments under them
+            List<Thread> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Thread reader = new Thread(() -> {
+                    while (!done.get()) {
+                        int entryId = Math.max(0, nextEntryId.get() - 25);
+                        EntryImpl entry = diskTier.get(0, entryId);
+                        if (entry != null) {
+                            if (entry.getData()[0] != (byte) entryId) {
+                                invalidRead.set(true);
+                            }
+                            entry.release();
+                        }
+                    }
+                });
+                reader.start();
+                readers.add(reader);
+            }
+
+            for (int i = 0; i < 10000; i++) {
+                EntryImpl entry = EntryImpl.create(0, i, new byte[] { (byte) i, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+                diskTier.put(entry.getPosition(), entry);
+                entry.release();
+                nextEntryId.set(i + 1);
+            }
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            assertFalse(invalidRead.get());
+
+            // The dropped segments are deleted and no longer mapped, without waiting for a garbage collection
+            assertEquals(directory.list().length, 2);
+            assertEquals(diskTier.getSize(), 200);
+            assertTrue(diskTier.get(0, 0) == null);
+            assertEquals(countMappedFiles(directory), 2);
+
+            diskTier.close();
+            assertEquals(directory.list().length, 0);
+            assertEquals(countMappedFiles(directory), 0);
+        } finally {
+            diskTier.close();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private static long countMappedFiles(File directory) throws Exception {
+        File maps = new File("/proc/self/maps");
+        if (!maps.exists()) {
+            // Not observable on this platform
+            return directory.list().length;
+        }
+        String path = directory.getCanonicalPath();
+        return Files.readAllLines(maps.toPath()).stream().filter(line -> line.contains(path)).count();
+    }
+
     @Test(timeOut = 5000)
     void testReadMissingBefore() throws Exception {
         ReadHandle lh = getLedgerHandle();
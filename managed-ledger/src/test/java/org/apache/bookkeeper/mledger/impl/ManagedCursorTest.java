@@ -44,6 +44,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -60,6 +61,7 @@ import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.BookKeeper;
 import org.apache.bookkeeper.client.BookKeeper.DigestType;
 import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.DeleteCallback;
@@ -2228,6 +2230,46 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         }
     }
 
+    @Test(timeOut = 20000)
+    void testReplayEntriesWithHoles() throws Exception {
+        ManagedLedger ledger = factory.open("my_test_ledger_replay_holes",
+                new ManagedLedgerConfig().setMaxEntriesPerLedger(50));
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        List<PositionImpl> added = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            added.add((PositionImpl) ledger.addEntry(("entry" + i).getBytes(Encoding)));
+        }
+
+        // Holes smaller and larger than the ones read along, and positions on both ledgers
+        int[] indexes = { 0, 1, 3, 8, 9, 30, 49, 50, 51, 56, 99 };
+        Set<PositionImpl> positions = Sets.newHashSet();
+        for (int index : indexes) {
+            positions.add(added.get(index));
+        }
+
+        CompletableFuture<List<Entry>> future = new CompletableFuture<>();
+        c1.asyncReplayEntries(positions, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                future.complete(entries);
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        }, null, true);
+
+        List<Entry> entries = future.get();
+        assertEquals(entries.size(), indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            assertEquals(entries.get(i).getPosition(), added.get(indexes[i]));
+            assertEquals(new String(entries.get(i).getData(), Encoding), "entry" + indexes[i]);
+        }
+        entries.forEach(Entry::release);
+    }
+
     @Test(timeOut = 20000)
     void testGetLastIndividualDeletedRange() throws Exception {
         ManagedLedger ledger = factory.open("test_last_individual_deleted");
@@ -2724,6 +2766,172 @@ public class ManagedCursorTest extends MockedBookKeeperTestCase {
         assertEquals(entries.size(), totalAddEntries / 2);
     }
 
+    @Test(timeOut = 20000)
+    public void testOutOfOrderDeletePersistenceWithCompactEncoding() throws Exception {
+        final int totalAddEntries = 1000;
+        String ledgerName = "my_test_ledger_compact";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig();
+        managedLedgerConfig.setMaxUnackedRangesToPersistInZk(10);
+        managedLedgerConfig.setUnackedRangesCompactEncodingEnabled(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+
+        for (int i = 0; i < totalAddEntries; i++) {
+            Position p = ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding));
+            if (i % 2 == 0 || i % 7 == 0) {
+                c1.delete(p);
+            }
+        }
+        long backlog = c1.getNumberOfEntriesInBacklog();
+
+        // Close ledger to persist individual-deleted positions into cursor-ledger
+        ledger.close();
+
+        // verify cursor-ledger's last entry has the compact encoding of the individual-deleted positions
+        LedgerHandle lh = bkc.openLedger(c1.getCursorLedger(), DigestType.CRC32C, "".getBytes());
+        long lastEntry = lh.getLastAddConfirmed();
+        PositionInfo positionInfo = PositionInfo
+                .parseFrom(lh.readEntries(lastEntry, lastEntry).nextElement().getEntry());
+        assertEquals(positionInfo.getIndividualDeletedMessagesCount(), 0);
+        assertEquals(positionInfo.getIndividualDeletedEntriesCount(), 1);
+
+        // Re-Open
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        // verify cursor has been recovered
+        assertEquals(c1.getNumberOfEntriesInBacklog(), backlog);
+
+        List<Entry> entries = c1.readEntries(totalAddEntries);
+        assertEquals(entries.size(), backlog);
+        assertEquals(new String(entries.get(0).getData(), Encoding), "dummy-entry-1");
+        entries.forEach(Entry::release);
+    }
+
+    @Test(timeOut = 20000)
+    public void testOutOfOrderDeletePersistenceWithRoaringSet() throws Exception {
+        final int totalAddEntries = 100;
+        String ledgerName = "my_test_ledger_roaring";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig();
+        managedLedgerConfig.setUnackedRangesRoaringSetEnabled(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+
+        List<Position> addedPositions = new ArrayList<>();
+        for (int i = 0; i < totalAddEntries; i++) {
+            addedPositions.add(ledger.addEntry(("dummy-entry-" + i).getBytes(Encoding)));
+        }
+        // Acknowledge every other message, and then the first one
+        for (int i = 2; i < totalAddEntries; i += 2) {
+            c1.delete(addedPositions.get(i));
+        }
+        assertEquals(c1.getIndividuallyDeletedMessagesSet().size(), totalAddEntries / 2 - 1);
+        c1.delete(addedPositions.get(0));
+        assertEquals(c1.getMarkDeletedPosition(), addedPositions.get(0));
+        assertEquals(c1.getIndividuallyDeletedMessagesSet().size(), totalAddEntries / 2 - 1);
+        long backlog = c1.getNumberOfEntriesInBacklog();
+        assertEquals(backlog, totalAddEntries / 2);
+
+        ledger.close();
+
+        // Re-Open
+        factory = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        assertEquals(c1.getNumberOfEntriesInBacklog(), backlog);
+
+        List<Entry> entries = c1.readEntries(totalAddEntries);
+        assertEquals(entries.size(), backlog);
+        assertEquals(new String(entries.get(0).getData(), Encoding), "dummy-entry-1");
+        entries.forEach(Entry::release);
+    }
+
+    @Test(timeOut = 20000)
+    public void testCursorPositionBatching() throws Exception {
+        String ledgerName = "my_test_ledger_batched_cursors";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig().setCursorPositionBatchingEnabled(true);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        ManagedCursorImpl c2 = (ManagedCursorImpl) ledger.openCursor("c2");
+        ManagedCursorImpl c3 = (ManagedCursorImpl) ledger.openCursor("c3");
+
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            positions.add(ledger.addEntry(("entry-" + i).getBytes(Encoding)));
+        }
+        c1.markDelete(positions.get(2));
+        c2.markDelete(positions.get(5));
+        c3.delete(positions.get(7));
+
+        // All the cursors persist their position in the same ledger
+        long sharedLedgerId = c1.getCursorLedger();
+        assertTrue(sharedLedgerId >= 0);
+        assertEquals(c2.getCursorLedger(), sharedLedgerId);
+        assertEquals(c3.getCursorLedger(), sharedLedgerId);
+
+        // Re-open without closing, so that the positions are recovered from the shared ledger
+        ManagedLedgerFactory factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory2.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        c2 = (ManagedCursorImpl) ledger.openCursor("c2");
+        c3 = (ManagedCursorImpl) ledger.openCursor("c3");
+        assertEquals(c1.getMarkDeletedPosition(), positions.get(2));
+        assertEquals(c2.getMarkDeletedPosition(), positions.get(5));
+        assertEquals(c3.getNumberOfEntriesInBacklog(), 9);
+        PositionImpl deletedPosition = (PositionImpl) positions.get(7);
+        assertTrue(c3.getIndividuallyDeletedMessagesSet().contains(deletedPosition.getLedgerId(),
+                deletedPosition.getEntryId()));
+
+        // Deleting the managed ledger deletes the shared ledgers too
+        ledger.delete();
+        assertTrue(bkc.getLedgers().isEmpty());
+        factory2.shutdown();
+    }
+
+    @Test(timeOut = 20000)
+    public void testCursorPositionBatchingLedgerSwitch() throws Exception {
+        String ledgerName = "my_test_ledger_batched_cursors_switch";
+        ManagedLedgerConfig managedLedgerConfig = new ManagedLedgerConfig().setCursorPositionBatchingEnabled(true)
+                .setMetadataMaxEntriesPerLedger(5);
+        ManagedLedgerImpl ledger = (ManagedLedgerImpl) factory.open(ledgerName, managedLedgerConfig);
+        ManagedCursorImpl c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        ManagedCursorImpl c2 = (ManagedCursorImpl) ledger.openCursor("c2");
+
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            positions.add(ledger.addEntry(("entry-" + i).getBytes(Encoding)));
+        }
+        for (int i = 0; i < 30; i++) {
+            c1.markDelete(positions.get(i));
+            c2.markDelete(positions.get(i));
+        }
+        Position lastPosition = positions.get(29);
+
+        // Wait for the cursors to be done moving to the last shared ledger they wrote into
+        for (int retry = 0; retry < 50 && !(c1.getState().equals("Open") && c2.getState().equals("Open")); retry++) {
+            Thread.sleep(100);
+        }
+        assertEquals(c1.getState(), "Open");
+        assertEquals(c2.getState(), "Open");
+
+        // The shared ledgers the cursors don't recover from anymore are deleted, except the current one
+        Set<Long> dataLedgers = ledger.getLedgersInfo().keySet();
+        for (int retry = 0; retry < 50 && bkc.getLedgers().size() > dataLedgers.size() + 2; retry++) {
+            Thread.sleep(100);
+        }
+        assertTrue(bkc.getLedgers().size() <= dataLedgers.size() + 2);
+
+        ManagedLedgerFactory factory2 = new ManagedLedgerFactoryImpl(bkc, bkc.getZkHandle());
+        ledger = (ManagedLedgerImpl) factory2.open(ledgerName, managedLedgerConfig);
+        c1 = (ManagedCursorImpl) ledger.openCursor("c1");
+        c2 = (ManagedCursorImpl) ledger.openCursor("c2");
+        assertEquals(c1.getMarkDeletedPosition(), lastPosition);
+        assertEquals(c2.getMarkDeletedPosition(), lastPosition);
+        factory2.shutdown();
+    }
+
     /**
      * Close Cursor without MaxUnackedRangesToPersistInZK: It should store individually unack range into Zk
      *
@@ -588,6 +588,68 @@ public class ManagedLedgerTest extends MockedBookKeeperTestCase {
         assertEquals(ledger.getNumberOfEntries(), 10);
     }
 
+    @Test(timeOut = 20000)
+    public void asyncAddEntryWithQueue() throws Exception {
+        ManagedLedgerConfig config = new ManagedLedgerConfig().setAddEntryQueueEnabled(true)
+                .setMaxEntriesPerLedger(50);
+        ManagedLedger ledger = factory.open("my_test_ledger", config);
+        ManagedCursor cursor = ledger.openCursor("test-cursor");
+
+        final int writers = 4;
+        final int entriesPerWriter = 250;
+        final CountDownLatch done = new CountDownLatch(writers * entriesPerWriter);
+        final AtomicReference<ManagedLedgerException> failure = new AtomicReference<>();
+        final CyclicBarrier barrier = new CyclicBarrier(writers);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            Thread thread = new Thread(() -> {
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < entriesPerWriter; i++) {
+                    ledger.asyncAddEntry((writer + "-" + i).getBytes(Encoding), new AddEntryCallback() {
+                        @Override
+                        public void addComplete(Position position, Object ctx) {
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void addFailed(ManagedLedgerException exception, Object ctx) {
+                            failure.set(exception);
+                            done.countDown();
+                        }
+                    }, null);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        done.await();
+        assertNull(failure.get());
+        assertEquals(ledger.getNumberOfEntries(), writers * entriesPerWriter);
+
+        // The entries of each writer are in the ledger in the order they were added
+        int[] nextEntry = new int[writers];
+        List<Entry> entries = cursor.readEntries(writers * entriesPerWriter);
+        assertEquals(entries.size(), writers * entriesPerWriter);
+        for (Entry entry : entries) {
+            String[] content = new String(entry.getData(), Encoding).split("-");
+            int writer = Integer.parseInt(content[0]);
+            assertEquals(Integer.parseInt(content[1]), nextEntry[writer]++);
+            entry.release();
+        }
+
+        ledger.close();
+    }
+
     @Test(timeOut = 20000)
     public void asyncAddEntryWithError() throws Exception {
         ManagedLedger ledger = factory.open("my_test_ledger");
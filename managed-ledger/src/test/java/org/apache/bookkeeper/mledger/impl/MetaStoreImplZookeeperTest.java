@@ -20,8 +20,11 @@ package org.apache.bookkeeper.mledger.impl;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import com.google.common.collect.Lists;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -269,4 +272,73 @@ public class MetaStoreImplZookeeperTest extends MockedBookKeeperTestCase {
                 });
         promise2.get();
     }
+
+    @Test(timeOut = 20000)
+    public void prefetchManagedLedgers() throws Exception {
+        MetaStore store = new MetaStoreImplZookeeper(zkc, executor);
+        for (int i = 0; i < 10; i++) {
+            zkc.create("/managed-ledgers/ml-" + i, ManagedLedgerInfo.getDefaultInstance().toByteArray(),
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            zkc.create("/managed-ledgers/ml-" + i + "/c1",
+                    ManagedCursorInfo.newBuilder().setCursorsLedgerId(i).build().toByteArray(),
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+
+        List<String> ledgerNames = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            ledgerNames.add("ml-" + i);
+        }
+        store.prefetchManagedLedgers(ledgerNames, 3).get();
+
+        // The prefetched metadata is read without going to ZooKeeper
+        for (int i = 0; i < 10; i++) {
+            zkc.setData("/managed-ledgers/ml-" + i + "/c1",
+                    ManagedCursorInfo.newBuilder().setCursorsLedgerId(100 + i).build().toByteArray(), -1);
+        }
+        zkc.failNow(Code.CONNECTIONLOSS);
+        for (int i = 0; i < 10; i++) {
+            CompletableFuture<ManagedLedgerInfo> mlInfo = new CompletableFuture<>();
+            store.getManagedLedgerInfo("ml-" + i, false, new FutureCallback<>(mlInfo));
+            assertEquals(mlInfo.get(), ManagedLedgerInfo.getDefaultInstance());
+
+            CompletableFuture<List<String>> cursors = new CompletableFuture<>();
+            store.getCursors("ml-" + i, new FutureCallback<>(cursors));
+            assertEquals(cursors.get(), Lists.newArrayList("c1"));
+
+            CompletableFuture<ManagedCursorInfo> cursorInfo = new CompletableFuture<>();
+            store.asyncGetCursorInfo("ml-" + i, "c1", new FutureCallback<>(cursorInfo));
+            assertEquals(cursorInfo.get().getCursorsLedgerId(), i);
+        }
+
+        // Each prefetched read is only used once
+        CompletableFuture<ManagedCursorInfo> cursorInfo = new CompletableFuture<>();
+        store.asyncGetCursorInfo("ml-0", "c1", new FutureCallback<>(cursorInfo));
+        try {
+            cursorInfo.get();
+            fail("should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MetaStoreException);
+        }
+        cursorInfo = new CompletableFuture<>();
+        store.asyncGetCursorInfo("ml-0", "c1", new FutureCallback<>(cursorInfo));
+        assertEquals(cursorInfo.get().getCursorsLedgerId(), 100);
+    }
+
+    private static class FutureCallback<T> implements MetaStoreCallback<T> {
+        private final CompletableFuture<T> future;
+
+        FutureCallback(CompletableFuture<T> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void operationComplete(T result, Stat stat) {
+            future.complete(result);
+        }
+
+        @Override
+        public void operationFailed(MetaStoreException e) {
+            future.completeExceptionally(e);
+        }
+    }
 }
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.collections;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenLongPairRangeSet;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPair;
+import org.apache.pulsar.common.util.collections.RoaringLongPairRangeSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Individual acknowledgment patterns against the {@link LongPairRangeSet} implementations used by the cursors to
+ * track the deleted messages.
+ *
+ * <p>The set is pre-populated with every other entry of each ledger acknowledged, which is the worst case for the
+ * number of ranges.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class LongPairRangeSetBenchmark {
+
+    private static final LongPairRangeSet.LongPairConsumer<LongPair> CONSUMER = LongPair::new;
+
+    @Param({ "ConcurrentOpen", "Default", "Roaring" })
+    private String implementation;
+
+    @Param({ "10", "1000" })
+    private int ledgers;
+
+    @Param({ "1000" })
+    private int entriesPerLedger;
+
+    private LongPairRangeSet<LongPair> set;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        set = create(implementation);
+        for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+            for (long entryId = 0; entryId < entriesPerLedger; entryId += 2) {
+                set.addOpenClosed(ledgerId, entryId - 1, ledgerId, entryId);
+            }
+        }
+    }
+
+    static LongPairRangeSet<LongPair> create(String implementation) {
+        switch (implementation) {
+        case "ConcurrentOpen":
+            return new ConcurrentOpenLongPairRangeSet<>(4096, CONSUMER);
+        case "Default":
+            return new LongPairRangeSet.DefaultRangeSet<>(CONSUMER);
+        case "Roaring":
+            return new RoaringLongPairRangeSet<>(CONSUMER);
+        default:
+            throw new IllegalArgumentException("Unknown range set implementation " + implementation);
+        }
+    }
+
+    @Benchmark
+    public void addRandom() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long ledgerId = random.nextInt(ledgers);
+        long entryId = random.nextInt(entriesPerLedger);
+        set.addOpenClosed(ledgerId, entryId - 1, ledgerId, entryId);
+    }
+
+    @Benchmark
+    public boolean containsRandom() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return set.contains(random.nextInt(ledgers), random.nextInt(entriesPerLedger));
+    }
+
+    @Benchmark
+    public int size() {
+        // Force the size to be recomputed, as it would after an acknowledgment
+        set.addOpenClosed(0, -1, 0, 0);
+        return set.size();
+    }
+
+    @Benchmark
+    public void forEach(Blackhole bh) {
+        set.forEach(range -> {
+            bh.consume(range);
+            return true;
+        });
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.common.compression.CompressionCodec;
+import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encode and decode throughput of the {@link CompressionCodec} implementations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionCodecBenchmark {
+
+    @Param({ "NONE", "LZ4", "ZLIB", "ZSTD", "SNAPPY" })
+    private CompressionType compressionType;
+
+    @Param({ "1024", "65536" })
+    private int size;
+
+    private CompressionCodec codec;
+    private ByteBuf raw;
+    private ByteBuf encoded;
+
+    @Setup
+    public void setup() {
+        codec = CompressionCodecProvider.getCompressionCodec(compressionType);
+
+        // Semi-compressible content: random words drawn from a small dictionary
+        Random random = new Random(1);
+        byte[][] words = new byte[64][];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = new byte[4 + random.nextInt(8)];
+            for (int j = 0; j < words[i].length; j++) {
+                words[i][j] = (byte) ('a' + random.nextInt(26));
+            }
+        }
+        raw = PooledByteBufAllocator.DEFAULT.directBuffer(size, size);
+        while (raw.isWritable()) {
+            byte[] word = words[random.nextInt(words.length)];
+            raw.writeBytes(word, 0, Math.min(word.length, raw.writableBytes()));
+        }
+
+        encoded = codec.encode(raw);
+    }
+
+    @TearDown
+    public void teardown() {
+        raw.release();
+        encoded.release();
+    }
+
+    @Benchmark
+    public void encode(Blackhole bh) {
+        ByteBuf buf = codec.encode(raw);
+        bh.consume(buf.readableBytes());
+        buf.release();
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) throws IOException {
+        ByteBuf buf = codec.decode(encoded.duplicate(), size);
+        bh.consume(buf.readableBytes());
+        buf.release();
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.delayed;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.broker.delayed.DelayedDeliveryTracker;
+import org.apache.pulsar.broker.delayed.InMemoryDelayedDeliveryTracker;
+import org.apache.pulsar.broker.delayed.TimingWheelDelayedDeliveryTracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Scheduling and delivery of 1M delayed messages by the in-memory trackers of the delayed messages: the priority queue
+ * of {@link InMemoryDelayedDeliveryTracker} and the timing wheel of {@link TimingWheelDelayedDeliveryTracker}.
+ *
+ * <p/>The messages are delayed by up to <code>maxDelayMillis</code> and added in a random order. The time is simulated,
+ * and the delivery reads batches of messages as the dispatcher does, moving the time forward by one hundredth of the
+ * max delay whenever no message is available. The timer is a real {@link HashedWheelTimer}, whose tasks do nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class DelayedDeliveryTrackerBenchmark {
+
+    private static final int MESSAGES = 1_000_000;
+    private static final int READ_SIZE = 100;
+
+    @Param({ "InMemory", "TimingWheel" })
+    private String tracker;
+
+    @Param({ "1", "1000" })
+    private long tickTimeMillis;
+
+    @Param({ "10000", "3600000" })
+    private long maxDelayMillis;
+
+    private long[] deliverAt;
+    private SimulatedClock clock;
+    private NoopTaskTimer timer;
+    private DelayedDeliveryTracker delayedDeliveryTracker;
+
+    private static class SimulatedClock extends Clock {
+        private long millis;
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // The trackers are not attached to a dispatcher, so the expired timeouts must not run them
+    private static class NoopTaskTimer implements Timer {
+        private final HashedWheelTimer timer = new HashedWheelTimer(new DefaultThreadFactory("microbench-timer"));
+
+        @Override
+        public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+            return timer.newTimeout(timeout -> { }, delay, unit);
+        }
+
+        @Override
+        public Set<Timeout> stop() {
+            return timer.stop();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        deliverAt = new long[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            deliverAt[i] = tickTimeMillis + (long) (random.nextDouble() * maxDelayMillis);
+        }
+        clock = new SimulatedClock();
+        timer = new NoopTaskTimer();
+    }
+
+    @TearDown
+    public void teardown() {
+        timer.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void newTracker() {
+        clock.millis = 0;
+        switch (tracker) {
+        case "InMemory":
+            delayedDeliveryTracker = new InMemoryDelayedDeliveryTracker(null, timer, tickTimeMillis, clock);
+            break;
+        case "TimingWheel":
+            delayedDeliveryTracker = new TimingWheelDelayedDeliveryTracker(null, timer, tickTimeMillis, clock);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown tracker " + tracker);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeTracker() throws Exception {
+        delayedDeliveryTracker.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void addMessages(Blackhole bh) {
+        addAll();
+        bh.consume(delayedDeliveryTracker.getNumberOfDelayedMessages());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void addAndDeliverMessages(Blackhole bh) {
+        addAll();
+        long timeStep = Math.max(1, maxDelayMillis / 100);
+        while (delayedDeliveryTracker.getNumberOfDelayedMessages() > 0) {
+            if (!delayedDeliveryTracker.hasMessageAvailable()) {
+                clock.millis += timeStep;
+                continue;
+            }
+            bh.consume(delayedDeliveryTracker.getScheduledMessages(READ_SIZE));
+        }
+    }
+
+    private void addAll() {
+        for (int i = 0; i < MESSAGES; i++) {
+            delayedDeliveryTracker.addMessage(1, i, deliverAt[i]);
+        }
+    }
+}
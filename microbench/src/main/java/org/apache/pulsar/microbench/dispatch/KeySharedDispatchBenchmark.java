@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.dispatch;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.apache.pulsar.common.util.Murmur3_32Hash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of routing a read of cached entries to the consumers of a subscription: round-robin for Shared, and by hash of
+ * the sticky key for Key_Shared, either re-parsing the key and grouping the entries in a fresh map on every read, or
+ * with the hash stored in the cached entry on the first read and the entries grouped in reused arrays, as the
+ * Key_Shared dispatcher does.
+ *
+ * <p/>Every variant also peeks the metadata of each entry, as the dispatchers do before sending it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class KeySharedDispatchBenchmark {
+
+    private static final int READ_SIZE = 100;
+    private static final int HASH_RANGE_SIZE = 2 << 15;
+
+    @Param({ "10", "100" })
+    private int consumersCount;
+
+    @Param({ "100", "100000" })
+    private int keysCount;
+
+    private EntryImpl[] cachedEntries;
+    private final List<Entry> read = new ArrayList<>(READ_SIZE);
+
+    // Upper bound of the hash range of each consumer, as in the auto-split selector
+    private final NavigableMap<Integer, Integer> rangeMap = new TreeMap<>();
+
+    private int[] selectedConsumers;
+    private List<List<Entry>> consumerLists;
+    private int roundRobinIndex;
+
+    @Setup
+    public void setup() {
+        cachedEntries = new EntryImpl[READ_SIZE];
+        ByteBuf payload = Unpooled.directBuffer(128, 128);
+        payload.writerIndex(128);
+        for (int i = 0; i < READ_SIZE; i++) {
+            MessageMetadata metadata = MessageMetadata.newBuilder()
+                    .setProducerName("microbench-producer")
+                    .setSequenceId(i)
+                    .setPublishTime(System.currentTimeMillis())
+                    .setPartitionKey("key-" + (i * 7919) % keysCount)
+                    .build();
+            ByteBuf data = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+            cachedEntries[i] = EntryImpl.create(1, i, data);
+            data.release();
+        }
+        payload.release();
+
+        int rangeSize = HASH_RANGE_SIZE / consumersCount;
+        for (int i = 0; i < consumersCount; i++) {
+            rangeMap.put(i == consumersCount - 1 ? HASH_RANGE_SIZE : (i + 1) * rangeSize, i);
+        }
+
+        selectedConsumers = new int[READ_SIZE];
+        consumerLists = new ArrayList<>(consumersCount);
+        for (int i = 0; i < consumersCount; i++) {
+            consumerLists.add(new ArrayList<>(READ_SIZE));
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        for (EntryImpl entry : cachedEntries) {
+            entry.release();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READ_SIZE)
+    public void shared(Blackhole bh) {
+        readFromCache();
+        int start = 0;
+        int messagesPerConsumer = Math.max(1, READ_SIZE / consumersCount);
+        while (start < READ_SIZE) {
+            int end = Math.min(READ_SIZE, start + messagesPerConsumer);
+            send(roundRobinIndex, read.subList(start, end), bh);
+            roundRobinIndex = (roundRobinIndex + 1) % consumersCount;
+            start = end;
+        }
+        read.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READ_SIZE)
+    public void keySharedGroupedByKey(Blackhole bh) {
+        readFromCache();
+        Map<Integer, List<Entry>> groupedEntries = new HashMap<>();
+        for (Entry entry : read) {
+            int key = Murmur3_32Hash.getInstance().makeHash(peekStickyKey(entry.getDataBuffer()));
+            groupedEntries.putIfAbsent(key, new ArrayList<>());
+            groupedEntries.get(key).add(entry);
+        }
+        for (Map.Entry<Integer, List<Entry>> entriesWithSameKey : groupedEntries.entrySet()) {
+            int consumer = select(entriesWithSameKey.getKey());
+            List<Entry> subList = new ArrayList<>(entriesWithSameKey.getValue());
+            send(consumer, subList, bh);
+        }
+        read.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READ_SIZE)
+    public void keySharedGroupedByConsumer(Blackhole bh) {
+        readFromCache();
+        for (int i = 0; i < READ_SIZE; i++) {
+            EntryImpl entry = (EntryImpl) read.get(i);
+            int stickyKeyHash = entry.getStickyKeyHash();
+            if (stickyKeyHash < 0) {
+                stickyKeyHash = Murmur3_32Hash.getInstance().makeHash(peekStickyKey(entry.getDataBuffer()));
+                entry.setStickyKeyHash(stickyKeyHash);
+                // Stored in the cached entry as well, as the dispatcher does through the managed ledger cache
+                cachedEntries[i].setStickyKeyHash(stickyKeyHash);
+            }
+            selectedConsumers[i] = select(stickyKeyHash);
+        }
+        for (int i = 0; i < READ_SIZE; i++) {
+            int consumer = selectedConsumers[i];
+            if (consumer < 0) {
+                continue;
+            }
+            List<Entry> group = consumerLists.get(consumer);
+            for (int j = i; j < READ_SIZE; j++) {
+                if (selectedConsumers[j] == consumer) {
+                    group.add(read.get(j));
+                    selectedConsumers[j] = -1;
+                }
+            }
+            send(consumer, group, bh);
+            group.clear();
+        }
+        read.clear();
+    }
+
+    private void readFromCache() {
+        for (EntryImpl cachedEntry : cachedEntries) {
+            read.add(EntryImpl.create(cachedEntry));
+        }
+    }
+
+    private int select(int stickyKeyHash) {
+        return rangeMap.ceilingEntry(stickyKeyHash % HASH_RANGE_SIZE).getValue();
+    }
+
+    private static void send(int consumer, List<Entry> entries, Blackhole bh) {
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            MessageMetadata metadata = Commands.peekMessageMetadata(entry.getDataBuffer(), "microbench", -1);
+            bh.consume(metadata.getNumMessagesInBatch() + consumer);
+            metadata.recycle();
+            entry.release();
+        }
+    }
+
+    private static byte[] peekStickyKey(ByteBuf metadataAndPayload) {
+        metadataAndPayload.markReaderIndex();
+        MessageMetadata metadata = Commands.parseMessageMetadata(metadataAndPayload);
+        metadataAndPayload.resetReaderIndex();
+        byte[] stickyKey = metadata.hasOrderingKey() ? metadata.getOrderingKey().toByteArray()
+                : metadata.getPartitionKey().getBytes();
+        metadata.recycle();
+        return stickyKey;
+    }
+}
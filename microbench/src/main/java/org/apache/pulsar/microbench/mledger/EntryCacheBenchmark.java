@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.mledger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BookKeeper.DigestType;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.impl.EntryCache;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Insert, cached read and eviction paths of the managed ledger {@link EntryCache}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class EntryCacheBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({ "128", "4096" })
+    private int entrySize;
+
+    @Param({ "true", "false" })
+    private boolean copyEntries;
+
+    private MockManagedLedgerEnvironment env;
+    private ManagedLedgerImpl ledger;
+    private EntryCache cache;
+    private LedgerHandle lh;
+    private ByteBuf payload;
+    private long nextEntryId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = new ManagedLedgerFactoryConfig();
+        factoryConfig.setMaxCacheSize(1024 * 1024 * 1024);
+        factoryConfig.setCopyEntriesInCache(copyEntries);
+        env = new MockManagedLedgerEnvironment(factoryConfig);
+
+        ledger = (ManagedLedgerImpl) env.getFactory().open("microbench-entry-cache", new ManagedLedgerConfig());
+        cache = env.getFactory().getEntryCacheManager().getEntryCache(ledger);
+        lh = env.getBookKeeper().createLedger(DigestType.CRC32, new byte[0]);
+
+        payload = Unpooled.directBuffer(entrySize, entrySize);
+        payload.writerIndex(entrySize);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        cache.clear();
+        lh.close();
+        ledger.close();
+        env.close();
+        payload.release();
+    }
+
+    private void insertBatch() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            EntryImpl entry = EntryImpl.create(lh.getId(), nextEntryId++, payload);
+            cache.insert(entry);
+            entry.release();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertAndInvalidate() {
+        insertBatch();
+        cache.invalidateAllEntries(lh.getId());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertAndEvict() {
+        insertBatch();
+        cache.evictEntries((long) BATCH_SIZE * entrySize);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insertAndReadRange(Blackhole bh) {
+        long firstEntryId = nextEntryId;
+        insertBatch();
+        cache.asyncReadEntry(lh, firstEntryId, nextEntryId - 1, false, new ReadEntriesCallback() {
+            @Override
+            public void readEntriesComplete(List<Entry> entries, Object ctx) {
+                for (Entry entry : entries) {
+                    bh.consume(entry.getLength());
+                    entry.release();
+                }
+            }
+
+            @Override
+            public void readEntriesFailed(ManagedLedgerException exception, Object ctx) {
+                bh.consume(exception);
+            }
+        }, null);
+        cache.invalidateAllEntries(lh.getId());
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.mledger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.mledger.AsyncCallbacks.AddEntryCallback;
+import org.apache.bookkeeper.mledger.ManagedLedger;
+import org.apache.bookkeeper.mledger.ManagedLedgerConfig;
+import org.apache.bookkeeper.mledger.ManagedLedgerException;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.Position;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link ManagedLedger#asyncAddEntry(ByteBuf, AddEntryCallback, Object)} against the in-memory
+ * BookKeeper mock.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ManagedLedgerAddEntryBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({ "128", "1024", "16384" })
+    private int entrySize;
+
+    @Param({ "true", "false" })
+    private boolean cacheEnabled;
+
+    private MockManagedLedgerEnvironment env;
+    private ManagedLedger ledger;
+    private ByteBuf payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ManagedLedgerFactoryConfig factoryConfig = new ManagedLedgerFactoryConfig();
+        factoryConfig.setMaxCacheSize(cacheEnabled ? 256 * 1024 * 1024 : 0);
+        env = new MockManagedLedgerEnvironment(factoryConfig);
+
+        ManagedLedgerConfig config = new ManagedLedgerConfig();
+        config.setMaxEntriesPerLedger(100_000);
+        ledger = env.getFactory().open("microbench-add-entry", config);
+
+        payload = Unpooled.directBuffer(entrySize, entrySize);
+        payload.writerIndex(entrySize);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        ledger.close();
+        env.close();
+        payload.release();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void asyncAddEntry() throws Exception {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(BATCH_SIZE);
+        AddEntryCallback callback = new AddEntryCallback() {
+            @Override
+            public void addComplete(Position position, Object ctx) {
+                if (pending.decrementAndGet() == 0) {
+                    future.complete(null);
+                }
+            }
+
+            @Override
+            public void addFailed(ManagedLedgerException exception, Object ctx) {
+                future.completeExceptionally(exception);
+            }
+        };
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            ledger.asyncAddEntry(payload, callback, null);
+        }
+        future.get();
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.mledger;
+
+import org.apache.bookkeeper.client.PulsarMockBookKeeper;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.mledger.ManagedLedgerFactoryConfig;
+import org.apache.bookkeeper.mledger.impl.ManagedLedgerFactoryImpl;
+import org.apache.bookkeeper.util.ZkUtils;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.MockZooKeeper;
+import org.apache.zookeeper.ZooDefs;
+
+/**
+ * A managed ledger factory wired to the in-memory BookKeeper and ZooKeeper mocks, so that the benchmarks don't
+ * need a running cluster.
+ */
+class MockManagedLedgerEnvironment implements AutoCloseable {
+
+    private static final int NUM_BOOKIES = 3;
+
+    private final OrderedScheduler executor;
+    private final MockZooKeeper zkc;
+    private final PulsarMockBookKeeper bkc;
+    private final ManagedLedgerFactoryImpl factory;
+
+    MockManagedLedgerEnvironment(ManagedLedgerFactoryConfig config) throws Exception {
+        this.executor = OrderedScheduler.newSchedulerBuilder().numThreads(2).name("microbench-bk").build();
+        this.zkc = MockZooKeeper.newInstance();
+        for (int i = 0; i < NUM_BOOKIES; i++) {
+            ZkUtils.createFullPathOptimistic(zkc, "/ledgers/available/192.168.1.1:" + (5000 + i), "".getBytes(),
+                    null, null);
+        }
+        zkc.create("/ledgers/LAYOUT", "1\nflat:1".getBytes(), null, null);
+        zkc.create("/managed-ledgers", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+
+        this.bkc = new PulsarMockBookKeeper(zkc, executor.chooseThread(this));
+        this.factory = new ManagedLedgerFactoryImpl(bkc, zkc, config);
+    }
+
+    ManagedLedgerFactoryImpl getFactory() {
+        return factory;
+    }
+
+    PulsarMockBookKeeper getBookKeeper() {
+        return bkc;
+    }
+
+    @Override
+    public void close() throws Exception {
+        factory.shutdown();
+        bkc.shutdown();
+        zkc.shutdown();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.mledger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.mledger.util.RangeCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Put, get and eviction paths of the {@link RangeCache} used by the broker entry cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class RangeCacheBenchmark {
+
+    private static final int ENTRY_SIZE = 1024;
+    private static final int RANGE_SIZE = 100;
+
+    @Param({ "10000", "100000" })
+    private int cachedEntries;
+
+    private RangeCache<PositionImpl, EntryImpl> cache;
+    private ByteBuf payload;
+    private long ledgerId;
+    private long nextEntryId;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        cache = new RangeCache<>(EntryImpl::getLength, EntryImpl::getTimestamp);
+        payload = Unpooled.directBuffer(ENTRY_SIZE, ENTRY_SIZE);
+        payload.writerIndex(ENTRY_SIZE);
+        ledgerId = 1;
+        for (nextEntryId = 0; nextEntryId < cachedEntries; nextEntryId++) {
+            cache.put(PositionImpl.get(ledgerId, nextEntryId), EntryImpl.create(ledgerId, nextEntryId, payload));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void teardown() {
+        cache.clear();
+        payload.release();
+    }
+
+    @Benchmark
+    public void get(Blackhole bh) {
+        long entryId = nextEntryId - 1 - ThreadLocalRandom.current().nextInt(cachedEntries);
+        EntryImpl entry = cache.get(PositionImpl.get(ledgerId, entryId));
+        if (entry != null) {
+            bh.consume(entry.getLength());
+            entry.release();
+        }
+    }
+
+    @Benchmark
+    public void getRange(Blackhole bh) {
+        long firstEntryId = nextEntryId - cachedEntries
+                + ThreadLocalRandom.current().nextInt(cachedEntries - RANGE_SIZE);
+        Collection<EntryImpl> entries = cache.getRange(PositionImpl.get(ledgerId, firstEntryId),
+                PositionImpl.get(ledgerId, firstEntryId + RANGE_SIZE - 1));
+        for (EntryImpl entry : entries) {
+            bh.consume(entry.getLength());
+            entry.release();
+        }
+    }
+
+    /**
+     * Tailing write pattern: every new entry pushes the oldest one out of a cache of fixed size.
+     */
+    @Benchmark
+    public void putAndEvict(Blackhole bh) {
+        long entryId = nextEntryId++;
+        bh.consume(cache.put(PositionImpl.get(ledgerId, entryId), EntryImpl.create(ledgerId, entryId, payload)));
+        bh.consume(cache.evictLeastAccessedEntries(ENTRY_SIZE));
+    }
+
+    /**
+     * Cursor moving forward: the entry behind the slowest reader is invalidated once a new one is added.
+     */
+    @Benchmark
+    public void putAndRemoveRange(Blackhole bh) {
+        long entryId = nextEntryId++;
+        bh.consume(cache.put(PositionImpl.get(ledgerId, entryId), EntryImpl.create(ledgerId, entryId, payload)));
+        bh.consume(cache.removeRange(PositionImpl.get(ledgerId, 0),
+                PositionImpl.get(ledgerId, entryId - cachedEntries), true));
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageIdData;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.ByteBufPair;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding cost of the commands on the publish and dispatch paths.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandsBenchmark {
+
+    @Param({ "128", "4096" })
+    private int payloadSize;
+
+    @Param({ "Crc32c", "None" })
+    private ChecksumType checksumType;
+
+    private MessageMetadata metadata;
+    private MessageIdData messageId;
+    private ByteBuf payload;
+    private ByteBuf metadataAndPayload;
+
+    @Setup
+    public void setup() {
+        metadata = MessageMetadata.newBuilder()
+                .setProducerName("microbench-producer")
+                .setSequenceId(1)
+                .setPublishTime(System.currentTimeMillis())
+                .build();
+        messageId = MessageIdData.newBuilder().setLedgerId(1).setEntryId(1).build();
+
+        payload = Unpooled.directBuffer(payloadSize, payloadSize);
+        payload.writerIndex(payloadSize);
+        metadataAndPayload = Commands.serializeMetadataAndPayload(checksumType, metadata, payload);
+    }
+
+    @TearDown
+    public void teardown() {
+        metadataAndPayload.release();
+        payload.release();
+    }
+
+    @Benchmark
+    public void serializeMetadataAndPayload(Blackhole bh) {
+        ByteBuf buf = Commands.serializeMetadataAndPayload(checksumType, metadata, payload);
+        bh.consume(buf.readableBytes());
+        buf.release();
+    }
+
+    @Benchmark
+    public void newSend(Blackhole bh) {
+        ByteBufPair cmd = Commands.newSend(1, 1, 1, checksumType, metadata, payload.retain());
+        bh.consume(cmd.readableBytes());
+        cmd.release();
+    }
+
+    @Benchmark
+    public void newMessage(Blackhole bh) {
+        ByteBufPair cmd = Commands.newMessage(1, messageId, 0, metadataAndPayload.retain());
+        bh.consume(cmd.readableBytes());
+        cmd.release();
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.microbench.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandMessage;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandSend;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageIdData;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.ByteBufPair;
+import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.apache.pulsar.common.protocol.PulsarDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding cost of {@link PulsarDecoder#channelRead} for the frames on the publish and dispatch paths.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class PulsarDecoderBenchmark {
+
+    @Param({ "128", "4096" })
+    private int payloadSize;
+
+    private BlackholeDecoder decoder;
+    private ByteBuf sendFrame;
+    private ByteBuf messageFrame;
+
+    /**
+     * Decoder that hands the decoded commands over to a JMH blackhole.
+     */
+    private static class BlackholeDecoder extends PulsarDecoder {
+        private Blackhole bh;
+
+        @Override
+        protected void messageReceived() {
+        }
+
+        @Override
+        protected void handleSend(CommandSend send, ByteBuf headersAndPayload) {
+            bh.consume(send.getSequenceId());
+            bh.consume(headersAndPayload.readableBytes());
+        }
+
+        @Override
+        protected void handleMessage(CommandMessage cmdMessage, ByteBuf headersAndPayload) {
+            bh.consume(cmdMessage.getMessageId().getEntryId());
+            bh.consume(headersAndPayload.readableBytes());
+        }
+    }
+
+    @Setup
+    public void setup() {
+        decoder = new BlackholeDecoder();
+
+        MessageMetadata metadata = MessageMetadata.newBuilder()
+                .setProducerName("microbench-producer")
+                .setSequenceId(1)
+                .setPublishTime(System.currentTimeMillis())
+                .build();
+        ByteBuf payload = Unpooled.directBuffer(payloadSize, payloadSize);
+        payload.writerIndex(payloadSize);
+
+        sendFrame = toFrame(Commands.newSend(1, 1, 1, ChecksumType.Crc32c, metadata, payload.retain()));
+
+        ByteBuf metadataAndPayload = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+        MessageIdData messageId = MessageIdData.newBuilder().setLedgerId(1).setEntryId(1).build();
+        messageFrame = toFrame(Commands.newMessage(1, messageId, 0, metadataAndPayload));
+
+        payload.release();
+    }
+
+    @TearDown
+    public void teardown() {
+        sendFrame.release();
+        messageFrame.release();
+    }
+
+    /**
+     * Flatten the command into a single buffer and strip the total size field, the same way the
+     * length-field frame decoder in front of the {@link PulsarDecoder} does.
+     */
+    private static ByteBuf toFrame(ByteBufPair cmd) {
+        ByteBuf frame = Unpooled.directBuffer(cmd.readableBytes());
+        frame.writeBytes(cmd.getFirst(), cmd.getFirst().readerIndex(), cmd.getFirst().readableBytes());
+        frame.writeBytes(cmd.getSecond(), cmd.getSecond().readerIndex(), cmd.getSecond().readableBytes());
+        frame.skipBytes(4);
+        cmd.release();
+        return frame;
+    }
+
+    @Benchmark
+    public void decodeSend(Blackhole bh) throws Exception {
+        decoder.bh = bh;
+        decoder.channelRead(null, sendFrame.retainedDuplicate());
+    }
+
+    @Benchmark
+    public void decodeMessage(Blackhole bh) throws Exception {
+        decoder.bh = bh;
+        decoder.channelRead(null, messageFrame.retainedDuplicate());
+    }
+}
@@ -170,6 +170,16 @@ public class ServiceConfiguration implements PulsarConfiguration {
             + " affecting the accuracy of the delivery time compared to the scheduled time. Default is 1 second.")
     private long delayedDeliveryTickTimeMillis = 1000;
 
+    @FieldContext(category = CATEGORY_SERVER, doc = "Time span of the segments of the buckets persisted by the"
+            + " BucketDelayedDeliveryTrackerFactory. The delayed messages due within the next time step are kept"
+            + " in memory, the others are loaded back from their bucket one time step before they are due.")
+    private long delayedDeliveryBucketTimeStepMillis = 60000;
+
+    @FieldContext(category = CATEGORY_SERVER, doc = "Max number of delayed messages, due after the next time step,"
+            + " kept in memory by the BucketDelayedDeliveryTrackerFactory for a subscription before they are"
+            + " sealed in a bucket persisted to BookKeeper.")
+    private int delayedDeliveryBucketMaxMessagesInMemory = 50000;
+
     @FieldContext(
         category = CATEGORY_WEBSOCKET,
         doc = "Enable the WebSocket API service in broker"
@@ -290,6 +300,21 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private boolean subscriptionKeySharedEnable = true;
 
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "On Key_Shared subscriptions in auto-split mode, assign the keys to the consumers with a consistent hashing"
+            + " ring instead of splitting the hash range. The keys are spread more evenly between the consumers, and"
+            + " fewer keys move when a consumer joins or leaves"
+    )
+    private boolean subscriptionKeySharedUseConsistentHashing = false;
+
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Number of points (virtual nodes) of each consumer on the consistent hashing ring of Key_Shared"
+            + " subscriptions. More points give a more even distribution of the keys"
+    )
+    private int subscriptionKeySharedConsistentHashingReplicaPoints = 100;
+
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "Set the default behavior for message deduplication in the broker.\n\n"
@@ -319,6 +344,22 @@ public class ServiceConfiguration implements PulsarConfiguration {
             + " relative to a disconnected producer. Default is 6 hours.")
     private int brokerDeduplicationProducerInactivityTimeoutMinutes = 360;
 
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Store the dedup info snapshots in a dedicated ledger instead of the properties of the dedup cursor.\n\n"
+            + "Each snapshot then only holds the producers updated since the previous one, and a full snapshot"
+            + " is written in a new ledger once the updates outnumber the producers"
+    )
+    private boolean brokerDeduplicationSnapshotLedgerEnabled = false;
+
+    @FieldContext(
+        category = CATEGORY_POLICIES,
+        doc = "Time after which the broker will discard the deduplication information relative to a producer"
+            + " that did not publish, connected or not. Only applies when the dedup info snapshots are stored"
+            + " in a dedicated ledger. 0 to keep the producers until they are inactive"
+    )
+    private int brokerDeduplicationProducerTtlMinutes = 0;
+
     @FieldContext(
         category = CATEGORY_POLICIES,
         doc = "When a namespace is created without specifying the number of bundle, this"
@@ -492,6 +533,33 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int dispatcherMaxRoundRobinBatchSize = 20;
 
+    @FieldContext(
+        dynamic = true,
+        category = CATEGORY_SERVER,
+        doc = "Target size in bytes of the reads of the dispatchers of shared subscriptions. When set, the number of"
+            + " entries per read is derived from it and the average size of the entries of the topic, instead of"
+            + " dispatcherMaxReadBatchSize, so that large entries don't pull too much data at once and small entries"
+            + " are read in larger batches. 0 disables it"
+    )
+    private long dispatcherMaxReadSizeBytes = 0;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Amount of memory in MB shared by all the dispatchers of the broker for the messages read from the"
+            + " managed ledgers and not yet written to the sockets of the consumers. Once it's used up, the"
+            + " dispatchers stop reading and resume in turn as the writes complete. 0 disables the limit"
+    )
+    private int dispatcherMaxMemorySizeMB = 0;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Coalesce the writes of the messages dispatched to the consumers of a connection. The messages of a"
+            + " dispatch batch are framed into a single buffer, and the batches of all the consumers of the connection"
+            + " are written and flushed by a single event-loop task. Reduces the number of tasks and syscalls on"
+            + " fan-outs of many small messages"
+    )
+    private boolean dispatcherCoalesceWritesEnabled = false;
+
     @FieldContext(
         dynamic = true,
         category = CATEGORY_SERVER,
@@ -916,6 +984,11 @@ public class ServiceConfiguration implements PulsarConfiguration {
             (int) (PlatformDependent.maxDirectMemory() / 5 / (1024 * 1024)));
     @FieldContext(category = CATEGORY_STORAGE_ML, doc = "Whether we should make a copy of the entry payloads when inserting in cache")
     private boolean managedLedgerCacheCopyEntries = false;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Size in KB of the off-heap slabs into which the copies of the cached entries of a ledger are packed,"
+                    + " when managedLedgerCacheCopyEntries is enabled. Whole slabs are freed when their entries are"
+                    + " evicted. 0 means that each entry is copied into its own buffer")
+    private int managedLedgerCacheSlabSizeKB = 0;
     @FieldContext(
         category = CATEGORY_STORAGE_ML,
         doc = "Threshold to which bring down the cache level when eviction is triggered"
@@ -927,6 +1000,34 @@ public class ServiceConfiguration implements PulsarConfiguration {
     @FieldContext(category = CATEGORY_STORAGE_ML,
             doc = "All entries that have stayed in cache for more than the configured time, will be evicted")
     private long managedLedgerCacheEvictionTimeThresholdMillis = 1000;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Whether the cache eviction should sweep a clock over the per-ledger segments of all the topics,"
+                    + " evicting first from the ledgers that were not read recently, instead of evicting"
+                    + " proportionally from the topics with the biggest caches")
+    private boolean managedLedgerCacheEvictionClockSweep = false;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Amount of memory in MB shared by the read-ahead buffers of the cursors replaying their backlog"
+                    + " sequentially. Those cursors get the next batches of their backlog prefetched from the bookies"
+                    + " while they dispatch the current one. 0 disables the read-ahead")
+    private int managedLedgerReadAheadMaxSizeMB = 0;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Maximum number of read batches prefetched ahead of a cursor replaying its backlog sequentially")
+    private int managedLedgerReadAheadMaxBatches = 4;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Whether the reads of entries missing from the cache should share the reads of the same entries"
+                    + " already in progress on the bookies, so that subscriptions lagging behind by about the same"
+                    + " amount don't read their backlog from the bookies each on its own")
+    private boolean managedLedgerShareConcurrentReads = false;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Amount of local disk in MB used as a second tier of the managed ledger cache. The entries evicted"
+                    + " from the memory of the cache are spilled into memory-mapped files, from where the"
+                    + " subscriptions replaying their backlog read them instead of reading them from the bookies."
+                    + " 0 disables the tier")
+    private int managedLedgerCacheDiskTierSizeMB = 0;
+    @FieldContext(category = CATEGORY_STORAGE_ML,
+            doc = "Directory, preferably on a local SSD, where the files of the disk tier of the managed ledger"
+                    + " cache are kept. Its content is deleted when the broker starts")
+    private String managedLedgerCacheDiskTierDirectory = "data/managed-ledger-cache";
     @FieldContext(category = CATEGORY_STORAGE_ML,
             doc = "Configure the threshold (in number of entries) from where a cursor should be considered 'backlogged'"
                     + " and thus should be set as inactive.")
@@ -1017,6 +1118,43 @@ public class ServiceConfiguration implements PulsarConfiguration {
             doc = "Use Open Range-Set to cache unacked messages (it is memory efficient but it can take more cpu)"
         )
     private boolean managedLedgerUnackedRangesOpenCacheSetEnabled = true;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Store the unacked ranges in the cursor ledger with a compact per-ledger encoding (runs or bitmap)"
+                + " instead of a list of position pairs, so that many more acknowledgment holes can be persisted"
+                + " (see managedLedgerMaxUnackedRangesToPersist). Brokers of previous versions recovering the"
+                + " cursors persisted this way lose their unacked ranges"
+        )
+    private boolean managedLedgerUnackedRangesCompactEncodingEnabled = false;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Use a roaring bitmap Range-Set to cache unacked messages: its memory depends on the number of ranges"
+                + " rather than on the highest entry id, and it counts its ranges in constant time. Takes precedence"
+                + " over managedLedgerUnackedRangesOpenCacheSetEnabled"
+        )
+    private boolean managedLedgerUnackedRangesRoaringSetEnabled = false;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Persist the mark-delete positions of all the subscriptions of a topic into one ledger shared by"
+                + " the subscriptions, writing the positions updated while a write is in progress together, so that"
+                + " the number of writes doesn't grow with the number of subscriptions. Brokers of previous"
+                + " versions can't recover the subscriptions persisted this way"
+        )
+    private boolean managedLedgerCursorPositionBatchingEnabled = false;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Queue the messages published on a topic in a lock-free queue, moved to the managed ledger in"
+                + " batches by a single task of the ordered executor, instead of handing off each message to the"
+                + " executor. The messages keep their publish order and are still written one entry per message"
+        )
+    private boolean managedLedgerAddEntryQueueEnabled = false;
+    @FieldContext(
+            category = CATEGORY_STORAGE_ML,
+            doc = "Read ahead the metadata of all the topics of a bundle being loaded, and of their subscriptions,"
+                + " with up to this number of reads in progress at the same time on the metadata store, so that the"
+                + " topics don't wait on their metadata reads one after the other. 0 disables the read ahead"
+        )
+    private int managedLedgerMetadataPrefetchMaxConcurrentReads = 0;
     @FieldContext(
         dynamic = true,
         category = CATEGORY_STORAGE_ML,
@@ -1195,6 +1333,22 @@ public class ServiceConfiguration implements PulsarConfiguration {
         doc = "Replicator producer queue size"
     )
     private int replicationProducerQueueSize = 1000;
+    @FieldContext(
+        category = CATEGORY_REPLICATION,
+        doc = "Forward the payload of the replicated messages without reading it: the checksum of the payload is"
+            + " derived from the checksum stored with the message, so that only the rewritten metadata is"
+            + " checksummed"
+    )
+    private boolean replicationPayloadPassThroughEnabled = false;
+    @FieldContext(
+        category = CATEGORY_REPLICATION,
+        doc = "Max size in MB of the messages being replicated to a remote cluster by the topics of a namespace"
+            + " bundle and not yet persisted by that cluster. Once reached, the replicators of the bundle to that"
+            + " cluster pause their reads, resumed in the order they paused as the cluster persists the messages."
+            + " Each remote cluster has its own budget, so an unreachable cluster doesn't hold the replication to"
+            + " the others. 0 disables the limit"
+    )
+    private long replicationBundleMaxInFlightSizeMB = 0;
     @Deprecated
     @FieldContext(
         category = CATEGORY_REPLICATION,
@@ -1253,6 +1407,30 @@ public class ServiceConfiguration implements PulsarConfiguration {
     )
     private int brokerServiceCompactionMonitorIntervalInSeconds = 60;
 
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Max memory, in MB, of the off-heap index of the latest message of each key built by a compaction."
+            + " Once it is reached, the index is spilled to sorted files on the local disk, so that the memory used"
+            + " by a compaction is bounded whatever the number of keys of the topic"
+    )
+    private int brokerServiceCompactionKeyIndexMaxMemoryMB = 64;
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Directory of the files spilled by the compaction key index. Default is the temporary directory of the JVM"
+    )
+    private String brokerServiceCompactionKeyIndexSpillDirectory = "";
+
+    @FieldContext(
+        category = CATEGORY_SERVER,
+        doc = "Max number of layers of the compacted view of a topic. With more than 1 layer, a compaction only"
+            + " compacts the messages published since the previous one, into a new layer on top of the existing"
+            + " ones, and a full compaction merges all the layers once this number is reached."
+            + " The values of a key superseded or deleted in an upper layer are skipped when reading the layers."
+            + " 1 disables the incremental compaction"
+    )
+    private int brokerServiceCompactionMaxLayers = 1;
+
     @FieldContext(
         category = CATEGORY_SCHEMA,
         doc = "Enforce schema validation on following cases:\n\n"
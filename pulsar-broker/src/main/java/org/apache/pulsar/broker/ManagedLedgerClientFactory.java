@@ -57,6 +57,15 @@ public class ManagedLedgerClientFactory implements Closeable {
         managedLedgerFactoryConfig.setCacheEvictionTimeThresholdMillis(conf.getManagedLedgerCacheEvictionTimeThresholdMillis());
         managedLedgerFactoryConfig.setThresholdBackloggedCursor(conf.getManagedLedgerCursorBackloggedThreshold());
         managedLedgerFactoryConfig.setCopyEntriesInCache(conf.isManagedLedgerCacheCopyEntries());
+        managedLedgerFactoryConfig.setCacheSlabSize(conf.getManagedLedgerCacheSlabSizeKB() * 1024);
+        managedLedgerFactoryConfig.setCacheEvictionClockSweep(conf.isManagedLedgerCacheEvictionClockSweep());
+        managedLedgerFactoryConfig.setReadAheadMaxSize(conf.getManagedLedgerReadAheadMaxSizeMB() * 1024L * 1024L);
+        managedLedgerFactoryConfig.setReadAheadMaxBatches(conf.getManagedLedgerReadAheadMaxBatches());
+        managedLedgerFactoryConfig.setShareConcurrentReads(conf.isManagedLedgerShareConcurrentReads());
+        managedLedgerFactoryConfig.setCacheDiskTierMaxSize(conf.getManagedLedgerCacheDiskTierSizeMB() * 1024L * 1024L);
+        managedLedgerFactoryConfig.setCacheDiskTierDirectory(conf.getManagedLedgerCacheDiskTierDirectory());
+        managedLedgerFactoryConfig
+                .setMetadataPrefetchMaxConcurrentReads(conf.getManagedLedgerMetadataPrefetchMaxConcurrentReads());
 
         this.defaultBkClient = bookkeeperProvider.create(conf, zkClient, Optional.empty(), null);
         
@@ -662,6 +662,7 @@ public class PulsarService implements AutoCloseable {
             LOG.info("Loading all topics on bundle: {}", bundle);
 
             NamespaceName nsName = bundle.getNamespaceObject();
+            List<String> topicsToLoad = Lists.newArrayList();
             List<CompletableFuture<Topic>> persistentTopics = Lists.newArrayList();
             long topicLoadStart = System.nanoTime();
 
@@ -669,10 +670,25 @@ public class PulsarService implements AutoCloseable {
                 try {
                     TopicName topicName = TopicName.get(topic);
                     if (bundle.includes(topicName)) {
-                        CompletableFuture<Topic> future = brokerService.getOrCreateTopic(topic);
-                        if (future != null) {
-                            persistentTopics.add(future);
-                        }
+                        topicsToLoad.add(topic);
+                    }
+                } catch (Throwable t) {
+                    LOG.warn("Failed to preload topic {}", topic, t);
+                }
+            }
+
+            // Read the metadata of all the topics at once, rather than each topic reading it during its own load
+            try {
+                brokerService.prefetchTopicsMetadata(topicsToLoad).join();
+            } catch (Throwable t) {
+                LOG.warn("Failed to prefetch the metadata of the topics on bundle {}", bundle, t);
+            }
+
+            for (String topic : topicsToLoad) {
+                try {
+                    CompletableFuture<Topic> future = brokerService.getOrCreateTopic(topic);
+                    if (future != null) {
+                        persistentTopics.add(future);
                     }
                 } catch (Throwable t) {
                     LOG.warn("Failed to preload topic {}", topic, t);
@@ -681,10 +697,10 @@ public class PulsarService implements AutoCloseable {
 
             if (!persistentTopics.isEmpty()) {
                 FutureUtil.waitForAll(persistentTopics).thenRun(() -> {
-                    double topicLoadTimeSeconds = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - topicLoadStart)
-                            / 1000.0;
+                    long topicLoadTimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - topicLoadStart);
+                    brokerService.recordBundleLoadTimeValue(bundle, topicLoadTimeMs);
                     LOG.info("Loaded {} topics on {} -- time taken: {} seconds", persistentTopics.size(), bundle,
-                            topicLoadTimeSeconds);
+                            topicLoadTimeMs / 1000.0);
                 });
             }
             return null;
@@ -0,0 +1,865 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.bookkeeper.util.ZkUtils;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.common.util.FutureUtil;
+import org.apache.pulsar.common.util.ObjectMapperFactory;
+import org.apache.pulsar.common.util.collections.TripleLongPriorityQueue;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * Delayed delivery tracker that only keeps in memory the messages due soon, and seals the others in buckets persisted
+ * to BookKeeper.
+ *
+ * <p/>The messages due within the next time step are kept in the shared queue, from where they are delivered. The
+ * others are kept in the mutable queue until it holds too many messages: they are then sealed in a bucket, a ledger
+ * with one entry per time step of delivery, called a segment. A segment is loaded back into the shared queue one time
+ * step before it's due, and the ledger is deleted once all its segments are loaded.
+ *
+ * <p/>The metadata of the buckets is stored in ZooKeeper. When the subscription is reloaded, the buckets are recovered
+ * asynchronously, and the messages re-read from the backlog that are still held by a bucket are not tracked again.
+ * The buckets of a subscription are deleted with {@link #deleteBuckets} when the subscription is deleted.
+ */
+@Slf4j
+public class BucketDelayedDeliveryTracker implements DelayedDeliveryTracker, TimerTask {
+
+    static final BookKeeper.DigestType DIGEST_TYPE = BookKeeper.DigestType.CRC32C;
+    static final byte[] PASSWORD = "".getBytes(UTF_8);
+
+    // Delay before retrying to load a segment that failed to be read
+    private static final long LOAD_RETRY_DELAY_MILLIS = 1000;
+
+    /**
+     * Metadata of the buckets of a subscription, as stored in ZooKeeper.
+     */
+    public static class BucketsMetadata {
+        public List<BucketMetadata> buckets = new ArrayList<>();
+    }
+
+    /**
+     * Metadata of a bucket: the ledger holding its segments and the range of positions of its messages.
+     */
+    public static class BucketMetadata {
+        public long ledgerId = -1;
+        public long firstLedgerId;
+        public long firstEntryId;
+        public long lastLedgerId;
+        public long lastEntryId;
+        public List<SegmentMetadata> segments = new ArrayList<>();
+        // Index of the first segment that is not loaded yet
+        public int nextSegment;
+    }
+
+    /**
+     * Metadata of a segment: the entry of the bucket ledger holding its messages and their range of delivery times.
+     */
+    public static class SegmentMetadata {
+        public long entryId;
+        public long firstDeliverAt;
+        public long lastDeliverAt;
+        public int count;
+    }
+
+    private static class Bucket {
+        private final BucketMetadata metadata;
+
+        // Messages of the segments, kept until they are written to the ledger of the bucket
+        private long[][] pendingSegments;
+
+        private boolean loading = false;
+
+        Bucket(BucketMetadata metadata, long[][] pendingSegments) {
+            this.metadata = metadata;
+            this.pendingSegments = pendingSegments;
+        }
+
+        boolean isPersisted() {
+            return pendingSegments == null;
+        }
+
+        boolean isFullyLoaded() {
+            return metadata.nextSegment >= metadata.segments.size();
+        }
+
+        SegmentMetadata nextSegment() {
+            return metadata.segments.get(metadata.nextSegment);
+        }
+
+        boolean contains(long ledgerId, long entryId, long deliveryAt) {
+            if (compare(ledgerId, entryId, metadata.firstLedgerId, metadata.firstEntryId) < 0
+                    || compare(ledgerId, entryId, metadata.lastLedgerId, metadata.lastEntryId) > 0) {
+                return false;
+            }
+            for (int i = metadata.nextSegment; i < metadata.segments.size(); i++) {
+                SegmentMetadata segment = metadata.segments.get(i);
+                if (deliveryAt >= segment.firstDeliverAt && deliveryAt <= segment.lastDeliverAt) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Messages due within the next time step
+    private final TripleLongPriorityQueue sharedQueue = new TripleLongPriorityQueue();
+
+    // Messages due later, that are not sealed in a bucket yet
+    private final TripleLongPriorityQueue mutableQueue = new TripleLongPriorityQueue();
+
+    // Sealed buckets, in the order of sealing
+    private final List<Bucket> buckets = new ArrayList<>();
+
+    // Number of messages of the segments not loaded yet
+    private long numberOfMessagesInBuckets = 0;
+
+    // The buckets are being read from ZooKeeper, no bucket is sealed meanwhile
+    private boolean recovering = true;
+    private boolean sealing = false;
+    private boolean persistingMetadata = false;
+    private boolean persistMetadataAgain = false;
+    private boolean closed = false;
+
+    private final PersistentDispatcherMultipleConsumers dispatcher;
+
+    // Reference to the shared (per-broker) timer for delayed delivery
+    private final Timer timer;
+
+    // Current timeout or null if not set
+    private Timeout timeout;
+
+    // Timestamp at which the timeout is currently set
+    private long currentTimeoutTarget;
+
+    private final long tickTimeMillis;
+    private final long timeStepMillis;
+    private final int maxMessagesInMemory;
+
+    private final BookKeeper bookKeeper;
+    private final int ensembleSize;
+    private final int writeQuorumSize;
+    private final int ackQuorumSize;
+
+    private final ZooKeeper zooKeeper;
+    private final String metadataPath;
+
+    private final Clock clock;
+
+    BucketDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis,
+            long timeStepMillis, int maxMessagesInMemory, BookKeeper bookKeeper, int ensembleSize,
+            int writeQuorumSize, int ackQuorumSize, ZooKeeper zooKeeper, String metadataPath, Clock clock) {
+        this.dispatcher = dispatcher;
+        this.timer = timer;
+        this.tickTimeMillis = tickTimeMillis;
+        this.timeStepMillis = timeStepMillis;
+        this.maxMessagesInMemory = maxMessagesInMemory;
+        this.bookKeeper = bookKeeper;
+        this.ensembleSize = ensembleSize;
+        this.writeQuorumSize = writeQuorumSize;
+        this.ackQuorumSize = ackQuorumSize;
+        this.zooKeeper = zooKeeper;
+        this.metadataPath = metadataPath;
+        this.clock = clock;
+        recoverBuckets();
+    }
+
+    /**
+     * Read the buckets of the subscription. The tracker is created by the dispatcher while it holds its lock, so the
+     * read is asynchronous: the messages added meanwhile are tracked in memory, and the ones held by a recovered bucket
+     * are dropped once the buckets are read.
+     */
+    private void recoverBuckets() {
+        zooKeeper.getData(metadataPath, false, (rc, path, ctx, content, stat) -> {
+            BucketsMetadata metadata = null;
+            if (rc == Code.OK.intValue()) {
+                try {
+                    metadata = ObjectMapperFactory.getThreadLocal().readValue(content, BucketsMetadata.class);
+                } catch (Exception e) {
+                    log.warn("[{}] Failed to parse the delayed delivery buckets at {}: {}", dispatcher.getName(),
+                            metadataPath, e.getMessage());
+                }
+            } else if (rc != Code.NONODE.intValue()) {
+                // The messages of the buckets are tracked again when they are re-read from the backlog
+                log.warn("[{}] Failed to read the delayed delivery buckets at {}: {}", dispatcher.getName(),
+                        metadataPath, KeeperException.create(Code.get(rc)).getMessage());
+            }
+            bucketsRecovered(metadata);
+        }, null);
+    }
+
+    private void bucketsRecovered(BucketsMetadata metadata) {
+        synchronized (dispatcher) {
+            recovering = false;
+            if (closed) {
+                return;
+            }
+
+            if (metadata != null) {
+                for (BucketMetadata bucketMetadata : metadata.buckets) {
+                    Bucket bucket = new Bucket(bucketMetadata, null);
+                    buckets.add(bucket);
+                    for (int i = bucketMetadata.nextSegment; i < bucketMetadata.segments.size(); i++) {
+                        numberOfMessagesInBuckets += bucketMetadata.segments.get(i).count;
+                    }
+                }
+                log.info("[{}] Recovered {} delayed delivery buckets holding {} messages", dispatcher.getName(),
+                        buckets.size(), numberOfMessagesInBuckets);
+
+                // Drop the messages added during the recovery that are held by a bucket
+                long[] messages = new long[(int) mutableQueue.size() * 3];
+                for (int i = 0; i < messages.length; i += 3) {
+                    messages[i] = mutableQueue.peekN1();
+                    messages[i + 1] = mutableQueue.peekN2();
+                    messages[i + 2] = mutableQueue.peekN3();
+                    mutableQueue.pop();
+                }
+                for (int i = 0; i < messages.length; i += 3) {
+                    if (!isInBucket(messages[i + 1], messages[i + 2], messages[i])) {
+                        mutableQueue.add(messages[i], messages[i + 1], messages[i + 2]);
+                    }
+                }
+            }
+
+            if (mutableQueue.size() >= maxMessagesInMemory) {
+                sealBucket();
+            }
+            updateTimer();
+        }
+    }
+
+    @Override
+    public boolean addMessage(long ledgerId, long entryId, long deliveryAt) {
+        long now = clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Add message {}:{} -- Delivery in {} ms ", dispatcher.getName(), ledgerId, entryId,
+                    deliveryAt - now);
+        }
+        if (deliveryAt < (now + tickTimeMillis)) {
+            // It's already about time to deliver this message
+            return false;
+        }
+
+        if (deliveryAt < now + timeStepMillis) {
+            sharedQueue.add(deliveryAt, ledgerId, entryId);
+        } else if (isInBucket(ledgerId, entryId, deliveryAt)) {
+            // The message is re-read from the backlog, but it's still held by a bucket. Only the messages due after
+            // the next time step are skipped: the others might have been moved to the shared queue before sealing
+            return true;
+        } else {
+            mutableQueue.add(deliveryAt, ledgerId, entryId);
+            if (mutableQueue.size() >= maxMessagesInMemory) {
+                sealBucket();
+            }
+        }
+
+        updateTimer();
+        return true;
+    }
+
+    private boolean isInBucket(long ledgerId, long entryId, long deliveryAt) {
+        for (Bucket bucket : buckets) {
+            if (bucket.contains(ledgerId, entryId, deliveryAt)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return true if there's at least a message that is scheduled to be delivered already
+     */
+    @Override
+    public boolean hasMessageAvailable() {
+        long now = clock.millis();
+        moveDueMessages(now);
+        return !sharedQueue.isEmpty() && sharedQueue.peekN1() <= now;
+    }
+
+    /**
+     * Get a set of position of messages that have already reached
+     */
+    @Override
+    public Set<PositionImpl> getScheduledMessages(int maxMessages) {
+        int n = maxMessages;
+        Set<PositionImpl> positions = new TreeSet<>();
+        long now = clock.millis();
+        moveDueMessages(now);
+        // Pick all the messages that will be ready within the tick time period.
+        // This is to avoid keeping rescheduling the timer for each message at
+        // very short delay
+        long cutoffTime = now + tickTimeMillis;
+
+        while (n > 0 && !sharedQueue.isEmpty()) {
+            long timestamp = sharedQueue.peekN1();
+            if (timestamp > cutoffTime) {
+                break;
+            }
+
+            long ledgerId = sharedQueue.peekN2();
+            long entryId = sharedQueue.peekN3();
+            positions.add(new PositionImpl(ledgerId, entryId));
+
+            sharedQueue.pop();
+            --n;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Get scheduled messages - found {}", dispatcher.getName(), positions.size());
+        }
+        updateTimer();
+        return positions;
+    }
+
+    @Override
+    public long getNumberOfDelayedMessages() {
+        return sharedQueue.size() + mutableQueue.size() + numberOfMessagesInBuckets;
+    }
+
+    /**
+     * Move to the shared queue the messages of the mutable queue and the segments that are due within the next time
+     * step.
+     */
+    private void moveDueMessages(long now) {
+        long loadAheadTime = now + timeStepMillis;
+        while (!mutableQueue.isEmpty() && mutableQueue.peekN1() < loadAheadTime) {
+            sharedQueue.add(mutableQueue.peekN1(), mutableQueue.peekN2(), mutableQueue.peekN3());
+            mutableQueue.pop();
+        }
+
+        for (Bucket bucket : new ArrayList<>(buckets)) {
+            if (!bucket.loading && !bucket.isFullyLoaded() && bucket.nextSegment().firstDeliverAt < loadAheadTime) {
+                loadSegment(bucket);
+            }
+        }
+    }
+
+    private void sealBucket() {
+        if (sealing || recovering) {
+            // Only one bucket is written at a time, and not before the recovered ones are known, since the metadata
+            // written with it would drop them. The mutable queue keeps growing meanwhile
+            return;
+        }
+
+        int size = (int) mutableQueue.size();
+        long[] messages = new long[size * 3];
+        for (int i = 0; i < messages.length; i += 3) {
+            messages[i] = mutableQueue.peekN1();
+            messages[i + 1] = mutableQueue.peekN2();
+            messages[i + 2] = mutableQueue.peekN3();
+            mutableQueue.pop();
+        }
+
+        BucketMetadata metadata = new BucketMetadata();
+        metadata.firstLedgerId = Long.MAX_VALUE;
+        metadata.firstEntryId = Long.MAX_VALUE;
+        metadata.lastLedgerId = -1;
+        metadata.lastEntryId = -1;
+
+        // The messages are sorted by delivery time, a segment is cut at each time step boundary
+        List<long[]> segments = new ArrayList<>();
+        int segmentStart = 0;
+        for (int i = 0; i < messages.length; i += 3) {
+            long ledgerId = messages[i + 1];
+            long entryId = messages[i + 2];
+            if (compare(ledgerId, entryId, metadata.firstLedgerId, metadata.firstEntryId) < 0) {
+                metadata.firstLedgerId = ledgerId;
+                metadata.firstEntryId = entryId;
+            }
+            if (compare(ledgerId, entryId, metadata.lastLedgerId, metadata.lastEntryId) > 0) {
+                metadata.lastLedgerId = ledgerId;
+                metadata.lastEntryId = entryId;
+            }
+
+            boolean lastMessage = i + 3 == messages.length;
+            if (lastMessage || messages[i + 3] / timeStepMillis != messages[i] / timeStepMillis) {
+                SegmentMetadata segment = new SegmentMetadata();
+                segment.entryId = segments.size();
+                segment.firstDeliverAt = messages[segmentStart];
+                segment.lastDeliverAt = messages[i];
+                segment.count = (i + 3 - segmentStart) / 3;
+                metadata.segments.add(segment);
+                long[] segmentMessages = new long[i + 3 - segmentStart];
+                System.arraycopy(messages, segmentStart, segmentMessages, 0, segmentMessages.length);
+                segments.add(segmentMessages);
+                segmentStart = i + 3;
+            }
+        }
+
+        Bucket bucket = new Bucket(metadata, segments.toArray(new long[segments.size()][]));
+        buckets.add(bucket);
+        numberOfMessagesInBuckets += size;
+        sealing = true;
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Sealing a delayed delivery bucket of {} messages in {} segments", dispatcher.getName(),
+                    size, segments.size());
+        }
+
+        bookKeeper.asyncCreateLedger(ensembleSize, writeQuorumSize, ackQuorumSize, DIGEST_TYPE, PASSWORD,
+                (rc, ledger, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        sealFailed(bucket, null, BKException.create(rc));
+                    } else {
+                        writeSegments(bucket, ledger);
+                    }
+                }, null, null);
+    }
+
+    private void writeSegments(Bucket bucket, LedgerHandle ledger) {
+        long[][] segments = bucket.pendingSegments;
+        int[] remaining = new int[] { segments.length };
+        boolean[] failed = new boolean[] { false };
+        for (long[] segmentMessages : segments) {
+            ByteBuffer buffer = ByteBuffer.allocate(segmentMessages.length * Long.BYTES);
+            for (long value : segmentMessages) {
+                buffer.putLong(value);
+            }
+            ledger.asyncAddEntry(buffer.array(), (rc, lh, entryId, ctx) -> {
+                synchronized (remaining) {
+                    if (failed[0]) {
+                        return;
+                    }
+                    if (rc != BKException.Code.OK) {
+                        failed[0] = true;
+                        sealFailed(bucket, ledger, BKException.create(rc));
+                        return;
+                    }
+                    if (--remaining[0] > 0) {
+                        return;
+                    }
+                }
+
+                ledger.asyncClose((closeRc, lh1, ctx1) -> {
+                    if (closeRc != BKException.Code.OK) {
+                        sealFailed(bucket, ledger, BKException.create(closeRc));
+                    } else {
+                        sealCompleted(bucket, ledger.getId());
+                    }
+                }, null);
+            }, null);
+        }
+    }
+
+    private void sealCompleted(Bucket bucket, long ledgerId) {
+        synchronized (dispatcher) {
+            sealing = false;
+            bucket.metadata.ledgerId = ledgerId;
+            bucket.pendingSegments = null;
+            if (closed) {
+                // The messages of the bucket are tracked again when they are re-read from the backlog
+                deleteLedger(ledgerId);
+                return;
+            }
+
+            if (bucket.isFullyLoaded()) {
+                // All the segments were loaded from memory while the bucket was written
+                buckets.remove(bucket);
+                deleteLedger(ledgerId);
+            }
+            persistMetadata();
+            if (mutableQueue.size() >= maxMessagesInMemory) {
+                sealBucket();
+            }
+        }
+    }
+
+    private void sealFailed(Bucket bucket, LedgerHandle ledger, Exception e) {
+        log.warn("[{}] Failed to write a delayed delivery bucket: {}", dispatcher.getName(), e.getMessage());
+        if (ledger != null) {
+            deleteLedger(ledger.getId());
+        }
+
+        synchronized (dispatcher) {
+            sealing = false;
+            if (closed) {
+                return;
+            }
+
+            // Give back the messages not loaded yet to the mutable queue, they are sealed again later on
+            buckets.remove(bucket);
+            for (int i = bucket.metadata.nextSegment; i < bucket.pendingSegments.length; i++) {
+                long[] segmentMessages = bucket.pendingSegments[i];
+                for (int j = 0; j < segmentMessages.length; j += 3) {
+                    mutableQueue.add(segmentMessages[j], segmentMessages[j + 1], segmentMessages[j + 2]);
+                }
+                numberOfMessagesInBuckets -= segmentMessages.length / 3;
+            }
+            updateTimer();
+        }
+    }
+
+    private void loadSegment(Bucket bucket) {
+        SegmentMetadata segment = bucket.nextSegment();
+        if (!bucket.isPersisted()) {
+            addSegmentMessages(bucket, bucket.pendingSegments[bucket.metadata.nextSegment]);
+            return;
+        }
+
+        bucket.loading = true;
+        long ledgerId = bucket.metadata.ledgerId;
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Loading the segment {} of the delayed delivery bucket {}", dispatcher.getName(),
+                    segment.entryId, ledgerId);
+        }
+
+        bookKeeper.asyncOpenLedger(ledgerId, DIGEST_TYPE, PASSWORD, (rc, ledger, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                loadFailed(bucket, BKException.create(rc));
+                return;
+            }
+
+            ledger.asyncReadEntries(segment.entryId, segment.entryId, (readRc, lh, entries, ctx1) -> {
+                ledger.asyncClose((closeRc, lh1, ctx2) -> {}, null);
+                if (readRc != BKException.Code.OK) {
+                    loadFailed(bucket, BKException.create(readRc));
+                    return;
+                }
+
+                LedgerEntry entry = entries.nextElement();
+                ByteBuffer data = ByteBuffer.wrap(entry.getEntry());
+                long[] messages = new long[data.remaining() / Long.BYTES];
+                for (int i = 0; i < messages.length; i++) {
+                    messages[i] = data.getLong();
+                }
+
+                synchronized (dispatcher) {
+                    bucket.loading = false;
+                    if (closed) {
+                        return;
+                    }
+                    addSegmentMessages(bucket, messages);
+                    // Load the next segments that are already due as well
+                    moveDueMessages(clock.millis());
+                    dispatcher.readMoreEntries();
+                }
+            }, null);
+        }, null);
+    }
+
+    private void loadFailed(Bucket bucket, Exception e) {
+        log.warn("[{}] Failed to load a segment of the delayed delivery bucket {}: {}", dispatcher.getName(),
+                bucket.metadata.ledgerId, e.getMessage());
+        synchronized (dispatcher) {
+            bucket.loading = false;
+        }
+
+        timer.newTimeout(timeout -> {
+            synchronized (dispatcher) {
+                if (!closed) {
+                    moveDueMessages(clock.millis());
+                    updateTimer();
+                }
+            }
+        }, LOAD_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add the messages of the next segment of a bucket to the shared queue, either read from the ledger or kept in
+     * memory until the bucket is written.
+     */
+    private void addSegmentMessages(Bucket bucket, long[] messages) {
+        SegmentMetadata segment = bucket.nextSegment();
+        for (int i = 0; i + 2 < messages.length; i += 3) {
+            sharedQueue.add(messages[i], messages[i + 1], messages[i + 2]);
+        }
+        numberOfMessagesInBuckets -= segment.count;
+        bucket.metadata.nextSegment++;
+
+        if (!bucket.isPersisted()) {
+            // The metadata is persisted once the bucket is written
+            return;
+        }
+
+        if (bucket.isFullyLoaded()) {
+            // The bucket is removed from the metadata before its ledger is deleted
+            buckets.remove(bucket);
+            persistMetadata();
+            deleteLedger(bucket.metadata.ledgerId);
+        } else {
+            persistMetadata();
+        }
+        updateTimer();
+    }
+
+    private void deleteLedger(long ledgerId) {
+        bookKeeper.asyncDeleteLedger(ledgerId, (rc, ctx) -> {
+            if (rc != BKException.Code.OK && rc != BKException.Code.NoSuchLedgerExistsException) {
+                log.warn("[{}] Failed to delete the delayed delivery bucket {}: {}", dispatcher.getName(), ledgerId,
+                        BKException.getMessage(rc));
+            }
+        }, null);
+    }
+
+    /**
+     * Write the metadata of the persisted buckets to ZooKeeper. Only one write is in flight at a time, a write
+     * requested meanwhile is done with the latest metadata once the current one completes.
+     */
+    private void persistMetadata() {
+        if (persistingMetadata) {
+            persistMetadataAgain = true;
+            return;
+        }
+
+        BucketsMetadata metadata = new BucketsMetadata();
+        for (Bucket bucket : buckets) {
+            if (bucket.isPersisted()) {
+                metadata.buckets.add(bucket.metadata);
+            }
+        }
+
+        byte[] content;
+        try {
+            content = ObjectMapperFactory.getThreadLocal().writeValueAsBytes(metadata);
+        } catch (Exception e) {
+            log.warn("[{}] Failed to serialize the delayed delivery buckets: {}", dispatcher.getName(),
+                    e.getMessage());
+            return;
+        }
+
+        persistingMetadata = true;
+        if (metadata.buckets.isEmpty()) {
+            zooKeeper.delete(metadataPath, -1, (rc, path, ctx) -> metadataPersisted(rc), null);
+        } else {
+            zooKeeper.setData(metadataPath, content, -1, (rc, path, ctx, stat) -> {
+                if (rc == Code.NONODE.intValue()) {
+                    synchronized (dispatcher) {
+                        if (closed) {
+                            // Don't create the node again after the subscription is deleted
+                            metadataPersisted(rc);
+                            return;
+                        }
+                        ZkUtils.asyncCreateFullPathOptimistic(zooKeeper, metadataPath, content, Ids.OPEN_ACL_UNSAFE,
+                                CreateMode.PERSISTENT, (createRc, path1, ctx1, name) -> metadataPersisted(createRc),
+                                null);
+                    }
+                } else {
+                    metadataPersisted(rc);
+                }
+            }, null);
+        }
+    }
+
+    private void metadataPersisted(int rc) {
+        if (rc != Code.OK.intValue() && rc != Code.NONODE.intValue()) {
+            log.warn("[{}] Failed to write the delayed delivery buckets at {}: {}", dispatcher.getName(),
+                    metadataPath, KeeperException.create(Code.get(rc)).getMessage());
+        }
+
+        synchronized (dispatcher) {
+            persistingMetadata = false;
+            if (persistMetadataAgain && !closed) {
+                persistMetadataAgain = false;
+                persistMetadata();
+            }
+        }
+    }
+
+    private void updateTimer() {
+        long timestamp = nextTimerTarget();
+        if (timestamp == Long.MAX_VALUE) {
+            if (timeout != null) {
+                currentTimeoutTarget = -1;
+                timeout.cancel();
+                timeout = null;
+            }
+            return;
+        }
+
+        if (timestamp == currentTimeoutTarget) {
+            // The timer is already set to the correct target time
+            return;
+        }
+
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        long delayMillis = timestamp - clock.millis();
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Start timer in {} millis", dispatcher.getName(), delayMillis);
+        }
+
+        if (delayMillis < 0) {
+            // There are messages that are already ready to be delivered. If
+            // the dispatcher is not getting them is because the consumer is
+            // either not connected or slow.
+            // We don't need to keep retriggering the timer. When the consumer
+            // catches up, the dispatcher will do the readMoreEntries() and
+            // get these messages
+            return;
+        }
+
+        currentTimeoutTarget = timestamp;
+        timeout = timer.newTimeout(this, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The timer fires either when the first message of the shared queue is due, or when messages of the mutable queue
+     * or of a bucket need to be moved to the shared queue.
+     */
+    private long nextTimerTarget() {
+        long target = Long.MAX_VALUE;
+        if (!sharedQueue.isEmpty()) {
+            target = sharedQueue.peekN1();
+        }
+        if (!mutableQueue.isEmpty()) {
+            target = Math.min(target, mutableQueue.peekN1() - timeStepMillis);
+        }
+        for (Bucket bucket : buckets) {
+            if (!bucket.loading && !bucket.isFullyLoaded()) {
+                target = Math.min(target, bucket.nextSegment().firstDeliverAt - timeStepMillis);
+            }
+        }
+        return target;
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        if (log.isDebugEnabled()) {
+            log.debug("[{}] Timer triggered", dispatcher.getName());
+        }
+        if (timeout.isCancelled()) {
+            return;
+        }
+
+        synchronized (dispatcher) {
+            currentTimeoutTarget = -1;
+            this.timeout = null;
+            if (closed) {
+                return;
+            }
+            moveDueMessages(clock.millis());
+            dispatcher.readMoreEntries();
+            updateTimer();
+        }
+    }
+
+    /**
+     * Close the tracker. The buckets are kept, to be recovered when the subscription is reloaded.
+     */
+    @Override
+    public void close() {
+        synchronized (dispatcher) {
+            closed = true;
+            sharedQueue.close();
+            mutableQueue.close();
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * Delete the buckets of a deleted subscription: their ledgers, then their metadata, and the node of the topic if it
+     * has no other subscription with buckets. The tracker of the subscription must be closed beforehand.
+     *
+     * <p/>The returned future is always completed successfully, the failures are logged.
+     */
+    static CompletableFuture<Void> deleteBuckets(BookKeeper bookKeeper, ZooKeeper zooKeeper, String metadataPath) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        zooKeeper.getData(metadataPath, false, (rc, path, ctx, content, stat) -> {
+            if (rc == Code.NONODE.intValue()) {
+                future.complete(null);
+                return;
+            }
+
+            BucketsMetadata metadata;
+            try {
+                if (rc != Code.OK.intValue()) {
+                    throw KeeperException.create(Code.get(rc));
+                }
+                metadata = ObjectMapperFactory.getThreadLocal().readValue(content, BucketsMetadata.class);
+            } catch (Exception e) {
+                log.warn("Failed to read the delayed delivery buckets to delete at {}: {}", metadataPath,
+                        e.getMessage());
+                future.complete(null);
+                return;
+            }
+
+            List<CompletableFuture<Void>> deletions = new ArrayList<>();
+            for (BucketMetadata bucket : metadata.buckets) {
+                CompletableFuture<Void> deletion = new CompletableFuture<>();
+                bookKeeper.asyncDeleteLedger(bucket.ledgerId, (deleteRc, ctx1) -> {
+                    if (deleteRc == BKException.Code.OK || deleteRc == BKException.Code.NoSuchLedgerExistsException) {
+                        deletion.complete(null);
+                    } else {
+                        deletion.completeExceptionally(BKException.create(deleteRc));
+                    }
+                }, null);
+                deletions.add(deletion);
+            }
+
+            FutureUtil.waitForAll(deletions).whenComplete((v, e) -> {
+                if (e != null) {
+                    // Keep the metadata, which records the ledgers that are left behind
+                    log.warn("Failed to delete the delayed delivery buckets of {}: {}", metadataPath, e.getMessage());
+                    future.complete(null);
+                    return;
+                }
+
+                zooKeeper.delete(metadataPath, -1, (deleteRc, path1, ctx1) -> {
+                    if (deleteRc != Code.OK.intValue() && deleteRc != Code.NONODE.intValue()) {
+                        log.warn("Failed to delete the delayed delivery buckets at {}: {}", metadataPath,
+                                KeeperException.create(Code.get(deleteRc)).getMessage());
+                        future.complete(null);
+                        return;
+                    }
+                    log.info("Deleted {} delayed delivery buckets at {}", metadata.buckets.size(), metadataPath);
+
+                    // The node of the topic is only kept while one of its subscriptions has buckets
+                    String topicPath = metadataPath.substring(0, metadataPath.lastIndexOf('/'));
+                    zooKeeper.delete(topicPath, -1, (topicRc, path2, ctx2) -> future.complete(null), null);
+                }, null);
+            });
+        }, null);
+        return future;
+    }
+
+    private static int compare(long ledgerId1, long entryId1, long ledgerId2, long entryId2) {
+        int result = Long.compare(ledgerId1, ledgerId2);
+        return result != 0 ? result : Long.compare(entryId1, entryId2);
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.common.naming.TopicName;
+
+public class BucketDelayedDeliveryTrackerFactory implements DelayedDeliveryTrackerFactory {
+
+    // ZooKeeper node under which the metadata of the buckets of each subscription is stored
+    static final String BUCKETS_ROOT_PATH = "/delayed-delivery";
+
+    private Timer timer;
+
+    private ServiceConfiguration config;
+
+    @Override
+    public void initialize(ServiceConfiguration config) {
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("pulsar-delayed-delivery"),
+                config.getDelayedDeliveryTickTimeMillis(), TimeUnit.MILLISECONDS);
+        this.config = config;
+    }
+
+    @Override
+    public DelayedDeliveryTracker newTracker(PersistentDispatcherMultipleConsumers dispatcher) {
+        PulsarService pulsar = dispatcher.getTopic().getBrokerService().pulsar();
+        String metadataPath = getMetadataPath(dispatcher.getTopic().getName(), dispatcher.getCursor().getName());
+        return new BucketDelayedDeliveryTracker(dispatcher, timer, config.getDelayedDeliveryTickTimeMillis(),
+                config.getDelayedDeliveryBucketTimeStepMillis(), config.getDelayedDeliveryBucketMaxMessagesInMemory(),
+                pulsar.getBookKeeperClient(), config.getManagedLedgerDefaultEnsembleSize(),
+                config.getManagedLedgerDefaultWriteQuorum(), config.getManagedLedgerDefaultAckQuorum(),
+                pulsar.getZkClient(), metadataPath, Clock.systemUTC());
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteSubscription(PersistentTopic topic, String cursorName) {
+        PulsarService pulsar = topic.getBrokerService().pulsar();
+        return BucketDelayedDeliveryTracker.deleteBuckets(pulsar.getBookKeeperClient(), pulsar.getZkClient(),
+                getMetadataPath(topic.getName(), cursorName));
+    }
+
+    static String getMetadataPath(String topicName, String cursorName) {
+        return String.format("%s/%s/%s", BUCKETS_ROOT_PATH, TopicName.get(topicName).getPersistenceNamingEncoding(),
+                cursorName);
+    }
+
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+
+}
@@ -57,7 +57,8 @@ public class InMemoryDelayedDeliveryTracker implements DelayedDeliveryTracker, T
         this(dispatcher, timer, tickTimeMillis, Clock.systemUTC());
     }
 
-    InMemoryDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer, long tickTimeMillis, Clock clock) {
+    public InMemoryDelayedDeliveryTracker(PersistentDispatcherMultipleConsumers dispatcher, Timer timer,
+            long tickTimeMillis, Clock clock) {
         this.dispatcher = dispatcher;
         this.timer = timer;
         this.tickTimeMillis = tickTimeMillis;
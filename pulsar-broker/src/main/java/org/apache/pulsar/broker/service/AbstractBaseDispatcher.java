@@ -23,6 +23,10 @@ import io.netty.buffer.ByteBuf;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -37,8 +41,17 @@ import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 @Slf4j
 public abstract class AbstractBaseDispatcher implements Dispatcher {
 
+    // Size of an entry assumed by the reservations of the reads before the average size of the entries is known
+    private static final long DEFAULT_READ_ENTRY_SIZE = 1024;
+
     protected final Subscription subscription;
 
+    private final AtomicBoolean readPausedOnDispatchMemory = new AtomicBoolean(false);
+    // Memory reserved by the dispatch memory limiter for the paused read it resumed, taken by the next read
+    private final AtomicLong resumedReadReservedBytes = new AtomicLong();
+    private volatile long readPausedTimestamp;
+    private final LongAdder dispatchMemoryThrottledTimeNanos = new LongAdder();
+
     protected AbstractBaseDispatcher(Subscription subscription) {
         this.subscription = subscription;
     }
@@ -122,6 +135,64 @@ public abstract class AbstractBaseDispatcher implements Dispatcher {
         }
     }
 
+    /**
+     * Reserve the memory of a read on the dispatch memory budget of the broker, estimated from the number of entries
+     * to read and their average size. If the budget is used up, the read is paused, and {@code resumeRead} is run
+     * once the memory of the read is reserved, after the reads of the dispatchers paused earlier.
+     *
+     * @return the memory reserved, to release once the entries read are handed to the consumers, or -1 if the read is
+     *         paused
+     */
+    protected long reserveReadMemory(DispatchMemoryLimiter limiter, int entries, long averageEntrySize,
+            Runnable resumeRead) {
+        if (limiter == null || !limiter.isEnabled()) {
+            return 0;
+        }
+
+        long resumedBytes = resumedReadReservedBytes.getAndSet(0);
+        if (resumedBytes > 0) {
+            return resumedBytes;
+        }
+
+        long bytes = entries * (averageEntrySize > 0 ? averageEntrySize : DEFAULT_READ_ENTRY_SIZE);
+        if (limiter.tryReserve(bytes)) {
+            return bytes;
+        }
+
+        // A dispatcher is queued once, whatever the number of reads attempted while it's paused
+        if (readPausedOnDispatchMemory.compareAndSet(false, true)) {
+            readPausedTimestamp = System.nanoTime();
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] Pausing reads on dispatch memory limit {}/{}", subscription,
+                        limiter.getUsedBytes(), limiter.getMaxBytes());
+            }
+            limiter.pauseRead(bytes, () -> {
+                dispatchMemoryThrottledTimeNanos.add(System.nanoTime() - readPausedTimestamp);
+                readPausedOnDispatchMemory.set(false);
+                resumedReadReservedBytes.addAndGet(bytes);
+                resumeRead.run();
+                // The memory is given back if no read was issued
+                releaseReadMemory(limiter, resumedReadReservedBytes.getAndSet(0));
+            });
+        }
+        return -1;
+    }
+
+    protected static void releaseReadMemory(DispatchMemoryLimiter limiter, long reservedBytes) {
+        if (reservedBytes > 0) {
+            limiter.release(reservedBytes);
+        }
+    }
+
+    @Override
+    public long getDispatchMemoryThrottledTimeMs() {
+        long throttledTimeNanos = dispatchMemoryThrottledTimeNanos.sum();
+        if (readPausedOnDispatchMemory.get()) {
+            throttledTimeNanos += System.nanoTime() - readPausedTimestamp;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(throttledTimeNanos);
+    }
+
     public void resetCloseFuture() {
         // noop
     }
@@ -26,11 +26,14 @@ import io.netty.buffer.ByteBuf;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pulsar.broker.service.persistent.PersistentStickyKeyDispatcherMultipleConsumers;
 import org.apache.pulsar.common.api.proto.PulsarApi;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
 import org.apache.pulsar.common.protocol.Commands;
+import org.apache.pulsar.common.util.Murmur3_32Hash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -226,11 +229,38 @@ public abstract class AbstractDispatcherMultipleConsumers extends AbstractBaseDi
         if (log.isDebugEnabled()) {
             log.debug("Parse message metadata, partition key is {}, ordering key is {}", key, metadata.getOrderingKey());
         }
-        if (StringUtils.isNotBlank(key) || metadata.hasOrderingKey()) {
-            return metadata.hasOrderingKey() ? metadata.getOrderingKey().toByteArray() : key.getBytes();
+        byte[] stickyKey;
+        if (metadata.hasOrderingKey()) {
+            stickyKey = metadata.getOrderingKey().toByteArray();
+        } else if (StringUtils.isNotBlank(key)) {
+            stickyKey = key.getBytes();
+        } else {
+            stickyKey = NONE_KEY.getBytes();
         }
         metadata.recycle();
-        return NONE_KEY.getBytes();
+        return stickyKey;
+    }
+
+    /**
+     * Get the hash of the sticky key of an entry. The hash is computed on the first dispatch of the entry and kept
+     * with it by {@link #storeStickyKeyHash(EntryImpl, int)}, so that the entry doesn't parse the message metadata
+     * again.
+     */
+    protected int peekStickyKeyHash(Entry entry) {
+        if (entry instanceof EntryImpl) {
+            EntryImpl entryImpl = (EntryImpl) entry;
+            int stickyKeyHash = entryImpl.getStickyKeyHash();
+            if (stickyKeyHash < 0) {
+                stickyKeyHash = Murmur3_32Hash.getInstance().makeHash(peekStickyKey(entry.getDataBuffer()));
+                storeStickyKeyHash(entryImpl, stickyKeyHash);
+            }
+            return stickyKeyHash;
+        }
+        return Murmur3_32Hash.getInstance().makeHash(peekStickyKey(entry.getDataBuffer()));
+    }
+
+    protected void storeStickyKeyHash(EntryImpl entry, int stickyKeyHash) {
+        entry.setStickyKeyHash(stickyKeyHash);
     }
 
     private static final Logger log = LoggerFactory.getLogger(PersistentStickyKeyDispatcherMultipleConsumers.class);
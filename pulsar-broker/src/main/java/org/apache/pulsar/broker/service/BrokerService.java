@@ -64,6 +64,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
@@ -212,6 +213,10 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private final DelayedDeliveryTrackerFactory delayedDeliveryTrackerFactory;
+    private final DispatchMemoryLimiter dispatchMemoryLimiter;
+    // Budgets of the messages being replicated, by bundle and remote cluster
+    private final ConcurrentOpenHashMap<String, ConcurrentOpenHashMap<String, DispatchMemoryLimiter>>
+            replicationBundleLimiters;
     private final ServerBootstrap defaultServerBootstrap;
 
     private Channel listenChannel;
@@ -222,6 +227,7 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         this.managedLedgerFactory = pulsar.getManagedLedgerFactory();
         this.topics = new ConcurrentOpenHashMap<>();
         this.replicationClients = new ConcurrentOpenHashMap<>();
+        this.replicationBundleLimiters = new ConcurrentOpenHashMap<>();
         this.clusterAdmins = new ConcurrentOpenHashMap<>();
         this.keepAliveIntervalSeconds = pulsar.getConfiguration().getKeepAliveIntervalSeconds();
         this.configRegisteredListeners = new ConcurrentOpenHashMap<>();
@@ -270,6 +276,8 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
             }
         };
         this.blockedDispatchers = new ConcurrentOpenHashSet<>();
+        this.dispatchMemoryLimiter = new DispatchMemoryLimiter(
+                pulsar.getConfiguration().getDispatcherMaxMemorySizeMB() * 1024L * 1024L, workerGroup);
         // update dynamic configuration and register-listener
         updateConfigurationAndRegisterListeners();
         this.lookupRequestSemaphore = new AtomicReference<Semaphore>(
@@ -639,6 +647,25 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         return getTopic(topic, pulsar.getConfiguration().isAllowAutoTopicCreation()).thenApply(Optional::get);
     }
 
+    /**
+     * Read ahead the metadata of the persistent topics about to be loaded, so that they don't wait on their metadata
+     * reads one after the other. Does nothing unless managedLedgerMetadataPrefetchMaxConcurrentReads is set.
+     */
+    public CompletableFuture<Void> prefetchTopicsMetadata(List<String> topicsToLoad) {
+        if (pulsar.getConfiguration().getManagedLedgerMetadataPrefetchMaxConcurrentReads() <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<String> managedLedgerNames = topicsToLoad.stream()
+                .filter(topic -> !topics.containsKey(topic))
+                .map(topic -> TopicName.get(topic).getPersistenceNamingEncoding())
+                .collect(Collectors.toList());
+        return managedLedgerFactory.asyncPrefetchMetadata(managedLedgerNames);
+    }
+
+    public void recordBundleLoadTimeValue(NamespaceBundle bundle, long bundleLoadLatencyMs) {
+        pulsarStats.recordBundleLoadTimeValue(bundle.toString(), bundleLoadLatencyMs);
+    }
+
     public CompletableFuture<Optional<Topic>> getTopic(final String topic, boolean createIfMissing) {
         try {
             CompletableFuture<Optional<Topic>> topicFuture = topics.get(topic);
@@ -974,6 +1001,13 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
             managedLedgerConfig.setMetadataEnsembleSize(serviceConfig.getManagedLedgerDefaultEnsembleSize());
             managedLedgerConfig.setUnackedRangesOpenCacheSetEnabled(
                     serviceConfig.isManagedLedgerUnackedRangesOpenCacheSetEnabled());
+            managedLedgerConfig.setUnackedRangesCompactEncodingEnabled(
+                    serviceConfig.isManagedLedgerUnackedRangesCompactEncodingEnabled());
+            managedLedgerConfig.setUnackedRangesRoaringSetEnabled(
+                    serviceConfig.isManagedLedgerUnackedRangesRoaringSetEnabled());
+            managedLedgerConfig.setCursorPositionBatchingEnabled(
+                    serviceConfig.isManagedLedgerCursorPositionBatchingEnabled());
+            managedLedgerConfig.setAddEntryQueueEnabled(serviceConfig.isManagedLedgerAddEntryQueueEnabled());
             managedLedgerConfig.setMetadataWriteQuorumSize(serviceConfig.getManagedLedgerDefaultWriteQuorum());
             managedLedgerConfig.setMetadataAckQuorumSize(serviceConfig.getManagedLedgerDefaultAckQuorum());
             managedLedgerConfig
@@ -1227,6 +1261,8 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
             }
         });
         CompletableFuture<Void> aggregator = FutureUtil.waitForAll(closeFutures);
+        // The replicators being closed keep their reference to the limiters of the bundle
+        replicationBundleLimiters.remove(serviceUnit.toString());
         aggregator.thenAccept(res -> result.complete(closeFutures.size())).exceptionally(ex -> {
             result.completeExceptionally(ex);
             return null;
@@ -1356,6 +1392,32 @@ public class BrokerService implements Closeable, ZooKeeperCacheListener<Policies
         return workerGroup;
     }
 
+    public DispatchMemoryLimiter getDispatchMemoryLimiter() {
+        return dispatchMemoryLimiter;
+    }
+
+    /**
+     * Returns the budget of the messages being replicated to a remote cluster by the topics of the bundle of a topic,
+     * or null if the replication of the bundles is not limited. Each remote cluster has its own budget, so that the
+     * messages pending on an unreachable cluster don't pause the replication to the others.
+     */
+    public DispatchMemoryLimiter getReplicationBundleLimiter(TopicName topicName, String remoteCluster) {
+        long maxBytes = pulsar.getConfiguration().getReplicationBundleMaxInFlightSizeMB() * 1024L * 1024L;
+        if (maxBytes <= 0) {
+            return null;
+        }
+        String bundle;
+        try {
+            bundle = pulsar.getNamespaceService().getBundle(topicName).toString();
+        } catch (Exception e) {
+            log.warn("[{}] Failed to get the bundle of the topic, its replication is not limited: {}", topicName,
+                    e.getMessage());
+            return null;
+        }
+        return replicationBundleLimiters.computeIfAbsent(bundle, b -> new ConcurrentOpenHashMap<>())
+                .computeIfAbsent(remoteCluster, c -> new DispatchMemoryLimiter(maxBytes, workerGroup));
+    }
+
     public ConcurrentOpenHashMap<String, PulsarClient> getReplicationClients() {
         return replicationClients;
     }
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.pulsar.common.util.Murmur3_32Hash;
+
+/**
+ * This is a consumer selector based on a consistent hashing ring.
+ *
+ * 1.Each consumer is placed on the ring at a number of points (virtual nodes), at the hash of its name and the index
+ * of the point.
+ * 2.A key is served by the consumer owning the first point of the ring at or after the hash of the key.
+ * 3.When a consumer is added or removed, only the keys between its points and the previous points move, about 1/n of
+ * the keys with n consumers.
+ *
+ * With enough points per consumer, the consumers get an even share of the keys, whatever their number. Consumers with
+ * the same name share the same points, and the keys of a shared point are split between them.
+ *
+ * The ring is an immutable sorted array of points, rebuilt on every membership change, so that selecting a consumer is
+ * a lock-free binary search.
+ */
+public class ConsistentHashingStickyKeyConsumerSelector implements StickyKeyConsumerSelector {
+
+    public static final int DEFAULT_NUMBER_OF_POINTS = 100;
+
+    private final int numberOfPoints;
+
+    // Points of each consumer, in the order the consumers were added. Guarded by this
+    private final Map<Consumer, int[]> consumerPoints = new LinkedHashMap<>();
+
+    private volatile Ring ring = Ring.EMPTY;
+
+    private static class Ring {
+        static final Ring EMPTY = new Ring(new int[0], new Consumer[0][]);
+
+        // Sorted hashes of the points, and the consumers owning each of them
+        final int[] points;
+        final Consumer[][] owners;
+
+        Ring(int[] points, Consumer[][] owners) {
+            this.points = points;
+            this.owners = owners;
+        }
+    }
+
+    public ConsistentHashingStickyKeyConsumerSelector() {
+        this(DEFAULT_NUMBER_OF_POINTS);
+    }
+
+    public ConsistentHashingStickyKeyConsumerSelector(int numberOfPoints) {
+        if (numberOfPoints < 1) {
+            throw new IllegalArgumentException("number of points must be greater than 0");
+        }
+        this.numberOfPoints = numberOfPoints;
+    }
+
+    @Override
+    public synchronized void addConsumer(Consumer consumer) {
+        int[] points = new int[numberOfPoints];
+        for (int i = 0; i < numberOfPoints; i++) {
+            String pointKey = consumer.consumerName() + "-" + i;
+            points[i] = Murmur3_32Hash.getInstance().makeHash(pointKey.getBytes());
+        }
+        consumerPoints.put(consumer, points);
+        rebuildRing();
+    }
+
+    @Override
+    public synchronized void removeConsumer(Consumer consumer) {
+        if (consumerPoints.remove(consumer) != null) {
+            rebuildRing();
+        }
+    }
+
+    @Override
+    public Consumer select(byte[] stickyKey) {
+        return select(Murmur3_32Hash.getInstance().makeHash(stickyKey));
+    }
+
+    @Override
+    public Consumer select(int hash) {
+        Ring ring = this.ring;
+        int[] points = ring.points;
+        if (points.length == 0) {
+            return null;
+        }
+
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            // First point after the hash, wrapping around the ring
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        Consumer[] owners = ring.owners[index];
+        return owners.length == 1 ? owners[0] : owners[(hash & Integer.MAX_VALUE) % owners.length];
+    }
+
+    private void rebuildRing() {
+        TreeMap<Integer, List<Consumer>> sortedPoints = new TreeMap<>();
+        consumerPoints.forEach((consumer, points) -> {
+            for (int point : points) {
+                List<Consumer> owners = sortedPoints.computeIfAbsent(point, p -> new ArrayList<>(1));
+                if (!owners.contains(consumer)) {
+                    owners.add(consumer);
+                }
+            }
+        });
+
+        int[] points = new int[sortedPoints.size()];
+        Consumer[][] owners = new Consumer[sortedPoints.size()][];
+        int i = 0;
+        for (Map.Entry<Integer, List<Consumer>> entry : sortedPoints.entrySet()) {
+            points[i] = entry.getKey();
+            owners[i++] = entry.getValue().toArray(new Consumer[0]);
+        }
+        ring = new Ring(points, owners);
+    }
+}
@@ -24,6 +24,7 @@ import com.google.common.base.MoreObjects;
 import com.google.common.collect.Lists;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -54,6 +55,7 @@ import org.apache.pulsar.common.api.proto.PulsarApi.MessageIdData;
 import org.apache.pulsar.common.api.proto.PulsarApi.ProtocolVersion;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.policies.data.ConsumerStats;
+import org.apache.pulsar.common.protocol.ByteBufPair;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.util.DateFormatter;
 import org.slf4j.Logger;
@@ -66,6 +68,8 @@ public class Consumer {
     private final Subscription subscription;
     private final SubType subType;
     private final ServerCnx cnx;
+    // Null when the connection is not bound to a broker service
+    private final DispatchMemoryLimiter dispatchMemoryLimiter;
     private final String appId;
     private AuthenticationDataSource authenticationData;
     private final String topicName;
@@ -128,6 +132,8 @@ public class Consumer {
         this.msgRedeliver = new Rate();
         this.appId = appId;
         this.authenticationData = cnx.authenticationData;
+        this.dispatchMemoryLimiter = cnx.getBrokerService() != null
+                ? cnx.getBrokerService().getDispatchMemoryLimiter() : null;
         PERMITS_RECEIVED_WHILE_CONSUMER_BLOCKED_UPDATER.set(this, 0);
         MESSAGE_PERMITS_UPDATER.set(this, 0);
         UNACKED_MESSAGES_UPDATER.set(this, 0);
@@ -219,6 +225,18 @@ public class Consumer {
         incrementUnackedMessages(totalMessages);
         msgOut.recordMultipleEvents(totalMessages, totalBytes);
 
+        if (dispatchMemoryLimiter != null && dispatchMemoryLimiter.isEnabled()) {
+            // The memory of the messages is held until they are written to the socket
+            dispatchMemoryLimiter.acquire(totalBytes);
+            writePromise.addListener(future -> dispatchMemoryLimiter.release(totalBytes));
+        }
+
+        if (cnx.isCoalesceDispatchWrites()) {
+            cnx.addDispatchWrite(() -> writeCoalescedMessages(ctx, entries, batchSizes, redeliveryTracker,
+                    writePromise));
+            return writePromise;
+        }
+
         ctx.channel().eventLoop().execute(() -> {
             for (int i = 0; i < entries.size(); i++) {
                 Entry entry = entries.get(i);
@@ -227,46 +245,10 @@ public class Consumer {
                     continue;
                 }
 
-                int batchSize = batchSizes.getBatchSize(i);
-
-                if (batchSize > 1 && !cnx.isBatchMessageCompatibleVersion()) {
-                    log.warn("[{}-{}] Consumer doesn't support batch messages -  consumerId {}, msg id {}-{}",
-                            topicName, subscription,
-                            consumerId, entry.getLedgerId(), entry.getEntryId());
-                    ctx.close();
-                    entry.release();
-                    continue;
-                }
-
-                MessageIdData.Builder messageIdBuilder = MessageIdData.newBuilder();
-                MessageIdData messageId = messageIdBuilder
-                    .setLedgerId(entry.getLedgerId())
-                    .setEntryId(entry.getEntryId())
-                    .setPartition(partitionIdx)
-                    .build();
-
-                ByteBuf metadataAndPayload = entry.getDataBuffer();
-                // increment ref-count of data and release at the end of process: so, we can get chance to call entry.release
-                metadataAndPayload.retain();
-                // skip checksum by incrementing reader-index if consumer-client doesn't support checksum verification
-                if (cnx.getRemoteEndpointProtocolVersion() < ProtocolVersion.v11.getNumber()) {
-                    Commands.skipChecksumIfPresent(metadataAndPayload);
-                }
-
-                if (log.isDebugEnabled()) {
-                    log.debug("[{}-{}] Sending message to consumerId {}, msg id {}-{}", topicName, subscription,
-                            consumerId, entry.getLedgerId(), entry.getEntryId());
-                }
-
-                int redeliveryCount = 0;
-                PositionImpl position = PositionImpl.get(messageId.getLedgerId(), messageId.getEntryId());
-                if (redeliveryTracker.contains(position)) {
-                    redeliveryCount = redeliveryTracker.incrementAndGetRedeliveryCount(position);
+                ByteBufPair message = newMessage(ctx, entry, batchSizes.getBatchSize(i), redeliveryTracker);
+                if (message != null) {
+                    ctx.write(message, ctx.voidPromise());
                 }
-                ctx.write(Commands.newMessage(consumerId, messageId, redeliveryCount, metadataAndPayload), ctx.voidPromise());
-                messageId.recycle();
-                messageIdBuilder.recycle();
-                entry.release();
             }
 
             // Use an empty write here so that we can just tie the flush with the write promise for last entry
@@ -277,6 +259,110 @@ public class Consumer {
         return writePromise;
     }
 
+    /**
+     * Frame the messages of a dispatch batch into a single buffer and write it, without flushing. The connection is
+     * flushed once all the coalesced writes queued on it are done.
+     *
+     * <p/>If the messages can't be framed, the write promise is failed, so that the resources tied to it are released
+     * and the dispatcher can move on.
+     */
+    private void writeCoalescedMessages(ChannelHandlerContext ctx, List<Entry> entries, EntryBatchSizes batchSizes,
+            RedeliveryTracker redeliveryTracker, ChannelPromise writePromise) {
+        boolean copy = cnx.isCopyDispatchWrites();
+        CompositeByteBuf frames = null;
+        ByteBufPair message = null;
+        // Index of the first entry not yet released by newMessage()
+        int nextEntry = 0;
+        try {
+            frames = ctx.alloc().compositeDirectBuffer(Math.max(2, 2 * entries.size()));
+            for (; nextEntry < entries.size(); nextEntry++) {
+                Entry entry = entries.get(nextEntry);
+                if (entry == null) {
+                    // Entry was filtered out
+                    continue;
+                }
+
+                message = newMessage(ctx, entry, batchSizes.getBatchSize(nextEntry), redeliveryTracker);
+                if (message != null) {
+                    frames.addComponent(true, copy ? message.getFirst().copy() : message.getFirst().retain());
+                    frames.addComponent(true, copy ? message.getSecond().copy() : message.getSecond().retain());
+                    message.release();
+                    message = null;
+                }
+            }
+        } catch (Throwable t) {
+            log.warn("[{}-{}] Failed to write messages to consumerId {}", topicName, subscription, consumerId, t);
+            if (message != null) {
+                // The entry of the message was already released
+                message.release();
+                nextEntry++;
+            }
+            for (int i = nextEntry; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (entry != null) {
+                    entry.release();
+                }
+            }
+            if (frames != null) {
+                frames.release();
+            }
+            writePromise.tryFailure(t);
+            return;
+        } finally {
+            batchSizes.recyle();
+        }
+
+        ctx.write(frames, writePromise);
+    }
+
+    /**
+     * Frame the message of an entry for this consumer, and release the entry.
+     *
+     * @return the framed message, or null if the entry can't be sent to the consumer
+     */
+    private ByteBufPair newMessage(ChannelHandlerContext ctx, Entry entry, int batchSize,
+            RedeliveryTracker redeliveryTracker) {
+        if (batchSize > 1 && !cnx.isBatchMessageCompatibleVersion()) {
+            log.warn("[{}-{}] Consumer doesn't support batch messages -  consumerId {}, msg id {}-{}",
+                    topicName, subscription,
+                    consumerId, entry.getLedgerId(), entry.getEntryId());
+            ctx.close();
+            entry.release();
+            return null;
+        }
+
+        MessageIdData.Builder messageIdBuilder = MessageIdData.newBuilder();
+        MessageIdData messageId = messageIdBuilder
+            .setLedgerId(entry.getLedgerId())
+            .setEntryId(entry.getEntryId())
+            .setPartition(partitionIdx)
+            .build();
+
+        ByteBuf metadataAndPayload = entry.getDataBuffer();
+        // increment ref-count of data and release at the end of process: so, we can get chance to call entry.release
+        metadataAndPayload.retain();
+        // skip checksum by incrementing reader-index if consumer-client doesn't support checksum verification
+        if (cnx.getRemoteEndpointProtocolVersion() < ProtocolVersion.v11.getNumber()) {
+            Commands.skipChecksumIfPresent(metadataAndPayload);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("[{}-{}] Sending message to consumerId {}, msg id {}-{}", topicName, subscription,
+                    consumerId, entry.getLedgerId(), entry.getEntryId());
+        }
+
+        int redeliveryCount = 0;
+        PositionImpl position = PositionImpl.get(messageId.getLedgerId(), messageId.getEntryId());
+        if (redeliveryTracker.contains(position)) {
+            redeliveryCount = redeliveryTracker.incrementAndGetRedeliveryCount(position);
+        }
+        ByteBufPair message = Commands.newMessage(consumerId, messageId, redeliveryCount, metadataAndPayload);
+        messageId.recycle();
+        messageIdBuilder.recycle();
+        entry.release();
+        return message;
+    }
+
     private void incrementUnackedMessages(int ackedMessages) {
         if (shouldBlockConsumerOnUnackMsgs() && addAndGetUnAckedMsgs(this, ackedMessages) >= maxUnackedMessages) {
             blockedConsumerOnUnackedMsgs = true;
@@ -284,7 +370,7 @@ public class Consumer {
     }
 
     public boolean isWritable() {
-        return cnx.isWritable();
+        return cnx.isWritable() && (dispatchMemoryLimiter == null || !dispatchMemoryLimiter.isLimitReached());
     }
 
     public void sendError(ByteBuf error) {
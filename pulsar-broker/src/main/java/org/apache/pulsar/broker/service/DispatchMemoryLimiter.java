@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget of memory shared by all the dispatchers of a broker, for the messages read from the managed ledgers that
+ * are not yet written to the sockets of the consumers.
+ *
+ * <p/>The memory of a read is reserved before it is issued, from an estimate of its size, until its entries are handed
+ * to the consumers. The memory of the messages is then acquired until their write completes. Once the budget is used
+ * up, the reads are paused. The paused reads are resumed in the order they were paused, as far as the memory released
+ * covers them, their memory being reserved before they are resumed.
+ *
+ * <p/>The replicators of the topics of a namespace bundle to a remote cluster share such a budget as well, for the
+ * messages sent to that cluster and not yet persisted by it.
+ */
+public class DispatchMemoryLimiter {
+
+    private final long maxBytes;
+    private final Executor executor;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Queue<PausedRead> pausedReads = new ConcurrentLinkedQueue<>();
+
+    private static class PausedRead {
+        final long bytes;
+        final Runnable resumeRead;
+
+        PausedRead(long bytes, Runnable resumeRead) {
+            this.bytes = bytes;
+            this.resumeRead = resumeRead;
+        }
+    }
+
+    /**
+     * @param maxBytes
+     *            the memory shared by the dispatchers, 0 to disable the limit
+     * @param executor
+     *            the executor on which the paused reads are resumed
+     */
+    public DispatchMemoryLimiter(long maxBytes, Executor executor) {
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public boolean isLimitReached() {
+        return maxBytes > 0 && usedBytes.get() >= maxBytes;
+    }
+
+    public void acquire(long bytes) {
+        if (maxBytes > 0) {
+            usedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Reserve the memory of a read, unless the budget is used up or reads paused earlier are waiting for memory.
+     *
+     * @return whether the memory is reserved, the read should be paused otherwise
+     */
+    public boolean tryReserve(long bytes) {
+        if (maxBytes <= 0) {
+            return true;
+        }
+        if (!pausedReads.isEmpty() || isLimitReached()) {
+            return false;
+        }
+        usedBytes.addAndGet(bytes);
+        return true;
+    }
+
+    public void release(long bytes) {
+        if (maxBytes > 0 && usedBytes.addAndGet(-bytes) < maxBytes && !pausedReads.isEmpty()) {
+            resumePausedReads();
+        }
+    }
+
+    /**
+     * Queue a paused read, to be resumed once the memory in use gets back under the budget.
+     */
+    public void pauseRead(Runnable resumeRead) {
+        pauseRead(0, resumeRead);
+    }
+
+    /**
+     * Queue a paused read, to be resumed once the memory released covers it. The memory of the read is reserved before
+     * it is resumed, and is to be released by the read.
+     */
+    public void pauseRead(long bytes, Runnable resumeRead) {
+        pausedReads.add(new PausedRead(bytes, resumeRead));
+
+        // The memory may have been released before the read was queued
+        if (!isLimitReached()) {
+            resumePausedReads();
+        }
+    }
+
+    private synchronized void resumePausedReads() {
+        PausedRead read;
+        while ((read = pausedReads.peek()) != null) {
+            long used = usedBytes.get();
+            // A read larger than the whole budget is resumed once no memory is in use
+            if (used >= maxBytes || (used > 0 && used + read.bytes > maxBytes)) {
+                return;
+            }
+            pausedReads.poll();
+            usedBytes.addAndGet(read.bytes);
+            executor.execute(read.resumeRead);
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public int getPausedReadsCount() {
+        return pausedReads.size();
+    }
+}
@@ -103,6 +103,14 @@ public interface Dispatcher {
         return 0;
     }
 
+    /**
+     * @return the total time in milliseconds the reads of the dispatcher were paused on the dispatch memory limit of
+     *         the broker
+     */
+    default long getDispatchMemoryThrottledTimeMs() {
+        return 0;
+    }
+
     default void cursorIsReset() {
         //No-op
     }
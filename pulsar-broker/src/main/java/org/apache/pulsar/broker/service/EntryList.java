@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import io.netty.util.Recycler;
+import java.util.ArrayList;
+import org.apache.bookkeeper.mledger.Entry;
+
+/**
+ * List of entries to send to a consumer, recycled once the consumer has written them.
+ */
+public class EntryList extends ArrayList<Entry> {
+
+    private static final long serialVersionUID = 1L;
+
+    public void recycle() {
+        clear();
+        handle.recycle(this);
+    }
+
+    public static EntryList create(int expectedSize) {
+        EntryList list = RECYCLER.get();
+        list.ensureCapacity(expectedSize);
+        return list;
+    }
+
+    private EntryList(Recycler.Handle<EntryList> handle) {
+        super(16);
+        this.handle = handle;
+    }
+
+    private final transient Recycler.Handle<EntryList> handle;
+    private static final Recycler<EntryList> RECYCLER = new Recycler<EntryList>() {
+        @Override
+        protected EntryList newObject(Handle<EntryList> handle) {
+            return new EntryList(handle);
+        }
+    };
+}
@@ -233,6 +233,14 @@ public class PulsarStats implements Closeable {
         }
     }
 
+    public void recordBundleLoadTimeValue(String bundle, long bundleLoadLatencyMs) {
+        try {
+            brokerOperabilityMetrics.recordBundleLoadTimeValue(bundleLoadLatencyMs);
+        } catch (Exception ex) {
+            log.warn("Exception while recording bundle load time for bundle {}, {}", bundle, ex.getMessage());
+        }
+    }
+
     public void recordZkLatencyTimeValue(EventType eventType, long latencyMs) {
         try {
             if (EventType.write.equals(eventType)) {
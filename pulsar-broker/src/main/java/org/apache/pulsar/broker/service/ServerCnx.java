@@ -36,10 +36,13 @@ import io.netty.handler.ssl.SslHandler;
 import java.net.SocketAddress;
 
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import javax.naming.AuthenticationException;
@@ -147,6 +150,14 @@ public class ServerCnx extends PulsarHandler {
     // Flag to manage throttling-rate by atomically enable/disable read-channel.
     private volatile boolean autoReadDisabledRateLimiting = false;
 
+    // When the dispatch writes are coalesced, the writes of the messages dispatched to the consumers of the connection
+    // are queued, and a single event-loop task performs all the queued writes and flushes the connection once
+    private final boolean coalesceDispatchWrites;
+    private final Queue<Runnable> pendingDispatchWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean dispatchFlushScheduled = new AtomicBoolean(false);
+    // The TLS handler may modify the buffers written on the connection, so the coalesced writes need to copy them
+    private boolean copyDispatchWrites = false;
+
     enum State {
         Start, Connected, Failed, Connecting
     }
@@ -167,6 +178,7 @@ public class ServerCnx extends PulsarHandler {
         this.authenticateOriginalAuthData = service.pulsar().getConfiguration().isAuthenticateOriginalAuthData();
         this.schemaValidationEnforced = pulsar.getConfiguration().isSchemaValidationEnforced();
         this.maxMessageSize = pulsar.getConfiguration().getMaxMessageSize();
+        this.coalesceDispatchWrites = pulsar.getConfiguration().isDispatcherCoalesceWritesEnabled();
     }
 
     @Override
@@ -174,6 +186,7 @@ public class ServerCnx extends PulsarHandler {
         super.channelActive(ctx);
         log.info("New connection from {}", remoteAddress);
         this.ctx = ctx;
+        this.copyDispatchWrites = ctx.channel().pipeline().get(PulsarChannelInitializer.TLS_HANDLER) != null;
     }
 
     @Override
@@ -1687,6 +1700,39 @@ public class ServerCnx extends PulsarHandler {
         return consumers.containsKey(consumerId);
     }
 
+    boolean isCoalesceDispatchWrites() {
+        return coalesceDispatchWrites;
+    }
+
+    boolean isCopyDispatchWrites() {
+        return copyDispatchWrites;
+    }
+
+    /**
+     * Queue the write of messages dispatched to a consumer of the connection. The queued writes are performed by a
+     * single event-loop task, which then flushes the connection once for all of them.
+     */
+    void addDispatchWrite(Runnable write) {
+        pendingDispatchWrites.add(write);
+        if (dispatchFlushScheduled.compareAndSet(false, true)) {
+            ctx.channel().eventLoop().execute(this::flushDispatchWrites);
+        }
+    }
+
+    private void flushDispatchWrites() {
+        // Reset the flag first, so that the writes queued from now on schedule a new task if they are not drained here
+        dispatchFlushScheduled.set(false);
+        Runnable write;
+        while ((write = pendingDispatchWrites.poll()) != null) {
+            try {
+                write.run();
+            } catch (Throwable t) {
+                log.warn("[{}] Failed to write dispatched messages", remoteAddress, t);
+            }
+        }
+        ctx.flush();
+    }
+
     public boolean isBatchMessageCompatibleVersion() {
         return remoteEndpointProtocolVersion >= ProtocolVersion.v4.getNumber();
     }
@@ -28,14 +28,17 @@ import com.google.common.base.MoreObjects;
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.BrokerServiceException.ServerMetadataException;
 import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionBusyException;
 import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionFencedException;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Dispatcher;
+import org.apache.pulsar.broker.service.ConsistentHashingStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.HashRangeAutoSplitStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.HashRangeExclusiveStickyKeyConsumerSelector;
+import org.apache.pulsar.broker.service.StickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.Subscription;
 import org.apache.pulsar.broker.service.Topic;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandAck.AckType;
@@ -130,16 +133,16 @@ public class NonPersistentSubscription implements Subscription {
                                 break;
                             case AUTO_SPLIT:
                                 dispatcher = new NonPersistentStickyKeyDispatcherMultipleConsumers(topic, this,
-                                        new HashRangeAutoSplitStickyKeyConsumerSelector());
+                                        newAutoSplitConsumerSelector());
                                 break;
                             default:
                                 dispatcher = new NonPersistentStickyKeyDispatcherMultipleConsumers(topic, this,
-                                        new HashRangeAutoSplitStickyKeyConsumerSelector());
+                                        newAutoSplitConsumerSelector());
                                 break;
                         }
                     } else {
                         dispatcher = new NonPersistentStickyKeyDispatcherMultipleConsumers(topic, this,
-                                new HashRangeAutoSplitStickyKeyConsumerSelector());
+                                newAutoSplitConsumerSelector());
                     }
                 }
                 break;
@@ -164,6 +167,15 @@ public class NonPersistentSubscription implements Subscription {
         dispatcher.addConsumer(consumer);
     }
 
+    private StickyKeyConsumerSelector newAutoSplitConsumerSelector() {
+        ServiceConfiguration conf = topic.getBrokerService().pulsar().getConfiguration();
+        if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
+            return new ConsistentHashingStickyKeyConsumerSelector(
+                    conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
+        }
+        return new HashRangeAutoSplitStickyKeyConsumerSelector();
+    }
+
     @Override
     public synchronized void removeConsumer(Consumer consumer, boolean isResetCursor) throws BrokerServiceException {
         if (dispatcher != null) {
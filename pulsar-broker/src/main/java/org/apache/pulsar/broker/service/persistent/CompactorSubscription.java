@@ -20,6 +20,8 @@ package org.apache.pulsar.broker.service.persistent;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -38,6 +40,9 @@ import org.slf4j.LoggerFactory;
 
 public class CompactorSubscription extends PersistentSubscription {
     private CompactedTopic compactedTopic;
+    // The compactor seeks the cursor while compacting, which drops the properties of its mark-delete position,
+    // so the layers of the compacted view are tracked here rather than read back from the cursor
+    private volatile List<Long> compactedLedgers;
 
     public CompactorSubscription(PersistentTopic topic, CompactedTopic compactedTopic,
                                  String subscriptionName, ManagedCursor cursor) {
@@ -48,11 +53,12 @@ public class CompactorSubscription extends PersistentSubscription {
         // Avoid compactor cursor to cause entries to be cached
         this.cursor.setAlwaysInactive();
 
-        Map<String, Long> properties = cursor.getProperties();
-        if (properties.containsKey(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY)) {
-            long compactedLedgerId = properties.get(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY);
+        compactedLedgers = Compactor.getCompactedLedgers(cursor.getProperties());
+        if (compactedLedgers.size() == 1) {
             compactedTopic.newCompactedLedger(cursor.getMarkDeletedPosition(),
-                                              compactedLedgerId);
+                                              compactedLedgers.get(0));
+        } else if (compactedLedgers.size() > 1) {
+            compactedTopic.newCompactedLayers(cursor.getMarkDeletedPosition(), compactedLedgers);
         }
     }
 
@@ -63,13 +69,26 @@ public class CompactorSubscription extends PersistentSubscription {
         checkArgument(properties.containsKey(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY));
         long compactedLedgerId = properties.get(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY);
 
+        // An incremental compaction adds its ledger on top of the layers of the compacted view
+        List<Long> newCompactedLedgers;
+        Map<String, Long> markDeleteProperties;
+        if (properties.containsKey(Compactor.COMPACTED_TOPIC_INCREMENTAL_PROPERTY)) {
+            newCompactedLedgers = new ArrayList<>(compactedLedgers);
+            newCompactedLedgers.add(compactedLedgerId);
+            markDeleteProperties = Compactor.getCompactedLedgersProperties(newCompactedLedgers);
+        } else {
+            newCompactedLedgers = Collections.singletonList(compactedLedgerId);
+            markDeleteProperties = properties;
+        }
+        compactedLedgers = newCompactedLedgers;
+
         Position position = positions.get(0);
 
         if (log.isDebugEnabled()) {
             log.debug("[{}][{}] Cumulative ack on compactor subscription {}", topicName, subName, position);
         }
         CompletableFuture<Void> future = new CompletableFuture<>();
-        cursor.asyncMarkDelete(position, properties, new MarkDeleteCallback() {
+        cursor.asyncMarkDelete(position, markDeleteProperties, new MarkDeleteCallback() {
                 @Override
                 public void markDeleteComplete(Object ctx) {
                     if (log.isDebugEnabled()) {
@@ -96,7 +115,13 @@ public class CompactorSubscription extends PersistentSubscription {
 
         // Once properties have been persisted, we can notify the compacted topic to use
         // the new ledger
-        future.thenAccept((v) -> compactedTopic.newCompactedLedger(position, compactedLedgerId));
+        future.thenAccept((v) -> {
+            if (newCompactedLedgers.size() > 1) {
+                compactedTopic.newCompactedLayers(position, newCompactedLedgers);
+            } else {
+                compactedTopic.newCompactedLedger(position, compactedLedgerId);
+            }
+        });
     }
 
     private static final Logger log = LoggerFactory.getLogger(CompactorSubscription.class);
@@ -0,0 +1,526 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.LedgerEntry;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshots of the highest sequence ids persisted by the producers of a topic, stored in a dedicated ledger.
+ *
+ * <p/>A ledger starts with a full snapshot, and each next snapshot is a delta holding only the producers updated or
+ * removed since the previous one. The producer names are interned: a name is written once per ledger, along with the
+ * id that the next records use for it. Once the deltas hold more records than there are producers, the next snapshot
+ * is a full one in a new ledger, and the previous ledgers are deleted once the deduplication cursor points to it.
+ *
+ * <p/>The time of the last update of each producer is kept with its sequence id, so that the producers that stopped
+ * publishing can be expired.
+ *
+ * <p/>The producers updated as the messages are persisted are recorded without locking, and a full snapshot is
+ * encoded outside of the lock, so that the publishing of the topic doesn't wait for the snapshots.
+ */
+class DeduplicationSnapshotLedger {
+
+    static final BookKeeper.DigestType DIGEST_TYPE = BookKeeper.DigestType.CRC32C;
+    static final byte[] PASSWORD = "".getBytes(UTF_8);
+
+    // Type of the entries: a full snapshot resets the producers and their ids
+    private static final byte FULL_SNAPSHOT = 1;
+    private static final byte DELTA_SNAPSHOT = 2;
+
+    // Sequence id of the records of the removed producers
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    // Size over which the records of a snapshot are split in a new entry
+    private static final int MAX_ENTRY_SIZE = 1024 * 1024;
+
+    // Number of records the deltas of a ledger can hold before a full snapshot, regardless of the number of producers
+    private static final int MIN_DELTA_RECORDS = 1000;
+
+    private static final int READ_BATCH_SIZE = 100;
+
+    private final String topicName;
+    private final BookKeeper bookKeeper;
+    private final int ensembleSize;
+    private final int writeQuorumSize;
+    private final int ackQuorumSize;
+    private final int maxNumberOfProducers;
+
+    // Producers interned in the current ledger
+    private InternedProducers producers = new InternedProducers();
+
+    // Producers updated since the last snapshot, recorded for each persisted message
+    private final Set<String> updatedProducers = ConcurrentHashMap.newKeySet();
+
+    // Producers removed since the last snapshot
+    private final Set<String> removedProducers = new HashSet<>();
+
+    // Number of records written in the deltas of the current ledger
+    private long deltaRecords;
+
+    // Ledger the deltas are appended to, null when the next snapshot is a full one in a new ledger
+    private LedgerHandle ledger;
+
+    // Ledgers to delete once the deduplication cursor points to the current one
+    private final Set<Long> obsoleteLedgers = new HashSet<>();
+
+    private boolean deleted;
+    private boolean closed;
+
+    DeduplicationSnapshotLedger(String topicName, BookKeeper bookKeeper, int ensembleSize, int writeQuorumSize,
+            int ackQuorumSize, int maxNumberOfProducers) {
+        this.topicName = topicName;
+        this.bookKeeper = bookKeeper;
+        this.ensembleSize = ensembleSize;
+        this.writeQuorumSize = writeQuorumSize;
+        this.ackQuorumSize = ackQuorumSize;
+        this.maxNumberOfProducers = maxNumberOfProducers;
+    }
+
+    void producerUpdated(String producerName) {
+        // A producer removed and then updated is written as removed, and then interned again
+        updatedProducers.add(producerName);
+    }
+
+    synchronized void producerRemoved(String producerName) {
+        updatedProducers.remove(producerName);
+        // The producers never interned are skipped by the next delta
+        removedProducers.add(producerName);
+    }
+
+    /**
+     * Remove the producers that were not updated since the given time.
+     *
+     * @return the names of the removed producers
+     */
+    synchronized List<String> expireProducers(long minimumUpdateTimestamp) {
+        List<String> expiredProducers = new ArrayList<>();
+        producers.ids.forEach((producerName, id) -> {
+            if (producers.lastUpdateTimestamps[id] < minimumUpdateTimestamp
+                    && !updatedProducers.contains(producerName) && removedProducers.add(producerName)) {
+                expiredProducers.add(producerName);
+            }
+        });
+        return expiredProducers;
+    }
+
+    /**
+     * Read the snapshots stored in a ledger by a previous owner of the topic, passing the highest sequence id of each
+     * producer to the consumer. The next snapshot is a full one in a new ledger.
+     */
+    CompletableFuture<Void> recover(long ledgerId, BiConsumer<String, Long> consumer) {
+        CompletableFuture<Void> readFuture = new CompletableFuture<>();
+        SnapshotReader reader = new SnapshotReader();
+        bookKeeper.asyncOpenLedger(ledgerId, DIGEST_TYPE, PASSWORD, (rc, lh, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                readFuture.completeExceptionally(BKException.create(rc));
+                return;
+            }
+            readFuture.whenComplete((v, ex) -> lh.asyncClose((closeRc, lh1, ctx1) -> {}, null));
+            readEntries(lh, 0, reader, readFuture);
+        }, null);
+
+        return readFuture.thenRun(() -> {
+            synchronized (this) {
+                obsoleteLedgers.add(ledgerId);
+                reader.sequenceIds.forEach((producerName, sequenceId) -> {
+                    producers.intern(producerName, reader.lastUpdateTimestamps.get(producerName));
+                    consumer.accept(producerName, sequenceId);
+                });
+            }
+            log.info("[{}] Recovered the deduplication snapshot of {} producers from ledger {}", topicName,
+                    reader.sequenceIds.size(), ledgerId);
+        });
+    }
+
+    private void readEntries(LedgerHandle lh, long firstEntry, SnapshotReader reader, CompletableFuture<Void> future) {
+        long lastEntry = Math.min(firstEntry + READ_BATCH_SIZE - 1, lh.getLastAddConfirmed());
+        if (firstEntry > lastEntry) {
+            future.complete(null);
+            return;
+        }
+
+        lh.asyncReadEntries(firstEntry, lastEntry, (rc, lh1, entries, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+                return;
+            }
+            try {
+                while (entries.hasMoreElements()) {
+                    reader.read(Unpooled.wrappedBuffer(entries.nextElement().getEntry()));
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            readEntries(lh, lastEntry + 1, reader, future);
+        }, null);
+    }
+
+    /**
+     * Write the producers updated or removed since the previous snapshot, or all of them if a full snapshot is due.
+     * Only one snapshot is written at a time.
+     *
+     * @param sequenceIds
+     *            the highest sequence ids persisted by the producers
+     * @param now
+     *            the time of the snapshot
+     * @return the id of the ledger holding the snapshot
+     */
+    CompletableFuture<Long> writeSnapshot(ConcurrentOpenHashMap<String, Long> sequenceIds, long now) {
+        // The producers updated from now on are part of the next snapshot
+        Set<String> updated = drainUpdatedProducers();
+
+        List<ByteBuf> entries;
+        LedgerHandle currentLedger;
+        InternedProducers previousProducers = null;
+        synchronized (this) {
+            if (deleted || closed) {
+                return failedFuture(new IllegalStateException("The deduplication snapshots were "
+                        + (deleted ? "deleted" : "closed")));
+            }
+
+            long records = deltaRecords + updated.size() + removedProducers.size();
+            if (ledger == null || records > Math.max(producers.ids.size(), MIN_DELTA_RECORDS)) {
+                abandonLedger(ledger);
+                currentLedger = null;
+                entries = null;
+                previousProducers = producers;
+            } else {
+                currentLedger = ledger;
+                entries = encodeDeltaSnapshot(sequenceIds, updated, now);
+            }
+            removedProducers.clear();
+        }
+
+        if (currentLedger == null) {
+            // Nothing but the next snapshot changes the producers, which are only read meanwhile
+            InternedProducers newProducers = new InternedProducers();
+            entries = encodeFullSnapshot(sequenceIds, updated, previousProducers, newProducers, now);
+            synchronized (this) {
+                producers = newProducers;
+                deltaRecords = 0;
+            }
+            return writeFullSnapshot(entries);
+        } else if (entries.isEmpty()) {
+            return CompletableFuture.completedFuture(currentLedger.getId());
+        }
+
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        addEntries(currentLedger, entries, future);
+        return future.whenComplete((ledgerId, ex) -> {
+            if (ex != null) {
+                // The updates are written with the next snapshot, a full one in a new ledger
+                abandonLedger(currentLedger);
+            }
+        });
+    }
+
+    private CompletableFuture<Long> writeFullSnapshot(List<ByteBuf> entries) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        bookKeeper.asyncCreateLedger(ensembleSize, writeQuorumSize, ackQuorumSize, DIGEST_TYPE, PASSWORD,
+                (rc, newLedger, ctx) -> {
+                    if (rc != BKException.Code.OK) {
+                        future.completeExceptionally(BKException.create(rc));
+                        return;
+                    }
+
+                    CompletableFuture<Long> addFuture = new CompletableFuture<>();
+                    addEntries(newLedger, entries, addFuture);
+                    addFuture.whenComplete((ledgerId, ex) -> {
+                        if (ex != null) {
+                            deleteLedger(newLedger.getId());
+                            future.completeExceptionally(ex);
+                            return;
+                        }
+
+                        synchronized (this) {
+                            if (deleted || closed) {
+                                // The deduplication cursor can no longer point to the new ledger
+                                deleteLedger(newLedger.getId());
+                                future.completeExceptionally(new IllegalStateException(
+                                        "The deduplication snapshots were " + (deleted ? "deleted" : "closed")));
+                                return;
+                            }
+                            ledger = newLedger;
+                        }
+                        future.complete(ledgerId);
+                    });
+                }, null, null);
+        return future;
+    }
+
+    /**
+     * Stop appending to a ledger, which is deleted once the deduplication cursor points to another one. The producer
+     * ids are no longer in sync with the ledger, once a full snapshot was encoded or a delta failed to be written.
+     */
+    private synchronized void abandonLedger(LedgerHandle lh) {
+        if (lh != null && ledger == lh) {
+            obsoleteLedgers.add(lh.getId());
+            lh.asyncClose((rc, lh1, ctx) -> {}, null);
+            ledger = null;
+        }
+    }
+
+    private void addEntries(LedgerHandle lh, List<ByteBuf> entries, CompletableFuture<Long> future) {
+        int[] remaining = new int[] { entries.size() };
+        for (ByteBuf entry : entries) {
+            lh.asyncAddEntry(ByteBufUtil.getBytes(entry), (rc, lh1, entryId, ctx) -> {
+                synchronized (remaining) {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    if (rc != BKException.Code.OK) {
+                        future.completeExceptionally(BKException.create(rc));
+                    } else if (--remaining[0] == 0) {
+                        future.complete(lh.getId());
+                    }
+                }
+            }, null);
+        }
+    }
+
+    private Set<String> drainUpdatedProducers() {
+        Set<String> updated = new HashSet<>();
+        Iterator<String> iterator = updatedProducers.iterator();
+        while (iterator.hasNext()) {
+            // Removed before its sequence id is read, so that a later update is recorded again
+            updated.add(iterator.next());
+            iterator.remove();
+        }
+        return updated;
+    }
+
+    private List<ByteBuf> encodeFullSnapshot(ConcurrentOpenHashMap<String, Long> sequenceIds, Set<String> updated,
+            InternedProducers previousProducers, InternedProducers newProducers, long now) {
+        SnapshotWriter writer = new SnapshotWriter(FULL_SNAPSHOT);
+        sequenceIds.forEach((producerName, sequenceId) -> {
+            if (newProducers.ids.size() >= maxNumberOfProducers) {
+                return;
+            }
+            Integer previousId = previousProducers.ids.get(producerName);
+            long timestamp = previousId == null || updated.contains(producerName) ? now
+                    : previousProducers.lastUpdateTimestamps[previousId];
+            writer.write(newProducers.intern(producerName, timestamp), producerName, sequenceId, timestamp);
+        });
+        return writer.entries;
+    }
+
+    private List<ByteBuf> encodeDeltaSnapshot(ConcurrentOpenHashMap<String, Long> sequenceIds, Set<String> updated,
+            long now) {
+        SnapshotWriter writer = new SnapshotWriter(DELTA_SNAPSHOT);
+        for (String producerName : removedProducers) {
+            Integer id = producers.ids.remove(producerName);
+            if (id != null) {
+                writer.write(id, null, REMOVED, now);
+            }
+        }
+        for (String producerName : updated) {
+            Long sequenceId = sequenceIds.get(producerName);
+            Integer id = producers.ids.get(producerName);
+            if (sequenceId == null) {
+                continue;
+            } else if (id != null) {
+                producers.lastUpdateTimestamps[id] = now;
+                writer.write(id, null, sequenceId, now);
+            } else if (producers.ids.size() < maxNumberOfProducers) {
+                writer.write(producers.intern(producerName, now), producerName, sequenceId, now);
+            }
+        }
+        deltaRecords += writer.records;
+        return writer.entries;
+    }
+
+    /**
+     * Delete the ledgers no longer needed once the deduplication cursor points to the given one.
+     */
+    synchronized void snapshotPersisted(long ledgerId) {
+        Iterator<Long> iterator = obsoleteLedgers.iterator();
+        while (iterator.hasNext()) {
+            long obsoleteLedgerId = iterator.next();
+            if (obsoleteLedgerId != ledgerId) {
+                iterator.remove();
+                deleteLedger(obsoleteLedgerId);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized LedgerHandle getLedger() {
+        return ledger;
+    }
+
+    /**
+     * Close the ledger the deltas are appended to, when the topic is closed. The ledgers are kept for the next owner
+     * of the topic to recover the snapshots from.
+     */
+    synchronized void close() {
+        closed = true;
+        if (ledger != null) {
+            ledger.asyncClose((rc, lh, ctx) -> {}, null);
+            ledger = null;
+        }
+    }
+
+    /**
+     * Delete all the ledgers of the snapshots, once the deduplication cursor no longer points to them.
+     */
+    synchronized void delete() {
+        deleted = true;
+        abandonLedger(ledger);
+        obsoleteLedgers.forEach(this::deleteLedger);
+        obsoleteLedgers.clear();
+    }
+
+    private void deleteLedger(long ledgerId) {
+        bookKeeper.asyncDeleteLedger(ledgerId, (rc, ctx) -> {
+            if (rc != BKException.Code.OK && rc != BKException.Code.NoSuchLedgerExistsException) {
+                log.warn("[{}] Failed to delete the deduplication snapshot ledger {}: {}", topicName, ledgerId,
+                        BKException.getMessage(rc));
+            }
+        }, null);
+    }
+
+    /**
+     * Ids of the producers interned in a ledger, and the time of their last update by id.
+     */
+    private static class InternedProducers {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private long[] lastUpdateTimestamps = new long[16];
+        private int nextId;
+
+        int intern(String producerName, long timestamp) {
+            int id = nextId++;
+            if (id == lastUpdateTimestamps.length) {
+                lastUpdateTimestamps = Arrays.copyOf(lastUpdateTimestamps, id * 2);
+            }
+            lastUpdateTimestamps[id] = timestamp;
+            ids.put(producerName, id);
+            return id;
+        }
+    }
+
+    /**
+     * Records of the snapshot: the producer id, its name the first time the id is written in the ledger, its highest
+     * sequence id and the time of its last update.
+     */
+    private static class SnapshotWriter {
+        private final List<ByteBuf> entries = new ArrayList<>();
+        private final byte type;
+        private ByteBuf entry;
+        private int records;
+
+        SnapshotWriter(byte type) {
+            this.type = type;
+            if (type == FULL_SNAPSHOT) {
+                // A full snapshot is written even without producers
+                newEntry();
+            }
+        }
+
+        private void newEntry() {
+            // The records following the first entry of a full snapshot are appended to it as deltas
+            entry = Unpooled.buffer();
+            entry.writeByte(entries.isEmpty() ? type : DELTA_SNAPSHOT);
+            entries.add(entry);
+        }
+
+        void write(int id, String producerName, long sequenceId, long timestamp) {
+            if (entry == null || entry.readableBytes() >= MAX_ENTRY_SIZE) {
+                newEntry();
+            }
+            entry.writeInt(id);
+            if (producerName != null) {
+                byte[] name = producerName.getBytes(UTF_8);
+                entry.writeInt(name.length);
+                entry.writeBytes(name);
+            }
+            entry.writeLong(sequenceId);
+            entry.writeLong(timestamp);
+            ++records;
+        }
+    }
+
+    private static class SnapshotReader {
+        private final List<String> producerNames = new ArrayList<>();
+        private final Map<String, Long> sequenceIds = new HashMap<>();
+        private final Map<String, Long> lastUpdateTimestamps = new HashMap<>();
+
+        void read(ByteBuf entry) {
+            if (entry.readByte() == FULL_SNAPSHOT) {
+                producerNames.clear();
+                sequenceIds.clear();
+                lastUpdateTimestamps.clear();
+            }
+
+            while (entry.isReadable()) {
+                int id = entry.readInt();
+                if (id == producerNames.size()) {
+                    byte[] name = new byte[entry.readInt()];
+                    entry.readBytes(name);
+                    producerNames.add(new String(name, UTF_8));
+                }
+                String producerName = producerNames.get(id);
+                long sequenceId = entry.readLong();
+                long timestamp = entry.readLong();
+                if (sequenceId == REMOVED) {
+                    sequenceIds.remove(producerName);
+                    lastUpdateTimestamps.remove(producerName);
+                } else {
+                    sequenceIds.put(producerName, sequenceId);
+                    lastUpdateTimestamps.put(producerName, timestamp);
+                }
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(DeduplicationSnapshotLedger.class);
+}
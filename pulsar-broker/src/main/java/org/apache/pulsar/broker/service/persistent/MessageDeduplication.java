@@ -39,6 +39,7 @@ import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -118,6 +119,22 @@ public class MessageDeduplication {
 
     private final String replicatorPrefix;
 
+    // Key of the cursor property holding the id of the ledger of the snapshots, when they are stored in a ledger
+    static final String SNAPSHOT_LEDGER_PROPERTY = "__deduplication_snapshot_ledger";
+
+    // Whether the snapshots are stored in a dedicated ledger rather than in the cursor properties
+    private final boolean snapshotLedgerEnabled;
+
+    // Time after which the producers that did not publish are expired, when the snapshots are stored in a ledger
+    private final long producerTtlMillis;
+
+    // Snapshots stored in a dedicated ledger, created when first needed
+    @VisibleForTesting
+    volatile DeduplicationSnapshotLedger snapshotLedger;
+
+    // Whether a snapshot is being written to the ledger
+    private volatile boolean snapshotInProgress;
+
     public MessageDeduplication(PulsarService pulsar, PersistentTopic topic, ManagedLedger managedLedger) {
         this.pulsar = pulsar;
         this.topic = topic;
@@ -127,20 +144,72 @@ public class MessageDeduplication {
         this.maxNumberOfProducers = pulsar.getConfiguration().getBrokerDeduplicationMaxNumberOfProducers();
         this.snapshotCounter = 0;
         this.replicatorPrefix = pulsar.getConfiguration().getReplicatorPrefix();
+        this.snapshotLedgerEnabled = pulsar.getConfiguration().isBrokerDeduplicationSnapshotLedgerEnabled();
+        this.producerTtlMillis = TimeUnit.MINUTES
+                .toMillis(pulsar.getConfiguration().getBrokerDeduplicationProducerTtlMinutes());
     }
 
     private CompletableFuture<Void> recoverSequenceIdsMap() {
-        // Load the sequence ids from the snapshot in the cursor properties
-        managedCursor.getProperties().forEach((k, v) -> {
-            highestSequencedPushed.put(k, v);
-            highestSequencedPersisted.put(k, v);
+        CompletableFuture<Void> snapshotFuture;
+        Long snapshotLedgerId = managedCursor.getProperties().get(SNAPSHOT_LEDGER_PROPERTY);
+        if (snapshotLedgerId != null) {
+            // Load the sequence ids from the snapshots in the dedicated ledger
+            snapshotFuture = getSnapshotLedger().recover(snapshotLedgerId, (k, v) -> {
+                highestSequencedPushed.put(k, v);
+                highestSequencedPersisted.put(k, v);
+            });
+        } else {
+            // Load the sequence ids from the snapshot in the cursor properties
+            managedCursor.getProperties().forEach((k, v) -> {
+                highestSequencedPushed.put(k, v);
+                highestSequencedPersisted.put(k, v);
+            });
+            snapshotFuture = CompletableFuture.completedFuture(null);
+        }
+
+        return snapshotFuture.thenCompose(v -> {
+            // Replay all the entries and apply all the sequence ids updates
+            log.info("[{}] Replaying {} entries for deduplication", topic.getName(),
+                    managedCursor.getNumberOfEntries());
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            replayCursor(future);
+            return future;
         });
+    }
 
-        // Replay all the entries and apply all the sequence ids updates
-        log.info("[{}] Replaying {} entries for deduplication", topic.getName(), managedCursor.getNumberOfEntries());
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        replayCursor(future);
-        return future;
+    private DeduplicationSnapshotLedger getSnapshotLedger() {
+        DeduplicationSnapshotLedger snapshotLedger = this.snapshotLedger;
+        return snapshotLedger != null ? snapshotLedger : createSnapshotLedger();
+    }
+
+    private synchronized DeduplicationSnapshotLedger createSnapshotLedger() {
+        if (snapshotLedger == null) {
+            snapshotLedger = new DeduplicationSnapshotLedger(topic.getName(), pulsar.getBookKeeperClient(),
+                    pulsar.getConfiguration().getManagedLedgerDefaultEnsembleSize(),
+                    pulsar.getConfiguration().getManagedLedgerDefaultWriteQuorum(),
+                    pulsar.getConfiguration().getManagedLedgerDefaultAckQuorum(), maxNumberOfProducers);
+        }
+        return snapshotLedger;
+    }
+
+    /**
+     * Close the ledger of the snapshots when the topic is closed, keeping it for the next owner of the topic.
+     */
+    public void closeSnapshotLedger() {
+        DeduplicationSnapshotLedger snapshotLedger = this.snapshotLedger;
+        if (snapshotLedger != null) {
+            snapshotLedger.close();
+        }
+    }
+
+    /**
+     * Delete the ledger of the snapshots, once the deduplication cursor no longer points to it.
+     */
+    public synchronized void deleteSnapshotLedger() {
+        if (snapshotLedger != null) {
+            snapshotLedger.delete();
+            snapshotLedger = null;
+        }
     }
 
     /**
@@ -214,6 +283,7 @@ public class MessageDeduplication {
                                     managedCursor = null;
                                     highestSequencedPushed.clear();
                                     highestSequencedPersisted.clear();
+                                    deleteSnapshotLedger();
                                     future.complete(null);
                                     log.info("[{}] Disabled deduplication", topic.getName());
                                 }
@@ -344,6 +414,9 @@ public class MessageDeduplication {
         }
 
         highestSequencedPersisted.put(producerName, Math.max(highestSequenceId, sequenceId));
+        if (snapshotLedgerEnabled) {
+            getSnapshotLedger().producerUpdated(producerName);
+        }
         if (++snapshotCounter >= snapshotInterval) {
             snapshotCounter = 0;
             takeSnapshot(position);
@@ -365,6 +438,11 @@ public class MessageDeduplication {
         if (log.isDebugEnabled()) {
             log.debug("[{}] Taking snapshot of sequence ids map", topic.getName());
         }
+        if (snapshotLedgerEnabled) {
+            takeLedgerSnapshot(position);
+            return;
+        }
+
         Map<String, Long> snapshot = new TreeMap<>();
         highestSequencedPersisted.forEach((producerName, sequenceId) -> {
             if (snapshot.size() < maxNumberOfProducers) {
@@ -378,6 +456,8 @@ public class MessageDeduplication {
                 if (log.isDebugEnabled()) {
                     log.debug("[{}] Stored new deduplication snapshot at {}", topic.getName(), position);
                 }
+                // The snapshots recovered from a ledger are no longer needed
+                deleteSnapshotLedger();
             }
 
             @Override
@@ -387,6 +467,42 @@ public class MessageDeduplication {
         }, null);
     }
 
+    private void takeLedgerSnapshot(PositionImpl position) {
+        if (snapshotInProgress) {
+            // The updates will be part of the next snapshot
+            return;
+        }
+        snapshotInProgress = true;
+
+        DeduplicationSnapshotLedger snapshotLedger = getSnapshotLedger();
+        snapshotLedger.writeSnapshot(highestSequencedPersisted, System.currentTimeMillis()).thenAccept(ledgerId -> {
+            Map<String, Long> properties = Collections.singletonMap(SNAPSHOT_LEDGER_PROPERTY, ledgerId);
+            managedCursor.asyncMarkDelete(position, properties, new MarkDeleteCallback() {
+                @Override
+                public void markDeleteComplete(Object ctx) {
+                    snapshotInProgress = false;
+                    if (log.isDebugEnabled()) {
+                        log.debug("[{}] Stored new deduplication snapshot in ledger {} at {}", topic.getName(),
+                                ledgerId, position);
+                    }
+                    snapshotLedger.snapshotPersisted(ledgerId);
+                }
+
+                @Override
+                public void markDeleteFailed(ManagedLedgerException exception, Object ctx) {
+                    snapshotInProgress = false;
+                    log.warn("[{}] Failed to store new deduplication snapshot in ledger {} at {}", topic.getName(),
+                            ledgerId, position);
+                }
+            }, null);
+        }).exceptionally(ex -> {
+            snapshotInProgress = false;
+            log.warn("[{}] Failed to write new deduplication snapshot at {}: {}", topic.getName(), position,
+                    ex.getMessage());
+            return null;
+        });
+    }
+
     private CompletableFuture<Boolean> isDeduplicationEnabled() {
         TopicName name = TopicName.get(topic.getName());
 
@@ -436,6 +552,18 @@ public class MessageDeduplication {
                 log.info("[{}] Purging dedup information for producer {}", topic.getName(), producerName);
                 highestSequencedPushed.remove(producerName);
                 highestSequencedPersisted.remove(producerName);
+                if (snapshotLedgerEnabled) {
+                    getSnapshotLedger().producerRemoved(producerName);
+                }
+            }
+        }
+
+        if (snapshotLedgerEnabled && producerTtlMillis > 0) {
+            long minimumUpdateTimestamp = System.currentTimeMillis() - producerTtlMillis;
+            for (String producerName : getSnapshotLedger().expireProducers(minimumUpdateTimestamp)) {
+                log.info("[{}] Expiring dedup information for producer {}", topic.getName(), producerName);
+                highestSequencedPushed.remove(producerName);
+                highestSequencedPersisted.remove(producerName);
             }
         }
     }
@@ -51,6 +51,7 @@ import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.BrokerServiceException.ConsumerBusyException;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Dispatcher;
+import org.apache.pulsar.broker.service.DispatchMemoryLimiter;
 import org.apache.pulsar.broker.service.EntryBatchSizes;
 import org.apache.pulsar.broker.service.InMemoryRedeliveryTracker;
 import org.apache.pulsar.broker.service.RedeliveryTracker;
@@ -64,7 +65,7 @@ import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
 import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.util.Codec;
-import org.apache.pulsar.common.util.collections.ConcurrentSortedLongPairSet;
+import org.apache.pulsar.common.util.collections.BitmapSortedLongPairSet;
 import org.apache.pulsar.common.util.collections.LongPairSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,7 +79,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
     protected volatile Range<PositionImpl> lastIndividualDeletedRangeFromCursorRecovery;
 
     private CompletableFuture<Void> closeFuture = null;
-    LongPairSet messagesToRedeliver = new ConcurrentSortedLongPairSet(128, 2);
+    LongPairSet messagesToRedeliver = new BitmapSortedLongPairSet();
     protected final RedeliveryTracker redeliveryTracker;
 
     private Optional<DelayedDeliveryTracker> delayedDeliveryTracker = Optional.empty();
@@ -86,6 +87,9 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
 
     private volatile boolean havePendingRead = false;
     private volatile boolean havePendingReplayRead = false;
+    // Memory reserved on the dispatch memory budget for the pending reads
+    private volatile long pendingReadReservedBytes = 0;
+    private volatile long pendingReplayReadReservedBytes = 0;
     private boolean shouldRewindBeforeReadingOrReplaying = false;
     protected final String name;
 
@@ -210,6 +214,8 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             if (consumerList.isEmpty()) {
                 if (havePendingRead && cursor.cancelPendingReadRequest()) {
                     havePendingRead = false;
+                    releaseReadMemory(topic.getBrokerService().getDispatchMemoryLimiter(),
+                            takeReadReservedBytes(ReadType.Normal));
                 }
 
                 messagesToRedeliver.clear();
@@ -256,7 +262,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
 
     public void readMoreEntries() {
         if (totalAvailablePermits > 0 && isAtleastOneConsumerAvailable()) {
-            int messagesToRead = Math.min(totalAvailablePermits, readBatchSize);
+            int messagesToRead = Math.min(totalAvailablePermits, Math.min(readBatchSize, getMaxReadBatchSize()));
 
             // throttle only if: (1) cursor is not active (or flag for throttle-nonBacklogConsumer is enabled) bcz
             // active-cursor reads message from cache rather from bookkeeper (2) if topic has reached message-rate
@@ -310,6 +316,16 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 return;
             }
 
+            // The memory is reserved before the delayed messages to replay are taken from the tracker. A read waiting
+            // for new entries reserves no memory, as they are added to the cache anyway, and neither does a dispatcher
+            // with nothing to replay while its previous read is pending.
+            DispatchMemoryLimiter limiter = topic.getBrokerService().getDispatchMemoryLimiter();
+            long reservedBytes = reserveReadMemory(limiter, hasEntriesToRead() ? messagesToRead : 0,
+                    topic.getAverageReadEntrySize(), () -> readMoreEntries());
+            if (reservedBytes < 0) {
+                return;
+            }
+
             Set<PositionImpl> messagesToReplayNow = getMessagesToReplayNow(messagesToRead);
 
             if (!messagesToReplayNow.isEmpty()) {
@@ -319,6 +335,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 }
 
                 havePendingReplayRead = true;
+                pendingReplayReadReservedBytes = reservedBytes;
                 Set<? extends Position> deletedMessages = asyncReplayEntries(messagesToReplayNow);
                 // clear already acked positions from replay bucket
 
@@ -328,9 +345,12 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                 // next entries as readCompletedEntries-callback was never called
                 if ((messagesToReplayNow.size() - deletedMessages.size()) == 0) {
                     havePendingReplayRead = false;
+                    releaseReadMemory(limiter, pendingReplayReadReservedBytes);
+                    pendingReplayReadReservedBytes = 0;
                     readMoreEntries();
                 }
             } else if (BLOCKED_DISPATCHER_ON_UNACKMSG_UPDATER.get(this) == TRUE) {
+                releaseReadMemory(limiter, reservedBytes);
                 log.warn("[{}] Dispatcher read is blocked due to unackMessages {} reached to max {}", name,
                         totalUnackedMessages, maxUnackedMessages);
             } else if (!havePendingRead) {
@@ -339,8 +359,10 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
                             consumerList.size());
                 }
                 havePendingRead = true;
+                pendingReadReservedBytes = reservedBytes;
                 cursor.asyncReadEntriesOrWait(messagesToRead, this, ReadType.Normal);
             } else {
+                releaseReadMemory(limiter, reservedBytes);
                 log.debug("[{}] Cannot schedule next read until previous one is done", name);
             }
         } else {
@@ -354,6 +376,24 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return cursor.asyncReplayEntries(positions, this, ReadType.Replay);
     }
 
+    private boolean hasEntriesToRead() {
+        return (!havePendingRead && cursor.hasMoreEntries()) || !messagesToRedeliver.isEmpty()
+                || (delayedDeliveryTracker.isPresent() && delayedDeliveryTracker.get().hasMessageAvailable());
+    }
+
+    // Returns the memory reserved for the pending read of the given type, which is no longer pending
+    private long takeReadReservedBytes(ReadType readType) {
+        long reservedBytes;
+        if (readType == ReadType.Normal) {
+            reservedBytes = pendingReadReservedBytes;
+            pendingReadReservedBytes = 0;
+        } else {
+            reservedBytes = pendingReplayReadReservedBytes;
+            pendingReplayReadReservedBytes = 0;
+        }
+        return reservedBytes;
+    }
+
 
     @Override
     public boolean isConsumerConnected() {
@@ -400,6 +440,8 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             consumerList.forEach(consumer -> consumer.disconnect(isResetCursor));
             if (havePendingRead && cursor.cancelPendingReadRequest()) {
                 havePendingRead = false;
+                releaseReadMemory(topic.getBrokerService().getDispatchMemoryLimiter(),
+                        takeReadReservedBytes(ReadType.Normal));
             }
         }
         return closeFuture;
@@ -421,6 +463,24 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return SubType.Shared;
     }
 
+    /**
+     * @return the maximum number of entries of a read, derived from the target read size and the average size of the
+     *         entries of the topic when a target read size is configured
+     */
+    protected int getMaxReadBatchSize() {
+        long maxReadSizeBytes = serviceConfig.getDispatcherMaxReadSizeBytes();
+        if (maxReadSizeBytes <= 0) {
+            return serviceConfig.getDispatcherMaxReadBatchSize();
+        }
+
+        long averageEntrySize = topic.getAverageReadEntrySize();
+        if (averageEntrySize == 0) {
+            // Probe the size of the entries of the topic with a small read first
+            return Math.max(1, serviceConfig.getDispatcherMinReadBatchSize());
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxReadSizeBytes / averageEntrySize));
+    }
+
     @Override
     public synchronized void readEntriesComplete(List<Entry> entries, Object ctx) {
         ReadType readType = (ReadType) ctx;
@@ -430,8 +490,21 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             havePendingReplayRead = false;
         }
 
-        if (readBatchSize < serviceConfig.getDispatcherMaxReadBatchSize()) {
-            int newReadBatchSize = Math.min(readBatchSize * 2, serviceConfig.getDispatcherMaxReadBatchSize());
+        // The estimated memory of the read stays reserved until the memory of the entries is acquired by the consumers
+        DispatchMemoryLimiter limiter = topic.getBrokerService().getDispatchMemoryLimiter();
+        long reservedBytes = takeReadReservedBytes(readType);
+
+        if (serviceConfig.getDispatcherMaxReadSizeBytes() > 0 || (limiter != null && limiter.isEnabled())) {
+            long size = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                size += entries.get(i).getLength();
+            }
+            topic.recordReadEntries(entries.size(), size);
+        }
+
+        int maxReadBatchSize = getMaxReadBatchSize();
+        if (readBatchSize < maxReadBatchSize) {
+            int newReadBatchSize = (int) Math.min((long) readBatchSize * 2, maxReadBatchSize);
             if (log.isDebugEnabled()) {
                 log.debug("[{}] Increasing read batch size from {} to {}", name, readBatchSize, newReadBatchSize);
             }
@@ -446,6 +519,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             entries.forEach(Entry::release);
             cursor.rewind();
             shouldRewindBeforeReadingOrReplaying = false;
+            releaseReadMemory(limiter, reservedBytes);
             readMoreEntries();
             return;
         }
@@ -455,6 +529,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         }
 
         sendMessagesToConsumers(readType, entries);
+        releaseReadMemory(limiter, reservedBytes);
     }
 
     protected void sendMessagesToConsumers(ReadType readType, List<Entry> entries) {
@@ -566,6 +641,7 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
             cursor.rewind();
         }
 
+        releaseReadMemory(topic.getBrokerService().getDispatchMemoryLimiter(), takeReadReservedBytes(readType));
         if (readType == ReadType.Normal) {
             havePendingRead = false;
         } else {
@@ -766,5 +842,9 @@ public class PersistentDispatcherMultipleConsumers extends AbstractDispatcherMul
         return topic;
     }
 
+    public ManagedCursor getCursor() {
+        return cursor;
+    }
+
     private static final Logger log = LoggerFactory.getLogger(PersistentDispatcherMultipleConsumers.class);
 }
@@ -41,6 +41,7 @@ import org.apache.pulsar.broker.admin.AdminResource;
 import org.apache.pulsar.broker.service.AbstractDispatcherSingleActiveConsumer;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Dispatcher;
+import org.apache.pulsar.broker.service.DispatchMemoryLimiter;
 import org.apache.pulsar.broker.service.EntryBatchSizes;
 import org.apache.pulsar.broker.service.RedeliveryTracker;
 import org.apache.pulsar.broker.service.RedeliveryTrackerDisabled;
@@ -63,6 +64,8 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
     private Optional<DispatchRateLimiter> dispatchRateLimiter = Optional.empty();
 
     private volatile boolean havePendingRead = false;
+    // Memory reserved on the dispatch memory budget for the pending read
+    private volatile long pendingReadReservedBytes = 0;
 
     private volatile int readBatchSize;
     private final Backoff readFailureBackoff = new Backoff(15, TimeUnit.SECONDS, 1, TimeUnit.MINUTES, 0, TimeUnit.MILLISECONDS);
@@ -87,6 +90,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
     protected void scheduleReadOnActiveConsumer() {
         if (havePendingRead && cursor.cancelPendingReadRequest()) {
             havePendingRead = false;
+            releasePendingReadMemory();
         }
 
         if (havePendingRead) {
@@ -176,6 +180,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
     protected void cancelPendingRead() {
         if (havePendingRead && cursor.cancelPendingReadRequest()) {
             havePendingRead = false;
+            releasePendingReadMemory();
         }
     }
 
@@ -194,6 +199,19 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
 
         havePendingRead = false;
 
+        // The estimated memory of the read stays reserved until the memory of the entries is acquired by the consumer
+        DispatchMemoryLimiter limiter = topic.getBrokerService().getDispatchMemoryLimiter();
+        long reservedBytes = pendingReadReservedBytes;
+        pendingReadReservedBytes = 0;
+
+        if (limiter != null && limiter.isEnabled()) {
+            long size = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                size += entries.get(i).getLength();
+            }
+            topic.recordReadEntries(entries.size(), size);
+        }
+
         if (readBatchSize < serviceConfig.getDispatcherMaxReadBatchSize()) {
             int newReadBatchSize = Math.min(readBatchSize * 2, serviceConfig.getDispatcherMaxReadBatchSize());
             if (log.isDebugEnabled()) {
@@ -215,6 +233,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
             }
             entries.forEach(Entry::release);
             cursor.rewind();
+            releaseReadMemory(limiter, reservedBytes);
             if (currentConsumer != null) {
                 notifyActiveConsumerChanged(currentConsumer);
                 readMoreEntries(currentConsumer);
@@ -262,9 +281,15 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
                                     }));
                         }
                     });
+            releaseReadMemory(limiter, reservedBytes);
         }
     }
 
+    private void releasePendingReadMemory() {
+        releaseReadMemory(topic.getBrokerService().getDispatchMemoryLimiter(), pendingReadReservedBytes);
+        pendingReadReservedBytes = 0;
+    }
+
     @Override
     public void consumerFlow(Consumer consumer, int additionalNumberOfMessages) {
         topic.getBrokerService().getTopicOrderedExecutor().executeOrdered(topicName, SafeRun.safeRun(() -> {
@@ -318,6 +343,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
 
         if (havePendingRead && cursor.cancelPendingReadRequest()) {
             havePendingRead = false;
+            releasePendingReadMemory();
         }
 
         if (!havePendingRead) {
@@ -424,11 +450,24 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
                 }
             }
 
+            // A read waiting for new entries reserves no memory, as they are added to the cache anyway
+            long reservedBytes = reserveReadMemory(topic.getBrokerService().getDispatchMemoryLimiter(),
+                    cursor.hasMoreEntries() ? messagesToRead : 0, topic.getAverageReadEntrySize(), () -> {
+                        Consumer currentConsumer = ACTIVE_CONSUMER_UPDATER.get(this);
+                        if (currentConsumer != null && !havePendingRead) {
+                            readMoreEntries(currentConsumer);
+                        }
+                    });
+            if (reservedBytes < 0) {
+                return;
+            }
+
             // Schedule read
             if (log.isDebugEnabled()) {
                 log.debug("[{}-{}] Schedule read of {} messages", name, consumer, messagesToRead);
             }
             havePendingRead = true;
+            pendingReadReservedBytes = reservedBytes;
             if (consumer.readCompacted()) {
                 topic.getCompactedTopic().asyncReadEntriesOrWait(cursor, messagesToRead, this, consumer);
             } else {
@@ -450,6 +489,7 @@ public final class PersistentDispatcherSingleActiveConsumer extends AbstractDisp
 
     private synchronized void internalReadEntriesFailed(ManagedLedgerException exception, Object ctx) {
         havePendingRead = false;
+        releasePendingReadMemory();
         Consumer c = (Consumer) ctx;
 
         long waitTimeMillis = readFailureBackoff.next();
@@ -28,6 +28,7 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.bookkeeper.mledger.AsyncCallbacks;
@@ -47,6 +48,7 @@ import org.apache.pulsar.broker.service.AbstractReplicator;
 import org.apache.pulsar.broker.service.BrokerService;
 import org.apache.pulsar.broker.service.BrokerServiceException.NamingException;
 import org.apache.pulsar.broker.service.BrokerServiceException.TopicBusyException;
+import org.apache.pulsar.broker.service.DispatchMemoryLimiter;
 import org.apache.pulsar.broker.service.Replicator;
 import org.apache.pulsar.broker.service.persistent.DispatchRateLimiter.Type;
 import org.apache.pulsar.client.api.MessageId;
@@ -55,9 +57,11 @@ import org.apache.pulsar.client.impl.Backoff;
 import org.apache.pulsar.client.impl.MessageImpl;
 import org.apache.pulsar.client.impl.ProducerImpl;
 import org.apache.pulsar.client.impl.SendCallback;
+import org.apache.pulsar.common.naming.TopicName;
 import org.apache.pulsar.common.policies.data.Policies;
 import org.apache.pulsar.common.api.proto.PulsarMarkers.MarkerType;
 import org.apache.pulsar.common.policies.data.ReplicatorStats;
+import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.util.Codec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,6 +77,14 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
 
     private final int producerQueueThreshold;
 
+    // Whether the checksum of the replicated payloads is derived from the stored checksum
+    private final boolean payloadPassThroughEnabled;
+
+    // Budget of the messages being replicated, shared with the replicators of the same bundle to the same remote
+    // cluster, or null
+    private final DispatchMemoryLimiter bundleLimiter;
+    private final AtomicBoolean readPausedOnBundleLimit = new AtomicBoolean(false);
+
     private static final AtomicIntegerFieldUpdater<PersistentReplicator> PENDING_MESSAGES_UPDATER = AtomicIntegerFieldUpdater
             .newUpdater(PersistentReplicator.class, "pendingMessages");
     private volatile int pendingMessages = 0;
@@ -110,6 +122,10 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
             producerQueueSize,
             topic.getBrokerService().pulsar().getConfiguration().getDispatcherMaxReadBatchSize());
         producerQueueThreshold = (int) (producerQueueSize * 0.9);
+        payloadPassThroughEnabled = topic.getBrokerService().pulsar().getConfiguration()
+                .isReplicationPayloadPassThroughEnabled();
+        bundleLimiter = topic.getBrokerService().getReplicationBundleLimiter(TopicName.get(topicName),
+                remoteCluster);
 
         this.initializeDispatchRateLimiterIfNeeded(Optional.empty());
 
@@ -204,6 +220,10 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
     }
 
     protected void readMoreEntries() {
+        if (pauseReadOnBundleLimit()) {
+            return;
+        }
+
         int availablePermits = getAvailablePermits();
 
         if (availablePermits > 0) {
@@ -242,6 +262,31 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
         }
     }
 
+    /**
+     * Pause the reads if the messages being replicated by the topics of the bundle reached the limit. The reads are
+     * resumed after the reads of the replicators of the bundle paused earlier.
+     *
+     * @return true if the reads are paused
+     */
+    private boolean pauseReadOnBundleLimit() {
+        if (bundleLimiter == null || !bundleLimiter.isLimitReached()) {
+            return false;
+        }
+
+        // A replicator is queued once, whatever the number of reads attempted while it's paused
+        if (readPausedOnBundleLimit.compareAndSet(false, true)) {
+            if (log.isDebugEnabled()) {
+                log.debug("[{}][{} -> {}] Pausing reads on bundle replication limit {}/{}", topicName, localCluster,
+                        remoteCluster, bundleLimiter.getUsedBytes(), bundleLimiter.getMaxBytes());
+            }
+            bundleLimiter.pauseRead(() -> {
+                readPausedOnBundleLimit.set(false);
+                readMoreEntries();
+            });
+        }
+        return true;
+    }
+
     @Override
     public void readEntriesComplete(List<Entry> entries, Object ctx) {
         if (log.isDebugEnabled()) {
@@ -273,7 +318,12 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
                 int length = entry.getLength();
                 ByteBuf headersAndPayload = entry.getDataBuffer();
                 MessageImpl msg;
+                long payloadChecksum = -1;
                 try {
+                    if (payloadPassThroughEnabled) {
+                        // Read before the metadata is parsed, since the checksum starts the buffer
+                        payloadChecksum = Commands.readPayloadChecksum(headersAndPayload);
+                    }
                     msg = MessageImpl.deserialize(headersAndPayload);
                 } catch (Throwable t) {
                     log.error("[{}][{} -> {}] Failed to deserialize message at {} (buffer size: {}): {}", topicName,
@@ -338,11 +388,16 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
 
                 msgOut.recordEvent(headersAndPayload.readableBytes());
 
+                if (bundleLimiter != null) {
+                    bundleLimiter.acquire(length);
+                }
+
                 msg.setReplicatedFrom(localCluster);
+                msg.setPayloadChecksum(payloadChecksum);
 
                 headersAndPayload.retain();
 
-                producer.sendAsync(msg, ProducerSendCallback.create(this, entry, msg));
+                producer.sendAsync(msg, ProducerSendCallback.create(this, entry, msg, length));
                 atLeastOneMessageSentForReplication = true;
             }
         } catch (Exception e) {
@@ -375,6 +430,8 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
         private PersistentReplicator replicator;
         private Entry entry;
         private MessageImpl msg;
+        // Size of the entry before the message was parsed out of it, as acquired from the bundle limiter
+        private int length;
 
         @Override
         public void sendComplete(Exception exception) {
@@ -390,6 +447,9 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
                 }
                 replicator.cursor.asyncDelete(entry.getPosition(), replicator, entry.getPosition());
             }
+            if (replicator.bundleLimiter != null) {
+                replicator.bundleLimiter.release(length);
+            }
             entry.release();
 
             int pending = PENDING_MESSAGES_UPDATER.decrementAndGet(replicator);
@@ -422,11 +482,13 @@ public class PersistentReplicator extends AbstractReplicator implements Replicat
             this.recyclerHandle = recyclerHandle;
         }
 
-        static ProducerSendCallback create(PersistentReplicator replicator, Entry entry, MessageImpl msg) {
+        static ProducerSendCallback create(PersistentReplicator replicator, Entry entry, MessageImpl msg,
+                int length) {
             ProducerSendCallback sendCallback = RECYCLER.get();
             sendCallback.replicator = replicator;
             sendCallback.entry = entry;
             sendCallback.msg = msg;
+            sendCallback.length = length;
             return sendCallback;
         }
 
@@ -18,36 +18,44 @@
  */
 package org.apache.pulsar.broker.service.persistent;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.bookkeeper.mledger.Entry;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.Position;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.bookkeeper.mledger.impl.ManagedLedgerImpl;
 import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.EntryBatchSizes;
+import org.apache.pulsar.broker.service.EntryList;
 import org.apache.pulsar.broker.service.SendMessageInfo;
 import org.apache.pulsar.broker.service.StickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.Subscription;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
-import org.apache.pulsar.common.util.Murmur3_32Hash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDispatcherMultipleConsumers {
 
     private final StickyKeyConsumerSelector selector;
+    // Managed ledger whose cache keeps the sticky key hashes of the entries, if any
+    private final ManagedLedgerImpl managedLedger;
+
+    // Reused across the reads to group the entries per consumer, only accessed under the dispatcher lock
+    private Consumer[] selectedConsumers = new Consumer[0];
+    private Consumer[] groupConsumers = new Consumer[0];
+    private EntryList[] groups = new EntryList[0];
 
     PersistentStickyKeyDispatcherMultipleConsumers(PersistentTopic topic, ManagedCursor cursor,
            Subscription subscription, StickyKeyConsumerSelector selector) {
         super(topic, cursor, subscription);
         this.selector = selector;
+        this.managedLedger = topic.getManagedLedger() instanceof ManagedLedgerImpl
+                ? (ManagedLedgerImpl) topic.getManagedLedger() : null;
     }
 
     @Override
@@ -62,68 +70,120 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
         selector.removeConsumer(consumer);
     }
 
+    /**
+     * Store the hash in the managed ledger cache as well, so that the copies of the entry it serves, for the replays
+     * or for the other subscriptions, carry it.
+     */
+    @Override
+    protected void storeStickyKeyHash(EntryImpl entry, int stickyKeyHash) {
+        super.storeStickyKeyHash(entry, stickyKeyHash);
+        if (managedLedger != null) {
+            managedLedger.setCachedStickyKeyHash(entry.getPosition(), stickyKeyHash);
+        }
+    }
+
     @Override
     protected void sendMessagesToConsumers(ReadType readType, List<Entry> entries) {
         long totalMessagesSent = 0;
         long totalBytesSent = 0;
         // Trigger read more messages
-        if (entries.size() == 0) {
+        int entriesCount = entries.size();
+        if (entriesCount == 0) {
             readMoreEntries();
             return;
         }
-        final Map<Integer, List<Entry>> groupedEntries = new HashMap<>();
-        for (Entry entry : entries) {
-            int key = Murmur3_32Hash.getInstance().makeHash(peekStickyKey(entry.getDataBuffer()));
-            groupedEntries.putIfAbsent(key, new ArrayList<>());
-            groupedEntries.get(key).add(entry);
+
+        if (selectedConsumers.length < entriesCount) {
+            selectedConsumers = new Consumer[entriesCount];
+            groupConsumers = new Consumer[entriesCount];
+            groups = new EntryList[entriesCount];
         }
-        final Iterator<Map.Entry<Integer, List<Entry>>> iterator = groupedEntries.entrySet().iterator();
-        AtomicInteger keyNumbers = new AtomicInteger(groupedEntries.size());
-        while (iterator.hasNext() && totalAvailablePermits > 0 && isAtleastOneConsumerAvailable()) {
-            final Map.Entry<Integer, List<Entry>> entriesWithSameKey = iterator.next();
+
+        for (int i = 0; i < entriesCount; i++) {
+            int stickyKeyHash = peekStickyKeyHash(entries.get(i));
             //TODO: None key policy
-            Consumer consumer = selector.select(entriesWithSameKey.getKey());
+            Consumer consumer = selector.select(stickyKeyHash);
             if (consumer == null) {
                 // Do nothing, cursor will be rewind at reconnection
                 log.info("[{}] rewind because no available consumer found for key {} from total {}", name,
-                        entriesWithSameKey.getKey(), consumerList.size());
-                entriesWithSameKey.getValue().forEach(Entry::release);
+                        stickyKeyHash, consumerList.size());
+                Arrays.fill(selectedConsumers, 0, i, null);
+                entries.forEach(Entry::release);
                 cursor.rewind();
                 return;
             }
+            selectedConsumers[i] = consumer;
+        }
 
-            int messagesForC = Math.min(entriesWithSameKey.getValue().size(), consumer.getAvailablePermits());
-            if (log.isDebugEnabled()) {
-                log.debug("[{}] select consumer {} for key {} with messages num {}, read type is {}",
-                        name, consumer.consumerName(), entriesWithSameKey.getKey(), messagesForC, readType);
+        // Group the entries per consumer, keeping the order of the entries of each key
+        int groupsCount = 0;
+        for (int i = 0; i < entriesCount; i++) {
+            Consumer consumer = selectedConsumers[i];
+            if (consumer == null) {
+                continue;
             }
-            if (messagesForC > 0) {
-                // remove positions first from replay list first : sendMessages recycles entries
-                List<Entry> subList = new ArrayList<>(entriesWithSameKey.getValue().subList(0, messagesForC));
-                if (readType == ReadType.Replay) {
-                    subList.forEach(entry -> messagesToRedeliver.remove(entry.getLedgerId(), entry.getEntryId()));
+            EntryList group = EntryList.create(entriesCount - i);
+            for (int j = i; j < entriesCount; j++) {
+                if (selectedConsumers[j] == consumer) {
+                    group.add(entries.get(j));
+                    selectedConsumers[j] = null;
                 }
+            }
+            groupConsumers[groupsCount] = consumer;
+            groups[groupsCount++] = group;
+        }
 
-                SendMessageInfo sendMessageInfo = SendMessageInfo.getThreadLocal();
-                EntryBatchSizes batchSizes = EntryBatchSizes.get(subList.size());
-                filterEntriesForConsumer(subList, batchSizes, sendMessageInfo);
+        AtomicInteger keyNumbers = new AtomicInteger(groupsCount);
+        int laterReplay = 0;
+        for (int g = 0; g < groupsCount; g++) {
+            final Consumer consumer = groupConsumers[g];
+            final EntryList group = groups[g];
+            groupConsumers[g] = null;
+            groups[g] = null;
 
-                consumer.sendMessages(subList, batchSizes, sendMessageInfo.getTotalMessages(),
-                        sendMessageInfo.getTotalBytes(), getRedeliveryTracker()).addListener(future -> {
-                            if (future.isSuccess() && keyNumbers.decrementAndGet() == 0) {
-                                readMoreEntries();
-                            }
-                });
-                entriesWithSameKey.getValue().removeAll(subList);
+            int messagesForC = totalAvailablePermits > 0 && isAtleastOneConsumerAvailable()
+                    ? Math.min(group.size(), consumer.getAvailablePermits()) : 0;
+            if (log.isDebugEnabled()) {
+                log.debug("[{}] select consumer {} with messages num {}, read type is {}",
+                        name, consumer.consumerName(), messagesForC, readType);
+            }
 
-                totalAvailablePermits -= sendMessageInfo.getTotalMessages();
-                totalMessagesSent += sendMessageInfo.getTotalMessages();
-                totalBytesSent += sendMessageInfo.getTotalBytes();
+            // The entries beyond the permits of the consumer are stored for later replay
+            for (int k = group.size() - 1; k >= messagesForC; k--) {
+                Entry entry = group.remove(k);
+                messagesToRedeliver.add(entry.getLedgerId(), entry.getEntryId());
+                entry.release();
+                laterReplay++;
+            }
+            if (group.isEmpty()) {
+                group.recycle();
+                continue;
+            }
 
-                if (entriesWithSameKey.getValue().size() == 0) {
-                    iterator.remove();
+            // remove positions first from replay list first : sendMessages recycles entries
+            if (readType == ReadType.Replay) {
+                for (int k = 0; k < group.size(); k++) {
+                    Entry entry = group.get(k);
+                    messagesToRedeliver.remove(entry.getLedgerId(), entry.getEntryId());
                 }
             }
+
+            SendMessageInfo sendMessageInfo = SendMessageInfo.getThreadLocal();
+            EntryBatchSizes batchSizes = EntryBatchSizes.get(group.size());
+            filterEntriesForConsumer(group, batchSizes, sendMessageInfo);
+
+            consumer.sendMessages(group, batchSizes, sendMessageInfo.getTotalMessages(),
+                    sendMessageInfo.getTotalBytes(), getRedeliveryTracker()).addListener(future -> {
+                        // The entries have been written, or dropped, once the write future completes
+                        group.recycle();
+                        if (future.isSuccess() && keyNumbers.decrementAndGet() == 0) {
+                            readMoreEntries();
+                        }
+            });
+
+            totalAvailablePermits -= sendMessageInfo.getTotalMessages();
+            totalMessagesSent += sendMessageInfo.getTotalMessages();
+            totalBytesSent += sendMessageInfo.getTotalBytes();
         }
 
         // acquire message-dispatch permits for already delivered messages
@@ -137,19 +197,9 @@ public class PersistentStickyKeyDispatcherMultipleConsumers extends PersistentDi
             }
         }
 
-        if (groupedEntries.size() > 0) {
-            int laterReplay = 0;
-            for (List<Entry> entryList : groupedEntries.values()) {
-                laterReplay += entryList.size();
-                entryList.forEach(entry -> {
-                    messagesToRedeliver.add(entry.getLedgerId(), entry.getEntryId());
-                    entry.release();
-                });
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("[{}] No consumers found with available permits, storing {} positions for later replay", name,
-                        laterReplay);
-            }
+        if (laterReplay > 0 && log.isDebugEnabled()) {
+            log.debug("[{}] No consumers found with available permits, storing {} positions for later replay", name,
+                    laterReplay);
         }
     }
 
@@ -48,6 +48,8 @@ import org.apache.bookkeeper.mledger.impl.ManagedCursorContainer;
 import org.apache.bookkeeper.mledger.impl.ManagedCursorImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.delayed.DelayedDeliveryTrackerFactory;
 import org.apache.pulsar.broker.service.BrokerServiceException;
 import org.apache.pulsar.broker.service.BrokerServiceException.ServerMetadataException;
 import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionBusyException;
@@ -55,8 +57,10 @@ import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionFence
 import org.apache.pulsar.broker.service.BrokerServiceException.SubscriptionInvalidCursorPosition;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Dispatcher;
+import org.apache.pulsar.broker.service.ConsistentHashingStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.HashRangeAutoSplitStickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.HashRangeExclusiveStickyKeyConsumerSelector;
+import org.apache.pulsar.broker.service.StickyKeyConsumerSelector;
 import org.apache.pulsar.broker.service.Subscription;
 import org.apache.pulsar.broker.service.Topic;
 import org.apache.pulsar.common.api.proto.PulsarApi.CommandAck.AckType;
@@ -222,16 +226,16 @@ public class PersistentSubscription implements Subscription {
                                 break;
                             case AUTO_SPLIT:
                                 dispatcher = new PersistentStickyKeyDispatcherMultipleConsumers(topic, cursor, this,
-                                        new HashRangeAutoSplitStickyKeyConsumerSelector());
+                                        newAutoSplitConsumerSelector());
                                 break;
                             default:
                                 dispatcher = new PersistentStickyKeyDispatcherMultipleConsumers(topic, cursor, this,
-                                        new HashRangeAutoSplitStickyKeyConsumerSelector());
+                                        newAutoSplitConsumerSelector());
                                 break;
                         }
                     } else {
                         dispatcher = new PersistentStickyKeyDispatcherMultipleConsumers(topic, cursor, this,
-                                new HashRangeAutoSplitStickyKeyConsumerSelector());
+                                newAutoSplitConsumerSelector());
                     }
                 }
                 break;
@@ -256,6 +260,15 @@ public class PersistentSubscription implements Subscription {
         dispatcher.addConsumer(consumer);
     }
 
+    private StickyKeyConsumerSelector newAutoSplitConsumerSelector() {
+        ServiceConfiguration conf = topic.getBrokerService().pulsar().getConfiguration();
+        if (conf.isSubscriptionKeySharedUseConsistentHashing()) {
+            return new ConsistentHashingStickyKeyConsumerSelector(
+                    conf.getSubscriptionKeySharedConsistentHashingReplicaPoints());
+        }
+        return new HashRangeAutoSplitStickyKeyConsumerSelector();
+    }
+
     @Override
     public synchronized void removeConsumer(Consumer consumer, boolean isResetCursor) throws BrokerServiceException {
         cursor.updateLastActive();
@@ -854,7 +867,8 @@ public class PersistentSubscription implements Subscription {
         // cursor close handles pending delete (ack) operations
         this.close().thenCompose(v -> topic.unsubscribe(subName)).thenAccept(v -> {
             synchronized (this) {
-                (dispatcher != null ? dispatcher.close() : CompletableFuture.completedFuture(null)).thenRun(() -> {
+                (dispatcher != null ? dispatcher.close() : CompletableFuture.completedFuture(null))
+                        .thenCompose(ignore -> deleteDelayedDeliveryState()).thenRun(() -> {
                     log.info("[{}][{}] Successfully deleted subscription", topicName, subName);
                     deleteFuture.complete(null);
                 }).exceptionally(ex -> {
@@ -877,6 +891,12 @@ public class PersistentSubscription implements Subscription {
         return deleteFuture;
     }
 
+    private CompletableFuture<Void> deleteDelayedDeliveryState() {
+        DelayedDeliveryTrackerFactory factory = topic.getBrokerService().getDelayedDeliveryTrackerFactory();
+        return factory != null ? factory.deleteSubscription(topic, cursor.getName())
+                : CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Handle unsubscribe command from the client API Check with the dispatcher is this consumer can proceed with
      * unsubscribe
@@ -948,6 +968,9 @@ public class PersistentSubscription implements Subscription {
         }
 
         subStats.type = getType();
+        if (dispatcher != null) {
+            subStats.dispatchMemoryThrottledTimeMs = dispatcher.getDispatchMemoryThrottledTimeMs();
+        }
         if (dispatcher instanceof PersistentDispatcherSingleActiveConsumer) {
             Consumer activeConsumer = ((PersistentDispatcherSingleActiveConsumer) dispatcher).getActiveConsumer();
             if (activeConsumer != null) {
@@ -177,6 +177,9 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
     private volatile double lastUpdatedAvgPublishRateInMsg = 0;
     private volatile double lastUpdatedAvgPublishRateInByte = 0;
 
+    // Moving average of the size of the entries read by the dispatchers of the topic, 0 until a read completes
+    private volatile long averageReadEntrySize = 0;
+
     private static class TopicStatsHelper {
         public double averageMsgSize;
         public double aggMsgRateIn;
@@ -858,6 +861,7 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
                                 @Override
                                 public void deleteLedgerComplete(Object ctx) {
                                     brokerService.removeTopicFromCache(topic);
+                                    messageDeduplication.deleteSnapshotLedger();
 
                                     if (dispatchRateLimiter.isPresent()) {
                                         dispatchRateLimiter.get().close();
@@ -936,6 +940,7 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
                 public void closeComplete(Object ctx) {
                     // Everything is now closed, remove the topic from map
                     brokerService.removeTopicFromCache(topic);
+                    messageDeduplication.closeSnapshotLedger();
 
                     ReplicatedSubscriptionsController ctrl = replicatedSubscriptionsController.orElse(null);
                     if (ctrl != null) {
@@ -958,6 +963,7 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
                 public void closeFailed(ManagedLedgerException exception, Object ctx) {
                     log.error("[{}] Failed to close managed ledger, proceeding anyway.", topic, exception);
                     brokerService.removeTopicFromCache(topic);
+                    messageDeduplication.closeSnapshotLedger();
                     closeFuture.complete(null);
                 }
             }, null);
@@ -1254,6 +1260,22 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
         return ledger;
     }
 
+    /**
+     * Record the size of entries read by a dispatcher, to track the average size of the entries of the topic.
+     */
+    public void recordReadEntries(int entries, long size) {
+        if (entries > 0) {
+            long readAverage = size / entries;
+            long average = averageReadEntrySize;
+            // Races between dispatchers only lose a sample
+            averageReadEntrySize = average == 0 ? readAverage : (average * 7 + readAverage) / 8;
+        }
+    }
+
+    public long getAverageReadEntrySize() {
+        return averageReadEntrySize;
+    }
+
     public void updateRates(NamespaceStats nsStats, NamespaceBundleStats bundleStats, StatsOutputStream topicStatsStream,
             ClusterReplicationMetrics replStats, String namespace, boolean hydratePublishers) {
 
@@ -1884,7 +1906,14 @@ public class PersistentTopic extends AbstractTopic implements Topic, AddEntryCal
     public synchronized void triggerCompaction()
             throws PulsarServerException, AlreadyRunningException {
         if (currentCompaction.isDone()) {
-            currentCompaction = brokerService.pulsar().getCompactor().compact(topic);
+            // Add a layer to the compacted view, unless it would have too many of them
+            int maxLayers = brokerService.pulsar().getConfiguration().getBrokerServiceCompactionMaxLayers();
+            Optional<Position> compactionHorizon = compactedTopic.getCompactionHorizon();
+            if (compactionHorizon.isPresent() && compactedTopic.getLayerCount() < maxLayers) {
+                currentCompaction = brokerService.pulsar().getCompactor().compact(topic, compactionHorizon.get());
+            } else {
+                currentCompaction = brokerService.pulsar().getCompactor().compact(topic);
+            }
         } else {
             throw new AlreadyRunningException("Compaction already in progress");
         }
@@ -92,6 +92,13 @@ public class ManagedLedgerCacheMetrics extends AbstractMetrics {
         m.put("brk_ml_cache_pool_active_allocations_normal", activeAllocationsNormal);
         m.put("brk_ml_cache_pool_active_allocations_huge", activeAllocationsHuge);
 
+        // Memory held by the slabs packing the cached entries, and the fraction of it used by the entries still cached
+        long slabsAllocated = EntryCacheImpl.SLAB_ALLOCATOR.metric().usedDirectMemory();
+        double slabsOccupancy = slabsAllocated > 0
+                ? EntryCacheImpl.getSlabResidentSize() / (double) slabsAllocated : 0.0;
+        m.put("brk_ml_cache_slabs_allocated", slabsAllocated);
+        m.put("brk_ml_cache_slabs_occupancy", slabsOccupancy);
+
         metrics.clear();
         metrics.add(m);
         return metrics;
@@ -94,6 +94,7 @@ public class AggregatedNamespaceStats {
             subsStats.blockedSubscriptionOnUnackedMsgs = as.blockedSubscriptionOnUnackedMsgs;
             subsStats.msgBacklog += as.msgBacklog;
             subsStats.msgDelayed += as.msgDelayed;
+            subsStats.dispatchMemoryThrottledTimeMs += as.dispatchMemoryThrottledTimeMs;
             subsStats.msgRateRedeliver += as.msgRateRedeliver;
             subsStats.unackedMessages += as.unackedMessages;
             as.consumerStat.forEach((c, v) -> {
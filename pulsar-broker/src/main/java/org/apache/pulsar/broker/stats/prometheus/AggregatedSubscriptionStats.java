@@ -39,5 +39,7 @@ public class AggregatedSubscriptionStats {
 
     public long msgDelayed;
 
+    public long dispatchMemoryThrottledTimeMs;
+
     public Map<Consumer, AggregatedConsumerStats> consumerStat = new HashMap<>();
 }
@@ -131,6 +131,9 @@ public class NamespaceStatsAggregator {
                     .computeIfAbsent(name, k -> new AggregatedSubscriptionStats());
             subsStats.msgBacklog = subscription.getNumberOfEntriesInBacklog();
             subsStats.msgDelayed = subscription.getNumberOfEntriesDelayed();
+            if (subscription.getDispatcher() != null) {
+                subsStats.dispatchMemoryThrottledTimeMs = subscription.getDispatcher().getDispatchMemoryThrottledTimeMs();
+            }
 
             subscription.getConsumers().forEach(consumer -> {
 
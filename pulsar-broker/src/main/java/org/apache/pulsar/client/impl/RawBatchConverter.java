@@ -97,6 +97,17 @@ public class RawBatchConverter {
     public static Optional<RawMessage> rebatchMessage(RawMessage msg,
                                                       BiPredicate<String, MessageId> filter)
             throws IOException {
+        return rebatchMessage(msg, filter, false);
+    }
+
+    /**
+     * Same as {@link #rebatchMessage(RawMessage, BiPredicate)}, optionally retaining the sub-messages which match
+     * the filter but have an empty payload, which delete their key.
+     */
+    public static Optional<RawMessage> rebatchMessage(RawMessage msg,
+                                                      BiPredicate<String, MessageId> filter,
+                                                      boolean retainEmptyPayloads)
+            throws IOException {
         checkArgument(msg.getMessageIdData().getBatchIndex() == -1);
 
         ByteBuf payload = msg.getHeadersAndPayload();
@@ -127,7 +138,7 @@ public class RawBatchConverter {
                     Commands.serializeSingleMessageInBatchWithPayload(singleMessageMetadataBuilder,
                                                                       singleMessagePayload, batchBuffer);
                 } else if (filter.test(singleMessageMetadataBuilder.getPartitionKey(), id)
-                           && singleMessagePayload.readableBytes() > 0) {
+                           && (retainEmptyPayloads || singleMessagePayload.readableBytes() > 0)) {
                     messagesRetained++;
                     Commands.serializeSingleMessageInBatchWithPayload(singleMessageMetadataBuilder,
                                                                       singleMessagePayload, batchBuffer);
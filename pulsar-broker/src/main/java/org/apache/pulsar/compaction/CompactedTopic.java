@@ -18,6 +18,8 @@
  */
 package org.apache.pulsar.compaction;
 
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.mledger.ManagedCursor;
 import org.apache.bookkeeper.mledger.Position;
@@ -25,6 +27,9 @@ import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 
 public interface CompactedTopic {
     CompletableFuture<?> newCompactedLedger(Position p, long compactedLedgerId);
+    CompletableFuture<?> newCompactedLayers(Position p, List<Long> compactedLedgerIds);
+    Optional<Position> getCompactionHorizon();
+    int getLayerCount();
     void asyncReadEntriesOrWait(ManagedCursor cursor, int numberOfEntriesToRead,
                                 ReadEntriesCallback callback, Object ctx);
 }
@@ -23,11 +23,20 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.collect.ComparisonChain;
 
 import io.netty.buffer.ByteBuf;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.apache.bookkeeper.client.BookKeeper;
 import org.apache.bookkeeper.client.BKException;
@@ -40,21 +49,38 @@ import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.AsyncCallbacks.ReadEntriesCallback;
 import org.apache.bookkeeper.mledger.impl.EntryImpl;
 import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.client.api.RawMessage;
+import org.apache.pulsar.client.impl.RawBatchConverter;
 import org.apache.pulsar.client.impl.RawMessageImpl;
 import org.apache.pulsar.common.api.proto.PulsarApi.MessageIdData;
+import org.apache.pulsar.common.util.FutureUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Compacted view of a topic, made of one or more layers of compacted ledgers.
+ *
+ * <p>A full compaction makes a single layer. Each incremental compaction adds a layer holding the latest values of the
+ * keys published since the previous compaction, so the messages of a layer all come after the ones of the layers
+ * below, and the layers are read one after the other.
+ *
+ * <p>The keys of the layers above the bottom one are loaded in memory when the layers are opened, so that the values
+ * of a key superseded or deleted in an upper layer are skipped when reading the layers below. The delete markers are
+ * skipped as well, and a reader gets the same messages as from a single layer made by a full compaction.
+ */
 public class CompactedTopicImpl implements CompactedTopic {
     final static long NEWER_THAN_COMPACTED = -0xfeed0fbaL;
     final static int DEFAULT_STARTPOINT_CACHE_SIZE = 100;
+    final static int READ_KEYS_BATCH_SIZE = 100;
 
     private final BookKeeper bk;
 
     private PositionImpl compactionHorizon = null;
-    private CompletableFuture<CompactedTopicContext> compactedTopicContext = null;
+    // Layers by ledger id, from the bottom one to the top one
+    private Map<Long, CompletableFuture<CompactedTopicContext>> layers = Collections.emptyMap();
+    private CompletableFuture<List<CompactedTopicContext>> compactedTopicContexts = null;
 
     public CompactedTopicImpl(BookKeeper bk) {
         this.bk = bk;
@@ -62,22 +88,55 @@ public class CompactedTopicImpl implements CompactedTopic {
 
     @Override
     public CompletableFuture<?> newCompactedLedger(Position p, long compactedLedgerId) {
+        return newCompactedLayers(p, Collections.singletonList(compactedLedgerId));
+    }
+
+    @Override
+    public CompletableFuture<?> newCompactedLayers(Position p, List<Long> compactedLedgerIds) {
         synchronized (this) {
             compactionHorizon = (PositionImpl)p;
 
-            CompletableFuture<CompactedTopicContext> previousContext = compactedTopicContext;
-            compactedTopicContext = openCompactedLedger(bk, compactedLedgerId);
-
-            // delete the ledger from the old context once the new one is open
-            if (previousContext != null) {
-                return compactedTopicContext.thenCompose((res) -> previousContext)
-                    .thenCompose((res) -> tryDeleteCompactedLedger(bk, res.ledger.getId()));
-            } else {
-                return compactedTopicContext;
+            Map<Long, CompletableFuture<CompactedTopicContext>> previousLayers = layers;
+            Map<Long, CompletableFuture<CompactedTopicContext>> newLayers = new LinkedHashMap<>();
+            for (long ledgerId : compactedLedgerIds) {
+                CompletableFuture<CompactedTopicContext> context = previousLayers.get(ledgerId);
+                newLayers.put(ledgerId, context != null ? context : openCompactedLedger(bk, ledgerId));
             }
+            layers = newLayers;
+            List<CompletableFuture<CompactedTopicContext>> contexts = new ArrayList<>(newLayers.values());
+            CompletableFuture<List<CompactedTopicContext>> newContexts = FutureUtil.waitForAll(contexts).thenCompose(
+                    (res) -> {
+                        List<CompactedTopicContext> openedContexts = contexts.stream()
+                            .map(CompletableFuture::join).collect(Collectors.toList());
+                        // the keys of the upper layers are needed to skip their older values in the layers below
+                        List<CompletableFuture<Set<String>>> keys = openedContexts.stream().skip(1)
+                            .map(CompactedTopicContext::getKeys).collect(Collectors.toList());
+                        return FutureUtil.waitForAll(keys).thenApply((res2) -> openedContexts);
+                    });
+            compactedTopicContexts = newContexts;
+
+            // delete the ledgers of the dropped layers once the new ones are open
+            List<CompletableFuture<Void>> deletions = new ArrayList<>();
+            previousLayers.forEach((ledgerId, previousContext) -> {
+                if (!newLayers.containsKey(ledgerId)) {
+                    deletions.add(newContexts.thenCompose((res) -> previousContext)
+                            .thenCompose((res) -> tryDeleteCompactedLedger(bk, res.ledger.getId())));
+                }
+            });
+            return deletions.isEmpty() ? newContexts : FutureUtil.waitForAll(deletions);
         }
     }
 
+    @Override
+    public synchronized Optional<Position> getCompactionHorizon() {
+        return Optional.ofNullable(compactionHorizon);
+    }
+
+    @Override
+    public synchronized int getLayerCount() {
+        return layers.size();
+    }
+
     @Override
     public void asyncReadEntriesOrWait(ManagedCursor cursor, int numberOfEntriesToRead,
                                        ReadEntriesCallback callback, Object ctx) {
@@ -87,24 +146,17 @@ public class CompactedTopicImpl implements CompactedTopic {
                 || compactionHorizon.compareTo(cursorPosition) < 0) {
                 cursor.asyncReadEntriesOrWait(numberOfEntriesToRead, callback, ctx);
             } else {
-                compactedTopicContext.thenCompose(
-                        (context) -> {
-                            return findStartPoint(cursorPosition, context.ledger.getLastAddConfirmed(), context.cache)
-                                .thenCompose((startPoint) -> {
-                                        if (startPoint == NEWER_THAN_COMPACTED) {
-                                            cursor.asyncReadEntriesOrWait(numberOfEntriesToRead, callback, ctx);
-                                            return CompletableFuture.completedFuture(null);
-                                        } else {
-                                            long endPoint = Math.min(context.ledger.getLastAddConfirmed(),
-                                                                     startPoint + numberOfEntriesToRead);
-                                            return readEntries(context.ledger, startPoint, endPoint)
-                                                .thenAccept((entries) -> {
-                                                        Entry lastEntry = entries.get(entries.size() - 1);
-                                                        cursor.seek(lastEntry.getPosition().getNext());
-                                                        callback.readEntriesComplete(entries, ctx);
-                                                    });
-                                        }
-                                    });
+                PositionImpl horizon = compactionHorizon;
+                // The compactor reads the delete markers, the last message of the topic may be one of them
+                boolean readDeletes = Compactor.COMPACTION_SUBSCRIPTION.equals(cursor.getName());
+                compactedTopicContexts.thenCompose(
+                        (contexts) -> {
+                            return findLayerStartPoint(cursorPosition, contexts, 0)
+                                .thenCompose((layerStartPoint) -> readLayers(cursor, contexts,
+                                                                             layerStartPoint.getLeft(),
+                                                                             layerStartPoint.getRight(), horizon,
+                                                                             readDeletes, numberOfEntriesToRead,
+                                                                             callback, ctx));
                                 })
                     .exceptionally((exception) -> {
                             callback.readEntriesFailed(new ManagedLedgerException(exception), ctx);
@@ -114,6 +166,61 @@ public class CompactedTopicImpl implements CompactedTopic {
         }
     }
 
+    // Returns the first layer having messages at or after the position, with the entry of the first of them, or the
+    // number of layers if there are none
+    private static CompletableFuture<Pair<Integer, Long>> findLayerStartPoint(
+            PositionImpl p, List<CompactedTopicContext> contexts, int layer) {
+        if (layer == contexts.size()) {
+            return CompletableFuture.completedFuture(Pair.of(layer, 0L));
+        }
+        CompactedTopicContext context = contexts.get(layer);
+        if (context.ledger.getLastAddConfirmed() < 0) {
+            return findLayerStartPoint(p, contexts, layer + 1);
+        }
+        return findStartPoint(p, context.ledger.getLastAddConfirmed(), context.cache)
+            .thenCompose((startPoint) -> startPoint == NEWER_THAN_COMPACTED
+                    ? findLayerStartPoint(p, contexts, layer + 1)
+                    : CompletableFuture.completedFuture(Pair.of(layer, startPoint)));
+    }
+
+    // Reads the entries of the layers from the start point, going on with the next entries while all the ones read
+    // have been skipped, then with the messages after the horizon once the layers are all read
+    private static CompletableFuture<Void> readLayers(ManagedCursor cursor, List<CompactedTopicContext> contexts,
+                                                      int layer, long startPoint, PositionImpl horizon,
+                                                      boolean readDeletes, int numberOfEntriesToRead,
+                                                      ReadEntriesCallback callback, Object ctx) {
+        if (layer == contexts.size()) {
+            // The messages up to the horizon which are not in the layers have been compacted out
+            cursor.seek(horizon.getNext());
+            cursor.asyncReadEntriesOrWait(numberOfEntriesToRead, callback, ctx);
+            return CompletableFuture.completedFuture(null);
+        }
+        CompactedTopicContext context = contexts.get(layer);
+        if (startPoint > context.ledger.getLastAddConfirmed()) {
+            return readLayers(cursor, contexts, layer + 1, 0, horizon, readDeletes, numberOfEntriesToRead,
+                              callback, ctx);
+        }
+        long endPoint = Math.min(context.ledger.getLastAddConfirmed(), startPoint + numberOfEntriesToRead);
+        return readEntries(context.ledger, startPoint, endPoint, supersededKeys(contexts, layer), readDeletes)
+            .thenCompose((entries) -> {
+                    if (entries.isEmpty()) {
+                        return readLayers(cursor, contexts, layer, endPoint + 1, horizon, readDeletes,
+                                          numberOfEntriesToRead, callback, ctx);
+                    }
+                    Entry lastEntry = entries.get(entries.size() - 1);
+                    cursor.seek(lastEntry.getPosition().getNext());
+                    callback.readEntriesComplete(entries, ctx);
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    // The keys having a newer value or a delete marker in a layer above the given one
+    private static Predicate<String> supersededKeys(List<CompactedTopicContext> contexts, int layer) {
+        List<Set<String>> upperKeys = contexts.subList(layer + 1, contexts.size()).stream()
+            .map((context) -> context.getKeys().join()).collect(Collectors.toList());
+        return (key) -> upperKeys.stream().anyMatch((keys) -> keys.contains(key));
+    }
+
     static CompletableFuture<Long> findStartPoint(PositionImpl p,
                                                   long lastEntryId,
                                                   AsyncLoadingCache<Long,MessageIdData> cache) {
@@ -207,7 +314,8 @@ public class CompactedTopicImpl implements CompactedTopic {
         return promise;
     }
 
-    private static CompletableFuture<List<Entry>> readEntries(LedgerHandle lh, long from, long to) {
+    private static CompletableFuture<Enumeration<LedgerEntry>> readLedgerEntries(LedgerHandle lh,
+                                                                                long from, long to) {
         CompletableFuture<Enumeration<LedgerEntry>> promise = new CompletableFuture<>();
 
         lh.asyncReadEntries(from, to,
@@ -218,15 +326,26 @@ public class CompactedTopicImpl implements CompactedTopic {
                                     promise.complete(seq);
                                 }
                             }, null);
-        return promise.thenApply(
+        return promise;
+    }
+
+    private static CompletableFuture<List<Entry>> readEntries(LedgerHandle lh, long from, long to,
+                                                              Predicate<String> superseded, boolean readDeletes) {
+        return readLedgerEntries(lh, from, to).thenApply(
                 (seq) -> {
                     List<Entry> entries = new ArrayList<Entry>();
                     while (seq.hasMoreElements()) {
                         ByteBuf buf = seq.nextElement().getEntryBuffer();
-                        try (RawMessage m = RawMessageImpl.deserializeFrom(buf)) {
-                            entries.add(EntryImpl.create(m.getMessageIdData().getLedgerId(),
-                                                         m.getMessageIdData().getEntryId(),
-                                                         m.getHeadersAndPayload()));
+                        try {
+                            retainLatest(buf, superseded, readDeletes).ifPresent((m) -> {
+                                    try {
+                                        entries.add(EntryImpl.create(m.getMessageIdData().getLedgerId(),
+                                                                     m.getMessageIdData().getEntryId(),
+                                                                     m.getHeadersAndPayload()));
+                                    } finally {
+                                        m.close();
+                                    }
+                                });
                         } finally {
                             buf.release();
                         }
@@ -235,14 +354,81 @@ public class CompactedTopicImpl implements CompactedTopic {
                 });
     }
 
+    // Returns the message of a layer entry without the values superseded in an upper layer and, unless they are read,
+    // the delete markers, which a full compaction would have left out
+    private static Optional<RawMessage> retainLatest(ByteBuf buf, Predicate<String> superseded,
+                                                     boolean readDeletes) {
+        RawMessage m = RawMessageImpl.deserializeFrom(buf.duplicate());
+        if (RawBatchConverter.isReadableBatch(m)) {
+            MessageIdData id = m.getMessageIdData();
+            try {
+                return RawBatchConverter.rebatchMessage(m, (key, subid) -> !superseded.test(key), readDeletes);
+            } catch (IOException ioe) {
+                log.info("Error decoding batch for message {}:{}. Whole batch will be read",
+                         id.getLedgerId(), id.getEntryId(), ioe);
+                return Optional.of(RawMessageImpl.deserializeFrom(buf.duplicate()));
+            }
+        }
+        Pair<String,Integer> keyAndSize = TwoPhaseCompactor.extractKeyAndSize(m);
+        if (keyAndSize != null
+                && ((keyAndSize.getRight() <= 0 && !readDeletes) || superseded.test(keyAndSize.getLeft()))) {
+            m.close();
+            return Optional.empty();
+        }
+        return Optional.of(m);
+    }
+
+    private static CompletableFuture<Set<String>> readKeys(LedgerHandle lh) {
+        Set<String> keys = new HashSet<>();
+        return readKeys(lh, 0, keys).thenApply((res) -> keys);
+    }
+
+    private static CompletableFuture<Void> readKeys(LedgerHandle lh, long from, Set<String> keys) {
+        if (from > lh.getLastAddConfirmed()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long to = Math.min(lh.getLastAddConfirmed(), from + READ_KEYS_BATCH_SIZE - 1);
+        return readLedgerEntries(lh, from, to).thenCompose(
+                (seq) -> {
+                    while (seq.hasMoreElements()) {
+                        ByteBuf buf = seq.nextElement().getEntryBuffer();
+                        try (RawMessage m = RawMessageImpl.deserializeFrom(buf)) {
+                            if (RawBatchConverter.isReadableBatch(m)) {
+                                RawBatchConverter.extractIdsAndKeys(m).forEach((e) -> keys.add(e.getRight()));
+                            } else {
+                                Pair<String,Integer> keyAndSize = TwoPhaseCompactor.extractKeyAndSize(m);
+                                if (keyAndSize != null) {
+                                    keys.add(keyAndSize.getLeft());
+                                }
+                            }
+                        } catch (IOException ioe) {
+                            log.info("Error decoding batch in ledger {}. Its keys won't be skipped in the layers below",
+                                     lh.getId(), ioe);
+                        } finally {
+                            buf.release();
+                        }
+                    }
+                    return readKeys(lh, to + 1, keys);
+                });
+    }
+
     static class CompactedTopicContext {
         final LedgerHandle ledger;
         final AsyncLoadingCache<Long,MessageIdData> cache;
+        // Only loaded for the layers above the bottom one
+        private CompletableFuture<Set<String>> keys = null;
 
         CompactedTopicContext(LedgerHandle ledger, AsyncLoadingCache<Long,MessageIdData> cache) {
             this.ledger = ledger;
             this.cache = cache;
         }
+
+        synchronized CompletableFuture<Set<String>> getKeys() {
+            if (keys == null) {
+                keys = readKeys(ledger);
+            }
+            return keys;
+        }
     }
 
     private static int comparePositionAndMessageId(PositionImpl p, MessageIdData m) {
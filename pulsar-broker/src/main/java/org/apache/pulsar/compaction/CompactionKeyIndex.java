@@ -0,0 +1,660 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.compaction;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.BatchMessageIdImpl;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.apache.pulsar.common.allocator.PulsarByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the latest message id of each key of a topic, built by the first phase of the compaction and read by the
+ * second one.
+ *
+ * <p>Each key takes a fixed size record in an open addressing hash table, keyed by the 64 bits murmur3 hash of its
+ * characters, and its UTF-8 bytes are appended to a separate key buffer. Both are allocated off-heap and grow up to a
+ * memory budget. The keys are compared whenever their hashes are equal, so that colliding keys are never mixed up.
+ * Once the budget is reached, the records of the table are sorted by hash and key, and spilled along with their keys
+ * to a run file on the local disk, and the table starts over empty. Removed keys are kept as deleted records, so that
+ * they hide the records of the same key in the older runs.
+ *
+ * <p>When the index is sealed, the runs are merged into a single file, holding the sorted records of the newest
+ * version of each key followed by their keys. The keys are then looked up in this file with an interpolation search
+ * on the records, as their hashes are uniformly distributed, and only the keys of the records with the same hash are
+ * read. The memory used by the compaction is thus bounded, whatever the number of keys of the topic.
+ *
+ * <p>This class is not thread safe.
+ */
+class CompactionKeyIndex implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CompactionKeyIndex.class);
+
+    // Record layout
+    private static final int HASH_OFFSET = 0;
+    private static final int LEDGER_ID_OFFSET = 8;
+    private static final int ENTRY_ID_OFFSET = 16;
+    // Offset of the key in the key buffer, or in the keys of the merged file
+    private static final int KEY_OFFSET_OFFSET = 24;
+    private static final int KEY_LENGTH_OFFSET = 32;
+    private static final int BATCH_INDEX_OFFSET = 36;
+    private static final int PARTITION_OFFSET = 40;
+    private static final int STATE_OFFSET = 44;
+    static final int RECORD_SIZE = 48;
+
+    private static final int STATE_EMPTY = 0;
+    private static final int STATE_PRESENT = 1;
+    private static final int STATE_DELETED = 2;
+
+    private static final int NO_BATCH = -1;
+    private static final int MIN_CAPACITY = 16;
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    // Memory of the keys of the table allowed beyond the budget, as the table is allowed a minimal capacity
+    private static final int MIN_KEYS_BYTES = 4096;
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    private final long maxMemoryBytes;
+    private final File spillDirectory;
+    private final ToLongFunction<String> hashFunction;
+
+    private ByteBuf table;
+    private int capacity;
+    private ByteBuf keys;
+    // Slots holding a record, present or deleted
+    private int usedSlots;
+    private int presentInTable;
+
+    private final List<File> runs = new ArrayList<>();
+    private File mergedFile;
+    private FileChannel mergedChannel;
+    private long mergedCount;
+    private long mergedKeysPosition;
+
+    private boolean sealed = false;
+    private boolean closed = false;
+
+    /**
+     * Create a new index.
+     *
+     * @param maxMemoryBytes
+     *            the memory budget of the hash table, beyond which the records are spilled to the disk
+     * @param spillDirectory
+     *            the directory of the spilled files
+     */
+    CompactionKeyIndex(long maxMemoryBytes, File spillDirectory) {
+        this(maxMemoryBytes, spillDirectory, CompactionKeyIndex::hash);
+    }
+
+    @VisibleForTesting
+    CompactionKeyIndex(long maxMemoryBytes, File spillDirectory, ToLongFunction<String> hashFunction) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.spillDirectory = spillDirectory;
+        this.hashFunction = hashFunction;
+        int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+        while (initialCapacity > MIN_CAPACITY && (long) initialCapacity * RECORD_SIZE > maxMemoryBytes) {
+            initialCapacity /= 2;
+        }
+        this.table = allocateTable(initialCapacity);
+        this.capacity = initialCapacity;
+        this.keys = PulsarByteBufAllocator.DEFAULT.directBuffer(MIN_KEYS_BYTES);
+    }
+
+    /**
+     * Record the message id as the latest one of the key.
+     */
+    void put(String key, MessageId messageId) {
+        checkState(!sealed && !closed, "The key index is sealed");
+        MessageIdImpl id = (MessageIdImpl) messageId;
+        int batchIndex = id instanceof BatchMessageIdImpl ? ((BatchMessageIdImpl) id).getBatchIndex() : NO_BATCH;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hashFunction.applyAsLong(key);
+
+        int offset = findSlot(hash, keyBytes);
+        int state = table.getInt(offset + STATE_OFFSET);
+        if (state == STATE_EMPTY && needsRoom(keyBytes.length)) {
+            makeRoom(keyBytes.length);
+            offset = findSlot(hash, keyBytes);
+            state = table.getInt(offset + STATE_OFFSET);
+        }
+        if (state == STATE_EMPTY) {
+            usedSlots++;
+            addKey(offset, hash, keyBytes);
+        }
+        if (state != STATE_PRESENT) {
+            presentInTable++;
+        }
+        table.setLong(offset + LEDGER_ID_OFFSET, id.getLedgerId());
+        table.setLong(offset + ENTRY_ID_OFFSET, id.getEntryId());
+        table.setInt(offset + BATCH_INDEX_OFFSET, batchIndex);
+        table.setInt(offset + PARTITION_OFFSET, id.getPartitionIndex());
+        table.setInt(offset + STATE_OFFSET, STATE_PRESENT);
+    }
+
+    /**
+     * Record that the key has been deleted.
+     */
+    void remove(String key) {
+        checkState(!sealed && !closed, "The key index is sealed");
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hashFunction.applyAsLong(key);
+
+        int offset = findSlot(hash, keyBytes);
+        int state = table.getInt(offset + STATE_OFFSET);
+        if (state == STATE_PRESENT) {
+            presentInTable--;
+        } else if (state == STATE_DELETED || runs.isEmpty()) {
+            // Nothing to hide
+            return;
+        } else {
+            if (needsRoom(keyBytes.length)) {
+                makeRoom(keyBytes.length);
+                offset = findSlot(hash, keyBytes);
+            }
+            usedSlots++;
+            addKey(offset, hash, keyBytes);
+        }
+        table.setInt(offset + STATE_OFFSET, STATE_DELETED);
+    }
+
+    /**
+     * Seal the index once all the keys have been recorded, merging the spilled runs if any.
+     */
+    void seal() {
+        checkState(!sealed && !closed, "The key index is sealed");
+        sealed = true;
+        if (runs.isEmpty()) {
+            return;
+        }
+        try {
+            spill();
+            mergeRuns();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns whether the message id is the latest one recorded for the key.
+     */
+    boolean isLatest(String key, MessageId messageId) {
+        checkState(sealed && !closed, "The key index is not sealed");
+        MessageIdImpl id = (MessageIdImpl) messageId;
+        int batchIndex = id instanceof BatchMessageIdImpl ? ((BatchMessageIdImpl) id).getBatchIndex() : NO_BATCH;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hashFunction.applyAsLong(key);
+
+        if (mergedChannel == null) {
+            int offset = findSlot(hash, keyBytes);
+            return table.getInt(offset + STATE_OFFSET) == STATE_PRESENT
+                    && table.getLong(offset + LEDGER_ID_OFFSET) == id.getLedgerId()
+                    && table.getLong(offset + ENTRY_ID_OFFSET) == id.getEntryId()
+                    && table.getInt(offset + BATCH_INDEX_OFFSET) == batchIndex
+                    && table.getInt(offset + PARTITION_OFFSET) == id.getPartitionIndex();
+        }
+
+        try {
+            ByteBuffer record = searchMerged(hash, keyBytes);
+            return record != null
+                    && record.getLong(LEDGER_ID_OFFSET) == id.getLedgerId()
+                    && record.getLong(ENTRY_ID_OFFSET) == id.getEntryId()
+                    && record.getInt(BATCH_INDEX_OFFSET) == batchIndex
+                    && record.getInt(PARTITION_OFFSET) == id.getPartitionIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of keys having a latest message id. The count is exact once the index is sealed.
+     */
+    long size() {
+        return mergedChannel != null ? mergedCount : presentInTable;
+    }
+
+    /**
+     * Returns the number of runs spilled to the disk.
+     */
+    int getSpilledRuns() {
+        return mergedFile != null ? runs.size() + 1 : runs.size();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (table != null) {
+            table.release();
+            table = null;
+        }
+        if (keys != null) {
+            keys.release();
+            keys = null;
+        }
+        if (mergedChannel != null) {
+            try {
+                mergedChannel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the compaction key index {}", mergedFile, e);
+            }
+        }
+        runs.forEach(CompactionKeyIndex::deleteFile);
+        runs.clear();
+        if (mergedFile != null) {
+            deleteFile(mergedFile);
+        }
+    }
+
+    private static long hash(String key) {
+        return Hashing.murmur3_128().hashUnencodedChars(key).asLong();
+    }
+
+    private static ByteBuf allocateTable(int capacity) {
+        ByteBuf buffer = PulsarByteBufAllocator.DEFAULT.directBuffer(capacity * RECORD_SIZE, capacity * RECORD_SIZE);
+        buffer.setZero(0, capacity * RECORD_SIZE);
+        return buffer;
+    }
+
+    // Offset of the slot of the key, or of the empty slot where it would be inserted
+    private int findSlot(long hash, byte[] key) {
+        int mask = capacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (true) {
+            int offset = slot * RECORD_SIZE;
+            if (table.getInt(offset + STATE_OFFSET) == STATE_EMPTY
+                    || (table.getLong(offset + HASH_OFFSET) == hash && keyEquals(offset, key))) {
+                return offset;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int findEmptySlot(long hash) {
+        int mask = capacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (table.getInt(slot * RECORD_SIZE + STATE_OFFSET) != STATE_EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot * RECORD_SIZE;
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        int keyLength = table.getInt(offset + KEY_LENGTH_OFFSET);
+        if (keyLength != key.length) {
+            return false;
+        }
+        int keyOffset = (int) table.getLong(offset + KEY_OFFSET_OFFSET);
+        for (int i = 0; i < keyLength; i++) {
+            if (keys.getByte(keyOffset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] getKey(int offset) {
+        byte[] key = new byte[table.getInt(offset + KEY_LENGTH_OFFSET)];
+        keys.getBytes((int) table.getLong(offset + KEY_OFFSET_OFFSET), key);
+        return key;
+    }
+
+    private void addKey(int offset, long hash, byte[] key) {
+        table.setLong(offset + HASH_OFFSET, hash);
+        table.setLong(offset + KEY_OFFSET_OFFSET, keys.writerIndex());
+        table.setInt(offset + KEY_LENGTH_OFFSET, key.length);
+        keys.writeBytes(key);
+    }
+
+    private boolean needsRoom(int keyLength) {
+        return usedSlots + 1 > capacity / 4 * 3 || keys.writerIndex() + keyLength > keysMaxBytes(capacity);
+    }
+
+    private long keysMaxBytes(int capacity) {
+        return Math.max(maxMemoryBytes - (long) capacity * RECORD_SIZE, MIN_KEYS_BYTES);
+    }
+
+    private void makeRoom(int keyLength) {
+        if (usedSlots + 1 > capacity / 4 * 3 && (long) capacity * 2 * RECORD_SIZE <= maxMemoryBytes
+                && keys.writerIndex() + keyLength <= keysMaxBytes(capacity * 2)) {
+            resize(capacity * 2);
+        } else {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void resize(int newCapacity) {
+        ByteBuf oldTable = table;
+        int oldCapacity = capacity;
+        table = allocateTable(newCapacity);
+        capacity = newCapacity;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int offset = slot * RECORD_SIZE;
+            if (oldTable.getInt(offset + STATE_OFFSET) != STATE_EMPTY) {
+                int newOffset = findEmptySlot(oldTable.getLong(offset + HASH_OFFSET));
+                table.setBytes(newOffset, oldTable, offset, RECORD_SIZE);
+            }
+        }
+        oldTable.release();
+    }
+
+    // Write the records of the table, sorted by key, each one followed by its key, to a new run file and clear the table
+    private void spill() throws IOException {
+        int count = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slot * RECORD_SIZE;
+            if (table.getInt(offset + STATE_OFFSET) != STATE_EMPTY) {
+                if (slot != count) {
+                    table.setBytes(count * RECORD_SIZE, table, offset, RECORD_SIZE);
+                }
+                count++;
+            }
+        }
+        sortRecords(count);
+
+        File run = File.createTempFile("compaction-keys-", ".run", spillDirectory());
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run), FILE_BUFFER_SIZE))) {
+            for (int i = 0; i < count; i++) {
+                int offset = i * RECORD_SIZE;
+                table.getBytes(offset, out, RECORD_SIZE);
+                keys.getBytes((int) table.getLong(offset + KEY_OFFSET_OFFSET), out,
+                        table.getInt(offset + KEY_LENGTH_OFFSET));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Spilled {} keys of the compaction key index to {}", count, run);
+        }
+
+        table.setZero(0, capacity * RECORD_SIZE);
+        keys.clear();
+        usedSlots = 0;
+        presentInTable = 0;
+    }
+
+    private File spillDirectory() throws IOException {
+        if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs() && !spillDirectory.isDirectory()) {
+            throw new IOException("Cannot create the compaction spill directory " + spillDirectory);
+        }
+        return spillDirectory;
+    }
+
+    // Heap sort of the first records of the table, in place
+    private void sortRecords(int count) {
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(i, count);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            swapRecords(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void siftDown(int index, int count) {
+        while (true) {
+            int largest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < count && compareRecords(left, largest) > 0) {
+                largest = left;
+            }
+            if (right < count && compareRecords(right, largest) > 0) {
+                largest = right;
+            }
+            if (largest == index) {
+                return;
+            }
+            swapRecords(index, largest);
+            index = largest;
+        }
+    }
+
+    private int compareRecords(int i, int j) {
+        int offset1 = i * RECORD_SIZE;
+        int offset2 = j * RECORD_SIZE;
+        int res = Long.compare(table.getLong(offset1 + HASH_OFFSET), table.getLong(offset2 + HASH_OFFSET));
+        // The keys are only read for the records with the same hash
+        return res != 0 ? res : compareKeys(getKey(offset1), getKey(offset2));
+    }
+
+    private void swapRecords(int i, int j) {
+        int offset1 = i * RECORD_SIZE;
+        int offset2 = j * RECORD_SIZE;
+        for (int k = 0; k < RECORD_SIZE; k += 8) {
+            long tmp = table.getLong(offset1 + k);
+            table.setLong(offset1 + k, table.getLong(offset2 + k));
+            table.setLong(offset2 + k, tmp);
+        }
+    }
+
+    private static int compareKeys(long hash1, byte[] key1, long hash2, byte[] key2) {
+        int res = Long.compare(hash1, hash2);
+        return res != 0 ? res : compareKeys(key1, key2);
+    }
+
+    private static int compareKeys(byte[] key1, byte[] key2) {
+        int res = Integer.compare(key1.length, key2.length);
+        for (int i = 0; res == 0 && i < key1.length; i++) {
+            res = Byte.compare(key1[i], key2[i]);
+        }
+        return res;
+    }
+
+    private static class RunReader {
+        final int index;
+        final DataInputStream in;
+        final byte[] record = new byte[RECORD_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        byte[] key;
+
+        RunReader(int index, File file) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), FILE_BUFFER_SIZE));
+        }
+
+        boolean next() throws IOException {
+            try {
+                in.readFully(record);
+            } catch (EOFException e) {
+                return false;
+            }
+            key = new byte[buffer.getInt(KEY_LENGTH_OFFSET)];
+            in.readFully(key);
+            return true;
+        }
+
+        long hash() {
+            return buffer.getLong(HASH_OFFSET);
+        }
+    }
+
+    // Merge the sorted runs into a single sorted file, keeping the record of the newest run for each key. The keys are
+    // written to a separate file first, which is then appended to the records.
+    private void mergeRuns() throws IOException {
+        table.release();
+        table = null;
+        keys.release();
+        keys = null;
+
+        // Newer runs first for the same key
+        PriorityQueue<RunReader> queue = new PriorityQueue<>((r1, r2) -> {
+            int res = compareKeys(r1.hash(), r1.key, r2.hash(), r2.key);
+            return res != 0 ? res : Integer.compare(r2.index, r1.index);
+        });
+        List<RunReader> readers = new ArrayList<>();
+        mergedFile = File.createTempFile("compaction-keys-", ".index", spillDirectory());
+        File keysFile = File.createTempFile("compaction-keys-", ".keys", spillDirectory());
+        try {
+            long keysLength = 0;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mergedFile), FILE_BUFFER_SIZE));
+                    DataOutputStream keysOut = new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(keysFile), FILE_BUFFER_SIZE))) {
+                for (int i = 0; i < runs.size(); i++) {
+                    RunReader reader = new RunReader(i, runs.get(i));
+                    readers.add(reader);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+
+                while (!queue.isEmpty()) {
+                    RunReader newest = queue.poll();
+                    long hash = newest.hash();
+                    byte[] key = newest.key;
+                    if (newest.buffer.getInt(STATE_OFFSET) == STATE_PRESENT) {
+                        newest.buffer.putLong(KEY_OFFSET_OFFSET, keysLength);
+                        out.write(newest.record);
+                        keysOut.write(key);
+                        keysLength += key.length;
+                        mergedCount++;
+                    }
+                    advance(queue, newest);
+                    // Skip the older records of the key
+                    while (!queue.isEmpty() && queue.peek().hash() == hash && Arrays.equals(queue.peek().key, key)) {
+                        advance(queue, queue.poll());
+                    }
+                }
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.in.close();
+                }
+            }
+
+            try (FileChannel out = new FileOutputStream(mergedFile, true).getChannel();
+                    FileChannel in = new FileInputStream(keysFile).getChannel()) {
+                long transferred = 0;
+                while (transferred < keysLength) {
+                    transferred += in.transferTo(transferred, keysLength - transferred, out);
+                }
+            }
+        } finally {
+            deleteFile(keysFile);
+        }
+        mergedKeysPosition = mergedCount * RECORD_SIZE;
+
+        log.info("Merged {} runs of the compaction key index into {}, with {} keys", runs.size(), mergedFile,
+                mergedCount);
+        runs.forEach(CompactionKeyIndex::deleteFile);
+        runs.clear();
+        mergedChannel = new RandomAccessFile(mergedFile, "r").getChannel();
+    }
+
+    private static void advance(PriorityQueue<RunReader> queue, RunReader reader) throws IOException {
+        if (reader.next()) {
+            queue.add(reader);
+        }
+    }
+
+    // Interpolation search of the key in the merged file, alternated with bisection steps to bound the reads
+    private ByteBuffer searchMerged(long hash, byte[] key) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        // Exclusive bounds of the search
+        long low = -1;
+        long high = mergedCount;
+        double lowHash = Long.MIN_VALUE;
+        double highHash = Long.MAX_VALUE;
+        boolean interpolate = true;
+        while (high - low > 1) {
+            long index;
+            if (interpolate && highHash > lowHash) {
+                double fraction = (hash - lowHash) / (highHash - lowHash);
+                index = low + 1 + (long) (fraction * (high - low - 1));
+                index = Math.max(low + 1, Math.min(high - 1, index));
+            } else {
+                index = (low + high) >>> 1;
+            }
+            interpolate = !interpolate;
+
+            readRecord(index, record);
+            int res = Long.compare(record.getLong(HASH_OFFSET), hash);
+            if (res == 0) {
+                res = compareKeys(readMergedKey(record), key);
+            }
+            if (res == 0) {
+                return record;
+            } else if (res < 0) {
+                low = index;
+                lowHash = record.getLong(HASH_OFFSET);
+            } else {
+                high = index;
+                highHash = record.getLong(HASH_OFFSET);
+            }
+        }
+        return null;
+    }
+
+    private void readRecord(long index, ByteBuffer record) throws IOException {
+        record.clear();
+        readFully(record, index * RECORD_SIZE);
+    }
+
+    private byte[] readMergedKey(ByteBuffer record) throws IOException {
+        byte[] key = new byte[record.getInt(KEY_LENGTH_OFFSET)];
+        readFully(ByteBuffer.wrap(key), mergedKeysPosition + record.getLong(KEY_OFFSET_OFFSET));
+        return key;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (mergedChannel.read(buffer, position + buffer.position() - start) < 0) {
+                throw new EOFException("Unexpected end of the compaction key index " + mergedFile);
+            }
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete() && file.exists()) {
+            log.warn("Failed to delete the compaction key index file {}", file);
+        }
+    }
+}
@@ -20,10 +20,17 @@ package org.apache.pulsar.compaction;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.mledger.Position;
 
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.client.api.PulsarClient;
@@ -39,6 +46,10 @@ public abstract class Compactor {
     private static final Logger log = LoggerFactory.getLogger(Compactor.class);
     public static final String COMPACTION_SUBSCRIPTION = "__compaction";
     public static final String COMPACTED_TOPIC_LEDGER_PROPERTY = "CompactedTopicLedger";
+    // Ledgers of the layers below the one of COMPACTED_TOPIC_LEDGER_PROPERTY, suffixed by their index from the bottom
+    public static final String COMPACTED_TOPIC_LAYER_PROPERTY_PREFIX = "CompactedTopicLayer-";
+    // Set when the compacted ledger is a new layer on top of the existing ones
+    public static final String COMPACTED_TOPIC_INCREMENTAL_PROPERTY = "CompactedTopicIncremental";
     static BookKeeper.DigestType COMPACTED_TOPIC_LEDGER_DIGEST_TYPE = BookKeeper.DigestType.CRC32;
     static byte[] COMPACTED_TOPIC_LEDGER_PASSWORD = "".getBytes(UTF_8);
 
@@ -59,12 +70,24 @@ public abstract class Compactor {
 
     public CompletableFuture<Long> compact(String topic) {
         return RawReader.create(pulsar, topic, COMPACTION_SUBSCRIPTION).thenComposeAsync(
-                this::compactAndCloseReader, scheduler);
+                (reader) -> compactAndCloseReader(reader, Optional.empty()), scheduler);
     }
 
-    private CompletableFuture<Long> compactAndCloseReader(RawReader reader) {
+    /**
+     * Compact only the messages published after the compaction horizon, into a new layer on top of the layers of the
+     * compacted view of the topic.
+     */
+    public CompletableFuture<Long> compact(String topic, Position compactionHorizon) {
+        return RawReader.create(pulsar, topic, COMPACTION_SUBSCRIPTION).thenComposeAsync(
+                (reader) -> compactAndCloseReader(reader, Optional.of(compactionHorizon)), scheduler);
+    }
+
+    private CompletableFuture<Long> compactAndCloseReader(RawReader reader, Optional<Position> compactionHorizon) {
         CompletableFuture<Long> promise = new CompletableFuture<>();
-        doCompaction(reader, bk).whenComplete(
+        CompletableFuture<Long> compaction = compactionHorizon.isPresent()
+                ? doIncrementalCompaction(reader, bk, compactionHorizon.get())
+                : doCompaction(reader, bk);
+        compaction.whenComplete(
                 (ledgerId, exception) -> {
                     reader.closeAsync().whenComplete((v, exception2) -> {
                             if (exception2 != null) {
@@ -82,5 +105,43 @@ public abstract class Compactor {
     }
 
     protected abstract CompletableFuture<Long> doCompaction(RawReader reader, BookKeeper bk);
+
+    /**
+     * Compact the messages after the compaction horizon into a new layer. The compactors which don't support it do a
+     * full compaction.
+     */
+    protected CompletableFuture<Long> doIncrementalCompaction(RawReader reader, BookKeeper bk,
+                                                              Position compactionHorizon) {
+        return doCompaction(reader, bk);
+    }
+
+    /**
+     * Returns the ledgers of the layers of the compacted view recorded in the properties of the compaction
+     * subscription, from the bottom one to the top one.
+     */
+    public static List<Long> getCompactedLedgers(Map<String, Long> properties) {
+        if (!properties.containsKey(COMPACTED_TOPIC_LEDGER_PROPERTY)) {
+            return Collections.emptyList();
+        }
+        List<Long> ledgers = new ArrayList<>();
+        for (int i = 0; properties.containsKey(COMPACTED_TOPIC_LAYER_PROPERTY_PREFIX + i); i++) {
+            ledgers.add(properties.get(COMPACTED_TOPIC_LAYER_PROPERTY_PREFIX + i));
+        }
+        ledgers.add(properties.get(COMPACTED_TOPIC_LEDGER_PROPERTY));
+        return ledgers;
+    }
+
+    /**
+     * Returns the properties of the compaction subscription recording the ledgers of the layers of the compacted view,
+     * from the bottom one to the top one.
+     */
+    public static Map<String, Long> getCompactedLedgersProperties(List<Long> ledgers) {
+        Map<String, Long> properties = new HashMap<>();
+        for (int i = 0; i < ledgers.size() - 1; i++) {
+            properties.put(COMPACTED_TOPIC_LAYER_PROPERTY_PREFIX + i, ledgers.get(i));
+        }
+        properties.put(COMPACTED_TOPIC_LEDGER_PROPERTY, ledgers.get(ledgers.size() - 1));
+        return properties;
+    }
 }
 
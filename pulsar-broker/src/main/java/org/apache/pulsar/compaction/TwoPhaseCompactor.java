@@ -22,8 +22,9 @@ import com.google.common.collect.ImmutableMap;
 
 import io.netty.buffer.ByteBuf;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -36,16 +37,20 @@ import java.util.concurrent.TimeoutException;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.BookKeeper;
 import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.Position;
 import org.apache.bookkeeper.mledger.impl.LedgerMetadataUtils;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.broker.ServiceConfiguration;
 import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.RawMessage;
 import org.apache.pulsar.client.api.RawReader;
+import org.apache.pulsar.client.impl.MessageIdImpl;
 import org.apache.pulsar.client.impl.RawBatchConverter;
 import org.apache.pulsar.common.protocol.Commands;
 import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.naming.TopicName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,12 +61,18 @@ import org.slf4j.LoggerFactory;
  *
  * <p>The two passes are required to avoid holding the payloads of each of
  * the latest values in memory, as the payload can be many orders of
- * magnitude larger than a message id.
+ * magnitude larger than a message id. The message ids themselves are held
+ * in a {@link CompactionKeyIndex}, which spills to the local disk beyond
+ * its memory budget.
+ *
+ * <p>An incremental compaction only goes through the messages published
+ * after the compaction horizon, and writes their latest values to a new
+ * layer on top of the existing compacted ledgers. It keeps the deletes of
+ * the keys, which may have values in the layers below.
 */
 public class TwoPhaseCompactor extends Compactor {
     private static final Logger log = LoggerFactory.getLogger(TwoPhaseCompactor.class);
     private static final int MAX_OUTSTANDING = 500;
-    private static final String COMPACTED_TOPIC_LEDGER_PROPERTY = "CompactedTopicLedger";
 
     public TwoPhaseCompactor(ServiceConfiguration conf,
                              PulsarClient pulsar,
@@ -72,12 +83,57 @@ public class TwoPhaseCompactor extends Compactor {
 
     @Override
     protected CompletableFuture<Long> doCompaction(RawReader reader, BookKeeper bk) {
-        return phaseOne(reader).thenCompose(
-                (r) -> phaseTwo(reader, r.from, r.to, r.lastReadId, r.latestForKey, bk));
+        CompactionKeyIndex latestForKey = newKeyIndex();
+        return phaseOne(reader, latestForKey, Optional.empty())
+                .thenApplyAsync((r) -> {
+                    r.latestForKey.seal();
+                    return r;
+                }, scheduler)
+                .thenCompose((r) -> phaseTwo(reader, r.from, r.to, r.lastReadId, r.latestForKey, bk, false))
+                .whenComplete((res, exception) -> latestForKey.close());
+    }
+
+    @Override
+    protected CompletableFuture<Long> doIncrementalCompaction(RawReader reader, BookKeeper bk,
+                                                              Position compactionHorizon) {
+        PositionImpl horizon = (PositionImpl) compactionHorizon;
+        return reader.getLastMessageIdAsync().thenCompose((lastMessageId) -> {
+            if (!isAfterHorizon(lastMessageId, horizon)) {
+                // Nothing to put in a new layer
+                log.info("No message after the compaction horizon {} of {}, doing a full compaction",
+                         horizon, reader.getTopic());
+                return doCompaction(reader, bk);
+            }
+            CompactionKeyIndex latestForKey = newKeyIndex();
+            MessageId horizonId = new MessageIdImpl(horizon.getLedgerId(), horizon.getEntryId(),
+                                                    TopicName.getPartitionIndex(reader.getTopic()));
+            return reader.seekAsync(horizonId)
+                    .thenCompose((v) -> phaseOne(reader, latestForKey, Optional.of(horizon)))
+                    .thenApplyAsync((r) -> {
+                        r.latestForKey.seal();
+                        return r;
+                    }, scheduler)
+                    .thenCompose((r) -> phaseTwo(reader, r.from, r.to, r.lastReadId, r.latestForKey, bk, true))
+                    .whenComplete((res, exception) -> latestForKey.close());
+        });
+    }
+
+    private static boolean isAfterHorizon(MessageId messageId, PositionImpl horizon) {
+        MessageIdImpl id = (MessageIdImpl) messageId;
+        return new PositionImpl(id.getLedgerId(), id.getEntryId()).compareTo(horizon) > 0;
+    }
+
+    private CompactionKeyIndex newKeyIndex() {
+        String spillDirectory = conf.getBrokerServiceCompactionKeyIndexSpillDirectory();
+        if (spillDirectory == null || spillDirectory.isEmpty()) {
+            spillDirectory = System.getProperty("java.io.tmpdir");
+        }
+        return new CompactionKeyIndex(conf.getBrokerServiceCompactionKeyIndexMaxMemoryMB() * 1024L * 1024L,
+                new File(spillDirectory));
     }
 
-    private CompletableFuture<PhaseOneResult> phaseOne(RawReader reader) {
-        Map<String,MessageId> latestForKey = new HashMap<>();
+    private CompletableFuture<PhaseOneResult> phaseOne(RawReader reader, CompactionKeyIndex latestForKey,
+                                                       Optional<PositionImpl> compactionHorizon) {
         CompletableFuture<PhaseOneResult> loopPromise = new CompletableFuture<>();
 
         reader.getLastMessageIdAsync().whenComplete(
@@ -88,7 +144,7 @@ public class TwoPhaseCompactor extends Compactor {
                         log.info("Commencing phase one of compaction for {}, reading to {}",
                                  reader.getTopic(), lastMessageId);
                         phaseOneLoop(reader, Optional.empty(), Optional.empty(), lastMessageId, latestForKey,
-                                loopPromise);
+                                compactionHorizon, loopPromise);
                     }
                 });
         return loopPromise;
@@ -98,7 +154,8 @@ public class TwoPhaseCompactor extends Compactor {
                               Optional<MessageId> firstMessageId,
                               Optional<MessageId> toMessageId,
                               MessageId lastMessageId,
-                              Map<String,MessageId> latestForKey,
+                              CompactionKeyIndex latestForKey,
+                              Optional<PositionImpl> compactionHorizon,
                               CompletableFuture<PhaseOneResult> loopPromise) {
         if (loopPromise.isDone()) {
             return;
@@ -113,6 +170,12 @@ public class TwoPhaseCompactor extends Compactor {
                             return;
                         }
                         MessageId id = m.getMessageId();
+                        if (compactionHorizon.isPresent() && !isAfterHorizon(id, compactionHorizon.get())) {
+                            // Already in the layers below
+                            phaseOneLoop(reader, firstMessageId, toMessageId, lastMessageId, latestForKey,
+                                         compactionHorizon, loopPromise);
+                            return;
+                        }
                         boolean deletedMessage = false;
                         if (RawBatchConverter.isReadableBatch(m)) {
                             try {
@@ -125,7 +188,8 @@ public class TwoPhaseCompactor extends Compactor {
                         } else {
                             Pair<String,Integer> keyAndSize = extractKeyAndSize(m);
                             if (keyAndSize != null) {
-                                if(keyAndSize.getRight() > 0) {
+                                if(keyAndSize.getRight() > 0 || compactionHorizon.isPresent()) {
+                                    // The deletes of an incremental compaction hide the values of the layers below
                                     latestForKey.put(keyAndSize.getLeft(), id);
                                 } else {
                                     deletedMessage = true;
@@ -143,8 +207,11 @@ public class TwoPhaseCompactor extends Compactor {
                                          Optional.ofNullable(first),
                                          Optional.ofNullable(to),
                                          lastMessageId,
-                                         latestForKey, loopPromise);
+                                         latestForKey, compactionHorizon, loopPromise);
                         }
+                    } catch (UncheckedIOException e) {
+                        log.error("Failed to update the key index of the compaction of {}", reader.getTopic(), e);
+                        loopPromise.completeExceptionally(e.getCause());
                     } finally {
                         m.close();
                     }
@@ -161,27 +228,30 @@ public class TwoPhaseCompactor extends Compactor {
     }
 
     private CompletableFuture<Long> phaseTwo(RawReader reader, MessageId from, MessageId to, MessageId lastReadId,
-            Map<String, MessageId> latestForKey, BookKeeper bk) {
+            CompactionKeyIndex latestForKey, BookKeeper bk, boolean incremental) {
         Map<String, byte[]> metadata = LedgerMetadataUtils.buildMetadataForCompactedLedger(reader.getTopic(), to.toByteArray());
         return createLedger(bk, metadata).thenCompose((ledger) -> {
             log.info("Commencing phase two of compaction for {}, from {} to {}, compacting {} keys to ledger {}",
                     reader.getTopic(), from, to, latestForKey.size(), ledger.getId());
-            return phaseTwoSeekThenLoop(reader, from, to, lastReadId, latestForKey, bk, ledger);
+            return phaseTwoSeekThenLoop(reader, from, to, lastReadId, latestForKey, bk, ledger, incremental);
         });
     }
 
     private CompletableFuture<Long> phaseTwoSeekThenLoop(RawReader reader, MessageId from, MessageId to,
-            MessageId lastReadId, Map<String, MessageId> latestForKey, BookKeeper bk, LedgerHandle ledger) {
+            MessageId lastReadId, CompactionKeyIndex latestForKey, BookKeeper bk, LedgerHandle ledger,
+            boolean incremental) {
         CompletableFuture<Long> promise = new CompletableFuture<>();
 
         reader.seekAsync(from).thenCompose((v) -> {
             Semaphore outstanding = new Semaphore(MAX_OUTSTANDING);
             CompletableFuture<Void> loopPromise = new CompletableFuture<Void>();
-            phaseTwoLoop(reader, to, latestForKey, ledger, outstanding, loopPromise);
+            phaseTwoLoop(reader, to, latestForKey, ledger, outstanding, incremental, loopPromise);
             return loopPromise;
         }).thenCompose((v) -> closeLedger(ledger))
-                .thenCompose((v) -> reader.acknowledgeCumulativeAsync(lastReadId,
-                        ImmutableMap.of(COMPACTED_TOPIC_LEDGER_PROPERTY, ledger.getId())))
+                .thenCompose((v) -> reader.acknowledgeCumulativeAsync(lastReadId, incremental
+                        ? ImmutableMap.of(COMPACTED_TOPIC_LEDGER_PROPERTY, ledger.getId(),
+                                          COMPACTED_TOPIC_INCREMENTAL_PROPERTY, 1L)
+                        : ImmutableMap.of(COMPACTED_TOPIC_LEDGER_PROPERTY, ledger.getId())))
                 .whenComplete((res, exception) -> {
                     if (exception != null) {
                         deleteLedger(bk, ledger).whenComplete((res2, exception2) -> {
@@ -198,8 +268,9 @@ public class TwoPhaseCompactor extends Compactor {
         return promise;
     }
 
-    private void phaseTwoLoop(RawReader reader, MessageId to, Map<String, MessageId> latestForKey,
-                              LedgerHandle lh, Semaphore outstanding, CompletableFuture<Void> promise) {
+    private void phaseTwoLoop(RawReader reader, MessageId to, CompactionKeyIndex latestForKey,
+                              LedgerHandle lh, Semaphore outstanding, boolean incremental,
+                              CompletableFuture<Void> promise) {
         reader.readNextAsync().whenCompleteAsync(
                 (m, exception) -> {
                     if (exception != null) {
@@ -210,35 +281,41 @@ public class TwoPhaseCompactor extends Compactor {
                     }
                     MessageId id = m.getMessageId();
                     Optional<RawMessage> messageToAdd = Optional.empty();
-                    if (RawBatchConverter.isReadableBatch(m)) {
-                        try {
-                            messageToAdd = RawBatchConverter.rebatchMessage(
-                                    m, (key, subid) -> latestForKey.get(key).equals(subid));
-                        } catch (IOException ioe) {
-                            log.info("Error decoding batch for message {}. Whole batch will be included in output",
-                                     id, ioe);
-                            messageToAdd = Optional.of(m);
-                        }
-                    } else {
-                        Pair<String,Integer> keyAndSize = extractKeyAndSize(m);
-                        MessageId msg;
-                        if (keyAndSize == null) { // pass through messages without a key
-                            messageToAdd = Optional.of(m);
-                        } else if ((msg = latestForKey.get(keyAndSize.getLeft())) != null
-                                && msg.equals(id)) { // consider message only if present into latestForKey map
-                            if (keyAndSize.getRight() <= 0) {
-                                promise.completeExceptionally(new IllegalArgumentException(
-                                        "Compaction phase found empty record from sorted key-map"));
+                    try {
+                        if (RawBatchConverter.isReadableBatch(m)) {
+                            try {
+                                messageToAdd = RawBatchConverter.rebatchMessage(
+                                        m, (key, subid) -> latestForKey.isLatest(key, subid), incremental);
+                            } catch (IOException ioe) {
+                                log.info("Error decoding batch for message {}. Whole batch will be included in output",
+                                         id, ioe);
+                                messageToAdd = Optional.of(m);
                             }
-                            messageToAdd = Optional.of(m);
                         } else {
-                            m.close();
-                            // Reached to last-id and phase-one found it deleted-message while iterating on ledger so, not
-                            // present under latestForKey. Complete the compaction.
-                            if (to.equals(id)) {
-                                promise.complete(null);
+                            Pair<String,Integer> keyAndSize = extractKeyAndSize(m);
+                            if (keyAndSize == null) { // pass through messages without a key
+                                messageToAdd = Optional.of(m);
+                            } else if (latestForKey.isLatest(keyAndSize.getLeft(), id)) {
+                                // consider message only if it is the latest one of its key
+                                if (keyAndSize.getRight() <= 0 && !incremental) {
+                                    promise.completeExceptionally(new IllegalArgumentException(
+                                            "Compaction phase found empty record from sorted key-map"));
+                                }
+                                messageToAdd = Optional.of(m);
+                            } else {
+                                m.close();
+                                // Reached to last-id and phase-one found it deleted-message while iterating on ledger
+                                // so, not present under latestForKey. Complete the compaction.
+                                if (to.equals(id)) {
+                                    promise.complete(null);
+                                }
                             }
                         }
+                    } catch (UncheckedIOException e) {
+                        log.error("Failed to read the key index of the compaction of {}", reader.getTopic(), e);
+                        m.close();
+                        promise.completeExceptionally(e.getCause());
+                        return;
                     }
 
                     messageToAdd.ifPresent((toAdd) -> {
@@ -263,7 +340,7 @@ public class TwoPhaseCompactor extends Compactor {
                                 promise.completeExceptionally(ie);
                             }
                         });
-                    phaseTwoLoop(reader, to, latestForKey, lh, outstanding, promise);
+                    phaseTwoLoop(reader, to, latestForKey, lh, outstanding, incremental, promise);
                 }, scheduler);
     }
 
@@ -323,7 +400,7 @@ public class TwoPhaseCompactor extends Compactor {
         return bkf;
     }
 
-    private static Pair<String,Integer> extractKeyAndSize(RawMessage m) {
+    static Pair<String,Integer> extractKeyAndSize(RawMessage m) {
         ByteBuf headersAndPayload = m.getHeadersAndPayload();
         MessageMetadata msgMetadata = Commands.parseMessageMetadata(headersAndPayload);
         try {
@@ -345,9 +422,9 @@ public class TwoPhaseCompactor extends Compactor {
         final MessageId from;
         final MessageId to; // last undeleted messageId
         final MessageId lastReadId; // last read messageId
-        final Map<String,MessageId> latestForKey;
+        final CompactionKeyIndex latestForKey;
 
-        PhaseOneResult(MessageId from, MessageId to, MessageId lastReadId, Map<String,MessageId> latestForKey) {
+        PhaseOneResult(MessageId from, MessageId to, MessageId lastReadId, CompactionKeyIndex latestForKey) {
             this.from = from;
             this.to = to;
             this.lastReadId = lastReadId;
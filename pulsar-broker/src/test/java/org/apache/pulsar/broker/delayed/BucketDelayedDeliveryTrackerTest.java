@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.delayed;
+
+import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.retryStrategically;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.netty.util.Timer;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.bookkeeper.client.PulsarMockBookKeeper;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
+import org.apache.pulsar.broker.service.persistent.PersistentDispatcherMultipleConsumers;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.MockZooKeeper;
+import org.apache.zookeeper.ZooKeeper;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BucketDelayedDeliveryTrackerTest {
+
+    private static final String METADATA_PATH = "/delayed-delivery/prop/ns/persistent/topic/sub";
+
+    private MockZooKeeper zooKeeper;
+    private PulsarMockBookKeeper bookKeeper;
+
+    private PersistentDispatcherMultipleConsumers dispatcher;
+    private Timer timer;
+    private AtomicLong clockTime;
+    private Clock clock;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        zooKeeper = MockZooKeeper.newInstance(MoreExecutors.newDirectExecutorService());
+        bookKeeper = new PulsarMockBookKeeper(zooKeeper, MoreExecutors.newDirectExecutorService());
+        dispatcher = mock(PersistentDispatcherMultipleConsumers.class);
+        timer = mock(Timer.class);
+        clockTime = new AtomicLong();
+        clock = mock(Clock.class);
+        when(clock.millis()).then(x -> clockTime.get());
+    }
+
+    @AfterMethod
+    public void cleanup() throws Exception {
+        bookKeeper.close();
+        zooKeeper.close();
+    }
+
+    private BucketDelayedDeliveryTracker newTracker() {
+        return newTracker(zooKeeper);
+    }
+
+    private BucketDelayedDeliveryTracker newTracker(ZooKeeper zooKeeper) {
+        return new BucketDelayedDeliveryTracker(dispatcher, timer, 1, 100, 5, bookKeeper, 1, 1, 1, zooKeeper,
+                METADATA_PATH, clock);
+    }
+
+    @Test
+    public void testSealAndLoadBuckets() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+
+        assertTrue(tracker.addMessage(1, 1, 50));
+        assertTrue(tracker.addMessage(1, 2, 150));
+        assertTrue(tracker.addMessage(1, 3, 160));
+        assertTrue(tracker.addMessage(1, 4, 250));
+        assertTrue(tracker.addMessage(1, 5, 260));
+        assertTrue(bookKeeper.getLedgers().isEmpty());
+
+        // The fifth message due after the next time step seals a bucket of two segments
+        assertTrue(tracker.addMessage(1, 6, 270));
+        assertEquals(bookKeeper.getLedgers().size(), 1);
+        assertNotNull(zooKeeper.exists(METADATA_PATH, false));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 6);
+
+        clockTime.set(60);
+        assertTrue(tracker.hasMessageAvailable());
+        assertEquals(tracker.getScheduledMessages(10), Sets.newHashSet(new PositionImpl(1, 1)));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 5);
+
+        // The first segment is read from the bucket one time step before it's due
+        clockTime.set(155);
+        retryStrategically(test -> tracker.hasMessageAvailable(), 50, 100);
+        assertEquals(tracker.getScheduledMessages(10), Sets.newHashSet(new PositionImpl(1, 2)));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 4);
+
+        clockTime.set(300);
+        retryStrategically(test -> tracker.hasMessageAvailable() && bookKeeper.getLedgers().isEmpty(), 50, 100);
+        assertEquals(tracker.getScheduledMessages(10), Sets.newHashSet(new PositionImpl(1, 3),
+                new PositionImpl(1, 4), new PositionImpl(1, 5), new PositionImpl(1, 6)));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 0);
+        assertFalse(tracker.hasMessageAvailable());
+
+        // Once all the segments are loaded, the bucket is deleted
+        assertTrue(bookKeeper.getLedgers().isEmpty());
+        assertNull(zooKeeper.exists(METADATA_PATH, false));
+        tracker.close();
+    }
+
+    @Test
+    public void testRecoverBuckets() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(tracker.addMessage(1, i, 100 + 100 * i));
+        }
+        assertTrue(tracker.addMessage(1, 6, 700));
+        assertEquals(tracker.getNumberOfDelayedMessages(), 6);
+        tracker.close();
+
+        // The messages of the bucket are recovered, the last one is only tracked again when re-read from the backlog
+        BucketDelayedDeliveryTracker recoveredTracker = newTracker();
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 5);
+
+        // The messages of the bucket are not tracked twice
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(recoveredTracker.addMessage(1, i, 100 + 100 * i));
+        }
+        assertTrue(recoveredTracker.addMessage(1, 6, 700));
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 6);
+
+        clockTime.set(200);
+        retryStrategically(test -> recoveredTracker.hasMessageAvailable(), 50, 100);
+        assertEquals(recoveredTracker.getScheduledMessages(10), Sets.newHashSet(new PositionImpl(1, 1)));
+        recoveredTracker.close();
+
+        // The loaded segments are not recovered again
+        BucketDelayedDeliveryTracker reloadedTracker = newTracker();
+        assertEquals(reloadedTracker.getNumberOfDelayedMessages(), 4);
+        assertEquals(reloadedTracker.getScheduledMessages(10), Collections.emptySet());
+
+        clockTime.set(1000);
+        retryStrategically(test -> reloadedTracker.hasMessageAvailable() && bookKeeper.getLedgers().isEmpty(), 50,
+                100);
+        assertEquals(reloadedTracker.getScheduledMessages(10), Sets.newHashSet(new PositionImpl(1, 2),
+                new PositionImpl(1, 3), new PositionImpl(1, 4), new PositionImpl(1, 5)));
+        reloadedTracker.close();
+    }
+
+    @Test
+    public void testRecoverBucketsAsynchronously() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        for (int i = 1; i <= 6; i++) {
+            assertTrue(tracker.addMessage(1, i, 100 + 100 * i));
+        }
+        tracker.close();
+
+        // Hold the read of the buckets
+        List<Runnable> pendingReads = new ArrayList<>();
+        MockZooKeeper slowZooKeeper = spy(zooKeeper);
+        doAnswer(invocation -> {
+            pendingReads.add(() -> {
+                try {
+                    invocation.callRealMethod();
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            });
+            return null;
+        }).when(slowZooKeeper).getData(eq(METADATA_PATH), anyBoolean(), any(DataCallback.class), any());
+
+        BucketDelayedDeliveryTracker recoveredTracker = newTracker(slowZooKeeper);
+        assertEquals(pendingReads.size(), 1);
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 0);
+
+        // The messages re-read from the backlog meanwhile are tracked in memory, without sealing a bucket that would
+        // drop the recovered ones
+        for (int i = 1; i <= 6; i++) {
+            assertTrue(recoveredTracker.addMessage(1, i, 100 + 100 * i));
+        }
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 6);
+        assertEquals(bookKeeper.getLedgers().size(), 1);
+
+        // Once the buckets are read, the messages they hold are not tracked twice
+        pendingReads.forEach(Runnable::run);
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 6);
+
+        clockTime.set(1000);
+        retryStrategically(test -> recoveredTracker.hasMessageAvailable() && bookKeeper.getLedgers().isEmpty(), 50,
+                100);
+        assertEquals(recoveredTracker.getScheduledMessages(10).size(), 6);
+        assertEquals(recoveredTracker.getNumberOfDelayedMessages(), 0);
+        recoveredTracker.close();
+    }
+
+    @Test
+    public void testDeleteBuckets() throws Exception {
+        BucketDelayedDeliveryTracker tracker = newTracker();
+        for (int i = 1; i <= 6; i++) {
+            assertTrue(tracker.addMessage(1, i, 100 + 100 * i));
+        }
+        assertEquals(bookKeeper.getLedgers().size(), 1);
+        tracker.close();
+
+        BucketDelayedDeliveryTracker.deleteBuckets(bookKeeper, zooKeeper, METADATA_PATH).get();
+        assertTrue(bookKeeper.getLedgers().isEmpty());
+        assertNull(zooKeeper.exists(METADATA_PATH, false));
+        assertNull(zooKeeper.exists("/delayed-delivery/prop/ns/persistent/topic", false));
+
+        // Nothing left to delete
+        BucketDelayedDeliveryTracker.deleteBuckets(bookKeeper, zooKeeper, METADATA_PATH).get();
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ConsistentHashingStickyKeyConsumerSelectorTest {
+
+    private static final int KEYS = 100_000;
+
+    private static Consumer newConsumer(String name) {
+        Consumer consumer = mock(Consumer.class);
+        when(consumer.consumerName()).thenReturn(name);
+        return consumer;
+    }
+
+    private static Consumer[] selectAll(ConsistentHashingStickyKeyConsumerSelector selector) {
+        Consumer[] selected = new Consumer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            selected[i] = selector.select(("key-" + i).getBytes());
+        }
+        return selected;
+    }
+
+    @Test
+    public void testConsumerSelect() {
+        ConsistentHashingStickyKeyConsumerSelector selector = new ConsistentHashingStickyKeyConsumerSelector(100);
+        Assert.assertNull(selector.select("anyKey".getBytes()));
+
+        Consumer consumer1 = newConsumer("consumer-1");
+        selector.addConsumer(consumer1);
+        Assert.assertEquals(selector.select("anyKey".getBytes()), consumer1);
+        Assert.assertEquals(selector.select(0), consumer1);
+        Assert.assertEquals(selector.select(Integer.MAX_VALUE), consumer1);
+
+        Consumer consumer2 = newConsumer("consumer-2");
+        selector.addConsumer(consumer2);
+        Consumer selected = selector.select("anyKey".getBytes());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(selector.select("anyKey".getBytes()), selected);
+        }
+
+        selector.removeConsumer(consumer1);
+        selector.removeConsumer(consumer2);
+        Assert.assertNull(selector.select("anyKey".getBytes()));
+    }
+
+    @Test
+    public void testEvenDistribution() {
+        ConsistentHashingStickyKeyConsumerSelector selector = new ConsistentHashingStickyKeyConsumerSelector(100);
+        int consumersCount = 20;
+        for (int i = 0; i < consumersCount; i++) {
+            selector.addConsumer(newConsumer("consumer-" + i));
+        }
+
+        Map<Consumer, Integer> keysPerConsumer = new HashMap<>();
+        for (Consumer consumer : selectAll(selector)) {
+            keysPerConsumer.merge(consumer, 1, Integer::sum);
+        }
+        Assert.assertEquals(keysPerConsumer.size(), consumersCount);
+        int expected = KEYS / consumersCount;
+        keysPerConsumer.values().forEach(keys -> {
+            Assert.assertTrue(keys > expected * 0.6 && keys < expected * 1.4, "unbalanced consumer with " + keys);
+        });
+    }
+
+    @Test
+    public void testKeysMovedOnMembershipChange() {
+        ConsistentHashingStickyKeyConsumerSelector selector = new ConsistentHashingStickyKeyConsumerSelector(100);
+        List<Consumer> consumers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Consumer consumer = newConsumer("consumer-" + i);
+            consumers.add(consumer);
+            selector.addConsumer(consumer);
+        }
+        Consumer[] before = selectAll(selector);
+
+        // Only keys taken by the new consumer move, about 1/11 of them
+        Consumer newConsumer = newConsumer("consumer-10");
+        selector.addConsumer(newConsumer);
+        Consumer[] afterAdd = selectAll(selector);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (afterAdd[i] != before[i]) {
+                Assert.assertEquals(afterAdd[i], newConsumer);
+                moved++;
+            }
+        }
+        Assert.assertTrue(moved > 0 && moved < KEYS * 2 / 11, "moved " + moved + " keys");
+
+        // Only keys of the removed consumer move, and the others get back their previous keys
+        selector.removeConsumer(newConsumer);
+        Assert.assertEquals(selectAll(selector), before);
+
+        Consumer removed = consumers.get(3);
+        selector.removeConsumer(removed);
+        Consumer[] afterRemove = selectAll(selector);
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i] != removed) {
+                Assert.assertEquals(afterRemove[i], before[i]);
+            } else {
+                Assert.assertNotEquals(afterRemove[i], removed);
+            }
+        }
+    }
+
+    @Test
+    public void testConsumersWithSameName() {
+        ConsistentHashingStickyKeyConsumerSelector selector = new ConsistentHashingStickyKeyConsumerSelector(100);
+        Consumer consumer1 = newConsumer("consumer");
+        Consumer consumer2 = newConsumer("consumer");
+        selector.addConsumer(consumer1);
+        selector.addConsumer(consumer2);
+
+        Map<Consumer, Integer> keysPerConsumer = new HashMap<>();
+        for (Consumer consumer : selectAll(selector)) {
+            keysPerConsumer.merge(consumer, 1, Integer::sum);
+        }
+        Assert.assertEquals(keysPerConsumer.size(), 2);
+
+        selector.removeConsumer(consumer1);
+        for (Consumer consumer : selectAll(selector)) {
+            Assert.assertEquals(consumer, consumer2);
+        }
+    }
+}
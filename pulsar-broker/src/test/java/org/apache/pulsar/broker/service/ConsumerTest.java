@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.InitialPosition;
+import org.apache.pulsar.common.api.proto.PulsarApi.CommandSubscribe.SubType;
+import org.apache.pulsar.common.protocol.Commands;
+import org.testng.annotations.Test;
+
+public class ConsumerTest {
+
+    @Test
+    public void testCoalescedWriteFailureReleasesResources() throws Exception {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(1000, MoreExecutors.directExecutor());
+        BrokerService brokerService = mock(BrokerService.class);
+        when(brokerService.getDispatchMemoryLimiter()).thenReturn(limiter);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+
+        ServerCnx cnx = mock(ServerCnx.class);
+        doReturn(brokerService).when(cnx).getBrokerService();
+        doReturn(ctx).when(cnx).ctx();
+        doReturn(new InetSocketAddress("localhost", 1234)).when(cnx).clientAddress();
+        doReturn(Commands.getCurrentProtocolVersion()).when(cnx).getRemoteEndpointProtocolVersion();
+        doReturn(true).when(cnx).isCoalesceDispatchWrites();
+        doReturn(true).when(cnx).isBatchMessageCompatibleVersion();
+        // Run the coalesced writes right away
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(cnx).addDispatchWrite(any());
+
+        Consumer consumer = new Consumer(mock(Subscription.class), SubType.Shared, "persistent://prop/ns/topic", 1, 0,
+                "consumer", 50000, cnx, "role", Collections.emptyMap(), false, InitialPosition.Latest, null);
+
+        // The write fails while framing the second message
+        RedeliveryTracker redeliveryTracker = mock(RedeliveryTracker.class);
+        when(redeliveryTracker.contains(any())).thenReturn(false).thenThrow(new RuntimeException("injected"));
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            entries.add(EntryImpl.create(1, i, new byte[100]));
+        }
+        List<Entry> sentEntries = new ArrayList<>(entries);
+        EntryBatchSizes batchSizes = EntryBatchSizes.get(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            batchSizes.setBatchSize(i, 1);
+        }
+
+        ChannelPromise writePromise = consumer.sendMessages(sentEntries, batchSizes, 3, 300, redeliveryTracker);
+
+        // The promise is failed, which gives back the memory held by the messages
+        assertTrue(writePromise.isDone());
+        assertFalse(writePromise.isSuccess());
+        assertEquals(writePromise.cause().getMessage(), "injected");
+        assertEquals(limiter.getUsedBytes(), 0);
+        assertFalse(limiter.isLimitReached());
+
+        // All the entries are released, none of the messages reached the channel
+        for (Entry entry : entries) {
+            assertEquals(((EntryImpl) entry).refCnt(), 0);
+        }
+        channel.flush();
+        assertTrue(channel.outboundMessages().isEmpty());
+        channel.finishAndReleaseAll();
+    }
+}
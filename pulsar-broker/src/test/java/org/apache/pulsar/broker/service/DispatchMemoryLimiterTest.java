@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.Test;
+
+public class DispatchMemoryLimiterTest {
+
+    @Test
+    public void testDisabled() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(0, MoreExecutors.directExecutor());
+        assertFalse(limiter.isEnabled());
+        limiter.acquire(1024);
+        assertFalse(limiter.isLimitReached());
+        assertEquals(limiter.getUsedBytes(), 0);
+    }
+
+    @Test
+    public void testPausedReadsResumedInOrder() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(100, MoreExecutors.directExecutor());
+        limiter.acquire(60);
+        assertFalse(limiter.isLimitReached());
+        limiter.acquire(60);
+        assertTrue(limiter.isLimitReached());
+
+        List<Integer> resumed = new ArrayList<>();
+        limiter.pauseRead(() -> resumed.add(1));
+        limiter.pauseRead(() -> resumed.add(2));
+        assertTrue(resumed.isEmpty());
+        assertEquals(limiter.getPausedReadsCount(), 2);
+
+        // Still over the limit
+        limiter.release(10);
+        assertTrue(resumed.isEmpty());
+
+        limiter.release(60);
+        assertEquals(resumed, Lists.newArrayList(1, 2));
+        assertEquals(limiter.getPausedReadsCount(), 0);
+        assertEquals(limiter.getUsedBytes(), 50);
+    }
+
+    @Test
+    public void testReadNotPausedUnderLimit() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(100, MoreExecutors.directExecutor());
+        List<Integer> resumed = new ArrayList<>();
+
+        // The memory was released between the check of the limit and the pause of the read
+        limiter.pauseRead(() -> resumed.add(1));
+        assertEquals(resumed.size(), 1);
+        assertEquals(limiter.getPausedReadsCount(), 0);
+    }
+
+    @Test
+    public void testTryReserve() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(100, MoreExecutors.directExecutor());
+        assertTrue(limiter.tryReserve(60));
+        assertTrue(limiter.tryReserve(60));
+        assertEquals(limiter.getUsedBytes(), 120);
+        assertFalse(limiter.tryReserve(10));
+
+        limiter.release(60);
+        limiter.pauseRead(80, () -> {});
+        limiter.release(50);
+        assertEquals(limiter.getUsedBytes(), 90);
+
+        // The reads paused earlier come first
+        DispatchMemoryLimiter pausedLimiter = new DispatchMemoryLimiter(100, command -> {});
+        pausedLimiter.tryReserve(100);
+        pausedLimiter.pauseRead(60, () -> {});
+        pausedLimiter.release(50);
+        assertEquals(pausedLimiter.getPausedReadsCount(), 1);
+        assertFalse(pausedLimiter.tryReserve(10));
+    }
+
+    @Test
+    public void testPausedReadsResumedWithinBudget() {
+        DispatchMemoryLimiter limiter = new DispatchMemoryLimiter(100, MoreExecutors.directExecutor());
+        assertTrue(limiter.tryReserve(100));
+
+        List<Integer> resumed = new ArrayList<>();
+        limiter.pauseRead(40, () -> resumed.add(1));
+        limiter.pauseRead(40, () -> resumed.add(2));
+        limiter.pauseRead(40, () -> resumed.add(3));
+
+        // The memory released only covers the first read, which is reserved before it is resumed
+        limiter.release(50);
+        assertEquals(resumed, Lists.newArrayList(1));
+        assertEquals(limiter.getUsedBytes(), 90);
+        assertEquals(limiter.getPausedReadsCount(), 2);
+
+        limiter.release(90);
+        assertEquals(resumed, Lists.newArrayList(1, 2, 3));
+        assertEquals(limiter.getUsedBytes(), 80);
+        assertEquals(limiter.getPausedReadsCount(), 0);
+
+        // A read larger than the budget is resumed once no memory is in use
+        limiter.release(70);
+        limiter.pauseRead(200, () -> resumed.add(4));
+        assertEquals(resumed.size(), 3);
+        limiter.release(10);
+        assertEquals(resumed, Lists.newArrayList(1, 2, 3, 4));
+        assertEquals(limiter.getUsedBytes(), 200);
+    }
+}
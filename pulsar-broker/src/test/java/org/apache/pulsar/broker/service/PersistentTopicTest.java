@@ -45,6 +45,7 @@ import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
@@ -1412,6 +1413,31 @@ public class PersistentTopicTest {
     }
 
 
+    @Test
+    public void testCompactorSubscriptionIncremental() throws Exception {
+        long ledgerId = 0xc0bfefeL;
+        long layerLedgerId = 0xc0bfeffL;
+        doAnswer((invokactionOnMock) -> ImmutableMap.of(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY, ledgerId))
+                .when(cursorMock).getProperties();
+
+        PersistentTopic topic = new PersistentTopic(successTopicName, ledgerMock, brokerService);
+        CompactedTopic compactedTopic = mock(CompactedTopic.class);
+        PersistentSubscription sub = new CompactorSubscription(topic, compactedTopic,
+                                                               Compactor.COMPACTION_SUBSCRIPTION,
+                                                               cursorMock);
+        PositionImpl position = new PositionImpl(1, 1);
+        sub.acknowledgeMessage(Collections.singletonList(position), AckType.Cumulative,
+                ImmutableMap.of(Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY, layerLedgerId,
+                                Compactor.COMPACTED_TOPIC_INCREMENTAL_PROPERTY, 1L));
+
+        // The new layer is added on top of the existing one
+        Map<String, Long> expectedProperties = ImmutableMap.of(
+                Compactor.COMPACTED_TOPIC_LAYER_PROPERTY_PREFIX + 0, ledgerId,
+                Compactor.COMPACTED_TOPIC_LEDGER_PROPERTY, layerLedgerId);
+        verify(cursorMock, Mockito.times(1)).asyncMarkDelete(eq(position), eq(expectedProperties), any(), any());
+        verify(compactedTopic, Mockito.times(1)).newCompactedLayers(position, Arrays.asList(ledgerId, layerLedgerId));
+    }
+
     @Test
     public void testCompactorSubscriptionUpdatedOnInit() throws Exception {
         long ledgerId = 0xc0bfefeL;
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.retryStrategically;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Cleanup;
+
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.common.naming.TopicName;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Replication of the topics of a bundle sharing a budget of in-flight messages.
+ */
+public class ReplicatorBundleLimitTest extends ReplicatorTestBase {
+
+    @Override
+    @BeforeClass(timeOut = 300000)
+    void setup() throws Exception {
+        config1.setReplicationBundleMaxInFlightSizeMB(1);
+        config2.setReplicationBundleMaxInFlightSizeMB(1);
+        config3.setReplicationBundleMaxInFlightSizeMB(1);
+        super.setup();
+    }
+
+    @Override
+    @AfterClass(timeOut = 300000)
+    void shutdown() throws Exception {
+        super.shutdown();
+    }
+
+    @Test(timeOut = 60000)
+    public void testReplicationWithBundleLimit() throws Exception {
+        final int topics = 4;
+        final int messages = 30;
+        // A read of 30 messages of 20KB by each of the 4 replicators exceeds the limit of 1MB
+        final byte[] payload = new byte[20 * 1024];
+
+        @Cleanup
+        PulsarClient client1 = PulsarClient.builder().serviceUrl(url1.toString()).statsInterval(0, TimeUnit.SECONDS)
+                .build();
+        @Cleanup
+        PulsarClient client2 = PulsarClient.builder().serviceUrl(url2.toString()).statsInterval(0, TimeUnit.SECONDS)
+                .build();
+
+        List<TopicName> destinations = new ArrayList<>();
+        List<Consumer<byte[]>> consumers = new ArrayList<>();
+        for (int t = 0; t < topics; t++) {
+            TopicName dest = TopicName
+                    .get(String.format("persistent://pulsar/ns/repltopic-bundle-limit-%d-%d", t, System.nanoTime()));
+            destinations.add(dest);
+            consumers.add(client2.newConsumer().topic(dest.toString()).subscriptionName("sub-id").subscribe());
+        }
+
+        for (TopicName dest : destinations) {
+            @Cleanup
+            Producer<byte[]> producer = client1.newProducer().topic(dest.toString()).enableBatching(false).create();
+            for (int i = 0; i < messages; i++) {
+                producer.sendAsync(payload);
+            }
+            producer.flush();
+        }
+
+        // The topics of the namespace have a single bundle, and share its limiter for each remote cluster
+        DispatchMemoryLimiter limiter = ns1.getReplicationBundleLimiter(destinations.get(0), "r2");
+        assertNotNull(limiter);
+        assertEquals(limiter.getMaxBytes(), 1024 * 1024);
+        assertSame(ns1.getReplicationBundleLimiter(destinations.get(topics - 1), "r2"), limiter);
+        assertNotSame(ns1.getReplicationBundleLimiter(destinations.get(0), "r3"), limiter);
+
+        for (Consumer<byte[]> consumer : consumers) {
+            for (int i = 0; i < messages; i++) {
+                Message<byte[]> msg = consumer.receive(10, TimeUnit.SECONDS);
+                assertNotNull(msg);
+                assertEquals(msg.getData().length, payload.length);
+                consumer.acknowledge(msg);
+            }
+            consumer.close();
+        }
+
+        // All the messages were persisted by the remote clusters, which released the budget
+        retryStrategically(test -> limiter.getUsedBytes() == 0 && limiter.getPausedReadsCount() == 0, 10, 200);
+        assertEquals(limiter.getUsedBytes(), 0);
+        assertTrue(limiter.getPausedReadsCount() == 0);
+    }
+
+    /**
+     * The messages pending on an unreachable cluster hold its budget, while the replication to the other clusters
+     * keeps going.
+     */
+    @Test(timeOut = 60000, priority = 1)
+    public void testReplicationWithUnreachableCluster() throws Exception {
+        final int messages = 80;
+        final byte[] payload = new byte[20 * 1024];
+
+        @Cleanup
+        PulsarClient client1 = PulsarClient.builder().serviceUrl(url1.toString()).statsInterval(0, TimeUnit.SECONDS)
+                .build();
+        @Cleanup
+        PulsarClient client2 = PulsarClient.builder().serviceUrl(url2.toString()).statsInterval(0, TimeUnit.SECONDS)
+                .build();
+        PulsarClient client3 = PulsarClient.builder().serviceUrl(url3.toString()).statsInterval(0, TimeUnit.SECONDS)
+                .build();
+
+        TopicName dest = TopicName
+                .get(String.format("persistent://pulsar/ns/repltopic-unreachable-cluster-%d", System.nanoTime()));
+        @Cleanup
+        Consumer<byte[]> consumer2 = client2.newConsumer().topic(dest.toString()).subscriptionName("sub-id")
+                .subscribe();
+        Consumer<byte[]> consumer3 = client3.newConsumer().topic(dest.toString()).subscriptionName("sub-id")
+                .subscribe();
+        @Cleanup
+        Producer<byte[]> producer = client1.newProducer().topic(dest.toString()).enableBatching(false).create();
+
+        // Both remote clusters get replicated to
+        producer.send(payload);
+        assertNotNull(consumer2.receive(10, TimeUnit.SECONDS));
+        assertNotNull(consumer3.receive(10, TimeUnit.SECONDS));
+        consumer3.close();
+        client3.close();
+
+        pulsar3.close();
+
+        // The messages that were being sent to r3 when it went away are never released, and fill its budget
+        DispatchMemoryLimiter limiter2 = ns1.getReplicationBundleLimiter(dest, "r2");
+        DispatchMemoryLimiter limiter3 = ns1.getReplicationBundleLimiter(dest, "r3");
+        limiter3.acquire(limiter3.getMaxBytes());
+        assertTrue(limiter3.isLimitReached());
+
+        // 80 messages of 20KB exceed the limit of 1MB
+        for (int i = 0; i < messages; i++) {
+            producer.sendAsync(payload);
+        }
+        producer.flush();
+
+        for (int i = 0; i < messages; i++) {
+            Message<byte[]> msg = consumer2.receive(10, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            consumer2.acknowledge(msg);
+        }
+
+        retryStrategically(test -> limiter2.getUsedBytes() == 0, 10, 200);
+        assertEquals(limiter2.getUsedBytes(), 0);
+        assertTrue(limiter3.isLimitReached());
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.Cleanup;
+
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.common.naming.TopicName;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Replication of messages whose payload is forwarded with the checksum derived from the stored one.
+ */
+public class ReplicatorPayloadPassThroughTest extends ReplicatorTestBase {
+
+    @Override
+    @BeforeClass(timeOut = 300000)
+    void setup() throws Exception {
+        config1.setReplicationPayloadPassThroughEnabled(true);
+        config2.setReplicationPayloadPassThroughEnabled(true);
+        config3.setReplicationPayloadPassThroughEnabled(true);
+        super.setup();
+    }
+
+    @Override
+    @AfterClass(timeOut = 300000)
+    void shutdown() throws Exception {
+        super.shutdown();
+    }
+
+    @DataProvider(name = "batchingAndCompression")
+    public Object[][] batchingAndCompression() {
+        return new Object[][] {
+                { false, CompressionType.NONE },
+                { true, CompressionType.NONE },
+                { true, CompressionType.LZ4 } };
+    }
+
+    @Test(dataProvider = "batchingAndCompression", timeOut = 60000)
+    public void testReplication(boolean batching, CompressionType compressionType) throws Exception {
+        final TopicName dest = TopicName
+                .get(String.format("persistent://pulsar/ns/repltopic-passthrough-%d", System.nanoTime()));
+        final int messages = 50;
+
+        @Cleanup
+        PulsarClient client1 = PulsarClient.builder().serviceUrl(url1.toString()).statsInterval(0, TimeUnit.SECONDS)
+                .build();
+        @Cleanup
+        PulsarClient client2 = PulsarClient.builder().serviceUrl(url2.toString()).statsInterval(0, TimeUnit.SECONDS)
+                .build();
+
+        @Cleanup
+        Consumer<byte[]> consumer = client2.newConsumer().topic(dest.toString()).subscriptionName("sub-id")
+                .subscribe();
+        @Cleanup
+        Producer<byte[]> producer = client1.newProducer().topic(dest.toString()).enableBatching(batching)
+                .batchingMaxMessages(10).batchingMaxPublishDelay(1, TimeUnit.SECONDS)
+                .compressionType(compressionType).create();
+
+        for (int i = 0; i < messages; i++) {
+            producer.sendAsync(("test-" + i).getBytes());
+        }
+        producer.flush();
+
+        for (int i = 0; i < messages; i++) {
+            Message<byte[]> msg = consumer.receive(10, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertEquals(new String(msg.getData()), "test-" + i);
+            assertEquals(msg.getReplicatedFrom(), "r1");
+            consumer.acknowledge(msg);
+        }
+    }
+}
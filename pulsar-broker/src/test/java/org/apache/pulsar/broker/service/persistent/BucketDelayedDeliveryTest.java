@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pulsar.broker.delayed.BucketDelayedDeliveryTrackerFactory;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerConsumerBase;
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.SubscriptionType;
+import org.apache.pulsar.common.naming.TopicName;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class BucketDelayedDeliveryTest extends ProducerConsumerBase {
+
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        conf.setDelayedDeliveryTrackerFactoryClassName(BucketDelayedDeliveryTrackerFactory.class.getName());
+        conf.setDelayedDeliveryBucketTimeStepMillis(1000);
+        conf.setDelayedDeliveryBucketMaxMessagesInMemory(5);
+        super.internalSetup();
+        super.producerBaseSetup();
+    }
+
+    @Override
+    @AfterClass
+    public void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @Test
+    public void testDeleteBucketsWithSubscription() throws Exception {
+        String topic = "persistent://my-property/my-ns/testDeleteBucketsWithSubscription-" + System.nanoTime();
+        Set<Long> bucketLedgers = publishDelayedMessages(topic, "sub");
+        String metadataPath = metadataPath(topic, "sub");
+
+        admin.topics().deleteSubscription(topic, "sub");
+
+        assertTrue(retryStrategically(test -> !bucketsExist(metadataPath, bucketLedgers), 50, 100));
+    }
+
+    @Test
+    public void testDeleteBucketsWithTopic() throws Exception {
+        String topic = "persistent://my-property/my-ns/testDeleteBucketsWithTopic-" + System.nanoTime();
+        Set<Long> bucketLedgers = publishDelayedMessages(topic, "sub");
+        String metadataPath = metadataPath(topic, "sub");
+
+        admin.topics().delete(topic);
+
+        assertTrue(retryStrategically(test -> !bucketsExist(metadataPath, bucketLedgers), 50, 100));
+        assertNull(mockZookKeeper.exists(metadataPath.substring(0, metadataPath.lastIndexOf('/')), false));
+    }
+
+    /**
+     * Publish enough delayed messages to a shared subscription for the tracker to seal buckets and return the ledgers
+     * holding them.
+     */
+    private Set<Long> publishDelayedMessages(String topic, String subscription) throws Exception {
+        Consumer<String> consumer = pulsarClient.newConsumer(Schema.STRING)
+                .topic(topic)
+                .subscriptionName(subscription)
+                .subscriptionType(SubscriptionType.Shared)
+                .subscribe();
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .create();
+        Set<Long> ledgers = new HashSet<>(mockBookKeeper.getLedgers());
+
+        for (int i = 0; i < 20; i++) {
+            producer.newMessage()
+                    .value("msg-" + i)
+                    .deliverAfter(1, TimeUnit.HOURS)
+                    .sendAsync();
+        }
+        producer.flush();
+
+        String metadataPath = metadataPath(topic, subscription);
+        assertTrue(retryStrategically(test -> {
+            try {
+                return mockZookKeeper.exists(metadataPath, false) != null;
+            } catch (Exception e) {
+                return false;
+            }
+        }, 50, 100));
+        assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+
+        Set<Long> bucketLedgers = new HashSet<>(mockBookKeeper.getLedgers());
+        bucketLedgers.removeAll(ledgers);
+        assertFalse(bucketLedgers.isEmpty());
+
+        producer.close();
+        consumer.close();
+        return bucketLedgers;
+    }
+
+    private boolean bucketsExist(String metadataPath, Set<Long> bucketLedgers) {
+        try {
+            Set<Long> ledgers = mockBookKeeper.getLedgers();
+            return mockZookKeeper.exists(metadataPath, false) != null
+                    || bucketLedgers.stream().anyMatch(ledgers::contains);
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private static String metadataPath(String topic, String subscription) {
+        return "/delayed-delivery/" + TopicName.get(topic).getPersistenceNamingEncoding() + "/" + subscription;
+    }
+}
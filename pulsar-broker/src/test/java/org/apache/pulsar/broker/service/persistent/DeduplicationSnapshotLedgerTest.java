@@ -0,0 +1,292 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.PulsarMockBookKeeper;
+import org.apache.pulsar.common.util.collections.ConcurrentOpenHashMap;
+import org.apache.zookeeper.MockZooKeeper;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DeduplicationSnapshotLedgerTest {
+
+    private MockZooKeeper zooKeeper;
+    private PulsarMockBookKeeper bookKeeper;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        zooKeeper = MockZooKeeper.newInstance(MoreExecutors.newDirectExecutorService());
+        bookKeeper = new PulsarMockBookKeeper(zooKeeper, MoreExecutors.newDirectExecutorService());
+    }
+
+    @AfterMethod
+    public void cleanup() throws Exception {
+        bookKeeper.close();
+        zooKeeper.close();
+    }
+
+    private DeduplicationSnapshotLedger newSnapshotLedger(int maxNumberOfProducers) {
+        return new DeduplicationSnapshotLedger("topic", bookKeeper, 1, 1, 1, maxNumberOfProducers);
+    }
+
+    private Map<String, Long> recover(long ledgerId) throws Exception {
+        Map<String, Long> sequenceIds = new HashMap<>();
+        newSnapshotLedger(100).recover(ledgerId, sequenceIds::put).get();
+        return sequenceIds;
+    }
+
+    private static Map<String, Long> toMap(ConcurrentOpenHashMap<String, Long> sequenceIds) {
+        Map<String, Long> map = new HashMap<>();
+        sequenceIds.forEach(map::put);
+        return map;
+    }
+
+    private void update(DeduplicationSnapshotLedger snapshotLedger, ConcurrentOpenHashMap<String, Long> sequenceIds,
+            String producerName, long sequenceId) {
+        sequenceIds.put(producerName, sequenceId);
+        snapshotLedger.producerUpdated(producerName);
+    }
+
+    @Test
+    public void testDeltaSnapshots() throws Exception {
+        DeduplicationSnapshotLedger snapshotLedger = newSnapshotLedger(100);
+        ConcurrentOpenHashMap<String, Long> sequenceIds = new ConcurrentOpenHashMap<>();
+
+        // The first snapshot is a full one
+        update(snapshotLedger, sequenceIds, "p1", 1);
+        update(snapshotLedger, sequenceIds, "p2", 2);
+        long ledgerId = snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+
+        // The next ones are appended to the same ledger
+        update(snapshotLedger, sequenceIds, "p1", 10);
+        update(snapshotLedger, sequenceIds, "p3", 3);
+        assertEquals(snapshotLedger.writeSnapshot(sequenceIds, 0).get().longValue(), ledgerId);
+
+        sequenceIds.remove("p2");
+        snapshotLedger.producerRemoved("p2");
+        update(snapshotLedger, sequenceIds, "p4", 4);
+        assertEquals(snapshotLedger.writeSnapshot(sequenceIds, 0).get().longValue(), ledgerId);
+
+        // A snapshot without updates is not written
+        assertEquals(snapshotLedger.writeSnapshot(sequenceIds, 0).get().longValue(), ledgerId);
+
+        // A removed producer gets a new id when it publishes again
+        sequenceIds.remove("p3");
+        snapshotLedger.producerRemoved("p3");
+        assertEquals(snapshotLedger.writeSnapshot(sequenceIds, 0).get().longValue(), ledgerId);
+        update(snapshotLedger, sequenceIds, "p3", 30);
+        assertEquals(snapshotLedger.writeSnapshot(sequenceIds, 0).get().longValue(), ledgerId);
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("p1", 10L);
+        expected.put("p3", 30L);
+        expected.put("p4", 4L);
+        // Reading the snapshots fences the ledger
+        assertEquals(recover(ledgerId), expected);
+        assertEquals(bookKeeper.getLedgers(), Collections.singleton(ledgerId));
+    }
+
+    @Test
+    public void testFullSnapshotInNewLedger() throws Exception {
+        DeduplicationSnapshotLedger snapshotLedger = newSnapshotLedger(10000);
+        ConcurrentOpenHashMap<String, Long> sequenceIds = new ConcurrentOpenHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            update(snapshotLedger, sequenceIds, "p" + i, i);
+        }
+        long firstLedgerId = snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+        snapshotLedger.snapshotPersisted(firstLedgerId);
+
+        // The deltas hold more records than there are producers
+        long ledgerId = firstLedgerId;
+        long sequenceId = 10;
+        while (ledgerId == firstLedgerId) {
+            for (int i = 0; i < 10; i++) {
+                update(snapshotLedger, sequenceIds, "p" + i, sequenceId++);
+            }
+            ledgerId = snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+        }
+        assertTrue(sequenceId > 1000);
+        assertEquals(recover(ledgerId), toMap(sequenceIds));
+
+        // The previous ledger is deleted once the cursor points to the new one
+        assertEquals(bookKeeper.getLedgers(), Sets.newHashSet(firstLedgerId, ledgerId));
+        snapshotLedger.snapshotPersisted(ledgerId);
+        assertEquals(bookKeeper.getLedgers(), Collections.singleton(ledgerId));
+
+        snapshotLedger.delete();
+        assertTrue(bookKeeper.getLedgers().isEmpty());
+    }
+
+    @Test
+    public void testRecoveryAndExpiration() throws Exception {
+        DeduplicationSnapshotLedger snapshotLedger = newSnapshotLedger(100);
+        ConcurrentOpenHashMap<String, Long> sequenceIds = new ConcurrentOpenHashMap<>();
+        update(snapshotLedger, sequenceIds, "p1", 1);
+        update(snapshotLedger, sequenceIds, "p2", 2);
+        long firstLedgerId = snapshotLedger.writeSnapshot(sequenceIds, 1000).get();
+        update(snapshotLedger, sequenceIds, "p2", 20);
+        snapshotLedger.writeSnapshot(sequenceIds, 2000).get();
+
+        // The recovered producers keep the time of their last update
+        DeduplicationSnapshotLedger recovered = newSnapshotLedger(100);
+        ConcurrentOpenHashMap<String, Long> recoveredSequenceIds = new ConcurrentOpenHashMap<>();
+        recovered.recover(firstLedgerId, recoveredSequenceIds::put).get();
+        assertEquals(toMap(recoveredSequenceIds), toMap(sequenceIds));
+        assertEquals(recovered.expireProducers(1500), Collections.singletonList("p1"));
+        recoveredSequenceIds.remove("p1");
+
+        // The snapshots go to a new ledger, and the recovered one is deleted once the cursor points to it
+        update(recovered, recoveredSequenceIds, "p3", 3);
+        long ledgerId = recovered.writeSnapshot(recoveredSequenceIds, 3000).get();
+        assertNotEquals(ledgerId, firstLedgerId);
+        recovered.snapshotPersisted(ledgerId);
+        assertEquals(bookKeeper.getLedgers(), Collections.singleton(ledgerId));
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("p2", 20L);
+        expected.put("p3", 3L);
+        assertEquals(recover(ledgerId), expected);
+
+        // The producers updated since the last snapshot are not expired
+        update(recovered, recoveredSequenceIds, "p2", 21);
+        assertEquals(recovered.expireProducers(4000), Collections.singletonList("p3"));
+    }
+
+    @Test
+    public void testWriteFailure() throws Exception {
+        DeduplicationSnapshotLedger snapshotLedger = newSnapshotLedger(100);
+        ConcurrentOpenHashMap<String, Long> sequenceIds = new ConcurrentOpenHashMap<>();
+        update(snapshotLedger, sequenceIds, "p1", 1);
+        long firstLedgerId = snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+        snapshotLedger.snapshotPersisted(firstLedgerId);
+
+        update(snapshotLedger, sequenceIds, "p2", 2);
+        bookKeeper.failNow(BKException.Code.BookieHandleNotAvailableException);
+        try {
+            snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+            throw new AssertionError("Should have failed");
+        } catch (Exception e) {
+            // Ok
+        }
+
+        // The next snapshot is a full one in a new ledger
+        long ledgerId = snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+        assertNotEquals(ledgerId, firstLedgerId);
+        assertEquals(recover(ledgerId), toMap(sequenceIds));
+        snapshotLedger.snapshotPersisted(ledgerId);
+        assertEquals(bookKeeper.getLedgers(), Collections.singleton(ledgerId));
+    }
+
+    @Test
+    public void testRemovedAndUpdatedProducer() throws Exception {
+        DeduplicationSnapshotLedger snapshotLedger = newSnapshotLedger(100);
+        ConcurrentOpenHashMap<String, Long> sequenceIds = new ConcurrentOpenHashMap<>();
+        update(snapshotLedger, sequenceIds, "p1", 1);
+        update(snapshotLedger, sequenceIds, "p2", 2);
+        long ledgerId = snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+
+        // A producer removed and publishing again before the next snapshot is kept
+        sequenceIds.remove("p1");
+        snapshotLedger.producerRemoved("p1");
+        update(snapshotLedger, sequenceIds, "p1", 10);
+
+        // A producer updated and then removed before the next snapshot is removed
+        update(snapshotLedger, sequenceIds, "p2", 20);
+        sequenceIds.remove("p2");
+        snapshotLedger.producerRemoved("p2");
+
+        assertEquals(snapshotLedger.writeSnapshot(sequenceIds, 0).get().longValue(), ledgerId);
+        assertEquals(recover(ledgerId), Collections.singletonMap("p1", 10L));
+    }
+
+    @Test
+    public void testUpdateDuringFullSnapshot() throws Exception {
+        DeduplicationSnapshotLedger snapshotLedger = newSnapshotLedger(100);
+        AtomicBoolean updateDuringSnapshot = new AtomicBoolean(true);
+        ConcurrentOpenHashMap<String, Long> sequenceIds = new ConcurrentOpenHashMap<String, Long>() {
+            @Override
+            public void forEach(BiConsumer<? super String, ? super Long> processor) {
+                super.forEach(processor);
+                if (updateDuringSnapshot.compareAndSet(true, false)) {
+                    // A message persisted by another thread while the full snapshot is encoded isn't blocked
+                    try {
+                        CompletableFuture.runAsync(() -> update(snapshotLedger, this, "p2", 2)).get(10,
+                                TimeUnit.SECONDS);
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+        };
+        update(snapshotLedger, sequenceIds, "p1", 1);
+        long ledgerId = snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+        assertFalse(updateDuringSnapshot.get());
+
+        // The update is part of the next snapshot, a delta
+        assertEquals(snapshotLedger.writeSnapshot(sequenceIds, 0).get().longValue(), ledgerId);
+        assertEquals(recover(ledgerId), toMap(sequenceIds));
+        assertEquals(toMap(sequenceIds).size(), 2);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        DeduplicationSnapshotLedger snapshotLedger = newSnapshotLedger(100);
+        ConcurrentOpenHashMap<String, Long> sequenceIds = new ConcurrentOpenHashMap<>();
+        update(snapshotLedger, sequenceIds, "p1", 1);
+        long ledgerId = snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+        LedgerHandle ledger = snapshotLedger.getLedger();
+        assertFalse(ledger.getLedgerMetadata().isClosed());
+
+        snapshotLedger.close();
+        assertNull(snapshotLedger.getLedger());
+        assertTrue(ledger.getLedgerMetadata().isClosed());
+
+        // No more snapshots are written, and the ledger is kept for the next owner of the topic
+        update(snapshotLedger, sequenceIds, "p1", 10);
+        try {
+            snapshotLedger.writeSnapshot(sequenceIds, 0).get();
+            throw new AssertionError("Should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(bookKeeper.getLedgers(), Collections.singleton(ledgerId));
+        assertEquals(recover(ledgerId), Collections.singletonMap("p1", 1L));
+    }
+}
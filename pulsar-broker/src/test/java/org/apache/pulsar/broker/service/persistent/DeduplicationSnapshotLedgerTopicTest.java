@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest.retryStrategically;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.ProducerBuilder;
+import org.apache.pulsar.client.api.ProducerConsumerBase;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Recovery of the deduplication state of a topic from the snapshots stored in a dedicated ledger.
+ */
+public class DeduplicationSnapshotLedgerTopicTest extends ProducerConsumerBase {
+
+    @Override
+    @BeforeClass
+    public void setup() throws Exception {
+        conf.setBrokerDeduplicationSnapshotLedgerEnabled(true);
+        conf.setBrokerDeduplicationEntriesInterval(5);
+        super.internalSetup();
+        super.producerBaseSetup();
+    }
+
+    @Override
+    @AfterClass
+    public void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    private ManagedCursor getDeduplicationCursor(String topic) throws Exception {
+        PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topic).get();
+        for (ManagedCursor cursor : persistentTopic.getManagedLedger().getCursors()) {
+            if (cursor.getName().equals(PersistentTopic.DEDUPLICATION_CURSOR_NAME)) {
+                return cursor;
+            }
+        }
+        return null;
+    }
+
+    @Test(timeOut = 60000)
+    public void testProducerSequenceAfterRestart() throws Exception {
+        final int producers = 20;
+        final int messages = 10;
+        String topic = "persistent://my-property/my-ns/testSnapshotLedger-" + System.nanoTime();
+        admin.namespaces().setDeduplicationStatus("my-property/my-ns", true);
+
+        List<ProducerBuilder<byte[]>> producerBuilders = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            ProducerBuilder<byte[]> producerBuilder = pulsarClient.newProducer().topic(topic)
+                    .producerName("my-producer-" + p).enableBatching(false);
+            producerBuilders.add(producerBuilder);
+            Producer<byte[]> producer = producerBuilder.create();
+            for (int i = 0; i < messages; i++) {
+                producer.send(("my-message-" + i).getBytes());
+            }
+            producer.close();
+        }
+
+        // The cursor points to the ledger of the snapshots
+        ManagedCursor cursor = getDeduplicationCursor(topic);
+        assertNotNull(cursor);
+        retryStrategically(test -> cursor.getNumberOfEntries() < 5, 10, 100);
+        assertTrue(cursor.getNumberOfEntries() < 5);
+        assertTrue(cursor.getProperties().containsKey(MessageDeduplication.SNAPSHOT_LEDGER_PROPERTY));
+
+        // Kill and restart broker
+        restartBroker();
+
+        for (ProducerBuilder<byte[]> producerBuilder : producerBuilders) {
+            Producer<byte[]> producer = producerBuilder.create();
+            assertEquals(producer.getLastSequenceId(), messages - 1);
+            producer.close();
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testSnapshotLedgerClosedOnUnload() throws Exception {
+        String topic = "persistent://my-property/my-ns/testSnapshotLedgerUnload-" + System.nanoTime();
+        admin.namespaces().setDeduplicationStatus("my-property/my-ns", true);
+
+        Producer<byte[]> producer = pulsarClient.newProducer().topic(topic).producerName("my-producer")
+                .enableBatching(false).create();
+        for (int i = 0; i < 10; i++) {
+            producer.send(("my-message-" + i).getBytes());
+        }
+
+        PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topic).get();
+        DeduplicationSnapshotLedger snapshotLedger = persistentTopic.messageDeduplication.snapshotLedger;
+        assertNotNull(snapshotLedger);
+        retryStrategically(test -> snapshotLedger.getLedger() != null, 10, 100);
+        LedgerHandle ledger = snapshotLedger.getLedger();
+        assertNotNull(ledger);
+
+        producer.close();
+        admin.topics().unload(topic);
+
+        // The ledger is closed, and kept for the next owner of the topic
+        assertNull(snapshotLedger.getLedger());
+        assertTrue(ledger.getLedgerMetadata().isClosed());
+        assertTrue(mockBookKeeper.getLedgers().contains(ledger.getId()));
+
+        producer = pulsarClient.newProducer().topic(topic).producerName("my-producer").create();
+        assertEquals(producer.getLastSequenceId(), 9);
+        producer.close();
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.broker.service.persistent;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+
+import org.apache.bookkeeper.mledger.ManagedCursor;
+import org.apache.pulsar.broker.PulsarService;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.BrokerService;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PersistentDispatcherMultipleConsumersTest {
+
+    private ServiceConfiguration config;
+    private PersistentTopic topic;
+    private PersistentDispatcherMultipleConsumers dispatcher;
+
+    @BeforeMethod
+    public void setup() {
+        config = new ServiceConfiguration();
+        PulsarService pulsar = mock(PulsarService.class);
+        doReturn(config).when(pulsar).getConfiguration();
+        BrokerService brokerService = mock(BrokerService.class);
+        doReturn(pulsar).when(brokerService).pulsar();
+        topic = mock(PersistentTopic.class);
+        doReturn(brokerService).when(topic).getBrokerService();
+        doReturn("persistent://prop/ns-abc/topic").when(topic).getName();
+        ManagedCursor cursor = mock(ManagedCursor.class);
+        doReturn("sub").when(cursor).getName();
+
+        dispatcher = new PersistentDispatcherMultipleConsumers(topic, cursor, null);
+    }
+
+    @Test
+    public void testMaxReadBatchSizeWithoutReadSizeTarget() {
+        doReturn(1000L).when(topic).getAverageReadEntrySize();
+        assertEquals(dispatcher.getMaxReadBatchSize(), config.getDispatcherMaxReadBatchSize());
+    }
+
+    @Test
+    public void testMaxReadBatchSizeFromAverageEntrySize() {
+        config.setDispatcherMaxReadSizeBytes(64 * 1024);
+
+        // No read completed yet: probe with the minimum read batch size
+        doReturn(0L).when(topic).getAverageReadEntrySize();
+        assertEquals(dispatcher.getMaxReadBatchSize(), config.getDispatcherMinReadBatchSize());
+
+        doReturn(1024L).when(topic).getAverageReadEntrySize();
+        assertEquals(dispatcher.getMaxReadBatchSize(), 64);
+
+        // Entries larger than the target are still read one at a time
+        doReturn(1024L * 1024).when(topic).getAverageReadEntrySize();
+        assertEquals(dispatcher.getMaxReadBatchSize(), 1);
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Cleanup;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Dispatch to consumers sharing a connection, with the writes of the dispatched messages coalesced.
+ */
+public class CoalescedDispatchWritesTest extends ProducerConsumerBase {
+
+    @BeforeClass
+    @Override
+    protected void setup() throws Exception {
+        conf.setDispatcherCoalesceWritesEnabled(true);
+        super.internalSetup();
+        super.producerBaseSetup();
+    }
+
+    @AfterClass
+    @Override
+    protected void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @DataProvider(name = "batching")
+    public Object[][] batching() {
+        return new Object[][] { { false }, { true } };
+    }
+
+    @Test(dataProvider = "batching")
+    public void testSharedSubscription(boolean batching) throws Exception {
+        String topic = "persistent://my-property/my-ns/coalesced-shared-" + batching;
+        int numMessages = 1000;
+
+        Set<String> received = Sets.newConcurrentHashSet();
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(numMessages);
+        List<Consumer<String>> consumers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            consumers.add(pulsarClient.newConsumer(Schema.STRING)
+                    .topic(topic)
+                    .subscriptionName("sub")
+                    .subscriptionType(SubscriptionType.Shared)
+                    .receiverQueueSize(50)
+                    .messageListener((consumer, message) -> {
+                        if (received.add(message.getValue())) {
+                            latch.countDown();
+                        } else {
+                            duplicates.incrementAndGet();
+                        }
+                        consumer.acknowledgeAsync(message);
+                    })
+                    .subscribe());
+        }
+
+        @Cleanup
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .enableBatching(batching)
+                .create();
+        for (int i = 0; i < numMessages; i++) {
+            producer.sendAsync("message-" + i);
+        }
+        producer.flush();
+
+        assertTrue(latch.await(30, TimeUnit.SECONDS), "received " + received.size() + " messages");
+        assertEquals(duplicates.get(), 0);
+
+        for (Consumer<String> consumer : consumers) {
+            consumer.close();
+        }
+    }
+
+    @Test
+    public void testOrderingOnExclusiveSubscriptions() throws Exception {
+        String topic = "persistent://my-property/my-ns/coalesced-exclusive";
+        int numMessages = 500;
+
+        // Consumers of different subscriptions, sharing the connection of the client
+        List<Consumer<String>> consumers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            consumers.add(pulsarClient.newConsumer(Schema.STRING)
+                    .topic(topic)
+                    .subscriptionName("sub-" + i)
+                    .receiverQueueSize(20)
+                    .subscribe());
+        }
+
+        @Cleanup
+        Producer<String> producer = pulsarClient.newProducer(Schema.STRING)
+                .topic(topic)
+                .enableBatching(false)
+                .create();
+        for (int i = 0; i < numMessages; i++) {
+            producer.sendAsync("message-" + i);
+        }
+        producer.flush();
+
+        for (Consumer<String> consumer : consumers) {
+            for (int i = 0; i < numMessages; i++) {
+                Message<String> message = consumer.receive(5, TimeUnit.SECONDS);
+                assertEquals(message.getValue(), "message-" + i);
+                consumer.acknowledge(message);
+            }
+            assertNull(consumer.receive(100, TimeUnit.MILLISECONDS));
+            consumer.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.client.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import lombok.Cleanup;
+import org.apache.pulsar.broker.service.DispatchMemoryLimiter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Dispatch of a backlog larger than the dispatch memory limit of the broker.
+ */
+public class DispatchMemoryLimitTest extends ProducerConsumerBase {
+
+    private static final int MESSAGE_SIZE = 10 * 1024;
+
+    @BeforeClass
+    @Override
+    protected void setup() throws Exception {
+        conf.setDispatcherMaxMemorySizeMB(1);
+        super.internalSetup();
+        super.producerBaseSetup();
+    }
+
+    @AfterClass
+    @Override
+    protected void cleanup() throws Exception {
+        super.internalCleanup();
+    }
+
+    @Test
+    public void testBacklogLargerThanLimit() throws Exception {
+        String topic = "persistent://my-property/my-ns/dispatch-memory-limit";
+        int numMessages = 500;
+
+        @Cleanup
+        Consumer<byte[]> exclusiveConsumer = pulsarClient.newConsumer()
+                .topic(topic)
+                .subscriptionName("exclusive")
+                .subscribe();
+        List<Consumer<byte[]>> sharedConsumers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            sharedConsumers.add(pulsarClient.newConsumer()
+                    .topic(topic)
+                    .subscriptionName("shared")
+                    .subscriptionType(SubscriptionType.Shared)
+                    .subscribe());
+        }
+
+        @Cleanup
+        Producer<byte[]> producer = pulsarClient.newProducer()
+                .topic(topic)
+                .enableBatching(false)
+                .create();
+        for (int i = 0; i < numMessages; i++) {
+            byte[] payload = new byte[MESSAGE_SIZE];
+            payload[0] = (byte) i;
+            producer.sendAsync(payload);
+        }
+        producer.flush();
+
+        for (int i = 0; i < numMessages; i++) {
+            Message<byte[]> message = exclusiveConsumer.receive(5, TimeUnit.SECONDS);
+            assertEquals(message.getValue()[0], (byte) i);
+            exclusiveConsumer.acknowledge(message);
+        }
+        assertNull(exclusiveConsumer.receive(100, TimeUnit.MILLISECONDS));
+
+        Set<MessageId> received = Sets.newConcurrentHashSet();
+        CountDownLatch latch = new CountDownLatch(numMessages);
+        for (Consumer<byte[]> consumer : sharedConsumers) {
+            new Thread(() -> {
+                try {
+                    while (latch.getCount() > 0) {
+                        Message<byte[]> message = consumer.receive(100, TimeUnit.MILLISECONDS);
+                        if (message != null) {
+                            if (received.add(message.getMessageId())) {
+                                latch.countDown();
+                            }
+                            consumer.acknowledge(message);
+                        }
+                    }
+                } catch (PulsarClientException e) {
+                    // The latch reports the missing messages
+                }
+            }).start();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS), "received " + received.size() + " messages");
+
+        // All the memory is given back once the writes are done
+        DispatchMemoryLimiter limiter = pulsar.getBrokerService().getDispatchMemoryLimiter();
+        assertTrue(retryStrategically(test -> limiter.getUsedBytes() == 0, 50, 100));
+        assertEquals(limiter.getPausedReadsCount(), 0);
+
+        for (Consumer<byte[]> consumer : sharedConsumers) {
+            consumer.close();
+        }
+    }
+}
@@ -233,4 +233,50 @@ public class CompactedTopicTest extends MockedPulsarServiceBaseTest {
                       Compactor.COMPACTED_TOPIC_LEDGER_DIGEST_TYPE,
                       Compactor.COMPACTED_TOPIC_LEDGER_PASSWORD).close();
     }
+
+    @Test
+    public void testCleanupDroppedCompactedTopicLayers() throws Exception {
+        BookKeeper bk = pulsar.getBookKeeperClientFactory().create(
+                this.conf, null, Optional.empty(), null);
+
+        List<Long> ledgerIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            LedgerHandle ledger = bk.createLedger(1, 1,
+                    Compactor.COMPACTED_TOPIC_LEDGER_DIGEST_TYPE,
+                    Compactor.COMPACTED_TOPIC_LEDGER_PASSWORD);
+            ledger.close();
+            ledgerIds.add(ledger.getId());
+        }
+
+        // add layers on top of each other
+        CompactedTopicImpl compactedTopic = new CompactedTopicImpl(bk);
+        compactedTopic.newCompactedLedger(new PositionImpl(1,2), ledgerIds.get(0)).get();
+        compactedTopic.newCompactedLayers(new PositionImpl(1,4), ledgerIds.subList(0, 2)).get();
+        compactedTopic.newCompactedLayers(new PositionImpl(1,6), ledgerIds.subList(0, 3)).get();
+        Assert.assertEquals(compactedTopic.getLayerCount(), 3);
+        Assert.assertEquals(compactedTopic.getCompactionHorizon().get(), new PositionImpl(1,6));
+        for (long ledgerId : ledgerIds) {
+            bk.openLedger(ledgerId,
+                          Compactor.COMPACTED_TOPIC_LEDGER_DIGEST_TYPE,
+                          Compactor.COMPACTED_TOPIC_LEDGER_PASSWORD).close();
+        }
+
+        // merge the layers, the ledgers of the dropped ones should be deleted
+        compactedTopic.newCompactedLedger(new PositionImpl(1,6), ledgerIds.get(3)).get();
+        Assert.assertEquals(compactedTopic.getLayerCount(), 1);
+        for (long ledgerId : ledgerIds.subList(0, 3)) {
+            try {
+                bk.openLedger(ledgerId,
+                              Compactor.COMPACTED_TOPIC_LEDGER_DIGEST_TYPE,
+                              Compactor.COMPACTED_TOPIC_LEDGER_PASSWORD).close();
+                Assert.fail("Should have failed to open dropped ledger");
+            } catch (BKException.BKNoSuchLedgerExistsException
+                | BKException.BKNoSuchLedgerExistsOnMetadataServerException e) {
+                // correct, expected behaviour
+            }
+        }
+        bk.openLedger(ledgerIds.get(3),
+                      Compactor.COMPACTED_TOPIC_LEDGER_DIGEST_TYPE,
+                      Compactor.COMPACTED_TOPIC_LEDGER_PASSWORD).close();
+    }
 }
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.compaction;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import lombok.Cleanup;
+
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.BatchMessageIdImpl;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CompactionKeyIndexTest {
+
+    private File spillDirectory;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        spillDirectory = Files.createTempDirectory("compaction-key-index-test").toFile();
+    }
+
+    @AfterMethod
+    public void cleanup() throws Exception {
+        for (File file : spillDirectory.listFiles()) {
+            file.delete();
+        }
+        spillDirectory.delete();
+    }
+
+    @Test
+    public void testInMemory() {
+        @Cleanup
+        CompactionKeyIndex index = new CompactionKeyIndex(1024 * 1024, spillDirectory);
+        index.put("a", new MessageIdImpl(1, 1, -1));
+        index.put("b", new BatchMessageIdImpl(1, 2, -1, 0));
+        index.put("c", new MessageIdImpl(1, 3, -1));
+        index.put("a", new MessageIdImpl(1, 4, -1));
+        index.remove("c");
+        index.remove("d");
+        index.seal();
+
+        assertEquals(index.size(), 2);
+        assertEquals(index.getSpilledRuns(), 0);
+        assertTrue(index.isLatest("a", new MessageIdImpl(1, 4, -1)));
+        assertTrue(index.isLatest("a", new BatchMessageIdImpl(1, 4, -1, -1)));
+        assertFalse(index.isLatest("a", new MessageIdImpl(1, 1, -1)));
+        assertTrue(index.isLatest("b", new BatchMessageIdImpl(1, 2, -1, 0)));
+        assertFalse(index.isLatest("b", new BatchMessageIdImpl(1, 2, -1, 1)));
+        assertFalse(index.isLatest("b", new MessageIdImpl(1, 2, -1)));
+        assertFalse(index.isLatest("c", new MessageIdImpl(1, 3, -1)));
+        assertFalse(index.isLatest("d", new MessageIdImpl(1, 3, -1)));
+    }
+
+    @Test
+    public void testGrowInMemory() {
+        @Cleanup
+        CompactionKeyIndex index = new CompactionKeyIndex(1024 * 1024, spillDirectory);
+        Map<String, MessageId> expected = fill(index, 10000, 20000, new Random(0));
+        index.seal();
+
+        assertEquals(index.getSpilledRuns(), 0);
+        verify(index, expected);
+    }
+
+    @Test
+    public void testSpillAndMerge() {
+        CompactionKeyIndex index = new CompactionKeyIndex(64 * CompactionKeyIndex.RECORD_SIZE, spillDirectory);
+        Map<String, MessageId> expected = fill(index, 5000, 20000, new Random(1));
+        assertTrue(index.getSpilledRuns() > 10);
+        index.seal();
+
+        // The runs are merged into a single file
+        assertEquals(index.getSpilledRuns(), 1);
+        assertEquals(spillDirectory.list().length, 1);
+        verify(index, expected);
+
+        index.close();
+        assertEquals(spillDirectory.list().length, 0);
+    }
+
+    @Test
+    public void testRemoveSpilledKey() {
+        @Cleanup
+        CompactionKeyIndex index = new CompactionKeyIndex(0, spillDirectory);
+        index.put("a", new MessageIdImpl(1, 1, -1));
+        index.put("b", new MessageIdImpl(1, 2, -1));
+        for (int i = 0; i < 100; i++) {
+            index.put("key-" + i, new MessageIdImpl(2, i, -1));
+        }
+        assertTrue(index.getSpilledRuns() > 0);
+
+        // The deleted key hides the spilled record
+        index.remove("a");
+        index.put("b", new MessageIdImpl(3, 1, -1));
+        index.seal();
+
+        assertEquals(index.size(), 101);
+        assertFalse(index.isLatest("a", new MessageIdImpl(1, 1, -1)));
+        assertFalse(index.isLatest("b", new MessageIdImpl(1, 2, -1)));
+        assertTrue(index.isLatest("b", new MessageIdImpl(3, 1, -1)));
+        assertTrue(index.isLatest("key-42", new MessageIdImpl(2, 42, -1)));
+    }
+
+    @Test
+    public void testHashCollisions() {
+        // All the keys have the same hash
+        @Cleanup
+        CompactionKeyIndex inMemory = new CompactionKeyIndex(1024 * 1024, spillDirectory, key -> 42L);
+        Map<String, MessageId> expected = fill(inMemory, 300, 1000, new Random(2));
+        inMemory.seal();
+        assertEquals(inMemory.getSpilledRuns(), 0);
+        verify(inMemory, expected);
+
+        @Cleanup
+        CompactionKeyIndex spilled = new CompactionKeyIndex(0, spillDirectory, key -> key.length());
+        expected = fill(spilled, 300, 1000, new Random(3));
+        assertTrue(spilled.getSpilledRuns() > 10);
+        spilled.seal();
+        assertEquals(spilled.getSpilledRuns(), 1);
+        verify(spilled, expected);
+    }
+
+    private static Map<String, MessageId> fill(CompactionKeyIndex index, int keys, int operations, Random random) {
+        Map<String, MessageId> expected = new HashMap<>();
+        for (int i = 0; i < operations; i++) {
+            String key = "key-" + random.nextInt(keys);
+            if (random.nextInt(10) == 0) {
+                index.remove(key);
+                expected.remove(key);
+            } else {
+                MessageId id = random.nextBoolean()
+                        ? new MessageIdImpl(1, i, 0)
+                        : new BatchMessageIdImpl(1, i, 0, random.nextInt(10));
+                index.put(key, id);
+                expected.put(key, id);
+            }
+        }
+        return expected;
+    }
+
+    private static void verify(CompactionKeyIndex index, Map<String, MessageId> expected) {
+        assertEquals(index.size(), expected.size());
+        for (int i = 0; i < 10000; i++) {
+            String key = "key-" + i;
+            MessageId id = expected.get(key);
+            if (id != null) {
+                assertTrue(index.isLatest(key, id), key);
+                assertFalse(index.isLatest(key, new MessageIdImpl(1, -1, 0)), key);
+            } else {
+                assertFalse(index.isLatest(key, new MessageIdImpl(1, i, 0)), key);
+            }
+        }
+    }
+}
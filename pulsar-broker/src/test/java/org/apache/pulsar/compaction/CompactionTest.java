@@ -21,6 +21,7 @@ package org.apache.pulsar.compaction;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
@@ -31,6 +32,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +50,7 @@ import org.apache.bookkeeper.mledger.ManagedLedgerInfo;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.pulsar.broker.auth.MockedPulsarServiceBaseTest;
 import org.apache.pulsar.broker.service.persistent.PersistentTopic;
+import org.apache.pulsar.client.admin.LongRunningProcessStatus;
 import org.apache.pulsar.client.api.CompressionType;
 import org.apache.pulsar.client.api.Consumer;
 import org.apache.pulsar.client.api.CryptoKeyReader;
@@ -57,6 +61,7 @@ import org.apache.pulsar.client.api.MessageRoutingMode;
 import org.apache.pulsar.client.api.Producer;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.api.Reader;
+import org.apache.pulsar.client.api.SubscriptionInitialPosition;
 import org.apache.pulsar.client.impl.BatchMessageIdImpl;
 import org.apache.pulsar.common.policies.data.ClusterData;
 import org.apache.pulsar.common.policies.data.RetentionPolicies;
@@ -1302,4 +1307,162 @@ public class CompactionTest extends MockedPulsarServiceBaseTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test(timeOut = 60000)
+    public void testIncrementalCompaction() throws Exception {
+        String topic = "persistent://my-property/use/my-ns/my-topic1";
+        conf.setBrokerServiceCompactionMaxLayers(3);
+
+        pulsarClient.newConsumer().topic(topic).subscriptionName("sub1").readCompacted(true).subscribe().close();
+
+        Producer<byte[]> producer = pulsarClient.newProducer().topic(topic).enableBatching(false)
+                .messageRoutingMode(MessageRoutingMode.SinglePartition).create();
+        Producer<byte[]> producerBatch = pulsarClient.newProducer().topic(topic).enableBatching(true)
+                .batchingMaxMessages(2).batchingMaxPublishDelay(1, TimeUnit.HOURS)
+                .messageRoutingMode(MessageRoutingMode.SinglePartition).create();
+        PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topic).get();
+        CompactedTopic compactedTopic = persistentTopic.getCompactedTopic();
+
+        producer.newMessage().key("a").value("A_1".getBytes()).send();
+        producer.newMessage().key("b").value("B_1".getBytes()).send();
+        producer.newMessage().key("c").value("C_1".getBytes()).send();
+        producer.newMessage().key("a").value("A_2".getBytes()).send();
+
+        // The first compaction is a full one
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 1);
+
+        // The next ones only compact the new messages, keeping the deletes
+        producer.newMessage().key("b").value("B_2".getBytes()).send();
+        producer.newMessage().key("c").send();
+        producer.newMessage().key("d").value("D_1".getBytes()).send();
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 2);
+
+        producer.newMessage().key("a").value("A_3".getBytes()).send();
+        producerBatch.newMessage().key("d").sendAsync();
+        producerBatch.newMessage().key("e").value("E_1".getBytes()).send();
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 3);
+
+        List<Long> layerLedgers = Compactor.getCompactedLedgers(
+                persistentTopic.getManagedLedger().openCursor(Compactor.COMPACTION_SUBSCRIPTION).getProperties());
+        assertEquals(layerLedgers.size(), 3);
+        assertEquals(bk.openLedger(layerLedgers.get(1), Compactor.COMPACTED_TOPIC_LEDGER_DIGEST_TYPE,
+                Compactor.COMPACTED_TOPIC_LEDGER_PASSWORD).getLastAddConfirmed(), 2);
+
+        // The layers are read one after the other
+        Map<String, String> expected = new HashMap<>();
+        expected.put("a", "A_3");
+        expected.put("b", "B_2");
+        expected.put("e", "E_1");
+        assertEquals(readCompacted(topic), expected);
+
+        // A full compaction merges the layers once there are too many of them
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 1);
+        assertEquals(readCompacted(topic), expected);
+        try (Consumer<byte[]> consumer = pulsarClient.newConsumer().topic(topic).subscriptionName("sub2")
+                .readCompacted(true).subscriptionInitialPosition(SubscriptionInitialPosition.Earliest)
+                .subscribe()) {
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertNotNull(consumer.receive(2, TimeUnit.SECONDS));
+            }
+            assertNull(consumer.receive(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testKeyOverwrittenAndDeletedAcrossLayers() throws Exception {
+        String topic = "persistent://my-property/use/my-ns/my-topic1";
+        conf.setBrokerServiceCompactionMaxLayers(3);
+
+        pulsarClient.newConsumer().topic(topic).subscriptionName("sub1").readCompacted(true).subscribe().close();
+
+        Producer<byte[]> producer = pulsarClient.newProducer().topic(topic).enableBatching(false)
+                .messageRoutingMode(MessageRoutingMode.SinglePartition).create();
+        PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topic).get();
+        CompactedTopic compactedTopic = persistentTopic.getCompactedTopic();
+
+        producer.newMessage().key("a").value("A_1".getBytes()).send();
+        producer.newMessage().key("b").value("B_1".getBytes()).send();
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 1);
+
+        producer.newMessage().key("a").value("A_2".getBytes()).send();
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 2);
+        assertEquals(readCompactedMessages(topic), Arrays.asList(Pair.of("b", "B_1"), Pair.of("a", "A_2")));
+
+        producer.newMessage().key("a").send();
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 3);
+        assertEquals(readCompactedMessages(topic), Collections.singletonList(Pair.of("b", "B_1")));
+
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 1);
+        assertEquals(readCompactedMessages(topic), Collections.singletonList(Pair.of("b", "B_1")));
+    }
+
+    @Test(timeOut = 60000)
+    public void testBatchedKeyOverwrittenAndDeletedAcrossLayers() throws Exception {
+        String topic = "persistent://my-property/use/my-ns/my-topic1";
+        conf.setBrokerServiceCompactionMaxLayers(3);
+
+        pulsarClient.newConsumer().topic(topic).subscriptionName("sub1").readCompacted(true).subscribe().close();
+
+        Producer<byte[]> producer = pulsarClient.newProducer().topic(topic).enableBatching(true)
+                .batchingMaxPublishDelay(1, TimeUnit.HOURS).messageRoutingMode(MessageRoutingMode.SinglePartition)
+                .create();
+        PersistentTopic persistentTopic = (PersistentTopic) pulsar.getBrokerService().getTopicReference(topic).get();
+        CompactedTopic compactedTopic = persistentTopic.getCompactedTopic();
+
+        producer.newMessage().key("a").value("A_1".getBytes()).sendAsync();
+        producer.newMessage().key("b").value("B_1".getBytes()).sendAsync();
+        producer.newMessage().key("c").value("C_1".getBytes()).sendAsync();
+        producer.flush();
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 1);
+
+        producer.newMessage().key("a").value("A_2".getBytes()).sendAsync();
+        producer.newMessage().key("c").sendAsync();
+        producer.flush();
+        triggerCompactionAndWait(persistentTopic, compactedTopic, 2);
+        assertEquals(readCompactedMessages(topic), Arrays.asList(Pair.of("b", "B_1"), Pair.of("a", "A_2")));
+    }
+
+    // The compacted view is switched once the broker has persisted the compactor's ack, which happens
+    // after the compaction itself is reported as done
+    private void triggerCompactionAndWait(PersistentTopic topic, CompactedTopic compactedTopic, int expectedLayers)
+            throws Exception {
+        topic.triggerCompaction();
+        retryStrategically((test) -> topic.compactionStatus().status != LongRunningProcessStatus.Status.RUNNING,
+                20, 50);
+        assertEquals(topic.compactionStatus().status, LongRunningProcessStatus.Status.SUCCESS);
+        retryStrategically((test) -> compactedTopic.getLayerCount() == expectedLayers, 20, 50);
+        assertEquals(compactedTopic.getLayerCount(), expectedLayers);
+    }
+
+    // Returns the state of the keys seen by a consumer reading the compacted topic from the start
+    private Map<String, String> readCompacted(String topic) throws Exception {
+        Map<String, String> state = new HashMap<>();
+        for (Pair<String, String> message : readCompactedMessages(topic)) {
+            if (message.getValue().isEmpty()) {
+                state.remove(message.getKey());
+            } else {
+                state.put(message.getKey(), message.getValue());
+            }
+        }
+        return state;
+    }
+
+    // Returns the keys and values of the messages read from the compacted topic from the start, in order
+    private List<Pair<String, String>> readCompactedMessages(String topic) throws Exception {
+        List<Pair<String, String>> messages = new ArrayList<>();
+        MessageId lastMessageId = MessageId.earliest;
+        try (Reader<byte[]> reader = pulsarClient.newReader().topic(topic).startMessageId(MessageId.earliest)
+                .readCompacted(true).create()) {
+            while (reader.hasMessageAvailable()) {
+                Message<byte[]> message = reader.readNext(2, TimeUnit.SECONDS);
+                if (message == null) {
+                    // The last message of the topic was compacted out
+                    break;
+                }
+                Assert.assertTrue(message.getMessageId().compareTo(lastMessageId) > 0);
+                lastMessageId = message.getMessageId();
+                messages.add(Pair.of(message.getKey(), new String(message.getData())));
+            }
+        }
+        return messages;
+    }
+}
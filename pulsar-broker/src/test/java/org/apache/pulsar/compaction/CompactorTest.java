@@ -139,6 +139,36 @@ public class CompactorTest extends MockedPulsarServiceBaseTest {
         compactAndVerify(topic, expected);
     }
 
+    @Test
+    public void testCompactionWithSpilledKeyIndex() throws Exception {
+        String topic = "persistent://my-property/use/my-ns/my-topic1";
+        final int numMessages = 1000;
+        final int maxKeys = 200;
+
+        // The key index keeps its minimal capacity and spills every few keys
+        conf.setBrokerServiceCompactionKeyIndexMaxMemoryMB(0);
+
+        Producer<byte[]> producer = pulsarClient.newProducer().topic(topic)
+            .enableBatching(false)
+            .messageRoutingMode(MessageRoutingMode.SinglePartition)
+            .create();
+
+        Map<String, byte[]> expected = new HashMap<>();
+        Random r = new Random(0);
+
+        for (int j = 0; j < numMessages; j++) {
+            int keyIndex = r.nextInt(maxKeys);
+            String key = "key"+keyIndex;
+            byte[] data = ("my-message-" + key + "-" + j).getBytes();
+            producer.newMessage()
+                    .key(key)
+                    .value(data)
+                    .send();
+            expected.put(key, data);
+        }
+        compactAndVerify(topic, expected);
+    }
+
     @Test
     public void testCompactAddCompact() throws Exception {
         String topic = "persistent://my-property/use/my-ns/my-topic1";
@@ -61,6 +61,8 @@ public class MessageImpl<T> implements Message<T> {
     private Optional<EncryptionContext> encryptionCtx = Optional.empty();
 
     private String topic; // only set for incoming messages
+    // checksum of the payload when already known, or -1
+    private long payloadChecksum = -1;
     transient private Map<String, String> properties;
     private final int redeliveryCount;
 
@@ -194,6 +196,21 @@ public class MessageImpl<T> implements Message<T> {
         return msg;
     }
 
+    /**
+     * Set the checksum of the payload, when it is already known, so that the payload is not read again to compute the
+     * checksum of the message when it is sent without being compressed or encrypted.
+     *
+     * @param payloadChecksum
+     *            the checksum of the payload as an unsigned int, or -1 if not known
+     */
+    public void setPayloadChecksum(long payloadChecksum) {
+        this.payloadChecksum = payloadChecksum;
+    }
+
+    public long getPayloadChecksum() {
+        return payloadChecksum;
+    }
+
     public void setReplicatedFrom(String cluster) {
         checkNotNull(msgMetadataBuilder);
         msgMetadataBuilder.setReplicatedFrom(cluster);
@@ -410,6 +427,7 @@ public class MessageImpl<T> implements Message<T> {
         properties = null;
         schema = null;
         schemaState = SchemaState.None;
+        payloadChecksum = -1;
 
         if (recyclerHandle != null) {
             recyclerHandle.recycle(this);
@@ -424,10 +424,13 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
                     int numMessages = msg.getMessageBuilder().hasNumMessagesInBatch()
                             ? msg.getMessageBuilder().getNumMessagesInBatch()
                             : 1;
+                    // The known checksum of the payload can be used only if the payload is sent as it is
+                    long payloadChecksum = encryptedPayload == payload ? msg.getPayloadChecksum() : -1;
                     final OpSendMsg op;
                     if (msg.getSchemaState() == MessageImpl.SchemaState.Ready) {
                         MessageMetadata msgMetadata = msgMetadataBuilder.build();
-                        ByteBufPair cmd = sendMessage(producerId, sequenceId, numMessages, msgMetadata, encryptedPayload);
+                        ByteBufPair cmd = sendMessage(producerId, sequenceId, numMessages, msgMetadata, encryptedPayload,
+                                payloadChecksum);
                         op = OpSendMsg.create(msg, cmd, sequenceId, callback);
                         msgMetadataBuilder.recycle();
                         msgMetadata.recycle();
@@ -435,7 +438,8 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
                         op = OpSendMsg.create(msg, null, sequenceId, callback);
                         op.rePopulate = () -> {
                             MessageMetadata msgMetadata = msgMetadataBuilder.build();
-                            op.cmd = sendMessage(producerId, sequenceId, numMessages, msgMetadata, encryptedPayload);
+                            op.cmd = sendMessage(producerId, sequenceId, numMessages, msgMetadata, encryptedPayload,
+                                    payloadChecksum);
                             msgMetadataBuilder.recycle();
                             msgMetadata.recycle();
                         };
@@ -559,6 +563,12 @@ public class ProducerImpl<T> extends ProducerBase<T> implements TimerTask, Conne
         return Commands.newSend(producerId, sequenceId, numMessages, getChecksumType(), msgMetadata, compressedPayload);
     }
 
+    protected ByteBufPair sendMessage(long producerId, long sequenceId, int numMessages, MessageMetadata msgMetadata,
+            ByteBuf compressedPayload, long payloadChecksum) {
+        return Commands.newSend(producerId, sequenceId, numMessages, getChecksumType(), msgMetadata, compressedPayload,
+                payloadChecksum);
+    }
+
     protected ByteBufPair sendMessage(long producerId, long lowestSequenceId, long highestSequenceId, int numMessages, MessageMetadata msgMetadata,
                                       ByteBuf compressedPayload) {
         return Commands.newSend(producerId, lowestSequenceId, highestSequenceId, numMessages, getChecksumType(), msgMetadata, compressedPayload);
@@ -46,6 +46,9 @@ public class SubscriptionStats {
     /** Number of delayed messages currently being tracked. */
     public long msgDelayed;
 
+    /** Total time the reads of the subscription were paused on the dispatch memory limit of the broker (ms). */
+    public long dispatchMemoryThrottledTimeMs;
+
     /** Number of unacknowledged messages for the subscription. */
     public long unackedMessages;
 
@@ -78,6 +81,7 @@ public class SubscriptionStats {
         msgBacklog = 0;
         unackedMessages = 0;
         msgRateExpired = 0;
+        dispatchMemoryThrottledTimeMs = 0;
         lastExpireTimestamp = 0L;
         consumers.clear();
     }
@@ -92,6 +96,7 @@ public class SubscriptionStats {
         this.msgBacklog += stats.msgBacklog;
         this.unackedMessages += stats.unackedMessages;
         this.msgRateExpired += stats.msgRateExpired;
+        this.dispatchMemoryThrottledTimeMs += stats.dispatchMemoryThrottledTimeMs;
         this.isReplicated |= stats.isReplicated;
         if (this.consumers.size() != stats.consumers.size()) {
             for (int i = 0; i < stats.consumers.size(); i++) {
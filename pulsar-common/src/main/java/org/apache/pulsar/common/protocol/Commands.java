@@ -112,6 +112,7 @@ import org.apache.pulsar.common.api.proto.PulsarApi.TxnAction;
 import org.apache.pulsar.common.protocol.schema.SchemaVersion;
 import org.apache.pulsar.common.schema.SchemaInfo;
 import org.apache.pulsar.common.schema.SchemaType;
+import org.apache.pulsar.common.util.Crc32cCombine;
 import org.apache.pulsar.common.util.protobuf.ByteBufCodedInputStream;
 import org.apache.pulsar.common.util.protobuf.ByteBufCodedOutputStream;
 import org.apache.pulsar.shaded.com.google.protobuf.v241.ByteString;
@@ -391,6 +392,25 @@ public class Commands {
         }
     }
 
+    /**
+     * Derive the checksum of the payload of a message from the checksum of its metadata and payload, reading only the
+     * metadata. The reader index of the buffer is not changed.
+     *
+     * @return the checksum of the payload, as an unsigned int, or -1 if the message has no checksum
+     */
+    public static long readPayloadChecksum(ByteBuf metadataAndPayload) {
+        if (!hasChecksum(metadataAndPayload)) {
+            return -1;
+        }
+        int checksumIndex = metadataAndPayload.readerIndex() + 2;
+        int checksum = metadataAndPayload.getInt(checksumIndex);
+        int metadataIndex = checksumIndex + checksumSize;
+        int metadataLength = 4 + (int) metadataAndPayload.getUnsignedInt(metadataIndex);
+        int metadataChecksum = computeChecksum(metadataAndPayload.slice(metadataIndex, metadataLength));
+        int payloadLength = metadataAndPayload.writerIndex() - metadataIndex - metadataLength;
+        return Crc32cCombine.suffixChecksum(checksum, metadataChecksum, payloadLength) & 0xFFFFFFFFL;
+    }
+
     public static MessageMetadata parseMessageMetadata(ByteBuf buffer) {
         try {
             // initially reader-index may point to start_of_checksum : increment reader-index to start_of_metadata
@@ -451,9 +471,28 @@ public class Commands {
                 checksumType, messageMetadata, payload);
     }
 
+    /**
+     * Create a send command of a payload whose checksum is already known, so that only the metadata is checksummed.
+     *
+     * @param payloadChecksum
+     *            the checksum of the payload as an unsigned int, or -1 to compute it
+     */
+    public static ByteBufPair newSend(long producerId, long sequenceId, int numMessages, ChecksumType checksumType,
+            MessageMetadata messageMetadata, ByteBuf payload, long payloadChecksum) {
+        return newSend(producerId, sequenceId, numMessages, 0, 0, checksumType, messageMetadata, payload,
+                payloadChecksum);
+    }
+
     public static ByteBufPair newSend(long producerId, long sequenceId, int numMessages,
                                       long txnIdLeastBits, long txnIdMostBits, ChecksumType checksumType,
             MessageMetadata messageData, ByteBuf payload) {
+        return newSend(producerId, sequenceId, numMessages, txnIdLeastBits, txnIdMostBits, checksumType, messageData,
+                payload, -1);
+    }
+
+    private static ByteBufPair newSend(long producerId, long sequenceId, int numMessages,
+                                       long txnIdLeastBits, long txnIdMostBits, ChecksumType checksumType,
+            MessageMetadata messageData, ByteBuf payload, long payloadChecksum) {
         CommandSend.Builder sendBuilder = CommandSend.newBuilder();
         sendBuilder.setProducerId(producerId);
         sendBuilder.setSequenceId(sequenceId);
@@ -469,7 +508,7 @@ public class Commands {
         CommandSend send = sendBuilder.build();
 
         ByteBufPair res = serializeCommandSendWithSize(BaseCommand.newBuilder().setType(Type.SEND).setSend(send),
-                checksumType, messageData, payload);
+                checksumType, messageData, payload, payloadChecksum);
         send.recycle();
         sendBuilder.recycle();
         return res;
@@ -494,7 +533,7 @@ public class Commands {
         CommandSend send = sendBuilder.build();
 
         ByteBufPair res = serializeCommandSendWithSize(BaseCommand.newBuilder().setType(Type.SEND).setSend(send),
-                checksumType, messageData, payload);
+                checksumType, messageData, payload, -1);
         send.recycle();
         sendBuilder.recycle();
         return res;
@@ -1454,7 +1493,7 @@ public class Commands {
     }
 
     private static ByteBufPair serializeCommandSendWithSize(BaseCommand.Builder cmdBuilder, ChecksumType checksumType,
-            MessageMetadata msgMetadata, ByteBuf payload) {
+            MessageMetadata msgMetadata, ByteBuf payload, long payloadChecksum) {
         // / Wire format
         // [TOTAL_SIZE] [CMD_SIZE][CMD] [MAGIC_NUMBER][CHECKSUM] [METADATA_SIZE][METADATA] [PAYLOAD]
 
@@ -1507,7 +1546,9 @@ public class Commands {
             headers.markReaderIndex();
             headers.readerIndex(checksumReaderIndex + checksumSize);
             int metadataChecksum = computeChecksum(headers);
-            int computedChecksum = resumeChecksum(metadataChecksum, payload);
+            int computedChecksum = payloadChecksum < 0
+                    ? resumeChecksum(metadataChecksum, payload)
+                    : Crc32cCombine.combine(metadataChecksum, (int) payloadChecksum, payloadSize);
             // set computed checksum
             headers.setInt(checksumReaderIndex, computedChecksum);
             headers.resetReaderIndex();
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util;
+
+/**
+ * Combination of CRC32C checksums, computing the checksum of concatenated buffers from the checksums of the buffers
+ * and their lengths, without reading the buffers again.
+ *
+ * <p>This is the CRC32 combination of zlib, using the Castagnoli polynomial. The checksums are the ones computed by
+ * {@link com.scurrilous.circe.checksum.Crc32cIntChecksum}. Combining two checksums costs a few hundred operations,
+ * whatever the lengths of the buffers.
+ */
+public final class Crc32cCombine {
+
+    // Castagnoli polynomial, reflected
+    private static final int POLY = 0x82F63B78;
+
+    // X2N_TABLE[k] is x^(2^k) modulo the polynomial
+    private static final int[] X2N_TABLE = new int[32];
+
+    static {
+        int p = 1 << 30; // x^1
+        X2N_TABLE[0] = p;
+        for (int n = 1; n < 32; n++) {
+            p = multModP(p, p);
+            X2N_TABLE[n] = p;
+        }
+    }
+
+    private Crc32cCombine() {
+    }
+
+    /**
+     * Returns the checksum of the concatenation of 2 buffers.
+     *
+     * @param crc1
+     *            the checksum of the first buffer
+     * @param crc2
+     *            the checksum of the second buffer
+     * @param length2
+     *            the length in bytes of the second buffer
+     */
+    public static int combine(int crc1, int crc2, long length2) {
+        return shift(crc1, length2) ^ crc2;
+    }
+
+    /**
+     * Returns the checksum of the end of a buffer, from the checksum of the whole buffer and the checksum of its
+     * beginning.
+     *
+     * @param crc
+     *            the checksum of the whole buffer
+     * @param prefixCrc
+     *            the checksum of the beginning of the buffer
+     * @param suffixLength
+     *            the length in bytes of the end of the buffer
+     */
+    public static int suffixChecksum(int crc, int prefixCrc, long suffixLength) {
+        return shift(prefixCrc, suffixLength) ^ crc;
+    }
+
+    // Checksum of the bytes of the given checksum followed by length zero bytes, without the pre and post conditioning
+    private static int shift(int crc, long length) {
+        return multModP(x2nModP(length, 3), crc);
+    }
+
+    // a * b modulo the polynomial, with the reflected bit order
+    private static int multModP(int a, int b) {
+        int m = 1 << 31;
+        int p = 0;
+        while (true) {
+            if ((a & m) != 0) {
+                p ^= b;
+                if ((a & (m - 1)) == 0) {
+                    break;
+                }
+            }
+            m >>>= 1;
+            b = (b & 1) != 0 ? (b >>> 1) ^ POLY : b >>> 1;
+        }
+        return p;
+    }
+
+    // x^(n * 2^k) modulo the polynomial
+    private static int x2nModP(long n, int k) {
+        int p = 1 << 31; // x^0
+        while (n != 0) {
+            if ((n & 1) != 0) {
+                p = multModP(X2N_TABLE[k & 31], p);
+            }
+            n >>>= 1;
+            k++;
+        }
+        return p;
+    }
+}
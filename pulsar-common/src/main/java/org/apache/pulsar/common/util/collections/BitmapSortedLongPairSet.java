@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPair;
+import org.apache.pulsar.common.util.collections.ConcurrentLongPairSet.LongPairConsumer;
+
+/**
+ * Sorted {@link LongPairSet} keeping the second items of each first item in a {@link RoaringBitSet}.
+ *
+ * <pre>
+ * Compared to {@link ConcurrentSortedLongPairSet}:
+ * a. the items are sorted on both keys, so {@link #items(int)} returns the lowest items, and stops as soon as it has
+ * found them instead of scanning all the items of a first key
+ * b. dense second items take at most one bit each, and consecutive ones are kept as runs
+ * c. {@link #size()} and {@link #isEmpty()} are O(1)
+ * </pre>
+ *
+ * <p>The second items have to be in the range of non-negative ints, as the entry ids of a ledger are.
+ *
+ * <p>The set is thread-safe through its monitor: all the operations are synchronized on the set, so unlike
+ * {@link ConcurrentSortedLongPairSet} or {@link ConcurrentOpenLongPairRangeSet} concurrent callers are serialized.
+ */
+public class BitmapSortedLongPairSet implements LongPairSet {
+
+    private final NavigableMap<Long, RoaringBitSet> map = new TreeMap<>();
+    private long size = 0;
+
+    @Override
+    public synchronized boolean add(long item1, long item2) {
+        RoaringBitSet bitSet = map.computeIfAbsent(item1, k -> new RoaringBitSet());
+        if (bitSet.get((int) item2)) {
+            return false;
+        }
+        bitSet.set((int) item2);
+        size++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(long item1, long item2) {
+        RoaringBitSet bitSet = map.get(item1);
+        if (bitSet == null || !bitSet.get((int) item2)) {
+            return false;
+        }
+        bitSet.clear((int) item2);
+        size--;
+        if (bitSet.isEmpty()) {
+            map.remove(item1);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int removeIf(LongPairPredicate filter) {
+        int removedValues = 0;
+        Iterator<Map.Entry<Long, RoaringBitSet>> iterator = map.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, RoaringBitSet> entry = iterator.next();
+            long item1 = entry.getKey();
+            RoaringBitSet bitSet = entry.getValue();
+            for (int item2 = bitSet.nextSetBit(0); item2 >= 0; item2 = nextSetBit(bitSet, item2)) {
+                if (filter.test(item1, item2)) {
+                    bitSet.clear(item2);
+                    removedValues++;
+                }
+            }
+            if (bitSet.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        size -= removedValues;
+        return removedValues;
+    }
+
+    @Override
+    public synchronized void forEach(LongPairConsumer processor) {
+        // The processor is allowed to remove items from the set
+        Map.Entry<Long, RoaringBitSet> entry = map.firstEntry();
+        while (entry != null) {
+            long item1 = entry.getKey();
+            RoaringBitSet bitSet = entry.getValue();
+            for (int item2 = bitSet.nextSetBit(0); item2 >= 0; item2 = nextSetBit(bitSet, item2)) {
+                processor.accept(item1, item2);
+            }
+            entry = map.higherEntry(item1);
+        }
+    }
+
+    @Override
+    public Set<LongPair> items() {
+        return items((int) Math.min(Integer.MAX_VALUE, size()));
+    }
+
+    @Override
+    public Set<LongPair> items(int numberOfItems) {
+        return items(numberOfItems, LongPair::new);
+    }
+
+    @Override
+    public synchronized <T> Set<T> items(int numberOfItems, LongPairFunction<T> longPairConverter) {
+        Set<T> items = new TreeSet<>();
+        int count = 0;
+        for (Map.Entry<Long, RoaringBitSet> entry : map.entrySet()) {
+            long item1 = entry.getKey();
+            RoaringBitSet bitSet = entry.getValue();
+            for (int item2 = bitSet.nextSetBit(0); item2 >= 0 && count < numberOfItems;
+                    item2 = nextSetBit(bitSet, item2)) {
+                items.add(longPairConverter.apply(item1, item2));
+                count++;
+            }
+            if (count >= numberOfItems) {
+                break;
+            }
+        }
+        return items;
+    }
+
+    private static int nextSetBit(RoaringBitSet bitSet, int item2) {
+        return item2 == Integer.MAX_VALUE ? -1 : bitSet.nextSetBit(item2 + 1);
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean contains(long item1, long item2) {
+        RoaringBitSet bitSet = map.get(item1);
+        return bitSet != null && bitSet.get((int) item2);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        forEach((item1, item2) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append('[');
+            sb.append(item1);
+            sb.append(':');
+            sb.append(item2);
+            sb.append(']');
+        });
+        sb.append('}');
+        return sb.toString();
+    }
+}
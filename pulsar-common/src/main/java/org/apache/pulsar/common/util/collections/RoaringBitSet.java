@@ -0,0 +1,661 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative int values, in the style of roaring bitmaps.
+ *
+ * <pre>
+ * The values are split in chunks of 2^16 by their 16 high bits, and the values of each chunk are kept in a container
+ * that is either:
+ * a. a list of runs of consecutive values, which is compact when the values are clustered
+ * b. a plain bitmap of 8 KB, once the runs would take more space than that
+ * Chunks without any value take no space.
+ * </pre>
+ *
+ * <p>Both the number of values and the number of runs of consecutive values of the set are kept up to date on
+ * every change, so they are available in constant time.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class RoaringBitSet {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // A run container holding more runs than this is bigger than a bitmap container
+    private static final int MAX_RUNS = 2048;
+
+    // Keys of the non-empty chunks, in ascending order, and their containers
+    private int[] keys = new int[1];
+    private Container[] containers = new Container[1];
+    private int numberOfContainers = 0;
+
+    private long cardinality = 0;
+    private int runs = 0;
+
+    /**
+     * Adds the values from fromIndex (inclusive) to toIndex (exclusive).
+     */
+    public void set(int fromIndex, int toIndex) {
+        checkArgument(fromIndex >= 0 && fromIndex <= toIndex);
+        if (fromIndex == toIndex) {
+            return;
+        }
+
+        int runsBefore = countRunStarts(fromIndex, (long) toIndex + 1);
+        int lastKey = (toIndex - 1) >>> CHUNK_BITS;
+        for (int key = fromIndex >>> CHUNK_BITS; key <= lastKey; key++) {
+            int from = key == fromIndex >>> CHUNK_BITS ? fromIndex & CHUNK_MASK : 0;
+            int to = key == lastKey ? ((toIndex - 1) & CHUNK_MASK) + 1 : CHUNK_SIZE;
+            int i = getOrCreateContainer(key);
+            Container container = containers[i];
+            cardinality -= container.cardinality;
+            container = container.set(from, to);
+            cardinality += container.cardinality;
+            containers[i] = container;
+        }
+
+        // Only the value at fromIndex can still start a run in the changed range
+        runs += (fromIndex > 0 && get(fromIndex - 1) ? 0 : 1) - runsBefore;
+    }
+
+    /**
+     * Adds the value.
+     */
+    public void set(int index) {
+        set(index, index + 1);
+    }
+
+    /**
+     * Removes the values from fromIndex (inclusive) to toIndex (exclusive).
+     */
+    public void clear(int fromIndex, int toIndex) {
+        checkArgument(fromIndex >= 0 && fromIndex <= toIndex);
+        if (fromIndex == toIndex || numberOfContainers == 0) {
+            return;
+        }
+
+        int runsBefore = countRunStarts(fromIndex, (long) toIndex + 1);
+        int firstKey = fromIndex >>> CHUNK_BITS;
+        int lastKey = (toIndex - 1) >>> CHUNK_BITS;
+        int i = findContainer(firstKey);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        while (i < numberOfContainers && keys[i] <= lastKey) {
+            int key = keys[i];
+            int from = key == firstKey ? fromIndex & CHUNK_MASK : 0;
+            int to = key == lastKey ? ((toIndex - 1) & CHUNK_MASK) + 1 : CHUNK_SIZE;
+            Container container = containers[i];
+            cardinality -= container.cardinality;
+            container = container.clear(from, to);
+            cardinality += container.cardinality;
+            if (container.cardinality == 0) {
+                removeContainer(i);
+            } else {
+                containers[i] = container;
+                i++;
+            }
+        }
+
+        // Only the value at toIndex can start a run in the changed range
+        runs += (toIndex < Integer.MAX_VALUE && get(toIndex) ? 1 : 0) - runsBefore;
+    }
+
+    /**
+     * Removes the value.
+     */
+    public void clear(int index) {
+        clear(index, index + 1);
+    }
+
+    /**
+     * Removes all the values.
+     */
+    public void clear() {
+        keys = new int[1];
+        containers = new Container[1];
+        numberOfContainers = 0;
+        cardinality = 0;
+        runs = 0;
+    }
+
+    public boolean get(int index) {
+        if (index < 0) {
+            return false;
+        }
+        int i = findContainer(index >>> CHUNK_BITS);
+        return i >= 0 && containers[i].get(index & CHUNK_MASK);
+    }
+
+    /**
+     * @return the first value greater or equal to fromIndex in the set, or -1 if there is none
+     */
+    public int nextSetBit(int fromIndex) {
+        int key = fromIndex >>> CHUNK_BITS;
+        int i = findContainer(key);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        for (; i < numberOfContainers; i++) {
+            int next = containers[i].nextSetBit(keys[i] == key ? fromIndex & CHUNK_MASK : 0);
+            if (next >= 0) {
+                return keys[i] << CHUNK_BITS | next;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first value greater or equal to fromIndex not in the set
+     */
+    public int nextClearBit(int fromIndex) {
+        int key = fromIndex >>> CHUNK_BITS;
+        int from = fromIndex & CHUNK_MASK;
+        int i = findContainer(key);
+        while (i >= 0) {
+            int next = containers[i].nextClearBit(from);
+            if (next < CHUNK_SIZE) {
+                return key << CHUNK_BITS | next;
+            }
+            // The chunk is full up to its end, move on to the next one
+            key++;
+            from = 0;
+            i = (i + 1 < numberOfContainers && keys[i + 1] == key) ? i + 1 : -1;
+        }
+        return key << CHUNK_BITS | from;
+    }
+
+    /**
+     * @return the last value lower or equal to fromIndex in the set, or -1 if there is none
+     */
+    public int previousSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            return -1;
+        }
+        int key = fromIndex >>> CHUNK_BITS;
+        int i = findContainer(key);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        for (; i >= 0; i--) {
+            int previous = containers[i].previousSetBit(keys[i] == key ? fromIndex & CHUNK_MASK : CHUNK_MASK);
+            if (previous >= 0) {
+                return keys[i] << CHUNK_BITS | previous;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the last value lower or equal to fromIndex not in the set, or -1 if there is none
+     */
+    public int previousClearBit(int fromIndex) {
+        if (fromIndex < 0) {
+            return -1;
+        }
+        int key = fromIndex >>> CHUNK_BITS;
+        int from = fromIndex & CHUNK_MASK;
+        int i = findContainer(key);
+        while (i >= 0) {
+            int previous = containers[i].previousClearBit(from);
+            if (previous >= 0) {
+                return key << CHUNK_BITS | previous;
+            }
+            // The chunk is full down to its start, move on to the previous one
+            if (key == 0) {
+                return -1;
+            }
+            key--;
+            from = CHUNK_MASK;
+            i = (i > 0 && keys[i - 1] == key) ? i - 1 : -1;
+        }
+        return key << CHUNK_BITS | from;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * @return the number of values in the set
+     */
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return the number of runs of consecutive values in the set
+     */
+    public int runCount() {
+        return runs;
+    }
+
+    /**
+     * @return an estimate of the memory used by the set
+     */
+    public long sizeInBytes() {
+        long size = 16 + keys.length * 4L + containers.length * 8L;
+        for (int i = 0; i < numberOfContainers; i++) {
+            size += containers[i].sizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * Counts the values in [fromIndex, toIndex) that start a run, that is for which the previous value is not set.
+     */
+    private int countRunStarts(int fromIndex, long toIndex) {
+        if (numberOfContainers == 0) {
+            return 0;
+        }
+        int firstKey = fromIndex >>> CHUNK_BITS;
+        int lastKey = (int) ((toIndex - 1) >>> CHUNK_BITS);
+        int i = findContainer(firstKey);
+        if (i < 0) {
+            i = -i - 1;
+        }
+
+        int count = 0;
+        for (; i < numberOfContainers && keys[i] <= lastKey; i++) {
+            int key = keys[i];
+            int from = key == firstKey ? fromIndex & CHUNK_MASK : 0;
+            int to = key == lastKey ? (int) ((toIndex - 1) & CHUNK_MASK) + 1 : CHUNK_SIZE;
+            count += containers[i].countRunStarts(from, to);
+            // A run going on from the end of the previous chunk doesn't start at the beginning of this one
+            if (from == 0 && i > 0 && keys[i - 1] == key - 1 && containers[i].get(0)
+                    && containers[i - 1].get(CHUNK_MASK)) {
+                count--;
+            }
+        }
+        return count;
+    }
+
+    private int findContainer(int key) {
+        return Arrays.binarySearch(keys, 0, numberOfContainers, key);
+    }
+
+    private int getOrCreateContainer(int key) {
+        int i = findContainer(key);
+        if (i >= 0) {
+            return i;
+        }
+
+        i = -i - 1;
+        if (numberOfContainers == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            containers = Arrays.copyOf(containers, containers.length * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, numberOfContainers - i);
+        System.arraycopy(containers, i, containers, i + 1, numberOfContainers - i);
+        keys[i] = key;
+        containers[i] = new RunContainer();
+        numberOfContainers++;
+        return i;
+    }
+
+    private void removeContainer(int i) {
+        System.arraycopy(keys, i + 1, keys, i, numberOfContainers - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, numberOfContainers - i - 1);
+        numberOfContainers--;
+        containers[numberOfContainers] = null;
+    }
+
+    /**
+     * The values of a chunk, as offsets in [0, 2^16) from the start of the chunk.
+     */
+    private abstract static class Container {
+        int cardinality = 0;
+
+        // Updates return the container to use from then on, which may have changed type
+        abstract Container set(int from, int to);
+
+        abstract Container clear(int from, int to);
+
+        abstract boolean get(int index);
+
+        // -1 if there is none
+        abstract int nextSetBit(int from);
+
+        // CHUNK_SIZE if there is none
+        abstract int nextClearBit(int from);
+
+        // -1 if there is none
+        abstract int previousSetBit(int from);
+
+        // -1 if there is none
+        abstract int previousClearBit(int from);
+
+        // Values in [from, to) whose previous value in the container is not set
+        abstract int countRunStarts(int from, int to);
+
+        abstract long sizeInBytes();
+    }
+
+    private static final class RunContainer extends Container {
+        // (first, last) values of the runs, in ascending order
+        private char[] runs = new char[4];
+        private int numberOfRuns = 0;
+
+        private int first(int run) {
+            return runs[2 * run];
+        }
+
+        private int last(int run) {
+            return runs[2 * run + 1];
+        }
+
+        // Index of the first run whose last value is greater or equal to the given one
+        private int firstRunEndingFrom(int value) {
+            int low = 0;
+            int high = numberOfRuns;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (last(mid) < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Index of the first run whose first value is greater or equal to the given one
+        private int firstRunStartingFrom(int value) {
+            int low = 0;
+            int high = numberOfRuns;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (first(mid) < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Replaces the runs [i, j) with the given ones
+        private void replaceRuns(int i, int j, int[] newRuns, int newNumberOfRuns) {
+            int count = numberOfRuns - (j - i) + newNumberOfRuns;
+            if (2 * count > runs.length) {
+                runs = Arrays.copyOf(runs, Math.max(2 * count, runs.length * 2));
+            }
+            System.arraycopy(runs, 2 * j, runs, 2 * (i + newNumberOfRuns), 2 * (numberOfRuns - j));
+            for (int k = 0; k < 2 * newNumberOfRuns; k++) {
+                runs[2 * i + k] = (char) newRuns[k];
+            }
+            numberOfRuns = count;
+            // Give back the memory once most of the runs have been merged
+            if (runs.length > 64 && 8 * count < runs.length) {
+                runs = Arrays.copyOf(runs, runs.length / 2);
+            }
+        }
+
+        @Override
+        Container set(int from, int to) {
+            int first = from;
+            int last = to - 1;
+            // Merge with the runs overlapping or adjacent to the new one
+            int i = firstRunEndingFrom(from - 1);
+            int j = i;
+            while (j < numberOfRuns && first(j) <= last + 1) {
+                first = Math.min(first, first(j));
+                last = Math.max(last, last(j));
+                cardinality -= last(j) - first(j) + 1;
+                j++;
+            }
+            replaceRuns(i, j, new int[] { first, last }, 1);
+            cardinality += last - first + 1;
+            return numberOfRuns > MAX_RUNS ? BitmapContainer.fromRuns(this) : this;
+        }
+
+        @Override
+        Container clear(int from, int to) {
+            int last = to - 1;
+            int i = firstRunEndingFrom(from);
+            int j = i;
+            int[] remaining = new int[4];
+            int numberOfRemaining = 0;
+            while (j < numberOfRuns && first(j) <= last) {
+                cardinality -= last(j) - first(j) + 1;
+                if (first(j) < from) {
+                    remaining[2 * numberOfRemaining] = first(j);
+                    remaining[2 * numberOfRemaining + 1] = from - 1;
+                    cardinality += from - first(j);
+                    numberOfRemaining++;
+                }
+                if (last(j) > last) {
+                    remaining[2 * numberOfRemaining] = last + 1;
+                    remaining[2 * numberOfRemaining + 1] = last(j);
+                    cardinality += last(j) - last;
+                    numberOfRemaining++;
+                }
+                j++;
+            }
+            replaceRuns(i, j, remaining, numberOfRemaining);
+            return numberOfRuns > MAX_RUNS ? BitmapContainer.fromRuns(this) : this;
+        }
+
+        @Override
+        boolean get(int index) {
+            int i = firstRunEndingFrom(index);
+            return i < numberOfRuns && first(i) <= index;
+        }
+
+        @Override
+        int nextSetBit(int from) {
+            int i = firstRunEndingFrom(from);
+            return i < numberOfRuns ? Math.max(from, first(i)) : -1;
+        }
+
+        @Override
+        int nextClearBit(int from) {
+            int i = firstRunEndingFrom(from);
+            return i < numberOfRuns && first(i) <= from ? last(i) + 1 : from;
+        }
+
+        @Override
+        int previousSetBit(int from) {
+            int i = firstRunEndingFrom(from);
+            if (i < numberOfRuns && first(i) <= from) {
+                return from;
+            }
+            return i > 0 ? last(i - 1) : -1;
+        }
+
+        @Override
+        int previousClearBit(int from) {
+            int i = firstRunEndingFrom(from);
+            return i < numberOfRuns && first(i) <= from ? first(i) - 1 : from;
+        }
+
+        @Override
+        int countRunStarts(int from, int to) {
+            return firstRunStartingFrom(to) - firstRunStartingFrom(from);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 32 + runs.length * 2L;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[CHUNK_SIZE / Long.SIZE];
+        private int numberOfRuns = 0;
+
+        static BitmapContainer fromRuns(RunContainer runContainer) {
+            BitmapContainer container = new BitmapContainer();
+            for (int i = 0; i < runContainer.numberOfRuns; i++) {
+                container.setWords(runContainer.first(i), runContainer.last(i) + 1, true);
+            }
+            container.cardinality = runContainer.cardinality;
+            container.numberOfRuns = runContainer.numberOfRuns;
+            return container;
+        }
+
+        private RunContainer toRuns() {
+            RunContainer container = new RunContainer();
+            int start = nextSetBit(0);
+            while (start >= 0) {
+                int end = nextClearBit(start);
+                container.set(start, end);
+                start = end < CHUNK_SIZE ? nextSetBit(end) : -1;
+            }
+            return container;
+        }
+
+        private void setWords(int from, int to, boolean value) {
+            int firstWord = from >>> 6;
+            int lastWord = (to - 1) >>> 6;
+            long firstMask = -1L << from;
+            long lastMask = -1L >>> -to;
+            for (int w = firstWord; w <= lastWord; w++) {
+                long mask = -1L;
+                if (w == firstWord) {
+                    mask &= firstMask;
+                }
+                if (w == lastWord) {
+                    mask &= lastMask;
+                }
+                cardinality -= Long.bitCount(words[w]);
+                words[w] = value ? words[w] | mask : words[w] & ~mask;
+                cardinality += Long.bitCount(words[w]);
+            }
+        }
+
+        @Override
+        Container set(int from, int to) {
+            int runsBefore = countRunStarts(from, Math.min(to + 1, CHUNK_SIZE));
+            setWords(from, to, true);
+            numberOfRuns += (from > 0 && get(from - 1) ? 0 : 1) - runsBefore;
+            return numberOfRuns <= MAX_RUNS / 2 ? toRuns() : this;
+        }
+
+        @Override
+        Container clear(int from, int to) {
+            int runsBefore = countRunStarts(from, Math.min(to + 1, CHUNK_SIZE));
+            setWords(from, to, false);
+            numberOfRuns += (to < CHUNK_SIZE && get(to) ? 1 : 0) - runsBefore;
+            return numberOfRuns <= MAX_RUNS / 2 ? toRuns() : this;
+        }
+
+        @Override
+        boolean get(int index) {
+            return (words[index >>> 6] & (1L << index)) != 0;
+        }
+
+        @Override
+        int nextSetBit(int from) {
+            int w = from >>> 6;
+            long word = words[w] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++w == words.length) {
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+
+        @Override
+        int nextClearBit(int from) {
+            int w = from >>> 6;
+            long word = ~words[w] & (-1L << from);
+            while (true) {
+                if (word != 0) {
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++w == words.length) {
+                    return CHUNK_SIZE;
+                }
+                word = ~words[w];
+            }
+        }
+
+        @Override
+        int previousSetBit(int from) {
+            int w = from >>> 6;
+            long word = words[w] & (-1L >>> -(from + 1));
+            while (true) {
+                if (word != 0) {
+                    return (w + 1) * 64 - 1 - Long.numberOfLeadingZeros(word);
+                }
+                if (w-- == 0) {
+                    return -1;
+                }
+                word = words[w];
+            }
+        }
+
+        @Override
+        int previousClearBit(int from) {
+            int w = from >>> 6;
+            long word = ~words[w] & (-1L >>> -(from + 1));
+            while (true) {
+                if (word != 0) {
+                    return (w + 1) * 64 - 1 - Long.numberOfLeadingZeros(word);
+                }
+                if (w-- == 0) {
+                    return -1;
+                }
+                word = ~words[w];
+            }
+        }
+
+        @Override
+        int countRunStarts(int from, int to) {
+            if (from >= to) {
+                return 0;
+            }
+            int firstWord = from >>> 6;
+            int lastWord = (to - 1) >>> 6;
+            int count = 0;
+            for (int w = firstWord; w <= lastWord; w++) {
+                long previousBits = words[w] << 1;
+                if (w > 0) {
+                    previousBits |= words[w - 1] >>> 63;
+                }
+                long starts = words[w] & ~previousBits;
+                if (w == firstWord) {
+                    starts &= -1L << from;
+                }
+                if (w == lastWord) {
+                    starts &= -1L >>> -to;
+                }
+                count += Long.bitCount(starts);
+            }
+            return count;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 32 + words.length * 8L;
+        }
+    }
+}
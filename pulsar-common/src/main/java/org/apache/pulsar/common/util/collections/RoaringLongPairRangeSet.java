@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * A set comprising zero or more ranges of type {@link LongPair}, with the values of each key kept in a
+ * {@link RoaringBitSet}.
+ *
+ * <pre>
+ * Compared to {@link ConcurrentOpenLongPairRangeSet}:
+ * a. the memory used for a key depends on the number of ranges it holds rather than on the highest value set, so
+ * sparse holes over large keys are cheap, while dense holes still take at most one bit per value
+ * b. the number of ranges is maintained on every update, so {@link #size()} and {@link #isEmpty()} are O(1)
+ * </pre>
+ *
+ * <p>All the operations are synchronized on the set.
+ */
+public class RoaringLongPairRangeSet<T extends Comparable<T>> implements LongPairRangeSet<T> {
+
+    private final NavigableMap<Long, RoaringBitSet> rangeBitSetMap = new TreeMap<>();
+    private final LongPairConsumer<T> consumer;
+
+    // Number of ranges over all the keys
+    private int size = 0;
+
+    public RoaringLongPairRangeSet(LongPairConsumer<T> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public synchronized void addOpenClosed(long lowerKey, long lowerValueOpen, long upperKey, long upperValue) {
+        long lowerValue = lowerValueOpen + 1;
+        if (lowerKey != upperKey) {
+            // (1) set lower to last in lowerRange.getKey(), only if the lower key already has greater values set
+            if (isValid(lowerKey, lowerValue)) {
+                RoaringBitSet rangeBitSet = rangeBitSetMap.get(lowerKey);
+                if (rangeBitSet != null) {
+                    int lastValue = rangeBitSet.previousSetBit(Integer.MAX_VALUE);
+                    if (lastValue > lowerValueOpen) {
+                        set(rangeBitSet, (int) lowerValue, (int) Math.max(lastValue, lowerValue) + 1);
+                    }
+                }
+            }
+            // (2) set 0th-index to upper-index in upperRange.getKey()
+            if (isValid(upperKey, upperValue)) {
+                set(getOrCreate(upperKey), 0, (int) upperValue + 1);
+            }
+        } else if (lowerValue <= upperValue) {
+            set(getOrCreate(lowerKey), (int) lowerValue, (int) upperValue + 1);
+        }
+    }
+
+    private boolean isValid(long key, long value) {
+        return key != LongPair.earliest.getKey() && value != LongPair.earliest.getValue()
+                && key != LongPair.latest.getKey() && value != LongPair.latest.getValue();
+    }
+
+    private RoaringBitSet getOrCreate(long key) {
+        return rangeBitSetMap.computeIfAbsent(key, k -> new RoaringBitSet());
+    }
+
+    private void set(RoaringBitSet rangeBitSet, int fromIndex, int toIndex) {
+        size -= rangeBitSet.runCount();
+        rangeBitSet.set(fromIndex, toIndex);
+        size += rangeBitSet.runCount();
+    }
+
+    @Override
+    public synchronized boolean contains(long key, long value) {
+        RoaringBitSet rangeBitSet = rangeBitSetMap.get(key);
+        return rangeBitSet != null && value >= 0 && rangeBitSet.get((int) value);
+    }
+
+    @Override
+    public synchronized Range<T> rangeContaining(long key, long value) {
+        RoaringBitSet rangeBitSet = rangeBitSetMap.get(key);
+        if (rangeBitSet == null || value < 0 || !rangeBitSet.get((int) value)) {
+            // if position is not part of any range then return null
+            return null;
+        }
+        int lowerValue = rangeBitSet.previousClearBit((int) value) + 1;
+        int upperValue = Math.max(rangeBitSet.nextClearBit((int) value) - 1, lowerValue);
+        return Range.closed(consumer.apply(key, lowerValue), consumer.apply(key, upperValue));
+    }
+
+    @Override
+    public synchronized void removeAtMost(long key, long value) {
+        Iterator<RoaringBitSet> lowerSets = rangeBitSetMap.headMap(key, false).values().iterator();
+        while (lowerSets.hasNext()) {
+            size -= lowerSets.next().runCount();
+            lowerSets.remove();
+        }
+
+        RoaringBitSet rangeBitSet = rangeBitSetMap.get(key);
+        if (rangeBitSet != null && value >= 0) {
+            size -= rangeBitSet.runCount();
+            rangeBitSet.clear(0, (int) value + 1);
+            size += rangeBitSet.runCount();
+            if (rangeBitSet.isEmpty()) {
+                rangeBitSetMap.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized void clear() {
+        rangeBitSetMap.clear();
+        size = 0;
+    }
+
+    @Override
+    public synchronized Range<T> span() {
+        Entry<Long, RoaringBitSet> firstSet = firstNonEmptyEntry();
+        if (firstSet == null) {
+            return null;
+        }
+        Entry<Long, RoaringBitSet> lastSet = lastNonEmptyEntry();
+        int first = firstSet.getValue().nextSetBit(0);
+        int last = lastSet.getValue().previousSetBit(Integer.MAX_VALUE);
+        return Range.openClosed(consumer.apply(firstSet.getKey(), first - 1), consumer.apply(lastSet.getKey(), last));
+    }
+
+    @Override
+    public List<Range<T>> asRanges() {
+        List<Range<T>> ranges = new ArrayList<>();
+        forEach((range) -> {
+            ranges.add(range);
+            return true;
+        });
+        return ranges;
+    }
+
+    @Override
+    public void forEach(RangeProcessor<T> action) {
+        forEach(action, consumer);
+    }
+
+    @Override
+    public synchronized void forEach(RangeProcessor<T> action, LongPairConsumer<? extends T> consumer) {
+        for (Entry<Long, RoaringBitSet> entry : rangeBitSetMap.entrySet()) {
+            long key = entry.getKey();
+            RoaringBitSet set = entry.getValue();
+            int currentClosedMark = set.nextSetBit(0);
+            while (currentClosedMark != -1) {
+                int nextOpenMark = set.nextClearBit(currentClosedMark);
+                Range<T> range = Range.openClosed(consumer.apply(key, currentClosedMark - 1),
+                        consumer.apply(key, nextOpenMark - 1));
+                if (!action.process(range)) {
+                    return;
+                }
+                currentClosedMark = set.nextSetBit(nextOpenMark);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Range<T> firstRange() {
+        Entry<Long, RoaringBitSet> firstSet = firstNonEmptyEntry();
+        if (firstSet == null) {
+            return null;
+        }
+        int lower = firstSet.getValue().nextSetBit(0);
+        int upper = Math.max(lower, firstSet.getValue().nextClearBit(lower) - 1);
+        return Range.openClosed(consumer.apply(firstSet.getKey(), lower - 1), consumer.apply(firstSet.getKey(), upper));
+    }
+
+    @Override
+    public synchronized Range<T> lastRange() {
+        Entry<Long, RoaringBitSet> lastSet = lastNonEmptyEntry();
+        if (lastSet == null) {
+            return null;
+        }
+        int upper = lastSet.getValue().previousSetBit(Integer.MAX_VALUE);
+        int lower = Math.min(lastSet.getValue().previousClearBit(upper), upper);
+        return Range.openClosed(consumer.apply(lastSet.getKey(), lower), consumer.apply(lastSet.getKey(), upper));
+    }
+
+    private Entry<Long, RoaringBitSet> firstNonEmptyEntry() {
+        for (Entry<Long, RoaringBitSet> entry : rangeBitSetMap.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Entry<Long, RoaringBitSet> lastNonEmptyEntry() {
+        for (Entry<Long, RoaringBitSet> entry : rangeBitSetMap.descendingMap().entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return an estimate of the memory used by the ranges of the set
+     */
+    public synchronized long sizeInBytes() {
+        long sizeInBytes = 0;
+        for (RoaringBitSet set : rangeBitSetMap.values()) {
+            sizeInBytes += set.sizeInBytes();
+        }
+        return sizeInBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder toString = new StringBuilder();
+        toString.append("[");
+        forEach((range) -> {
+            if (toString.length() > 1) {
+                toString.append(",");
+            }
+            toString.append(range);
+            return true;
+        });
+        toString.append("]");
+        return toString.toString();
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Hierarchical timing wheel of items composed by 3 longs, the first one being the time at which the item expires.
+ *
+ * <p>Each level of the wheel has the same number of buckets. A bucket of the first level spans one tick, and a bucket
+ * of the next level spans a whole turn of the previous level. The levels are added when needed. An item is appended to
+ * the bucket of the lowest level covering its time, in constant time. When a bucket expires, its items are moved as a
+ * whole either to the ready items or, for the upper levels, to the buckets of the lower levels.
+ *
+ * <p>No level is added once the time span of its buckets would overflow. The items beyond the top level wait in an
+ * overflow bucket, which expires on each tick of the top level, so that they are added again once it covers them.
+ *
+ * <p>The items are ready once their tick is reached, so up to one tick before their time. The ready items are returned
+ * in the order of the expiration of their bucket, not sorted within a tick.
+ *
+ * <p>This class is not thread safe.
+ */
+public class TripleLongTimingWheel {
+
+    // Each item is composed of 3 longs
+    private static final int ITEMS_COUNT = 3;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    // Buckets holding more items than this after they expire give their array back
+    private static final int MAX_RETAINED_CAPACITY = 1024 * ITEMS_COUNT;
+
+    private static final long[] EMPTY = new long[0];
+
+    private static class Bucket {
+        private long expiration = -1;
+        private long[] items = EMPTY;
+        private int size;
+
+        void add(long n1, long n2, long n3) {
+            if (size + ITEMS_COUNT > items.length) {
+                long[] newItems = new long[Math.max(DEFAULT_INITIAL_CAPACITY * ITEMS_COUNT, items.length * 2)];
+                System.arraycopy(items, 0, newItems, 0, size);
+                items = newItems;
+            }
+            items[size++] = n1;
+            items[size++] = n2;
+            items[size++] = n3;
+        }
+
+        void clear() {
+            expiration = -1;
+            size = 0;
+            if (items.length > MAX_RETAINED_CAPACITY) {
+                items = EMPTY;
+            }
+        }
+    }
+
+    private static class Level {
+        private final long tickDuration;
+        private final long interval;
+        private final Bucket[] buckets;
+
+        // Start of the tick of the level that is currently running
+        private long currentTime;
+
+        Level(long tickDuration, int wheelSize, long startTime) {
+            this.tickDuration = tickDuration;
+            this.interval = tickDuration * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket();
+            }
+            this.currentTime = startTime - (startTime % tickDuration);
+        }
+    }
+
+    private final int wheelSize;
+    private final List<Level> levels = new ArrayList<>();
+
+    // Items beyond the top level, once no more level can be added
+    private final Bucket overflow = new Bucket();
+
+    // Buckets holding items, by expiration time
+    private final PriorityQueue<Bucket> pendingBuckets = new PriorityQueue<>(
+            (b1, b2) -> Long.compare(b1.expiration, b2.expiration));
+
+    // Ready items, from readyHead to readyTail
+    private long[] ready = new long[DEFAULT_INITIAL_CAPACITY * ITEMS_COUNT];
+    private int readyHead;
+    private int readyTail;
+
+    private long size;
+
+    /**
+     * Create a new timing wheel.
+     *
+     * @param tickDuration
+     *            the time span of a bucket of the first level
+     * @param wheelSize
+     *            the number of buckets of each level
+     * @param startTime
+     *            the current time
+     */
+    public TripleLongTimingWheel(long tickDuration, int wheelSize, long startTime) {
+        checkArgument(tickDuration > 0);
+        checkArgument(wheelSize > 1);
+        checkArgument(tickDuration <= Long.MAX_VALUE / wheelSize);
+        this.wheelSize = wheelSize;
+        levels.add(new Level(tickDuration, wheelSize, startTime));
+    }
+
+    /**
+     * Add a tuple of 3 long items to the timing wheel.
+     *
+     * @param n1
+     *            the time at which the item expires
+     * @param n2
+     * @param n3
+     */
+    public void add(long n1, long n2, long n3) {
+        addToWheel(n1, n2, n3);
+        ++size;
+    }
+
+    private void addToWheel(long n1, long n2, long n3) {
+        Level level = levels.get(0);
+        if (n1 < level.currentTime + level.tickDuration) {
+            addReady(n1, n2, n3);
+            return;
+        }
+
+        for (int i = 0; true; i++) {
+            Level next = getLevel(i);
+            if (next == null) {
+                // Beyond the top level, the item is added again on its next tick
+                addToBucket(overflow, level.currentTime + level.tickDuration, n1, n2, n3);
+                return;
+            }
+            level = next;
+            if (n1 - level.currentTime < level.interval) {
+                long virtualId = n1 / level.tickDuration;
+                addToBucket(level.buckets[(int) (virtualId % wheelSize)], virtualId * level.tickDuration,
+                        n1, n2, n3);
+                return;
+            }
+        }
+    }
+
+    private void addToBucket(Bucket bucket, long expiration, long n1, long n2, long n3) {
+        bucket.add(n1, n2, n3);
+        if (bucket.expiration != expiration) {
+            bucket.expiration = expiration;
+            pendingBuckets.add(bucket);
+        }
+    }
+
+    // Returns null if the level can't be added, as the time span of its buckets would overflow
+    private Level getLevel(int index) {
+        if (index == levels.size()) {
+            Level previous = levels.get(index - 1);
+            if (previous.interval > Long.MAX_VALUE / wheelSize) {
+                return null;
+            }
+            levels.add(new Level(previous.interval, wheelSize, previous.currentTime));
+        }
+        return levels.get(index);
+    }
+
+    /**
+     * Move the time of the wheel forward, making ready the items of the buckets that expired.
+     *
+     * @param time
+     *            the current time
+     */
+    public void advance(long time) {
+        while (!pendingBuckets.isEmpty() && pendingBuckets.peek().expiration <= time) {
+            Bucket bucket = pendingBuckets.poll();
+            advanceClock(bucket.expiration);
+
+            long[] items = bucket.items;
+            int bucketSize = bucket.size;
+            if (bucket == overflow) {
+                // The items still beyond the top level go back to the overflow bucket
+                overflow.items = EMPTY;
+                overflow.clear();
+            }
+            // The items go to the ready items or to the lower levels, never back into the same level bucket
+            for (int i = 0; i < bucketSize; i += ITEMS_COUNT) {
+                addToWheel(items[i], items[i + 1], items[i + 2]);
+            }
+            if (bucket != overflow) {
+                bucket.clear();
+            }
+        }
+        advanceClock(time);
+    }
+
+    private void advanceClock(long time) {
+        for (Level level : levels) {
+            if (time >= level.currentTime + level.tickDuration) {
+                level.currentTime = time - (time % level.tickDuration);
+            }
+        }
+    }
+
+    /**
+     * Returns the time at which the next bucket expires, or {@link Long#MAX_VALUE} if no item is waiting in the wheel.
+     */
+    public long nextExpiration() {
+        return pendingBuckets.isEmpty() ? Long.MAX_VALUE : pendingBuckets.peek().expiration;
+    }
+
+    private void addReady(long n1, long n2, long n3) {
+        if (readyTail + ITEMS_COUNT > ready.length) {
+            int readySize = readyTail - readyHead;
+            long[] target = ready;
+            if (readySize + ITEMS_COUNT > ready.length / 2) {
+                target = new long[ready.length * 2];
+            }
+            System.arraycopy(ready, readyHead, target, 0, readySize);
+            ready = target;
+            readyHead = 0;
+            readyTail = readySize;
+        }
+        ready[readyTail++] = n1;
+        ready[readyTail++] = n2;
+        ready[readyTail++] = n3;
+    }
+
+    /**
+     * Read the 1st long item of the first ready tuple.
+     *
+     * <p>The tuple will not be extracted
+     */
+    public long peekN1() {
+        checkArgument(readyTail != readyHead);
+        return ready[readyHead];
+    }
+
+    /**
+     * Read the 2nd long item of the first ready tuple.
+     *
+     * <p>The tuple will not be extracted
+     */
+    public long peekN2() {
+        checkArgument(readyTail != readyHead);
+        return ready[readyHead + 1];
+    }
+
+    /**
+     * Read the 3rd long item of the first ready tuple.
+     *
+     * <p>The tuple will not be extracted
+     */
+    public long peekN3() {
+        checkArgument(readyTail != readyHead);
+        return ready[readyHead + 2];
+    }
+
+    /**
+     * Removes the first ready tuple.
+     */
+    public void pop() {
+        checkArgument(readyTail != readyHead);
+        readyHead += ITEMS_COUNT;
+        if (readyHead == readyTail) {
+            readyHead = 0;
+            readyTail = 0;
+        }
+        --size;
+    }
+
+    /**
+     * Returns the number of ready tuples.
+     */
+    public int readySize() {
+        return (readyTail - readyHead) / ITEMS_COUNT;
+    }
+
+    /**
+     * Returns whether the timing wheel is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of tuples in the timing wheel, ready or not.
+     */
+    public long size() {
+        return size;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.protocol;
+
+import static com.scurrilous.circe.checksum.Crc32cIntChecksum.computeChecksum;
+import static org.testng.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Random;
+import org.apache.pulsar.common.api.proto.PulsarApi.MessageMetadata;
+import org.apache.pulsar.common.protocol.Commands.ChecksumType;
+import org.testng.annotations.Test;
+
+public class CommandsTest {
+
+    @Test
+    public void testReadPayloadChecksum() {
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+        ByteBuf payload = Unpooled.wrappedBuffer(data);
+        MessageMetadata metadata = MessageMetadata.newBuilder().setProducerName("producer").setSequenceId(1)
+                .setPublishTime(1000).setReplicatedFrom("cluster").build();
+        long payloadChecksum = computeChecksum(payload) & 0xFFFFFFFFL;
+
+        ByteBuf metadataAndPayload = Commands.serializeMetadataAndPayload(ChecksumType.Crc32c, metadata, payload);
+        int readerIndex = metadataAndPayload.readerIndex();
+        assertEquals(Commands.readPayloadChecksum(metadataAndPayload), payloadChecksum);
+        assertEquals(metadataAndPayload.readerIndex(), readerIndex);
+        metadataAndPayload.release();
+
+        payload.resetReaderIndex();
+        ByteBuf withoutChecksum = Commands.serializeMetadataAndPayload(ChecksumType.None, metadata, payload);
+        assertEquals(Commands.readPayloadChecksum(withoutChecksum), -1);
+        withoutChecksum.release();
+    }
+
+    @Test
+    public void testSendWithPayloadChecksum() {
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+        ByteBuf payload = Unpooled.wrappedBuffer(data);
+        MessageMetadata metadata = MessageMetadata.newBuilder().setProducerName("producer").setSequenceId(1)
+                .setPublishTime(1000).build();
+
+        // The command is the same as when the whole payload is read
+        ByteBufPair expected = Commands.newSend(1, 1, 1, ChecksumType.Crc32c, metadata, payload);
+        ByteBufPair actual = Commands.newSend(1, 1, 1, ChecksumType.Crc32c, metadata, payload,
+                computeChecksum(payload) & 0xFFFFFFFFL);
+        assertEquals(actual.getFirst(), expected.getFirst());
+        expected.getFirst().release();
+        actual.getFirst().release();
+    }
+}
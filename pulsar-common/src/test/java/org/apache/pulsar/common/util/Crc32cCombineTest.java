@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util;
+
+import static com.scurrilous.circe.checksum.Crc32cIntChecksum.computeChecksum;
+import static org.testng.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Random;
+import org.testng.annotations.Test;
+
+public class Crc32cCombineTest {
+
+    @Test
+    public void testCombine() {
+        Random random = new Random(1);
+        for (int length : new int[] { 0, 1, 7, 100, 4096, 1 << 20 }) {
+            byte[] data = new byte[length + 50];
+            random.nextBytes(data);
+            for (int split : new int[] { 0, 1, 50 }) {
+                ByteBuf whole = Unpooled.wrappedBuffer(data, 0, split + length);
+                ByteBuf prefix = Unpooled.wrappedBuffer(data, 0, split);
+                ByteBuf suffix = Unpooled.wrappedBuffer(data, split, length);
+
+                int crc = computeChecksum(whole);
+                int prefixCrc = computeChecksum(prefix);
+                int suffixCrc = computeChecksum(suffix);
+
+                assertEquals(Crc32cCombine.combine(prefixCrc, suffixCrc, length), crc);
+                assertEquals(Crc32cCombine.suffixChecksum(crc, prefixCrc, length), suffixCrc);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+import org.testng.annotations.Test;
+
+public class RoaringBitSetTest {
+
+    private static int countRuns(BitSet bitSet) {
+        int runs = 0;
+        int start = bitSet.nextSetBit(0);
+        while (start >= 0) {
+            runs++;
+            start = bitSet.nextSetBit(bitSet.nextClearBit(start));
+        }
+        return runs;
+    }
+
+    private static void assertSameContent(RoaringBitSet set, BitSet expected, Random random, int maxValue) {
+        assertEquals(set.cardinality(), expected.cardinality());
+        assertEquals(set.runCount(), countRuns(expected));
+        assertEquals(set.isEmpty(), expected.isEmpty());
+        for (int i = 0; i < 200; i++) {
+            int index = random.nextInt(maxValue);
+            assertEquals(set.get(index), expected.get(index), "index " + index);
+            assertEquals(set.nextSetBit(index), expected.nextSetBit(index), "index " + index);
+            assertEquals(set.nextClearBit(index), expected.nextClearBit(index), "index " + index);
+            assertEquals(set.previousSetBit(index), expected.previousSetBit(index), "index " + index);
+            assertEquals(set.previousClearBit(index), expected.previousClearBit(index), "index " + index);
+        }
+    }
+
+    @Test
+    public void testRandomRangesCompareWithBitSet() {
+        Random random = new Random(1);
+        int maxValue = 300_000;
+        RoaringBitSet set = new RoaringBitSet();
+        BitSet expected = new BitSet();
+
+        for (int i = 0; i < 5000; i++) {
+            int from = random.nextInt(maxValue);
+            int to = Math.min(maxValue, from + random.nextInt(random.nextBoolean() ? 10 : 100_000));
+            if (random.nextInt(3) == 0) {
+                set.clear(from, to);
+                expected.clear(from, to);
+            } else {
+                set.set(from, to);
+                expected.set(from, to);
+            }
+            if (i % 100 == 0) {
+                assertSameContent(set, expected, random, maxValue);
+            }
+        }
+        assertSameContent(set, expected, random, maxValue);
+    }
+
+    @Test
+    public void testDenseValues() {
+        Random random = new Random(2);
+        RoaringBitSet set = new RoaringBitSet();
+        BitSet expected = new BitSet();
+
+        // Every other value set, which makes the chunks switch to bitmaps
+        for (int i = 0; i < 200_000; i += 2) {
+            set.set(i);
+            expected.set(i);
+        }
+        assertSameContent(set, expected, random, 200_000);
+        assertEquals(set.runCount(), 100_000);
+        assertTrue(set.sizeInBytes() < 4 * 8 * 1024 + 1024);
+
+        // Filling the holes makes them go back to runs
+        for (int i = 1; i < 200_000; i += 2) {
+            set.set(i);
+            expected.set(i);
+        }
+        assertSameContent(set, expected, random, 200_000);
+        assertEquals(set.runCount(), 1);
+        assertTrue(set.sizeInBytes() < 1024);
+
+        set.clear(0, 200_000);
+        assertTrue(set.isEmpty());
+        assertEquals(set.runCount(), 0);
+        assertEquals(set.nextSetBit(0), -1);
+    }
+
+    @Test
+    public void testRunsAcrossChunks() {
+        RoaringBitSet set = new RoaringBitSet();
+        set.set(65_000, 70_000);
+        set.set(131_072, 131_080);
+        assertEquals(set.runCount(), 2);
+        assertEquals(set.cardinality(), 5008);
+
+        // Joins the two runs through a full chunk
+        set.set(70_000, 131_072);
+        assertEquals(set.runCount(), 1);
+        assertEquals(set.nextClearBit(65_000), 131_080);
+        assertEquals(set.previousClearBit(131_079), 64_999);
+
+        // Splits it at a chunk boundary
+        set.clear(65_536);
+        assertEquals(set.runCount(), 2);
+        assertFalse(set.get(65_536));
+        assertEquals(set.previousSetBit(65_536), 65_535);
+        assertEquals(set.nextSetBit(65_536), 65_537);
+    }
+}
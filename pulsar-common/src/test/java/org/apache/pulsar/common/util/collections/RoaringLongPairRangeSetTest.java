@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPair;
+import org.apache.pulsar.common.util.collections.LongPairRangeSet.LongPairConsumer;
+import org.testng.annotations.Test;
+
+public class RoaringLongPairRangeSetTest {
+
+    static final LongPairConsumer<LongPair> consumer = (key, value) -> new LongPair(key, value);
+
+    @Test
+    public void testAddForSameKey() {
+        RoaringLongPairRangeSet<LongPair> set = new RoaringLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, -1, 0, 5);
+        set.addOpenClosed(0, 7, 0, 8);
+        set.addOpenClosed(0, 8, 0, 9);
+        set.addOpenClosed(0, 9, 0, 10);
+        set.addOpenClosed(0, 97, 0, 99);
+        set.addOpenClosed(0, 101, 0, 106);
+
+        List<Range<LongPair>> ranges = set.asRanges();
+        assertEquals(set.size(), 4);
+        int count = 0;
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, -1), new LongPair(0, 5))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, 7), new LongPair(0, 10))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, 97), new LongPair(0, 99))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, 101), new LongPair(0, 106))));
+    }
+
+    @Test
+    public void testAddForDifferentKey() {
+        RoaringLongPairRangeSet<LongPair> set = new RoaringLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, 98, 0, 99);
+        set.addOpenClosed(0, 100, 1, 5);
+        set.addOpenClosed(1, 10, 1, 15);
+        set.addOpenClosed(1, 20, 2, 10);
+
+        List<Range<LongPair>> ranges = set.asRanges();
+        assertEquals(set.size(), 4);
+        int count = 0;
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(0, 98), new LongPair(0, 99))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(1, -1), new LongPair(1, 5))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(1, 10), new LongPair(1, 15))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(2, -1), new LongPair(2, 10))));
+    }
+
+    @Test
+    public void testCompareWithConcurrentOpenSet() {
+        Random random = new Random(1);
+        RoaringLongPairRangeSet<LongPair> set = new RoaringLongPairRangeSet<>(consumer);
+        ConcurrentOpenLongPairRangeSet<LongPair> expected = new ConcurrentOpenLongPairRangeSet<>(consumer);
+
+        for (int i = 0; i < 10_000; i++) {
+            long key = random.nextInt(5);
+            long value = random.nextInt(100_000);
+            if (random.nextInt(100) == 0) {
+                set.removeAtMost(key, value);
+                expected.removeAtMost(key, value);
+            } else if (random.nextInt(100) == 0) {
+                long upperKey = key + random.nextInt(2);
+                long upperValue = random.nextInt(100_000);
+                if (upperKey != key || upperValue > value) {
+                    set.addOpenClosed(key, value, upperKey, upperValue);
+                    expected.addOpenClosed(key, value, upperKey, upperValue);
+                }
+            } else {
+                long upperValue = value + 1 + random.nextInt(random.nextBoolean() ? 2 : 50);
+                set.addOpenClosed(key, value, key, upperValue);
+                expected.addOpenClosed(key, value, key, upperValue);
+            }
+
+            if (i % 500 == 0) {
+                assertEquals(set.size(), expected.size());
+                assertEquals(set.isEmpty(), expected.isEmpty());
+                assertEquals(new ArrayList<>(set.asRanges()), new ArrayList<>(expected.asRanges()));
+                assertEquals(set.firstRange(), expected.firstRange());
+                assertEquals(set.lastRange(), expected.lastRange());
+                assertEquals(set.span(), expected.span());
+                assertEquals(set.toString(), expected.toString());
+                for (int j = 0; j < 100; j++) {
+                    key = random.nextInt(5);
+                    value = random.nextInt(100_000);
+                    assertEquals(set.contains(key, value), expected.contains(key, value));
+                    assertEquals(set.rangeContaining(key, value), expected.rangeContaining(key, value));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteWithAtMost() {
+        RoaringLongPairRangeSet<LongPair> set = new RoaringLongPairRangeSet<>(consumer);
+        set.addOpenClosed(0, 98, 0, 99);
+        set.addOpenClosed(0, 100, 1, 5);
+        set.addOpenClosed(1, 10, 1, 15);
+        set.addOpenClosed(1, 20, 2, 10);
+        set.addOpenClosed(2, 25, 2, 28);
+        set.addOpenClosed(3, 12, 3, 20);
+        set.addOpenClosed(4, 12, 4, 20);
+
+        set.removeAtMost(2, 5);
+        List<Range<LongPair>> ranges = set.asRanges();
+        assertEquals(set.size(), 4);
+        int count = 0;
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(2, 5), new LongPair(2, 10))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(2, 25), new LongPair(2, 28))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(3, 12), new LongPair(3, 20))));
+        assertEquals(ranges.get(count++), (Range.openClosed(new LongPair(4, 12), new LongPair(4, 20))));
+
+        set.removeAtMost(5, 0);
+        assertTrue(set.isEmpty());
+        assertEquals(set.size(), 0);
+        assertNull(set.firstRange());
+        assertNull(set.lastRange());
+        assertNull(set.span());
+        assertEquals(set.toString(), "[]");
+    }
+
+    @Test
+    public void testSparseHolesOverLargeValues() {
+        RoaringLongPairRangeSet<LongPair> set = new RoaringLongPairRangeSet<>(consumer);
+        for (int i = 0; i < 1000; i++) {
+            set.addOpenClosed(1, 1_000_000L * i, 1, 1_000_000L * i + 1);
+        }
+        assertEquals(set.size(), 1000);
+        // A bitmap indexed by value would take over 100 MB here
+        assertTrue(set.sizeInBytes() < 100 * 1024);
+        assertEquals(set.rangeContaining(1, 5_000_001),
+                Range.closed(new LongPair(1, 5_000_001), new LongPair(1, 5_000_001)));
+    }
+}
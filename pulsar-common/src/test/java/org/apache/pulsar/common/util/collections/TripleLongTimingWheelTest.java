@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.pulsar.common.util.collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class TripleLongTimingWheelTest {
+
+    @Test
+    public void testWheel() {
+        TripleLongTimingWheel wheel = new TripleLongTimingWheel(10, 4, 0);
+        assertTrue(wheel.isEmpty());
+        assertEquals(wheel.nextExpiration(), Long.MAX_VALUE);
+
+        // Items in the current tick are ready right away
+        wheel.add(5, 1, 1);
+        assertEquals(wheel.readySize(), 1);
+
+        // Items of the first level, and of the upper levels
+        wheel.add(25, 2, 2);
+        wheel.add(15, 3, 3);
+        wheel.add(155, 4, 4);
+        wheel.add(1000, 5, 5);
+        assertEquals(wheel.size(), 5);
+        assertEquals(wheel.nextExpiration(), 10);
+
+        assertEquals(wheel.peekN1(), 5);
+        assertEquals(wheel.peekN2(), 1);
+        assertEquals(wheel.peekN3(), 1);
+        wheel.pop();
+        assertEquals(wheel.readySize(), 0);
+        assertEquals(wheel.size(), 4);
+
+        wheel.advance(9);
+        assertEquals(wheel.readySize(), 0);
+
+        wheel.advance(10);
+        assertEquals(wheel.readySize(), 1);
+        assertEquals(wheel.peekN2(), 3);
+        wheel.pop();
+        assertEquals(wheel.nextExpiration(), 20);
+
+        // The whole tick of the item is made ready
+        wheel.advance(20);
+        assertEquals(wheel.readySize(), 1);
+        assertEquals(wheel.peekN1(), 25);
+        wheel.pop();
+
+        wheel.advance(149);
+        assertEquals(wheel.readySize(), 0);
+        wheel.advance(150);
+        assertEquals(wheel.readySize(), 1);
+        assertEquals(wheel.peekN2(), 4);
+        wheel.pop();
+
+        wheel.advance(990);
+        assertEquals(wheel.readySize(), 0);
+        wheel.advance(1000);
+        assertEquals(wheel.readySize(), 1);
+        assertEquals(wheel.peekN2(), 5);
+        wheel.pop();
+
+        assertTrue(wheel.isEmpty());
+        assertEquals(wheel.nextExpiration(), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testCheckForEmpty() {
+        TripleLongTimingWheel wheel = new TripleLongTimingWheel(10, 4, 0);
+        wheel.add(100, 1, 1);
+
+        try {
+            wheel.peekN1();
+            fail("Should fail");
+        } catch (IllegalArgumentException e) {
+            // Ok
+        }
+
+        try {
+            wheel.pop();
+            fail("Should fail");
+        } catch (IllegalArgumentException e) {
+            // Ok
+        }
+    }
+
+    @Test
+    public void testRandomTimes() {
+        final int tick = 7;
+        final int n = 10000;
+        Random random = new Random(1);
+        long now = 1000;
+        TripleLongTimingWheel wheel = new TripleLongTimingWheel(tick, 16, now);
+
+        List<Long> expected = new ArrayList<>();
+        List<Long> received = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            long time = now + tick + random.nextInt(100000);
+            wheel.add(time, i, time);
+            expected.add(time);
+
+            // Move the time forward while adding
+            if (i % 10 == 0) {
+                now += random.nextInt(50);
+                wheel.advance(now);
+                drain(wheel, now, tick, received);
+            }
+        }
+        assertEquals(wheel.size(), n - received.size());
+
+        while (!wheel.isEmpty()) {
+            now += random.nextInt(1000);
+            wheel.advance(now);
+            drain(wheel, now, tick, received);
+        }
+
+        Collections.sort(expected);
+        Collections.sort(received);
+        assertEquals(received, expected);
+        assertFalse(wheel.readySize() > 0);
+    }
+
+    @Test
+    public void testMaxTime() {
+        long now = 1000;
+        TripleLongTimingWheel wheel = new TripleLongTimingWheel(1000, 512, now);
+
+        wheel.add(Long.MAX_VALUE, 1, 1);
+        wheel.add(now + 5000, 2, 2);
+        assertEquals(wheel.size(), 2);
+
+        wheel.advance(now + 5000);
+        assertEquals(wheel.readySize(), 1);
+        assertEquals(wheel.peekN2(), 2);
+        wheel.pop();
+        assertEquals(wheel.size(), 1);
+        assertTrue(wheel.nextExpiration() > now + 5000);
+        assertTrue(wheel.nextExpiration() < Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testBeyondTopLevel() {
+        // The top level spans 2^60, no level can be added above it
+        long tick = 1L << 40;
+        TripleLongTimingWheel wheel = new TripleLongTimingWheel(tick, 1024, 0);
+
+        long time = (1L << 61) + 5;
+        wheel.add(time, 1, 1);
+        wheel.add(tick, 2, 2);
+        assertEquals(wheel.size(), 2);
+        assertEquals(wheel.nextExpiration(), tick);
+
+        wheel.advance(tick);
+        assertEquals(wheel.readySize(), 1);
+        assertEquals(wheel.peekN2(), 2);
+        wheel.pop();
+
+        // The item is added again to the wheel once the top level covers it, and is ready on its tick
+        wheel.advance(time - time % tick - 1);
+        assertEquals(wheel.readySize(), 0);
+        assertEquals(wheel.size(), 1);
+        wheel.advance(time - time % tick);
+        assertEquals(wheel.readySize(), 1);
+        assertEquals(wheel.peekN1(), time);
+        wheel.pop();
+        assertTrue(wheel.isEmpty());
+        assertEquals(wheel.nextExpiration(), Long.MAX_VALUE);
+    }
+
+    private static void drain(TripleLongTimingWheel wheel, long now, int tick, List<Long> received) {
+        // Items are never ready after their tick
+        assertTrue(wheel.nextExpiration() > now);
+        while (wheel.readySize() > 0) {
+            // Items are never ready more than one tick before their time
+            assertTrue(wheel.peekN1() < now + tick, wheel.peekN1() + " ready at " + now);
+            assertEquals(wheel.peekN3(), wheel.peekN1());
+            received.add(wheel.peekN1());
+            wheel.pop();
+        }
+    }
+}